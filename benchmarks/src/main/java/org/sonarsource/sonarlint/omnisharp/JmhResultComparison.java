@@ -0,0 +1,152 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.annotation.CheckForNull;
+
+/**
+ * Compares the JSON results of two JMH runs, and writes a Markdown table of the changes of score and of allocations per operation. Changes worse than the
+ * tolerance are also reported as GitHub workflow warnings on the standard output. Shared runners are noisy, so they don't fail the build.
+ * <p>
+ * Usage: <code>JmhResultComparison &lt;previous.json&gt; &lt;current.json&gt; &lt;report.md&gt; [tolerance]</code>
+ */
+public class JmhResultComparison {
+
+  static final double DEFAULT_TOLERANCE = 0.2;
+  private static final String ALLOCATIONS_METRIC = "gc.alloc.rate.norm";
+
+  private JmhResultComparison() {
+    // Only static methods
+  }
+
+  static class Result {
+    private final String mode;
+    private final double score;
+    private final String unit;
+    private final double allocatedBytes;
+
+    Result(String mode, double score, String unit, double allocatedBytes) {
+      this.mode = mode;
+      this.score = score;
+      this.unit = unit;
+      this.allocatedBytes = allocatedBytes;
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 3) {
+      throw new IllegalArgumentException("Usage: JmhResultComparison <previous.json> <current.json> <report.md> [tolerance]");
+    }
+    var tolerance = args.length > 3 ? Double.parseDouble(args[3]) : DEFAULT_TOLERANCE;
+    var previous = read(Paths.get(args[0]));
+    var current = read(Paths.get(args[1]));
+    try (var report = new PrintStream(Files.newOutputStream(Paths.get(args[2])), true, StandardCharsets.UTF_8)) {
+      compare(previous, current, tolerance, report, System.out);
+    }
+  }
+
+  static Map<String, Result> read(Path jmhResult) throws IOException {
+    Map<String, Result> results = new TreeMap<>();
+    for (JsonElement element : JsonParser.parseString(Files.readString(jmhResult, StandardCharsets.UTF_8)).getAsJsonArray()) {
+      var benchmark = element.getAsJsonObject();
+      var primaryMetric = benchmark.getAsJsonObject("primaryMetric");
+      results.put(key(benchmark), new Result(benchmark.get("mode").getAsString(), primaryMetric.get("score").getAsDouble(),
+        primaryMetric.get("scoreUnit").getAsString(), allocatedBytes(benchmark)));
+    }
+    return results;
+  }
+
+  private static String key(JsonObject benchmark) {
+    var name = benchmark.get("benchmark").getAsString();
+    var params = benchmark.getAsJsonObject("params");
+    if (params == null || params.size() == 0) {
+      return name;
+    }
+    Map<String, String> sortedParams = new TreeMap<>();
+    params.entrySet().forEach(p -> sortedParams.put(p.getKey(), p.getValue().getAsString()));
+    return name + sortedParams;
+  }
+
+  /**
+   * The name of the metric of the GC profiler depends on the JMH version
+   */
+  private static double allocatedBytes(JsonObject benchmark) {
+    var secondaryMetrics = benchmark.getAsJsonObject("secondaryMetrics");
+    if (secondaryMetrics != null) {
+      for (var metric : secondaryMetrics.entrySet()) {
+        if (metric.getKey().endsWith(ALLOCATIONS_METRIC)) {
+          return metric.getValue().getAsJsonObject().get("score").getAsDouble();
+        }
+      }
+    }
+    return Double.NaN;
+  }
+
+  static void compare(Map<String, Result> previous, Map<String, Result> current, double tolerance, PrintStream report, PrintStream warnings) {
+    report.println("| Benchmark | Previous | Current | Change | Allocated B/op |");
+    report.println("|---|---:|---:|---:|---:|");
+    Map<String, Double> regressions = new LinkedHashMap<>();
+    for (var entry : current.entrySet()) {
+      var before = previous.get(entry.getKey());
+      var after = entry.getValue();
+      var comparable = before != null && before.score != 0 && before.mode.equals(after.mode) && before.unit.equals(after.unit);
+      var change = "-";
+      if (comparable) {
+        var relativeChange = (after.score - before.score) / before.score;
+        // Throughput is better when higher, other modes measure time, which is better when lower
+        var regression = "thrpt".equals(after.mode) ? -relativeChange : relativeChange;
+        change = String.format(Locale.ENGLISH, "%+.1f%%", relativeChange * 100);
+        if (regression > tolerance) {
+          regressions.put(entry.getKey(), regression);
+          change += " (regression)";
+        }
+      }
+      report.printf(Locale.ENGLISH, "| %s | %s | %.2f %s | %s | %s |%n", entry.getKey(), before != null ? String.format(Locale.ENGLISH, "%.2f", before.score) : "-",
+        after.score, after.unit, change, allocations(before, after));
+    }
+    for (var regression : regressions.entrySet()) {
+      warnings.printf(Locale.ENGLISH, "::warning::%s is %.1f%% worse than in the previous run%n", regression.getKey(), regression.getValue() * 100);
+    }
+  }
+
+  private static String allocations(@CheckForNull Result before, Result after) {
+    if (Double.isNaN(after.allocatedBytes)) {
+      return "-";
+    }
+    if (before == null || Double.isNaN(before.allocatedBytes)) {
+      return String.format(Locale.ENGLISH, "%.0f", after.allocatedBytes);
+    }
+    return String.format(Locale.ENGLISH, "%.0f -> %.0f", before.allocatedBytes, after.allocatedBytes);
+  }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.TestInputFileBuilder;
+import org.sonar.api.batch.rule.ActiveRules;
+import org.sonar.api.batch.rule.internal.ActiveRulesBuilder;
+import org.sonar.api.batch.rule.internal.NewActiveRule;
+import org.sonar.api.batch.sensor.internal.SensorContextTester;
+import org.sonar.api.rule.RuleKey;
+import org.sonarsource.sonarlint.omnisharp.protocol.BenchmarkAccess;
+import org.sonarsource.sonarlint.omnisharp.protocol.Diagnostic;
+import org.sonarsource.sonarlint.omnisharp.protocol.ResponseCorpus;
+
+/**
+ * Cost of converting the issues of a file into SonarLint issues, with their secondary locations and quick fixes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class OmnisharpSensorBenchmark {
+
+  @Param({"SMALL", "MEDIUM", "LARGE", "QUICK_FIXES"})
+  ResponseCorpus corpus;
+
+  private Path dir;
+  private Path file;
+  private InputFile inputFile;
+  private ActiveRules activeRules;
+  private List<Diagnostic> diagnostics;
+  private SensorContextTester context;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    dir = Files.createTempDirectory("omnisharp-benchmark");
+    file = ResponseCorpus.createSourceFile(dir);
+    inputFile = TestInputFileBuilder.create("", "Foo.cs")
+      .setModuleBaseDir(dir)
+      .setLanguage(OmnisharpPluginConstants.LANGUAGE_KEY)
+      .setCharset(StandardCharsets.UTF_8)
+      .initMetadata(Files.readString(file, StandardCharsets.UTF_8))
+      .build();
+    diagnostics = corpus.diagnostics(file);
+    var rules = new ActiveRulesBuilder();
+    diagnostics.stream().map(Diagnostic::getId).distinct()
+      .forEach(id -> rules.addRule(new NewActiveRule.Builder().setRuleKey(RuleKey.of(OmnisharpPluginConstants.REPOSITORY_KEY, id)).build()));
+    activeRules = rules.build();
+  }
+
+  /**
+   * The test context keeps all issues in memory, so start from a fresh one for each file
+   */
+  @Setup(Level.Invocation)
+  public void newContext() {
+    context = SensorContextTester.create(dir);
+    context.fileSystem().add(inputFile);
+    context.setActiveRules(activeRules);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(file);
+    Files.deleteIfExists(dir);
+  }
+
+  @Benchmark
+  public SensorContextTester convertIssues() {
+    for (var diagnostic : diagnostics) {
+      BenchmarkAccess.convertIssue(context, diagnostic);
+    }
+    return context;
+  }
+
+}
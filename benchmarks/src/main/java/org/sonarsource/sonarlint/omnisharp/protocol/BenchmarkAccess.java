@@ -0,0 +1,123 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp.protocol;
+
+import com.google.gson.JsonElement;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.List;
+import org.sonar.api.batch.sensor.SensorContext;
+import org.sonarsource.sonarlint.omnisharp.OmnisharpSensor;
+
+import static java.lang.invoke.MethodType.methodType;
+
+/**
+ * Private entry points of the plugin called by the benchmarks, so that the plugin doesn't widen their visibility for them. Method handles are resolved once
+ * and kept in constants, which the JIT inlines like direct calls.
+ */
+public final class BenchmarkAccess {
+
+  private static final MethodHandle SENSOR_HANDLE;
+  private static final MethodHandle BUILD_REQUEST_PAYLOAD;
+  private static final MethodHandle NEW_CODE_CHECK_BODY;
+  private static final MethodHandle CODE_CHECK_BODY_DIAGNOSTICS;
+
+  static {
+    try {
+      var sensorLookup = MethodHandles.privateLookupIn(OmnisharpSensor.class, MethodHandles.lookup());
+      SENSOR_HANDLE = sensorLookup.findStatic(OmnisharpSensor.class, "handle", methodType(void.class, SensorContext.class, Diagnostic.class));
+
+      var endpointsLookup = MethodHandles.privateLookupIn(OmnisharpEndpoints.class, MethodHandles.lookup());
+      var requestClass = Class.forName(OmnisharpEndpoints.class.getName() + "$OmnisharpRequest");
+      var buildRequest = endpointsLookup.findStatic(OmnisharpEndpoints.class, "buildRequest", methodType(requestClass, String.class, JsonElement.class, long.class));
+      var getJsonPayload = endpointsLookup.findVirtual(requestClass, "getJsonPayload", methodType(String.class));
+      BUILD_REQUEST_PAYLOAD = MethodHandles.filterReturnValue(buildRequest, getJsonPayload);
+
+      var bodyClass = Class.forName(OmnisharpEndpoints.class.getName() + "$CodeCheckBody");
+      var bodyLookup = MethodHandles.privateLookupIn(bodyClass, MethodHandles.lookup());
+      NEW_CODE_CHECK_BODY = bodyLookup.findConstructor(bodyClass, methodType(void.class, int.class))
+        .asType(methodType(OmnisharpResponseProcessor.BodyReader.class, int.class));
+      CODE_CHECK_BODY_DIAGNOSTICS = bodyLookup.findGetter(bodyClass, "diagnostics", List.class)
+        .asType(methodType(List.class, OmnisharpResponseProcessor.BodyReader.class));
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private BenchmarkAccess() {
+    // Only static methods
+  }
+
+  /**
+   * Converts an issue into a SonarLint issue, see <code>OmnisharpSensor#handle</code>
+   */
+  public static void convertIssue(SensorContext context, Diagnostic diag) {
+    try {
+      SENSOR_HANDLE.invokeExact(context, diag);
+    } catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  /**
+   * @return the request written on OmniSharp standard input, see <code>OmnisharpEndpoints#buildRequest</code>
+   */
+  static String buildRequest(String command, JsonElement args, long id) {
+    try {
+      return (String) BUILD_REQUEST_PAYLOAD.invokeExact(command, args, id);
+    } catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  /**
+   * @return the reader decoding issues of <code>/sonarlint/codecheck</code> responses, as used by {@link OmnisharpEndpoints#codeCheck}
+   */
+  static OmnisharpResponseProcessor.BodyReader newCodeCheckBody(int maxIssues) {
+    try {
+      return (OmnisharpResponseProcessor.BodyReader) NEW_CODE_CHECK_BODY.invokeExact(maxIssues);
+    } catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  /**
+   * @return the issues decoded by a reader created with {@link #newCodeCheckBody(int)}
+   */
+  @SuppressWarnings("unchecked")
+  static List<Diagnostic> diagnostics(OmnisharpResponseProcessor.BodyReader codeCheckBody) {
+    try {
+      return (List<Diagnostic>) CODE_CHECK_BODY_DIAGNOSTICS.invokeExact(codeCheckBody);
+    } catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  private static RuntimeException rethrow(Throwable e) {
+    if (e instanceof RuntimeException) {
+      return (RuntimeException) e;
+    }
+    if (e instanceof Error) {
+      throw (Error) e;
+    }
+    return new IllegalStateException(e);
+  }
+
+}
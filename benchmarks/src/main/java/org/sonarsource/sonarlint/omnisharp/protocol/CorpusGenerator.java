@@ -0,0 +1,243 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp.protocol;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * Generates the issues of a legacy C# file, as reported by SonarC# and the compiler: rules, messages, secondary locations and quick fixes are the ones of
+ * real issues, with random identifiers and locations so that every issue is distinct. The generator is seeded, so that all runs benchmark the same issues
+ * and their results can be compared.
+ */
+class CorpusGenerator {
+
+  private static final String PROJECT = "LegacyApp";
+  private static final String[] CLASSES = {"Program", "CacheManager", "LegacyParser", "InvoiceRepository", "CustomerController"};
+  private static final String[] METHODS = {"Process", "Handle", "Validate", "Compute", "LoadOrders", "SaveInvoice", "BuildReport", "ParseHeader", "TryConnect",
+    "GetCustomerById", "ApplyDiscount", "UpdateCache", "Refresh", "Dispose", "OnTimerElapsed"};
+  private static final String[] VARIABLES = {"buffer", "total", "retries", "response", "handler", "customer", "invoice", "order", "request", "item", "context",
+    "index", "offset", "count", "options", "timeout", "value", "builder", "result", "reader"};
+  private static final String[] PROPERTIES = {"Value", "Invoice", "Handler", "Retries", "Customer", "Options", "Timeout", "Reader"};
+  private static final String[] QUICK_FIX_MESSAGES = {"Remove unused parameter", "Add 'protected' constructor", "Add 'static' keyword", "Make the parameter optional",
+    "Make static", "Remove unused variable"};
+  private static final int MAX_QUICK_FIXES = 3;
+  private static final int MAX_EDITS = 4;
+  private static final int MAX_NESTING_LOCATIONS = 12;
+
+  private enum Rule {
+    S107("Warning", g -> "Method has " + g.between(8, 14) + " parameters, which is greater than the 7 authorized."),
+    S108("Warning", g -> "Either remove or fill this block of code."),
+    S125("Warning", g -> "Remove this commented out code."),
+    S138("Warning", g -> "This method '" + g.pick(METHODS) + "' has " + g.between(81, 400) + " lines, which is greater than the 80 lines authorized. "
+      + "Split it into smaller methods."),
+    S1066("Warning", g -> "Merge this if statement with the enclosing one."),
+    S1118("Warning", g -> "Add a 'protected' constructor or the 'static' keyword to the class declaration."),
+    S1135("Warning", g -> "Complete the task associated to this 'TODO' comment."),
+    S1144("Warning", g -> "Remove the unused private method '" + g.pick(METHODS) + "'."),
+    S1172("Warning", g -> "Remove this unused method parameter '" + g.pick(VARIABLES) + "'."),
+    S1450("Warning", g -> "Remove the field '" + g.pick(VARIABLES) + "' and declare it as a local variable in the relevant methods."),
+    S1481("Warning", g -> "Remove the unused local variable '" + g.pick(VARIABLES) + "'."),
+    S1643("Warning", g -> "Use a StringBuilder instead."),
+    S1854("Warning", g -> "Remove this useless assignment to local variable '" + g.pick(VARIABLES) + "'."),
+    S1871("Warning", g -> "Either merge this branch with the identical one on line " + g.line() + " or change one of the implementations."),
+    S2325("Warning", g -> "Make '" + g.pick(METHODS) + "' a static method."),
+    S2486("Warning", g -> "Handle the exception or explain in a comment why it can be ignored."),
+    S2933("Warning", g -> "Make '" + g.pick(VARIABLES) + "' 'readonly'."),
+    S3241("Warning", g -> "Change return type to 'void'; not a single caller uses the returned value."),
+    S3358("Warning", g -> "Extract this nested ternary operation into an independent statement."),
+    S3776("Warning", g -> "Refactor this method to reduce its Cognitive Complexity from " + g.between(16, 60) + " to the 15 allowed."),
+    S3925("Warning", g -> "Update this implementation of 'ISerializable' to conform to the recommended serialization pattern."),
+    S4136("Warning", g -> "All '" + g.pick(METHODS) + "' method overloads should be adjacent."),
+    S4144("Warning", g -> "Update this method so that its implementation is not identical to '" + g.pick(METHODS) + "'."),
+    CS0168("Warning", g -> "The variable '" + g.pick(VARIABLES) + "' is declared but never used"),
+    CS0618("Warning", g -> "'" + g.pick(CLASSES) + "." + g.pick(METHODS) + "()' is obsolete: 'Use the async overload instead'"),
+    CS8618("Warning", g -> "Non-nullable property '" + g.pick(PROPERTIES) + "' must contain a non-null value when exiting constructor. "
+      + "Consider declaring the property as nullable."),
+    IDE0051("Info", g -> "Private member '" + g.pick(CLASSES) + "." + g.pick(METHODS) + "' is unused"),
+    IDE0060("Info", g -> "Remove unused parameter '" + g.pick(VARIABLES) + "'");
+
+    private final String level;
+    private final Function<CorpusGenerator, String> message;
+
+    Rule(String level, Function<CorpusGenerator, String> message) {
+      this.level = level;
+      this.message = message;
+    }
+
+    boolean isSonarRule() {
+      return name().startsWith("S");
+    }
+  }
+
+  private final Random random;
+  private final String fileName;
+  private final int lines;
+  private final int columns;
+
+  CorpusGenerator(long seed, String fileName, int lines, int columns) {
+    this.random = new Random(seed);
+    this.fileName = fileName;
+    this.lines = lines;
+    this.columns = columns;
+  }
+
+  /**
+   * @param quickFixRatio share of the issues having quick fixes
+   */
+  JsonArray issues(int count, double quickFixRatio) {
+    var issues = new JsonArray();
+    for (int i = 0; i < count; i++) {
+      issues.add(issue(random.nextDouble() < quickFixRatio));
+    }
+    return issues;
+  }
+
+  private JsonObject issue(boolean withQuickFixes) {
+    var rule = pick(Rule.values());
+    var issue = new JsonObject();
+    int line = line();
+    if (withQuickFixes) {
+      issue.add("QuickFixes", quickFixes(line));
+    }
+    // Only SonarC# rules report secondary locations, possibly none
+    if (rule.isSonarRule()) {
+      issue.add("AdditionalLocations", additionalLocations(rule, line));
+    }
+    issue.addProperty("LogLevel", rule.level);
+    issue.addProperty("Id", rule.name());
+    issue.add("Tags", new JsonArray());
+    addLocation(issue, line);
+    issue.addProperty("Text", rule.message.apply(this));
+    var projects = new JsonArray();
+    projects.add(PROJECT);
+    issue.add("Projects", projects);
+    return issue;
+  }
+
+  private JsonArray additionalLocations(Rule rule, int line) {
+    var locations = new JsonArray();
+    switch (rule) {
+      case S3776:
+        int nesting = 0;
+        for (int i = 1, count = between(1, MAX_NESTING_LOCATIONS); i <= count; i++) {
+          locations.add(additionalLocation(Math.min(lines, line + i), "+" + (nesting + 1) + " (incl " + nesting + " for nesting)"));
+          nesting = random.nextBoolean() ? nesting + 1 : nesting;
+        }
+        break;
+      case S1066:
+        locations.add(additionalLocation(Math.max(1, line - 1), "Merged if statement."));
+        break;
+      case S1871:
+        locations.add(additionalLocation(line(), "Original"));
+        break;
+      default:
+        break;
+    }
+    return locations;
+  }
+
+  private JsonObject additionalLocation(int line, String text) {
+    var location = new JsonObject();
+    addLocation(location, line);
+    location.addProperty("Text", text);
+    return location;
+  }
+
+  private void addLocation(JsonObject json, int line) {
+    json.addProperty("FileName", fileName);
+    json.addProperty("Line", line);
+    int column = between(1, columns - 20);
+    json.addProperty("Column", column);
+    // Most issues are on a single line
+    if (random.nextInt(10) < 8) {
+      json.addProperty("EndLine", line);
+      json.addProperty("EndColumn", between(column + 1, columns - 1));
+    } else {
+      json.addProperty("EndLine", Math.min(lines, line + between(1, 5)));
+      json.addProperty("EndColumn", between(1, columns - 1));
+    }
+  }
+
+  private JsonArray quickFixes(int line) {
+    var quickFixes = new JsonArray();
+    for (int i = 0, count = between(1, MAX_QUICK_FIXES); i < count; i++) {
+      var edits = new JsonArray();
+      for (int j = 0, editCount = between(1, MAX_EDITS); j < editCount; j++) {
+        edits.add(edit(Math.max(1, Math.min(lines, line + between(-2, 2)))));
+      }
+      var fix = new JsonObject();
+      fix.addProperty("FileName", fileName);
+      fix.add("Edits", edits);
+      var fixes = new JsonArray();
+      fixes.add(fix);
+      var quickFix = new JsonObject();
+      quickFix.addProperty("Message", pick(QUICK_FIX_MESSAGES));
+      quickFix.add("Fixes", fixes);
+      quickFixes.add(quickFix);
+    }
+    return quickFixes;
+  }
+
+  private JsonObject edit(int line) {
+    var edit = new JsonObject();
+    int column = between(1, columns - 20);
+    edit.addProperty("StartLine", line);
+    edit.addProperty("StartColumn", column);
+    edit.addProperty("EndLine", line);
+    edit.addProperty("EndColumn", between(column + 1, columns - 1));
+    edit.addProperty("NewText", newText());
+    return edit;
+  }
+
+  private String newText() {
+    switch (random.nextInt(5)) {
+      case 0:
+        return "";
+      case 1:
+        return "static ";
+      case 2:
+        return "readonly ";
+      case 3:
+        return "int " + pick(VARIABLES) + " = 0";
+      default:
+        var args = new StringBuilder();
+        for (int i = 0, count = between(0, 3); i < count; i++) {
+          args.append(i == 0 ? "" : ", ").append(pick(VARIABLES));
+        }
+        return pick(METHODS) + "(" + args + ")";
+    }
+  }
+
+  private int line() {
+    return between(1, lines);
+  }
+
+  private int between(int min, int max) {
+    return min + random.nextInt(max - min + 1);
+  }
+
+  private <T> T pick(T[] values) {
+    return values[random.nextInt(values.length)];
+  }
+
+}
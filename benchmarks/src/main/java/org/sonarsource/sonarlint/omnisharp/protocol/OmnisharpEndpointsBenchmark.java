@@ -0,0 +1,138 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp.protocol;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sonarsource.sonarlint.omnisharp.OmnisharpExecutors;
+import org.sonarsource.sonarlint.omnisharp.OmnisharpMetrics;
+import org.sonarsource.sonarlint.omnisharp.ProjectLoadTracker;
+import org.sonarsource.sonarlint.omnisharp.StartupReport;
+
+/**
+ * Cost of building the requests sent for each analyzed file, and of decoding the issues of <code>/sonarlint/codecheck</code> responses.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class OmnisharpEndpointsBenchmark {
+
+  private final OmnisharpExecutors executors = new OmnisharpExecutors();
+  private final OmnisharpResponseProcessor processor = new OmnisharpResponseProcessor(new OmnisharpMetrics(), executors);
+  private final CompletableFuture<Void> startFuture = new CompletableFuture<>();
+  private final CompletableFuture<Void> loadProjectsFuture = new CompletableFuture<>();
+  private final StartupReport startupReport = new StartupReport();
+  private final ProjectLoadTracker projectLoadTracker = new ProjectLoadTracker(executors.scheduler(), Duration.ofMinutes(1));
+  private Path dir;
+  private Path file;
+  private String buffer;
+  private long requestSeq;
+
+  @State(Scope.Thread)
+  public static class CodeCheckResponse {
+    @Param({"SMALL", "MEDIUM", "LARGE", "QUICK_FIXES"})
+    ResponseCorpus corpus;
+
+    String line;
+
+    @Setup(Level.Trial)
+    public void setup(OmnisharpEndpointsBenchmark benchmark) {
+      line = corpus.codeCheckResponse(1, benchmark.file);
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    dir = Files.createTempDirectory("omnisharp-benchmark");
+    file = ResponseCorpus.createSourceFile(dir);
+    buffer = Files.readString(file, StandardCharsets.UTF_8);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(file);
+    Files.deleteIfExists(dir);
+    executors.stop();
+  }
+
+  @Benchmark
+  public String buildCodeCheckRequest() {
+    var args = new JsonObject();
+    args.addProperty("FileName", file.toString());
+    return BenchmarkAccess.buildRequest("/sonarlint/codecheck", args, ++requestSeq);
+  }
+
+  @Benchmark
+  public String buildUpdateBufferRequest() {
+    var args = new JsonObject();
+    args.addProperty("FileName", file.toString());
+    args.addProperty("Buffer", buffer);
+    return BenchmarkAccess.buildRequest("/updatebuffer", args, ++requestSeq);
+  }
+
+  /**
+   * Issues are decoded one by one while reading the response, as done by {@link OmnisharpEndpoints#codeCheck}
+   */
+  @Benchmark
+  public List<Diagnostic> decodeCodeCheckResponse(CodeCheckResponse response) {
+    var body = BenchmarkAccess.newCodeCheckBody(OmnisharpEndpoints.DEFAULT_MAX_ISSUES_PER_FILE);
+    processor.registerResponseHandler(1, body);
+    processor.handleOmnisharpOutput(startFuture, loadProjectsFuture, startupReport, projectLoadTracker, response.line);
+    processor.removeResponseHandler(1);
+    return BenchmarkAccess.diagnostics(body);
+  }
+
+  /**
+   * Baseline: the whole response is decoded as a tree, then converted
+   */
+  @Benchmark
+  public Diagnostic[] decodeCodeCheckResponseAsTree(CodeCheckResponse response) {
+    var handler = processor.registerResponseHandler(1);
+    processor.handleOmnisharpOutput(startFuture, loadProjectsFuture, startupReport, projectLoadTracker, response.line);
+    processor.removeResponseHandler(1);
+    var issues = handler.response.getAsJsonObject("Body").getAsJsonArray("QuickFixes");
+    return new Gson().fromJson(issues, Diagnostic[].class);
+  }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp.protocol;
+
+import com.google.gson.JsonObject;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sonarsource.sonarlint.omnisharp.OmnisharpExecutors;
+import org.sonarsource.sonarlint.omnisharp.OmnisharpMetrics;
+import org.sonarsource.sonarlint.omnisharp.ProjectLoadTracker;
+import org.sonarsource.sonarlint.omnisharp.StartupReport;
+
+/**
+ * Cost of {@link OmnisharpResponseProcessor#handleOmnisharpOutput}, on the thread reading the output of all OmniSharp processes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class OmnisharpResponseProcessorBenchmark {
+
+  private static final String LOG_EVENT = "{\"Event\":\"log\",\"Body\":{\"LogLevel\":\"DEBUG\",\"Name\":\"OmniSharp.MSBuild.ProjectManager\","
+    + "\"Message\":\"Queue project update for '/home/user/Projects/ConsoleApp1/ConsoleApp1.csproj'\"},\"Seq\":12,\"Type\":\"event\"}";
+  private static final String PUSHED_DIAGNOSTICS_EVENT = "{\"Event\":\"Diagnostic\",\"Body\":{\"Results\":[{\"FileName\":\"/home/user/Projects/ConsoleApp1/Program.cs\","
+    + "\"QuickFixes\":[{\"LogLevel\":\"Hidden\",\"Id\":\"CS8019\",\"Tags\":[\"Unnecessary\"],\"FileName\":\"/home/user/Projects/ConsoleApp1/Program.cs\",\"Line\":1,"
+    + "\"Column\":1,\"EndLine\":1,\"EndColumn\":14,\"Text\":\"Unnecessary using directive.\",\"Projects\":[\"ConsoleApp1\"]}]}]},\"Seq\":13,\"Type\":\"event\"}";
+
+  private final OmnisharpExecutors executors = new OmnisharpExecutors();
+  private final OmnisharpResponseProcessor processor = new OmnisharpResponseProcessor(new OmnisharpMetrics(), executors);
+  private final CompletableFuture<Void> startFuture = new CompletableFuture<>();
+  private final CompletableFuture<Void> loadProjectsFuture = new CompletableFuture<>();
+  private final StartupReport startupReport = new StartupReport();
+  private final ProjectLoadTracker projectLoadTracker = new ProjectLoadTracker(executors.scheduler(), Duration.ofMinutes(1));
+
+  @State(Scope.Thread)
+  public static class CodeCheckResponse {
+    @Param({"SMALL", "MEDIUM", "LARGE", "QUICK_FIXES"})
+    ResponseCorpus corpus;
+
+    Path dir;
+    String line;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+      dir = Files.createTempDirectory("omnisharp-benchmark");
+      line = corpus.codeCheckResponse(1, ResponseCorpus.createSourceFile(dir));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+      Files.deleteIfExists(dir.resolve("Foo.cs"));
+      Files.deleteIfExists(dir);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    executors.stop();
+  }
+
+  @Benchmark
+  public JsonObject dispatchResponse(CodeCheckResponse response) {
+    var handler = processor.registerResponseHandler(1);
+    processor.handleOmnisharpOutput(startFuture, loadProjectsFuture, startupReport, projectLoadTracker, response.line);
+    processor.removeResponseHandler(1);
+    return handler.response;
+  }
+
+  /**
+   * Most of the output of a verbose server
+   */
+  @Benchmark
+  public void skipLogEvent() {
+    processor.handleOmnisharpOutput(startFuture, loadProjectsFuture, startupReport, projectLoadTracker, LOG_EVENT);
+  }
+
+  @Benchmark
+  public void ignorePushedDiagnostics() {
+    processor.handleOmnisharpOutput(startFuture, loadProjectsFuture, startupReport, projectLoadTracker, PUSHED_DIAGNOSTICS_EVENT);
+  }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp.protocol;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <code>/sonarlint/codecheck</code> responses of various sizes, in the format written by OmniSharp. Issues are built by {@link CorpusGenerator} when the
+ * benchmark is set up, each corpus with its own seed, so that the same responses are used by all runs.
+ */
+public enum ResponseCorpus {
+
+  /**
+   * A small file with a few issues, the most common case when editing
+   */
+  SMALL(3, 0),
+  /**
+   * A typical file of a legacy code base, with less than a hundred issues
+   */
+  MEDIUM(85, 0),
+  /**
+   * A large legacy file with about a thousand issues, a few of them having quick fixes
+   */
+  LARGE(1_000, 0.04),
+  /**
+   * Issues having up to three quick fixes, each of them with up to four edits
+   */
+  QUICK_FIXES(300, 1);
+
+  static final int SOURCE_FILE_LINES = 500;
+  private static final int SOURCE_FILE_COLUMNS = 100;
+  private static final long OMNISHARP_SEQ = 1_000;
+
+  private final int issueCount;
+  private final double quickFixRatio;
+
+  ResponseCorpus(int issueCount, double quickFixRatio) {
+    this.issueCount = issueCount;
+    this.quickFixRatio = quickFixRatio;
+  }
+
+  /**
+   * @return the response to the given request, on a single line, as written by OmniSharp
+   */
+  public String codeCheckResponse(long requestSeq, Path file) {
+    var generator = new CorpusGenerator(name().hashCode(), file.toAbsolutePath().toString(), SOURCE_FILE_LINES, SOURCE_FILE_COLUMNS);
+    var body = new JsonObject();
+    body.add("QuickFixes", generator.issues(issueCount, quickFixRatio));
+    var response = new JsonObject();
+    response.addProperty("Request_seq", requestSeq);
+    response.addProperty("Command", "/sonarlint/codecheck");
+    response.addProperty("Running", true);
+    response.addProperty("Success", true);
+    response.add("Message", JsonNull.INSTANCE);
+    response.add("Body", body);
+    response.addProperty("Seq", OMNISHARP_SEQ);
+    response.addProperty("Type", "response");
+    return response.toString();
+  }
+
+  public List<Diagnostic> diagnostics(Path file) {
+    var response = JsonParser.parseString(codeCheckResponse(1, file)).getAsJsonObject();
+    var issues = response.getAsJsonObject("Body").getAsJsonArray("QuickFixes");
+    return Arrays.asList(new Gson().fromJson(issues, Diagnostic[].class));
+  }
+
+  /**
+   * Create the source file the issues are reported on, large enough for all their locations.
+   */
+  public static Path createSourceFile(Path dir) throws IOException {
+    var file = dir.resolve("Foo.cs");
+    var line = "x".repeat(SOURCE_FILE_COLUMNS);
+    Files.write(file, Collections.nCopies(SOURCE_FILE_LINES, line), StandardCharsets.UTF_8);
+    return file;
+  }
+
+}
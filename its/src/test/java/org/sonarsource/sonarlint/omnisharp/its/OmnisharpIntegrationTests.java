@@ -116,21 +116,28 @@ class OmnisharpIntegrationTests {
 
   @BeforeAll
   public static void prepare(@TempDir Path tmpDir) throws Exception {
-    var clientToServerOutputStream = new PipedOutputStream();
-    var clientToServerInputStream = new PipedInputStream(clientToServerOutputStream);
-
-    var serverToClientOutputStream = new PipedOutputStream();
-    var serverToClientInputStream = new PipedInputStream(serverToClientOutputStream);
-
     client = new MockSonarLintRpcClientDelegate() {
       @Override
       public void log(LogParams params) {
         System.out.println(params);
       }
     };
+    backend = startBackend(tmpDir, client);
+  }
+
+  /**
+   * Start a SonarLint backend with the plugin under test, the analyzer and the OmniSharp distributions downloaded by the build
+   */
+  static SonarLintRpcServer startBackend(Path tmpDir, SonarLintRpcClientDelegate client) throws Exception {
+    var clientToServerOutputStream = new PipedOutputStream();
+    var clientToServerInputStream = new PipedInputStream(clientToServerOutputStream);
+
+    var serverToClientOutputStream = new PipedOutputStream();
+    var serverToClientInputStream = new PipedInputStream(serverToClientOutputStream);
+
     new BackendJsonRpcLauncher(clientToServerInputStream, serverToClientOutputStream);
     var clientLauncher = new ClientJsonRpcLauncher(serverToClientInputStream, clientToServerOutputStream, client);
-    backend = clientLauncher.getServerProxy();
+    var server = clientLauncher.getServerProxy();
 
     var slHome = tmpDir.resolve("sonarlintHome");
     Files.createDirectories(slHome);
@@ -146,7 +153,7 @@ class OmnisharpIntegrationTests {
     var omnisharpWinPath = new File("target/omnisharp-win").toPath();
     var omnisharpNet6Path = new File("target/omnisharp-net6").toPath();
 
-    backend.initialize(
+    server.initialize(
         new InitializeParams(IT_CLIENT_INFO, IT_TELEMETRY_ATTRIBUTES, HttpConfigurationDto.defaultConfig(), null, Set.of(BackendCapability.SECURITY_HOTSPOTS),
           slHome.resolve("storage"),
           slHome.resolve("work"),
@@ -157,6 +164,7 @@ class OmnisharpIntegrationTests {
           new OmnisharpRequirementsDto(omnisharpMonoPath, omnisharpNet6Path, omnisharpWinPath, ossAnalyserPath, enterpriseAnalyserPath)),
           false, null))
       .get();
+    return server;
   }
 
   @BeforeEach
@@ -949,7 +957,7 @@ class OmnisharpIntegrationTests {
     return baseDir;
   }
 
-  private void restore(Path solutionDirOrFile) throws IOException, InterruptedException {
+  static void restore(Path solutionDirOrFile) throws IOException, InterruptedException {
     ProcessBuilder pb;
     if (Files.isRegularFile(solutionDirOrFile)) {
       pb = new ProcessBuilder("dotnet", "restore", solutionDirOrFile.getFileName().toString())
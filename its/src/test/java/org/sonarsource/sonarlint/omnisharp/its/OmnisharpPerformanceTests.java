@@ -0,0 +1,306 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp.its;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.sonarsource.sonarlint.core.rpc.protocol.SonarLintRpcServer;
+import org.sonarsource.sonarlint.core.rpc.protocol.backend.analysis.AnalyzeFilesAndTrackParams;
+import org.sonarsource.sonarlint.core.rpc.protocol.backend.analysis.DidChangeAnalysisPropertiesParams;
+import org.sonarsource.sonarlint.core.rpc.protocol.backend.config.scope.ConfigurationScopeDto;
+import org.sonarsource.sonarlint.core.rpc.protocol.backend.config.scope.DidAddConfigurationScopesParams;
+import org.sonarsource.sonarlint.core.rpc.protocol.backend.file.DidUpdateFileSystemParams;
+import org.sonarsource.sonarlint.core.rpc.protocol.client.log.LogParams;
+import org.sonarsource.sonarlint.core.rpc.protocol.common.ClientFileDto;
+import org.sonarsource.sonarlint.core.rpc.protocol.common.Language;
+import org.sonarsource.sonarlint.omnisharp.its.OmnisharpIntegrationTests.MockSonarLintRpcClientDelegate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Analysis of generated solutions of increasing size, to catch performance regressions that the small hand-written solutions of
+ * {@link OmnisharpIntegrationTests} can't reveal. Only run with the <code>performance</code> profile.
+ * <p>
+ * Phases are always checked against each other (e.g. the re-analysis of one file must be much faster than the analysis of all files), which doesn't
+ * depend on the agent. They are also checked against the baseline, if one has been recorded for the scenario.
+ * <ul>
+ *   <li><code>its.perf.sizes</code>: comma separated sizes, as <code>projects x files</code>, e.g. <code>10x1000,100x10000,1000x10000</code></li>
+ *   <li><code>its.perf.tolerance</code>: how much slower than the baseline a phase can be, e.g. <code>0.3</code> for 30%</li>
+ *   <li><code>its.perf.updateBaseline</code>: store the measures as the new baseline instead of checking them</li>
+ * </ul>
+ * Measures are always written in <code>target/perf-results.properties</code>.
+ */
+@Tag("performance")
+class OmnisharpPerformanceTests {
+
+  private static final String CONFIG_SCOPE_ID = "perf";
+  private static final Path BASELINE = Paths.get("src/test/resources/perf-baseline.properties");
+  private static final Path RESULTS = Paths.get("target/perf-results.properties");
+  /**
+   * So that short phases don't fail because of noise
+   */
+  private static final long MIN_SLACK_MS = 1000;
+  /**
+   * Phase, reference phase and maximum ratio between their durations
+   */
+  private static final List<RelativeBudget> RELATIVE_BUDGETS = List.of(
+    // A warm server doesn't load projects again
+    new RelativeBudget("reanalysis", "firstAnalysis", 0.5),
+    new RelativeBudget("reanalysis", "fullAnalysis", 0.1));
+  /**
+   * Phases that must be measured once a baseline has been recorded for the scenario, so that a regression can't go unnoticed because a phase is missing
+   */
+  private static final List<String> BASELINE_PHASES = List.of("coldStart", "projectLoad", "fullAnalysis");
+  private static final Logger LOG = Logger.getLogger(OmnisharpPerformanceTests.class.getName());
+  private static final Pattern STARTUP_REPORT = Pattern.compile("OmniSharp startup report: spawn=\\S+ started=(\\d+)ms projects=\\d+ lastProjectAdded=(\\d+)ms .*");
+
+  private static SonarLintRpcServer backend;
+  private static MockSonarLintRpcClientDelegate client;
+  private static final List<String> startupReports = Collections.synchronizedList(new ArrayList<>());
+  private static final Map<String, Long> measures = Collections.synchronizedMap(new LinkedHashMap<>());
+
+  @BeforeAll
+  static void prepare(@TempDir Path tmpDir) throws Exception {
+    client = new MockSonarLintRpcClientDelegate() {
+      @Override
+      public void log(LogParams params) {
+        if (params.getMessage() != null && params.getMessage().startsWith("OmniSharp startup report")) {
+          startupReports.add(params.getMessage());
+        }
+      }
+    };
+    backend = OmnisharpIntegrationTests.startBackend(tmpDir, client);
+    backend.getConfigurationService().didAddConfigurationScopes(new DidAddConfigurationScopesParams(List.of(
+      new ConfigurationScopeDto(CONFIG_SCOPE_ID, null, false, CONFIG_SCOPE_ID, null))));
+  }
+
+  @AfterAll
+  static void stop() throws IOException {
+    var results = toProperties(measures);
+    Files.createDirectories(RESULTS.getParent());
+    store(results, RESULTS);
+    if (Boolean.getBoolean("its.perf.updateBaseline")) {
+      var baseline = loadBaseline();
+      baseline.putAll(results);
+      store(baseline, BASELINE);
+    }
+    backend.shutdown().join();
+  }
+
+  static Stream<Arguments> sizes() {
+    return Arrays.stream(System.getProperty("its.perf.sizes", "10x1000").split(","))
+      .map(String::trim)
+      .map(size -> size.split("x"))
+      .map(size -> Arguments.of(Integer.parseInt(size[0]), Integer.parseInt(size[1])));
+  }
+
+  @ParameterizedTest(name = "{0} projects, {1} files")
+  @MethodSource("sizes")
+  void analyzeSyntheticSolution(int projectsCount, int filesCount, @TempDir Path tmpDir) throws Exception {
+    var solution = SyntheticSolution.generate(tmpDir.toRealPath(), projectsCount, filesCount);
+    OmnisharpIntegrationTests.restore(solution.getSolutionFile());
+    var scenario = projectsCount + "x" + filesCount;
+    var properties = Map.of(
+      "sonar.cs.internal.useNet6", "true",
+      "sonar.cs.internal.solutionPath", solution.getSolutionFile().toString());
+    backend.getAnalysisService().didSetUserAnalysisProperties(new DidChangeAnalysisPropertiesParams(CONFIG_SCOPE_ID, properties));
+    var files = solution.getFiles();
+    backend.getFileService().didUpdateFileSystem(new DidUpdateFileSystemParams(List.of(),
+      files.stream().map(f -> toClientFile(solution, f, null)).collect(Collectors.toList()), List.of()));
+
+    // Another solution, so OmniSharp is started from scratch
+    startupReports.clear();
+    var firstFile = files.get(0);
+    measure(scenario, "firstAnalysis", () -> analyze(List.of(firstFile), properties));
+    recordStartupReport(scenario);
+
+    client.getRaisedIssues().clear();
+    measure(scenario, "fullAnalysis", () -> analyze(files, properties));
+    awaitIssues(files.size());
+
+    var edited = Files.readString(firstFile, StandardCharsets.UTF_8) + "// TODO second task\n";
+    backend.getFileService().didUpdateFileSystem(new DidUpdateFileSystemParams(List.of(), List.of(), List.of(toClientFile(solution, firstFile, edited))));
+    client.getRaisedIssues().clear();
+    measure(scenario, "reanalysis", () -> analyze(List.of(firstFile), properties));
+    awaitIssues(2);
+
+    checkBudgets(scenario);
+  }
+
+  private static ClientFileDto toClientFile(SyntheticSolution solution, Path file, @Nullable String content) {
+    return new ClientFileDto(file.toUri(), solution.getBaseDir().relativize(file), CONFIG_SCOPE_ID, false, "UTF-8", file, content, Language.CS, true);
+  }
+
+  private static void analyze(List<Path> files, Map<String, String> properties) {
+    List<URI> uris = files.stream().map(Path::toUri).collect(Collectors.toList());
+    var response = backend.getAnalysisService().analyzeFilesAndTrack(
+      new AnalyzeFilesAndTrackParams(CONFIG_SCOPE_ID, UUID.randomUUID(), uris, new HashMap<>(properties), false, System.currentTimeMillis())).join();
+    assertThat(response.getFailedAnalysisFiles()).isEmpty();
+  }
+
+  /**
+   * Issues are notified after the end of the analysis, not measured
+   */
+  @SuppressWarnings("java:S2925")
+  private static void awaitIssues(int minCount) throws InterruptedException {
+    var deadline = System.nanoTime() + Duration.ofSeconds(30).toNanos();
+    while (client.getRaisedIssues(CONFIG_SCOPE_ID).size() < minCount && System.nanoTime() < deadline) {
+      Thread.sleep(200);
+    }
+    assertThat(client.getRaisedIssues(CONFIG_SCOPE_ID)).hasSizeGreaterThanOrEqualTo(minCount);
+  }
+
+  private static void measure(String scenario, String phase, Runnable runnable) {
+    var start = System.nanoTime();
+    runnable.run();
+    var elapsed = Duration.ofNanos(System.nanoTime() - start);
+    LOG.info(() -> "[" + scenario + "] " + phase + ": " + elapsed.toMillis() + "ms");
+    measures.put(scenario + "." + phase, elapsed.toMillis());
+  }
+
+  /**
+   * The first analysis includes the start of OmniSharp and the load of the projects, that are detailed by the startup report of the plugin
+   */
+  private static void recordStartupReport(String scenario) {
+    var report = startupReports.stream().map(STARTUP_REPORT::matcher).filter(Matcher::matches).findFirst();
+    if (report.isEmpty()) {
+      LOG.warning(() -> "[" + scenario + "] No startup report, cold start and project load are not measured");
+      return;
+    }
+    var startedMs = Long.parseLong(report.get().group(1));
+    var lastProjectAddedMs = Long.parseLong(report.get().group(2));
+    LOG.info(() -> "[" + scenario + "] coldStart: " + startedMs + "ms, projectLoad: " + (lastProjectAddedMs - startedMs) + "ms");
+    measures.put(scenario + ".coldStart", startedMs);
+    measures.put(scenario + ".projectLoad", lastProjectAddedMs - startedMs);
+  }
+
+  private static void checkBudgets(String scenario) throws IOException {
+    var softly = new SoftAssertions();
+    checkRelativeBudgets(scenario, softly);
+    if (!Boolean.getBoolean("its.perf.updateBaseline")) {
+      checkBaseline(scenario, softly);
+    }
+    softly.assertAll();
+  }
+
+  private static void checkRelativeBudgets(String scenario, SoftAssertions softly) {
+    for (var budget : RELATIVE_BUDGETS) {
+      var actual = measures.get(scenario + "." + budget.phase);
+      var reference = measures.get(scenario + "." + budget.referencePhase);
+      if (actual == null || reference == null) {
+        continue;
+      }
+      var budgetMs = Math.max(Math.round(reference * budget.maxRatio), MIN_SLACK_MS);
+      softly.assertThat(actual).as("%s.%s in ms (%s of %s=%sms)", scenario, budget.phase, budget.maxRatio, budget.referencePhase, reference)
+        .isLessThanOrEqualTo(budgetMs);
+    }
+  }
+
+  private static void checkBaseline(String scenario, SoftAssertions softly) throws IOException {
+    var baseline = loadBaseline();
+    var tolerance = Double.parseDouble(System.getProperty("its.perf.tolerance", "0.3"));
+    synchronized (measures) {
+      measures.entrySet().stream().filter(e -> e.getKey().startsWith(scenario + ".")).forEach(e -> {
+        var expected = baseline.getProperty(e.getKey());
+        if (expected == null) {
+          LOG.info(() -> "No baseline for " + e.getKey());
+          return;
+        }
+        var expectedMs = Long.parseLong(expected);
+        var budgetMs = Math.max(Math.round(expectedMs * (1 + tolerance)), expectedMs + MIN_SLACK_MS);
+        softly.assertThat(e.getValue()).as("%s in ms (baseline %sms)", e.getKey(), expectedMs).isLessThanOrEqualTo(budgetMs);
+      });
+    }
+    if (baseline.stringPropertyNames().stream().anyMatch(k -> k.startsWith(scenario + "."))) {
+      for (var phase : BASELINE_PHASES) {
+        var key = scenario + "." + phase;
+        softly.assertThat(baseline.getProperty(key)).as("baseline of %s", key).isNotNull();
+        softly.assertThat(measures.get(key)).as("measure of %s", key).isNotNull();
+      }
+    }
+  }
+
+  private static class RelativeBudget {
+    private final String phase;
+    private final String referencePhase;
+    private final double maxRatio;
+
+    private RelativeBudget(String phase, String referencePhase, double maxRatio) {
+      this.phase = phase;
+      this.referencePhase = referencePhase;
+      this.maxRatio = maxRatio;
+    }
+  }
+
+  private static Properties loadBaseline() throws IOException {
+    var baseline = new Properties();
+    if (Files.exists(BASELINE)) {
+      try (Reader reader = Files.newBufferedReader(BASELINE, StandardCharsets.UTF_8)) {
+        baseline.load(reader);
+      }
+    }
+    return baseline;
+  }
+
+  private static Properties toProperties(Map<String, Long> values) {
+    var properties = new Properties();
+    synchronized (values) {
+      values.forEach((k, v) -> properties.setProperty(k, String.valueOf(v)));
+    }
+    return properties;
+  }
+
+  private static void store(Properties properties, Path path) throws IOException {
+    try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+      properties.store(writer, "Durations in ms, per <projects>x<files>.<phase>");
+    }
+  }
+
+}
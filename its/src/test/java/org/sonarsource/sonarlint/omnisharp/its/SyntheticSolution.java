@@ -0,0 +1,144 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp.its;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import javax.annotation.Nullable;
+
+/**
+ * C# solution of a given size, made of SDK-style class libraries without any NuGet dependency, so that it can be restored offline. Projects reference the
+ * previous one in chains of {@value #PROJECT_CHAIN_LENGTH}, so that OmniSharp has to resolve project references like in real solutions. Each file has a TODO
+ * comment, so that it raises at least one issue (S1135).
+ */
+class SyntheticSolution {
+
+  static final int PROJECT_CHAIN_LENGTH = 10;
+  private static final String CSHARP_PROJECT_TYPE_GUID = "FAE04EC0-301F-11D3-BF4B-00C04F79EFBC";
+
+  private final Path solutionFile;
+  private final List<Path> files;
+
+  private SyntheticSolution(Path solutionFile, List<Path> files) {
+    this.solutionFile = solutionFile;
+    this.files = files;
+  }
+
+  /**
+   * @param filesCount total number of files, spread evenly over the projects, at least one per project
+   */
+  static SyntheticSolution generate(Path baseDir, int projectsCount, int filesCount) throws IOException {
+    if (filesCount < projectsCount) {
+      throw new IllegalArgumentException("At least one file per project is needed, got " + filesCount + " files for " + projectsCount + " projects");
+    }
+    var sln = new StringBuilder();
+    sln.append("Microsoft Visual Studio Solution File, Format Version 12.00\r\n");
+    sln.append("# Visual Studio Version 17\r\n");
+    List<Path> files = new ArrayList<>();
+    for (int p = 0; p < projectsCount; p++) {
+      var name = projectName(p);
+      var projectDir = Files.createDirectories(baseDir.resolve(name));
+      var previous = p % PROJECT_CHAIN_LENGTH == 0 ? null : projectName(p - 1);
+      Files.writeString(projectDir.resolve(name + ".csproj"), csproj(previous), StandardCharsets.UTF_8);
+      int projectFilesCount = filesCount / projectsCount + (p < filesCount % projectsCount ? 1 : 0);
+      for (int c = 0; c < projectFilesCount; c++) {
+        var file = projectDir.resolve("Class" + c + ".cs");
+        Files.writeString(file, csharpClass(name, c, previous), StandardCharsets.UTF_8);
+        files.add(file);
+      }
+      var projectGuid = UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8)).toString().toUpperCase(Locale.ENGLISH);
+      sln.append("Project(\"{").append(CSHARP_PROJECT_TYPE_GUID).append("}\") = \"").append(name).append("\", \"").append(name).append('\\').append(name)
+        .append(".csproj\", \"{").append(projectGuid).append("}\"\r\n");
+      sln.append("EndProject\r\n");
+    }
+    sln.append("Global\r\n");
+    sln.append("EndGlobal\r\n");
+    var solutionFile = baseDir.resolve("Synthetic.sln");
+    Files.writeString(solutionFile, sln, StandardCharsets.UTF_8);
+    return new SyntheticSolution(solutionFile, files);
+  }
+
+  private static String projectName(int index) {
+    return "Project" + index;
+  }
+
+  private static String csproj(@Nullable String previousProject) {
+    var reference = previousProject == null ? ""
+      : ("\n  <ItemGroup>\n"
+        + "    <ProjectReference Include=\"..\\" + previousProject + "\\" + previousProject + ".csproj\" />\n"
+        + "  </ItemGroup>\n");
+    return "<Project Sdk=\"Microsoft.NET.Sdk\">\n"
+      + "\n"
+      + "  <PropertyGroup>\n"
+      + "    <TargetFramework>net8.0</TargetFramework>\n"
+      + "  </PropertyGroup>\n"
+      + reference
+      + "\n"
+      + "</Project>\n";
+  }
+
+  private static String csharpClass(String namespace, int index, @Nullable String previousProject) {
+    var dependency = previousProject == null ? "int" : (previousProject + ".Class0");
+    return "namespace " + namespace + "\n"
+      + "{\n"
+      + "    public class Class" + index + "\n"
+      + "    {\n"
+      + "        private readonly int value;\n"
+      + "\n"
+      + "        public Class" + index + "(int value)\n"
+      + "        {\n"
+      + "            this.value = value;\n"
+      + "        }\n"
+      + "\n"
+      + "        public " + dependency + " Dependency { get; set; }\n"
+      + "\n"
+      + "        public int Compute(int factor)\n"
+      + "        {\n"
+      + "            // TODO make the computation configurable\n"
+      + "            var result = value * factor;\n"
+      + "            for (var i = 0; i < factor; i++)\n"
+      + "            {\n"
+      + "                result += i;\n"
+      + "            }\n"
+      + "            return result;\n"
+      + "        }\n"
+      + "    }\n"
+      + "}\n";
+  }
+
+  Path getSolutionFile() {
+    return solutionFile;
+  }
+
+  Path getBaseDir() {
+    return solutionFile.getParent();
+  }
+
+  List<Path> getFiles() {
+    return files;
+  }
+
+}
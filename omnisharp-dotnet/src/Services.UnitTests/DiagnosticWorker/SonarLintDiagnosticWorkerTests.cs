@@ -154,6 +154,33 @@ namespace SonarLint.OmniSharp.DotNet.Services.UnitTests.DiagnosticWorker
             result.Should().BeEmpty();
         }
 
+        [TestMethod]
+        public async Task GetDiagnosticsWithExecutionTimes_ReportsTimeOfEachAnalyzer()
+        {
+            var workspace = CreateOmnisharpWorkspaceWithDocument("dummyFile.cs", "class SonarLint_TestAnalyzer_Raise { }");
+            var testSubject = CreateTestSubject(workspace);
+
+            var result = await testSubject.GetDiagnosticsWithExecutionTimes(ImmutableArray.Create("dummyFile.cs"));
+
+            result.Diagnostics.SelectMany(x => x.Diagnostics).FirstOrDefault(x => x.Id == TestAnalyzer.Descriptor.Id).Should().NotBeNull();
+            result.ExecutionTimes.Should().ContainSingle();
+            result.ExecutionTimes[0].RuleIds.Should().BeEquivalentTo(TestAnalyzer.Descriptor.Id);
+            result.ExecutionTimes[0].ElapsedMs.Should().BeGreaterThanOrEqualTo(0);
+        }
+
+        [TestMethod]
+        public async Task GetDiagnostics_ExecutionTimesAreNotMeasured()
+        {
+            var workspace = CreateOmnisharpWorkspaceWithDocument("dummyFile.cs", "class SonarLint_TestAnalyzer_Raise { }");
+            var testSubject = CreateTestSubject(workspace);
+            await testSubject.GetDiagnosticsWithExecutionTimes(ImmutableArray.Create("dummyFile.cs"));
+
+            // The collector of the previous call doesn't leak into the next ones
+            var result = await testSubject.GetDiagnostics(ImmutableArray.Create("dummyFile.cs"));
+
+            result.SelectMany(x => x.Diagnostics).FirstOrDefault(x => x.Id == TestAnalyzer.Descriptor.Id).Should().NotBeNull();
+        }
+
         private static Mock<ISonarLintAnalysisConfigProvider> CreateAnalysisConfigProvider(
             Func<IEnumerable<DiagnosticAnalyzer>> getAnalyzers = null,
             Func<Compilation, Compilation> modifyCompilation = null,
@@ -104,6 +104,7 @@ namespace SonarLint.OmniSharp.DotNet.Services.UnitTests.Services
 
             var quickFixes = result.QuickFixes.ToList();
             quickFixes.Should().BeEquivalentTo(convertedLocations);
+            result.AnalyzerExecutionTimes.Should().BeNull();
 
             diagnosticWorker.Verify(x => x.GetDiagnostics(
                     It.Is((ImmutableArray<string> filePaths) => filePaths.Length == 1 && filePaths[0] == "file1.cs")),
@@ -111,6 +112,32 @@ namespace SonarLint.OmniSharp.DotNet.Services.UnitTests.Services
             diagnosticWorker.VerifyNoOtherCalls();
         }
 
+        [TestMethod]
+        public async Task Handle_ReportAnalyzerExecutionTimes_ReturnsExecutionTimes()
+        {
+            var diagnostics = new[] { CreateDocumentDiagnostics("file1.cs") }.ToImmutableArray();
+            var convertedLocations = new[] { new SonarLintDiagnosticLocation { Id = "test1" } }.ToImmutableArray();
+            var executionTimes = new[] { new AnalyzerExecutionTime { RuleIds = new[] { "S1118" }, ElapsedMs = 12.5 } }.ToImmutableArray();
+
+            var diagnosticWorker = new Mock<ISonarLintDiagnosticWorker>();
+            diagnosticWorker
+                .Setup(x => x.GetDiagnosticsWithExecutionTimes(
+                    It.Is((ImmutableArray<string> fileNames) => fileNames.Length == 1 && fileNames[0] == "file1.cs")))
+                .ReturnsAsync((diagnostics, executionTimes));
+            var diagnosticsConverter = SetupDiagnosticsConverter("file1.cs", diagnostics, convertedLocations);
+
+            var testSubject = CreateTestSubject(diagnosticWorker.Object, diagnosticsConverter.Object);
+
+            var request = CreateRequest("file1.cs");
+            request.ReportAnalyzerExecutionTimes = true;
+            var result = await testSubject.Handle(request);
+
+            result.QuickFixes.Should().BeEquivalentTo(convertedLocations);
+            result.AnalyzerExecutionTimes.Should().BeEquivalentTo(executionTimes);
+            diagnosticWorker.Verify(x => x.GetDiagnosticsWithExecutionTimes(It.IsAny<ImmutableArray<string>>()), Times.Once);
+            diagnosticWorker.VerifyNoOtherCalls();
+        }
+
         private SonarLintCodeCheckRequest CreateRequest(string fileName) => new() { FileName = fileName };
 
         private static SonarLintCodeCheckService CreateTestSubject(
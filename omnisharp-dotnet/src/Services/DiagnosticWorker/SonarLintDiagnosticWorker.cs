@@ -19,6 +19,7 @@
  */
 
 using System;
+using System.Collections.Concurrent;
 using System.Collections.Immutable;
 using System.Composition;
 using System.Diagnostics.CodeAnalysis;
@@ -32,17 +33,28 @@ using Microsoft.Extensions.Options;
 using OmniSharp;
 using OmniSharp.Options;
 using OmniSharp.Roslyn;
+using OmniSharp.Roslyn.CSharp.Services.Diagnostics;
 using OmniSharp.Roslyn.CSharp.Workers.Diagnostics;
 
 namespace SonarLint.OmniSharp.DotNet.Services.DiagnosticWorker
 {
     internal interface ISonarLintDiagnosticWorker : ICsDiagnosticWorker
     {
+        /// <summary>
+        /// Same as <see cref="ICsDiagnosticWorker.GetDiagnostics"/>, also measuring the time spent by each analyzer.
+        /// Analysis is slower when measured, so this is only meant to find expensive rules.
+        /// </summary>
+        Task<(ImmutableArray<DocumentDiagnostics> Diagnostics, ImmutableArray<AnalyzerExecutionTime> ExecutionTimes)> GetDiagnosticsWithExecutionTimes(ImmutableArray<string> documentPaths);
     }
 
     [Export(typeof(ISonarLintDiagnosticWorker)), Shared]
     internal class SonarLintDiagnosticWorker : CopiedCSharpDiagnosticWorker, ISonarLintDiagnosticWorker
     {
+        /// <summary>
+        /// Set for the documents analyzed by <see cref="GetDiagnosticsWithExecutionTimes"/>, flows to the tasks analyzing each document
+        /// </summary>
+        private static readonly AsyncLocal<ConcurrentBag<AnalyzerExecutionTime>> ExecutionTimesCollector = new();
+
         private readonly ISonarLintAnalysisConfigProvider sonarLintAnalysisConfigProvider;
 
         [ImportingConstructor]
@@ -56,6 +68,20 @@ namespace SonarLint.OmniSharp.DotNet.Services.DiagnosticWorker
             this.sonarLintAnalysisConfigProvider = sonarLintAnalysisConfigProvider;
         }
 
+        public async Task<(ImmutableArray<DocumentDiagnostics> Diagnostics, ImmutableArray<AnalyzerExecutionTime> ExecutionTimes)> GetDiagnosticsWithExecutionTimes(ImmutableArray<string> documentPaths)
+        {
+            var collector = new ConcurrentBag<AnalyzerExecutionTime>();
+            ExecutionTimesCollector.Value = collector;
+            var diagnostics = await GetDiagnostics(documentPaths);
+
+            // A document can belong to several projects
+            var executionTimes = collector
+                .GroupBy(x => string.Join(",", x.RuleIds))
+                .Select(g => new AnalyzerExecutionTime { RuleIds = g.First().RuleIds, ElapsedMs = g.Sum(x => x.ElapsedMs) })
+                .ToImmutableArray();
+            return (diagnostics, executionTimes);
+        }
+
         protected override async Task<ImmutableArray<Diagnostic>> GetDiagnosticsForDocument(Document document, string projectName)
         {
             var compilation = await document.Project.GetCompilationAsync();
@@ -74,7 +100,9 @@ namespace SonarLint.OmniSharp.DotNet.Services.DiagnosticWorker
         }
         
         /// <summary>
-        /// Copied as-is from https://github.com/OmniSharp/omnisharp-roslyn/blob/v1.39.0/src/OmniSharp.Roslyn.CSharp/Workers/Diagnostics/CSharpDiagnosticWorkerWithAnalyzers.cs#L307
+        /// Copied from https://github.com/OmniSharp/omnisharp-roslyn/blob/v1.39.0/src/OmniSharp.Roslyn.CSharp/Workers/Diagnostics/CSharpDiagnosticWorkerWithAnalyzers.cs#L307
+        /// Changes:
+        ///     1. Logging the execution time of analyzers when called from <see cref="GetDiagnosticsWithExecutionTimes"/>
         /// </summary>
         [ExcludeFromCodeCoverage]
         private async Task<ImmutableArray<Diagnostic>> AnalyzeDocument(Project project, ImmutableArray<DiagnosticAnalyzer> allAnalyzers, Compilation compilation, AnalyzerOptions workspaceAnalyzerOptions, Document document)
@@ -101,11 +129,12 @@ namespace SonarLint.OmniSharp.DotNet.Services.DiagnosticWorker
                 }
                 else if (canDoFullAnalysis)
                 {
+                    var executionTimesCollector = ExecutionTimesCollector.Value;
                     var compilationWithAnalyzers = compilation.WithAnalyzers(allAnalyzers, new CompilationWithAnalyzersOptions(
                         workspaceAnalyzerOptions,
                         onAnalyzerException: OnAnalyzerException,
                         concurrentAnalysis: false,
-                        logAnalyzerExecutionTime: false,
+                        logAnalyzerExecutionTime: executionTimesCollector != null,
                         reportSuppressedDiagnostics: false));
 
                     var semanticDiagnosticsWithAnalyzers = await compilationWithAnalyzers
@@ -114,6 +143,11 @@ namespace SonarLint.OmniSharp.DotNet.Services.DiagnosticWorker
                     var syntaxDiagnosticsWithAnalyzers = await compilationWithAnalyzers
                         .GetAnalyzerSyntaxDiagnosticsAsync(documentSemanticModel.SyntaxTree, perDocumentTimeout.Token);
 
+                    if (executionTimesCollector != null)
+                    {
+                        await CollectExecutionTimes(compilationWithAnalyzers, allAnalyzers, executionTimesCollector, perDocumentTimeout.Token);
+                    }
+
                     return semanticDiagnosticsWithAnalyzers
                         .Concat(syntaxDiagnosticsWithAnalyzers)
                         .Where(d => !d.IsSuppressed)
@@ -132,6 +166,22 @@ namespace SonarLint.OmniSharp.DotNet.Services.DiagnosticWorker
             }
         }
 
+        private static async Task CollectExecutionTimes(CompilationWithAnalyzers compilationWithAnalyzers,
+            ImmutableArray<DiagnosticAnalyzer> analyzers,
+            ConcurrentBag<AnalyzerExecutionTime> collector,
+            CancellationToken cancellationToken)
+        {
+            foreach (var analyzer in analyzers)
+            {
+                var telemetry = await compilationWithAnalyzers.GetAnalyzerTelemetryInfoAsync(analyzer, cancellationToken);
+                collector.Add(new AnalyzerExecutionTime
+                {
+                    RuleIds = analyzer.SupportedDiagnostics.Select(x => x.Id).Distinct().ToArray(),
+                    ElapsedMs = telemetry.ExecutionTime.TotalMilliseconds
+                });
+            }
+        }
+
         /// <summary>
         /// Copied as-is from https://github.com/OmniSharp/omnisharp-roslyn/blob/v1.39.0/src/OmniSharp.Roslyn.CSharp/Workers/Diagnostics/CSharpDiagnosticWorkerWithAnalyzers.cs#L370
         /// </summary>
@@ -18,6 +18,7 @@
  * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
  */
 
+using System.Collections.Generic;
 using System.Collections.Immutable;
 using System.Composition;
 using System.Threading.Tasks;
@@ -29,16 +30,32 @@ using SonarLint.OmniSharp.DotNet.Services.DiagnosticWorker;
 
 namespace SonarLint.OmniSharp.DotNet.Services.Services
 {
-    [OmniSharpEndpoint(SonarLintCodeCheckService.ServiceEndpoint, typeof(SonarLintCodeCheckRequest), typeof(QuickFixResponse))]
+    [OmniSharpEndpoint(SonarLintCodeCheckService.ServiceEndpoint, typeof(SonarLintCodeCheckRequest), typeof(SonarLintCodeCheckResponse))]
     internal class SonarLintCodeCheckRequest : Request
     {
+        /// <summary>
+        /// Measure the time spent by each analyzer on the file, only supported when <see cref="Request.FileName"/> is set
+        /// </summary>
+        public bool ReportAnalyzerExecutionTimes { get; set; }
+    }
+
+    internal class SonarLintCodeCheckResponse : QuickFixResponse
+    {
+        public SonarLintCodeCheckResponse(IEnumerable<QuickFix> quickFixes) : base(quickFixes)
+        {
+        }
+
+        /// <summary>
+        /// Null unless requested with <see cref="SonarLintCodeCheckRequest.ReportAnalyzerExecutionTimes"/>
+        /// </summary>
+        public IEnumerable<AnalyzerExecutionTime> AnalyzerExecutionTimes { get; set; }
     }
 
     /// <summary>
     /// This service is intended to behave as <see cref="CodeCheckService"/>, except with our own <see cref="ISonarLintDiagnosticWorker"/>.
     /// </summary>
     [OmniSharpHandler(ServiceEndpoint, LanguageNames.CSharp)]
-    internal class SonarLintCodeCheckService : IRequestHandler<SonarLintCodeCheckRequest, QuickFixResponse>
+    internal class SonarLintCodeCheckService : IRequestHandler<SonarLintCodeCheckRequest, SonarLintCodeCheckResponse>
     {
         internal const string ServiceEndpoint = "/sonarlint/codecheck";
 
@@ -53,15 +70,28 @@ namespace SonarLint.OmniSharp.DotNet.Services.Services
             this.diagnosticsToCodeLocationsConverter = diagnosticsToCodeLocationsConverter;
         }
 
-        public async Task<QuickFixResponse> Handle(SonarLintCodeCheckRequest request)
+        public async Task<SonarLintCodeCheckResponse> Handle(SonarLintCodeCheckRequest request)
         {
-            var diagnostics = string.IsNullOrEmpty(request.FileName)
-                ? await diagnosticWorker.GetAllDiagnosticsAsync()
-                : await diagnosticWorker.GetDiagnostics(ImmutableArray.Create(request.FileName));
+            ImmutableArray<DocumentDiagnostics> diagnostics;
+            IEnumerable<AnalyzerExecutionTime> executionTimes = null;
+            if (string.IsNullOrEmpty(request.FileName))
+            {
+                diagnostics = await diagnosticWorker.GetAllDiagnosticsAsync();
+            }
+            else if (request.ReportAnalyzerExecutionTimes)
+            {
+                var result = await diagnosticWorker.GetDiagnosticsWithExecutionTimes(ImmutableArray.Create(request.FileName));
+                diagnostics = result.Diagnostics;
+                executionTimes = result.ExecutionTimes;
+            }
+            else
+            {
+                diagnostics = await diagnosticWorker.GetDiagnostics(ImmutableArray.Create(request.FileName));
+            }
 
             var diagnosticLocations = await diagnosticsToCodeLocationsConverter.Convert(diagnostics, request.FileName);
 
-            return new QuickFixResponse(diagnosticLocations);
+            return new SonarLintCodeCheckResponse(diagnosticLocations) { AnalyzerExecutionTimes = executionTimes };
         }
     }
 }
@@ -0,0 +1,268 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp;
+
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Timeline of one analysis, written as a Chrome trace-event file that can be opened in Perfetto or <code>chrome://tracing</code>. Only recorded when
+ * {@link CSharpPropertyDefinitions#getTraceDirectory()} is set, otherwise spans are no-ops.
+ */
+class AnalysisTrace {
+
+  private static final Logger LOG = Loggers.get(AnalysisTrace.class);
+
+  private static final AnalysisTrace DISABLED = new AnalysisTrace(null);
+  private static final DateTimeFormatter FILE_NAME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS", Locale.ENGLISH);
+  private static final int PID = 1;
+  /**
+   * Startup phases happen in OmniSharp, not on a JVM thread, so they get their own track
+   */
+  static final long SERVER_TID = 0;
+  /**
+   * A few spans are recorded per file, keep the memory used by the trace of a huge analysis bounded
+   */
+  static final int MAX_EVENTS = 100_000;
+
+  static final String STARTUP = "startup";
+  static final String REQUEST = "request";
+  static final String WAIT = "wait";
+
+  @Nullable
+  private final Path traceDirectory;
+  private final long startNanos = System.nanoTime();
+  private final Queue<Event> events = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger eventsCount = new AtomicInteger();
+  private final AtomicInteger droppedEventsCount = new AtomicInteger();
+  private final Map<Long, String> threadNames = new ConcurrentHashMap<>();
+
+  private AnalysisTrace(@Nullable Path traceDirectory) {
+    this.traceDirectory = traceDirectory;
+  }
+
+  static AnalysisTrace create(@Nullable Path traceDirectory) {
+    return traceDirectory == null ? DISABLED : new AnalysisTrace(traceDirectory);
+  }
+
+  boolean isEnabled() {
+    return traceDirectory != null;
+  }
+
+  private static class Event {
+    private final String name;
+    private final String category;
+    private final String phase;
+    private final long tid;
+    private final long startNanos;
+    private long durationNanos;
+    private final Map<String, Object> args = new LinkedHashMap<>();
+
+    private Event(String name, String category, String phase, long tid, long startNanos) {
+      this.name = name;
+      this.category = category;
+      this.phase = phase;
+      this.tid = tid;
+      this.startNanos = startNanos;
+    }
+  }
+
+  private void add(Event event) {
+    if (eventsCount.incrementAndGet() > MAX_EVENTS) {
+      droppedEventsCount.incrementAndGet();
+      return;
+    }
+    events.add(event);
+  }
+
+  /**
+   * Duration of an operation on the current thread, ended by {@link #close()}
+   */
+  static class Span implements AutoCloseable {
+    @Nullable
+    private final AnalysisTrace trace;
+    @Nullable
+    private final Event event;
+
+    private Span(@Nullable AnalysisTrace trace, @Nullable Event event) {
+      this.trace = trace;
+      this.event = event;
+    }
+
+    Span arg(String name, Object value) {
+      if (event != null) {
+        event.args.put(name, value);
+      }
+      return this;
+    }
+
+    @Override
+    public void close() {
+      if (trace != null && event != null) {
+        event.durationNanos = System.nanoTime() - event.startNanos;
+        trace.add(event);
+      }
+    }
+  }
+
+  private static final Span NO_OP_SPAN = new Span(null, null);
+
+  Span begin(String name, String category) {
+    if (!isEnabled()) {
+      return NO_OP_SPAN;
+    }
+    var thread = Thread.currentThread();
+    threadNames.putIfAbsent(thread.getId(), thread.getName());
+    return new Span(this, new Event(name, category, "X", thread.getId(), System.nanoTime()));
+  }
+
+  /**
+   * Add the startup phases of the server, if it has been started during this analysis
+   */
+  void addStartup(@Nullable StartupReport report) {
+    if (!isEnabled() || report == null || report.getRequestedNanos() < startNanos) {
+      return;
+    }
+    var requested = report.getRequestedNanos();
+    var spawned = report.getProcessSpawnedAfter().map(d -> requested + d.toNanos()).orElse(null);
+    var started = report.getOmnisharpStartedAfter().map(d -> requested + d.toNanos()).orElse(null);
+    var lastProjectAdded = report.getLastProjectAddedAfter().map(d -> requested + d.toNanos()).orElse(null);
+    addServerSpan("Spawn process", requested, spawned);
+    addServerSpan("Start OmniSharp", spawned, started);
+    addServerSpan("Load projects", started, lastProjectAdded);
+    for (var project : report.getProjectsAdded()) {
+      var event = new Event("Project added", STARTUP, "i", SERVER_TID, requested + project.getLoadedAfter().toNanos());
+      event.args.put("project", project.getProjectPath());
+      add(event);
+    }
+    report.getFirstCodeCheckAfter().ifPresent(d -> add(new Event("First code check", STARTUP, "i", SERVER_TID, requested + d.toNanos())));
+  }
+
+  private void addServerSpan(String name, @Nullable Long fromNanos, @Nullable Long toNanos) {
+    if (fromNanos != null && toNanos != null) {
+      var event = new Event(name, STARTUP, "X", SERVER_TID, fromNanos);
+      event.durationNanos = toNanos - fromNanos;
+      add(event);
+    }
+  }
+
+  /**
+   * @return the written file, or null if tracing is disabled or the file could not be written
+   */
+  @CheckForNull
+  Path write() {
+    if (traceDirectory == null) {
+      return null;
+    }
+    var file = traceDirectory.resolve("omnisharp-trace-" + LocalDateTime.now().format(FILE_NAME_FORMAT) + ".json");
+    try {
+      Files.createDirectories(traceDirectory);
+      try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+        writeTo(writer);
+      }
+      LOG.info("Analysis trace written to {}", file);
+      var dropped = droppedEventsCount.get();
+      if (dropped > 0) {
+        LOG.warn("{} event(s) not written, the analysis trace is limited to {} events", dropped, MAX_EVENTS);
+      }
+      return file;
+    } catch (IOException e) {
+      LOG.warn("Unable to write analysis trace to " + file, e);
+      return null;
+    }
+  }
+
+  void writeTo(Writer writer) throws IOException {
+    var json = new JsonWriter(writer);
+    json.beginObject();
+    json.name("displayTimeUnit").value("ms");
+    json.name("traceEvents").beginArray();
+    writeThreadName(json, SERVER_TID, "OmniSharp server");
+    for (var thread : threadNames.entrySet()) {
+      writeThreadName(json, thread.getKey(), thread.getValue());
+    }
+    for (var event : List.copyOf(events)) {
+      writeEvent(json, event);
+    }
+    json.endArray();
+    json.endObject();
+    json.flush();
+  }
+
+  private static void writeThreadName(JsonWriter json, long tid, String name) throws IOException {
+    json.beginObject();
+    json.name("name").value("thread_name");
+    json.name("ph").value("M");
+    json.name("pid").value(PID);
+    json.name("tid").value(tid);
+    json.name("args").beginObject().name("name").value(name).endObject();
+    json.endObject();
+  }
+
+  private void writeEvent(JsonWriter json, Event event) throws IOException {
+    json.beginObject();
+    json.name("name").value(event.name);
+    json.name("cat").value(event.category);
+    json.name("ph").value(event.phase);
+    json.name("pid").value(PID);
+    json.name("tid").value(event.tid);
+    // Timestamps and durations are in microseconds
+    json.name("ts").value(TimeUnit.NANOSECONDS.toMicros(event.startNanos - startNanos));
+    if ("X".equals(event.phase)) {
+      json.name("dur").value(TimeUnit.NANOSECONDS.toMicros(event.durationNanos));
+    } else {
+      // Instant events are scoped to their thread
+      json.name("s").value("t");
+    }
+    if (!event.args.isEmpty()) {
+      json.name("args").beginObject();
+      for (var arg : event.args.entrySet()) {
+        json.name(arg.getKey());
+        if (arg.getValue() instanceof Number) {
+          json.value((Number) arg.getValue());
+        } else {
+          json.value(String.valueOf(arg.getValue()));
+        }
+      }
+      json.endObject();
+    }
+    json.endObject();
+  }
+
+}
@@ -24,6 +24,7 @@ import java.util.List;
 import org.sonar.api.PropertyType;
 import org.sonar.api.config.PropertyDefinition;
 import org.sonar.api.resources.Qualifiers;
+import org.sonarsource.sonarlint.omnisharp.protocol.OmnisharpEndpoints;
 
 import static org.sonarsource.sonarlint.omnisharp.OmnisharpPluginConstants.LANGUAGE_KEY;
 
@@ -75,16 +76,65 @@ public class CSharpPropertyDefinitions {
         .type(PropertyType.BOOLEAN)
         .hidden()
         .build());
+    result.add(
+      PropertyDefinition.builder(getScopedSolution())
+        .type(PropertyType.BOOLEAN)
+        .defaultValue("false")
+        .hidden()
+        .build());
     result.add(
       PropertyDefinition.builder(getLoadProjectsTimeout())
         .type(PropertyType.INTEGER)
-        .defaultValue("60")
         .hidden()
         .build());
     result.add(
       PropertyDefinition.builder(getStartupTimeout())
         .type(PropertyType.INTEGER)
-        .defaultValue("60")
+        .hidden()
+        .build());
+    result.add(
+      PropertyDefinition.builder(getStartupHistoryPath())
+        .hidden()
+        .build());
+    result.add(
+      PropertyDefinition.builder(getHealthCheckInterval())
+        .type(PropertyType.INTEGER)
+        .defaultValue(Long.toString(HealthCheckWatchdog.DEFAULT_INTERVAL.toSeconds()))
+        .hidden()
+        .build());
+    result.add(
+      PropertyDefinition.builder(getHealthCheckTimeout())
+        .type(PropertyType.INTEGER)
+        .defaultValue(Long.toString(HealthCheckWatchdog.DEFAULT_PING_TIMEOUT.toSeconds()))
+        .hidden()
+        .build());
+    result.add(
+      PropertyDefinition.builder(getHealthCheckMaxMissedPings())
+        .type(PropertyType.INTEGER)
+        .defaultValue(Integer.toString(HealthCheckWatchdog.DEFAULT_MAX_MISSED_PINGS))
+        .hidden()
+        .build());
+    result.add(
+      PropertyDefinition.builder(getMaxIssuesPerFile())
+        .type(PropertyType.INTEGER)
+        .defaultValue(Integer.toString(OmnisharpEndpoints.DEFAULT_MAX_ISSUES_PER_FILE))
+        .hidden()
+        .build());
+    result.add(
+      PropertyDefinition.builder(getProfileRules())
+        .type(PropertyType.BOOLEAN)
+        .defaultValue("false")
+        .hidden()
+        .build());
+    result.add(
+      PropertyDefinition.builder(getTraceDirectory())
+        .hidden()
+        .build());
+    result.add(
+      PropertyDefinition.builder(getLogLevel())
+        .description("Log level of the OmniSharp server (Trace, Debug, Information, Warning, Error, Critical or None). Defaults to the level matching the "
+          + "plugin log level. The level is passed to OmniSharp when the process starts, so a change of this property or of the plugin log level is only "
+          + "taken into account after the server is restarted.")
         .hidden()
         .build());
     result.add(
@@ -144,6 +194,10 @@ public class CSharpPropertyDefinitions {
     return PROP_PREFIX + LANGUAGE_KEY + ".internal.loadProjectsOnDemand";
   }
 
+  public static String getScopedSolution() {
+    return PROP_PREFIX + LANGUAGE_KEY + ".internal.scopedSolution";
+  }
+
   public static String getLoadProjectsTimeout() {
     return PROP_PREFIX + LANGUAGE_KEY + ".internal.loadProjectsTimeout";
   }
@@ -152,6 +206,38 @@ public class CSharpPropertyDefinitions {
     return PROP_PREFIX + LANGUAGE_KEY + ".internal.startupTimeout";
   }
 
+  public static String getStartupHistoryPath() {
+    return PROP_PREFIX + LANGUAGE_KEY + ".internal.startupHistoryPath";
+  }
+
+  public static String getHealthCheckInterval() {
+    return PROP_PREFIX + LANGUAGE_KEY + ".internal.healthCheckInterval";
+  }
+
+  public static String getHealthCheckTimeout() {
+    return PROP_PREFIX + LANGUAGE_KEY + ".internal.healthCheckTimeout";
+  }
+
+  public static String getHealthCheckMaxMissedPings() {
+    return PROP_PREFIX + LANGUAGE_KEY + ".internal.healthCheckMaxMissedPings";
+  }
+
+  public static String getMaxIssuesPerFile() {
+    return PROP_PREFIX + LANGUAGE_KEY + ".internal.maxIssuesPerFile";
+  }
+
+  public static String getProfileRules() {
+    return PROP_PREFIX + LANGUAGE_KEY + ".internal.profileRules";
+  }
+
+  public static String getTraceDirectory() {
+    return PROP_PREFIX + LANGUAGE_KEY + ".internal.traceDirectory";
+  }
+
+  public static String getLogLevel() {
+    return PROP_PREFIX + LANGUAGE_KEY + ".internal.loglevel";
+  }
+
   public static String getAnalyzerPath() {
     return PROP_PREFIX + LANGUAGE_KEY + ".internal.analyzerPath";
   }
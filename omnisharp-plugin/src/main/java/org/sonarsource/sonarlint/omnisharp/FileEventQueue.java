@@ -0,0 +1,221 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.sonar.api.Startable;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonarsource.api.sonarlint.SonarLintSide;
+import org.sonarsource.sonarlint.omnisharp.protocol.OmnisharpEndpoints;
+import org.sonarsource.sonarlint.omnisharp.protocol.OmnisharpEndpoints.FileChangeType;
+
+/**
+ * Collects file events and notifies OmniSharp in the background, so that the IDE is not blocked by a round-trip per file. Bursts (e.g. a branch switch) are
+ * debounced, events of the same file are merged, and the result is sent as a few multi-entry <code>/filesChanged</code> requests.
+ * <p>
+ * The debounce delay is timed by the shared scheduler, and events are sent from the pool for blocking work.
+ */
+@SonarLintSide(lifespan = SonarLintSide.MODULE)
+public class FileEventQueue implements Startable {
+
+  private static final Logger LOG = Loggers.get(FileEventQueue.class);
+
+  static final Duration DEFAULT_DEBOUNCE_DELAY = Duration.ofMillis(200);
+  /**
+   * Don't postpone notifications forever if events keep coming
+   */
+  static final Duration DEFAULT_MAX_DELAY = Duration.ofSeconds(1);
+  static final int MAX_BATCH_SIZE = 1000;
+
+  private final OmnisharpServerController server;
+  private final OmnisharpEndpoints omnisharpEndpoints;
+  private final Duration debounceDelay;
+  private final Duration maxDelay;
+  private final ScheduledExecutorService scheduler;
+  private final Executor executor;
+  /**
+   * Held while sending, so that batches are sent in order
+   */
+  private final Object sendLock = new Object();
+  private final Map<File, FileChangeType> pendingEvents = new LinkedHashMap<>();
+  private long firstPendingEventNanos;
+  private long lastEventNanos;
+  /**
+   * A single flush is scheduled at a time, whatever the number of events. It is postponed until events stop coming.
+   */
+  private final AtomicBoolean flushScheduled = new AtomicBoolean();
+  private volatile boolean stopped;
+
+  public FileEventQueue(OmnisharpServerController server, OmnisharpEndpoints omnisharpEndpoints, OmnisharpExecutors executors) {
+    this(server, omnisharpEndpoints, executors, DEFAULT_DEBOUNCE_DELAY, DEFAULT_MAX_DELAY);
+  }
+
+  FileEventQueue(OmnisharpServerController server, OmnisharpEndpoints omnisharpEndpoints, OmnisharpExecutors executors, Duration debounceDelay, Duration maxDelay) {
+    this(server, omnisharpEndpoints, executors.scheduler(), executors.background(), debounceDelay, maxDelay);
+  }
+
+  FileEventQueue(OmnisharpServerController server, OmnisharpEndpoints omnisharpEndpoints, ScheduledExecutorService scheduler, Executor executor, Duration debounceDelay,
+    Duration maxDelay) {
+    this.server = server;
+    this.scheduler = scheduler;
+    this.executor = executor;
+    this.omnisharpEndpoints = omnisharpEndpoints;
+    this.debounceDelay = debounceDelay;
+    this.maxDelay = maxDelay;
+  }
+
+  public void fileChanged(File file, FileChangeType type) {
+    if (stopped) {
+      return;
+    }
+    synchronized (pendingEvents) {
+      var now = System.nanoTime();
+      if (pendingEvents.isEmpty()) {
+        firstPendingEventNanos = now;
+      }
+      lastEventNanos = now;
+      var merged = merge(pendingEvents.remove(file), type);
+      if (merged != null) {
+        pendingEvents.put(file, merged);
+      }
+    }
+    if (flushScheduled.compareAndSet(false, true)) {
+      scheduleFlush(debounceDelay);
+    }
+  }
+
+  private void scheduleFlush(Duration delay) {
+    scheduler.schedule(() -> executor.execute(this::flushIfQuiet), delay.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @return the event equivalent to both events, or null if they cancel each other
+   */
+  @CheckForNull
+  static FileChangeType merge(@Nullable FileChangeType previous, FileChangeType current) {
+    if (previous == FileChangeType.CREATE) {
+      if (current == FileChangeType.DELETE) {
+        return null;
+      }
+      if (current == FileChangeType.CHANGE) {
+        return FileChangeType.CREATE;
+      }
+    } else if (previous == FileChangeType.DELETE && current == FileChangeType.CREATE) {
+      // The file has been replaced
+      return FileChangeType.CHANGE;
+    }
+    return current;
+  }
+
+  private void flushIfQuiet() {
+    if (stopped) {
+      return;
+    }
+    synchronized (pendingEvents) {
+      var now = System.nanoTime();
+      var quietFor = Duration.ofNanos(now - lastEventNanos);
+      var waitingFor = Duration.ofNanos(now - firstPendingEventNanos);
+      if (!pendingEvents.isEmpty() && quietFor.compareTo(debounceDelay) < 0 && waitingFor.compareTo(maxDelay) < 0) {
+        // Events keep coming, wait until they stop, but not longer than the max delay
+        var remaining = debounceDelay.minus(quietFor);
+        var beforeMaxDelay = maxDelay.minus(waitingFor);
+        scheduleFlush(remaining.compareTo(beforeMaxDelay) < 0 ? remaining : beforeMaxDelay);
+        return;
+      }
+      // Events received from now on need another flush
+      flushScheduled.set(false);
+    }
+    try {
+      flush();
+    } catch (Exception e) {
+      LOG.warn("Unable to notify OmniSharp of file changes: " + e.getMessage());
+      LOG.debug("Unable to notify OmniSharp of file changes", e);
+    }
+  }
+
+  /**
+   * Send pending events right away, e.g. before an analysis that should see them.
+   */
+  public void flush() {
+    synchronized (sendLock) {
+      List<Map<File, FileChangeType>> batches = drain();
+      if (batches.isEmpty()) {
+        return;
+      }
+      if (!server.isOmnisharpStarted()) {
+        // State of files will be read when the server starts
+        LOG.debug("Server not started, ignoring file events");
+        return;
+      }
+      for (var batch : batches) {
+        LOG.debug("Notifying OmniSharp of {} file event(s)", batch.size());
+        omnisharpEndpoints.filesChanged(batch);
+      }
+    }
+  }
+
+  private List<Map<File, FileChangeType>> drain() {
+    List<Map<File, FileChangeType>> batches = new ArrayList<>();
+    synchronized (pendingEvents) {
+      Map<File, FileChangeType> batch = new LinkedHashMap<>();
+      for (var event : pendingEvents.entrySet()) {
+        batch.put(event.getKey(), event.getValue());
+        if (batch.size() == MAX_BATCH_SIZE) {
+          batches.add(batch);
+          batch = new LinkedHashMap<>();
+        }
+      }
+      if (!batch.isEmpty()) {
+        batches.add(batch);
+      }
+      pendingEvents.clear();
+    }
+    return batches;
+  }
+
+  int getPendingEventsCount() {
+    synchronized (pendingEvents) {
+      return pendingEvents.size();
+    }
+  }
+
+  @Override
+  public void start() {
+    // Nothing to do
+  }
+
+  @Override
+  public void stop() {
+    stopped = true;
+  }
+
+}
@@ -0,0 +1,225 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp;
+
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Periodically pings a running OmniSharp server, and declares it unhealthy after a few missed deadlines in a row. Without it, a hung server only shows up as
+ * every request waiting for its full timeout.
+ * <p>
+ * Pings are timed by the shared scheduler, but sent from the pool for blocking work, since waiting for the answer of a hung server must not delay the timers
+ * of other servers.
+ * <p>
+ * Pings missed while the server is busy, loading projects or analyzing a file, are not counted: they are likely answered late because of the load, and these
+ * operations have their own timeouts.
+ */
+class HealthCheckWatchdog {
+
+  private static final Logger LOG = Loggers.get(HealthCheckWatchdog.class);
+
+  static final Duration DEFAULT_INTERVAL = Duration.ofSeconds(10);
+  static final Duration DEFAULT_PING_TIMEOUT = Duration.ofSeconds(5);
+  static final int DEFAULT_MAX_MISSED_PINGS = 3;
+
+  /**
+   * Thresholds of the health check, that can be tuned with hidden properties
+   */
+  static final class Settings {
+    private final Duration interval;
+    private final Duration pingTimeout;
+    private final int maxMissedPings;
+
+    Settings(Duration interval, Duration pingTimeout, int maxMissedPings) {
+      this.interval = interval;
+      this.pingTimeout = pingTimeout;
+      this.maxMissedPings = maxMissedPings;
+    }
+
+    static Settings from(Configuration config) {
+      return new Settings(
+        config.getInt(CSharpPropertyDefinitions.getHealthCheckInterval()).map(Duration::ofSeconds).orElse(DEFAULT_INTERVAL),
+        config.getInt(CSharpPropertyDefinitions.getHealthCheckTimeout()).map(Duration::ofSeconds).orElse(DEFAULT_PING_TIMEOUT),
+        config.getInt(CSharpPropertyDefinitions.getHealthCheckMaxMissedPings()).orElse(DEFAULT_MAX_MISSED_PINGS));
+    }
+
+    static Settings withInterval(Duration interval) {
+      return new Settings(interval, DEFAULT_PING_TIMEOUT, DEFAULT_MAX_MISSED_PINGS);
+    }
+
+    Duration getInterval() {
+      return interval;
+    }
+
+    Duration getPingTimeout() {
+      return pingTimeout;
+    }
+
+    int getMaxMissedPings() {
+      return maxMissedPings;
+    }
+  }
+
+  @FunctionalInterface
+  interface Pinger {
+    /**
+     * @throws IllegalStateException if the server didn't answer within the timeout
+     */
+    void ping(Duration timeout);
+  }
+
+  private final ScheduledExecutorService scheduler;
+  private final Executor pingExecutor;
+  private final Pinger pinger;
+  private final BooleanSupplier busy;
+  private final Runnable onUnhealthy;
+  private final Duration interval;
+  private final Duration pingTimeout;
+  private final int maxMissedPings;
+  private final AtomicInteger missedInARow = new AtomicInteger();
+  private final AtomicLong pingCount = new AtomicLong();
+  private final AtomicLong missedCount = new AtomicLong();
+  private final AtomicLong missedWhileBusyCount = new AtomicLong();
+  private final AtomicLong lastLatencyMs = new AtomicLong(-1);
+  private final AtomicLong maxLatencyMs = new AtomicLong(-1);
+  private volatile ScheduledFuture<?> scheduled;
+  private volatile boolean stopped;
+
+  /**
+   * @param pingExecutor runs the blocking pings, so that they don't delay other timers of the scheduler
+   * @param busy whether the server is currently busy, in which case missed pings are not counted
+   */
+  HealthCheckWatchdog(ScheduledExecutorService scheduler, Executor pingExecutor, Pinger pinger, BooleanSupplier busy, Runnable onUnhealthy, Settings settings) {
+    this.scheduler = scheduler;
+    this.pingExecutor = pingExecutor;
+    this.pinger = pinger;
+    this.busy = busy;
+    this.onUnhealthy = onUnhealthy;
+    this.interval = settings.getInterval();
+    this.pingTimeout = settings.getPingTimeout();
+    this.maxMissedPings = settings.getMaxMissedPings();
+  }
+
+  void start() {
+    scheduleNextCheck();
+  }
+
+  /**
+   * The next ping is only scheduled once the previous one is answered or missed, so that pings of a hung server don't pile up
+   */
+  private void scheduleNextCheck() {
+    if (stopped) {
+      return;
+    }
+    try {
+      scheduled = scheduler.schedule(() -> pingExecutor.execute(this::checkAndScheduleNext), interval.toMillis(), TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      // Shutting down
+      LOG.debug("Unable to schedule OmniSharp health check", e);
+    }
+  }
+
+  private void checkAndScheduleNext() {
+    check();
+    scheduleNextCheck();
+  }
+
+  void stop() {
+    stopped = true;
+    var current = scheduled;
+    if (current != null) {
+      current.cancel(false);
+    }
+  }
+
+  private void check() {
+    if (stopped) {
+      return;
+    }
+    pingCount.incrementAndGet();
+    var busyBefore = busy.getAsBoolean();
+    var startNanos = System.nanoTime();
+    try {
+      pinger.ping(pingTimeout);
+      var latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+      lastLatencyMs.set(latencyMs);
+      maxLatencyMs.accumulateAndGet(latencyMs, Math::max);
+      missedInARow.set(0);
+      LOG.trace("OmniSharp answered ping in {}ms", latencyMs);
+    } catch (Exception e) {
+      if (stopped) {
+        return;
+      }
+      // Also checked after the ping, in case the server became busy while waiting for the answer
+      if (busyBefore || busy.getAsBoolean()) {
+        missedWhileBusyCount.incrementAndGet();
+        LOG.debug("OmniSharp didn't answer ping while busy, not counted as missed: {}", e.getMessage());
+        return;
+      }
+      missedCount.incrementAndGet();
+      var missed = missedInARow.incrementAndGet();
+      LOG.debug("OmniSharp didn't answer ping ({}/{}): {}", missed, maxMissedPings, e.getMessage());
+      if (missed >= maxMissedPings) {
+        stop();
+        onUnhealthy.run();
+      }
+    }
+  }
+
+  long getPingCount() {
+    return pingCount.get();
+  }
+
+  long getMissedCount() {
+    return missedCount.get();
+  }
+
+  long getMissedWhileBusyCount() {
+    return missedWhileBusyCount.get();
+  }
+
+  /**
+   * @return latency of the last answered ping in ms, or -1 if no ping has been answered yet
+   */
+  long getLastLatencyMs() {
+    return lastLatencyMs.get();
+  }
+
+  long getMaxLatencyMs() {
+    return maxLatencyMs.get();
+  }
+
+  @Override
+  public String toString() {
+    return pingCount.get() + " ping(s), " + missedCount.get() + " missed, " + missedWhileBusyCount.get() + " missed while busy, last latency " + lastLatencyMs.get() + "ms, max latency " + maxLatencyMs.get() + "ms";
+  }
+
+}
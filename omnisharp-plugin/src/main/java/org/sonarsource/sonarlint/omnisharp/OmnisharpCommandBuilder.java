@@ -27,22 +27,29 @@ import java.util.Locale;
 import javax.annotation.Nullable;
 import org.sonar.api.config.Configuration;
 import org.sonar.api.utils.System2;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
 import org.sonarsource.api.sonarlint.SonarLintSide;
 import org.sonarsource.sonarlint.plugin.api.SonarLintRuntime;
 
 @SonarLintSide(lifespan = SonarLintSide.MODULE)
 public class OmnisharpCommandBuilder {
 
+  private static final Logger LOG = Loggers.get(OmnisharpCommandBuilder.class);
+
   private final System2 system2;
   private final SonarLintRuntime sonarLintRuntime;
   private final OmnisharpServicesExtractor servicesExtractor;
   private final Configuration config;
+  private final SolutionGenerator solutionGenerator;
 
-  public OmnisharpCommandBuilder(System2 system2, OmnisharpServicesExtractor servicesExtractor, SonarLintRuntime sonarLintRuntime, Configuration config) {
+  public OmnisharpCommandBuilder(System2 system2, OmnisharpServicesExtractor servicesExtractor, SonarLintRuntime sonarLintRuntime, Configuration config,
+    SolutionGenerator solutionGenerator) {
     this.system2 = system2;
     this.servicesExtractor = servicesExtractor;
     this.sonarLintRuntime = sonarLintRuntime;
     this.config = config;
+    this.solutionGenerator = solutionGenerator;
   }
 
   public ProcessBuilder buildNet6(Path projectBaseDir, @Nullable Path dotnetCliPath, @Nullable Path msBuildPath, @Nullable Path solutionPath, boolean loadProjectsOnDemand) {
@@ -80,7 +87,7 @@ public class OmnisharpCommandBuilder {
   }
 
   private ProcessBuilder addArguments(Path projectBaseDir, @Nullable Path msBuildPath, @Nullable Path solutionPath, boolean loadProjectsOnDemand, List<String> args) {
-    args.add("-v");
+    args.addAll(verbosityArguments());
     if (sonarLintRuntime.getClientPid() != 0) {
       args.add("--hostPID");
       args.add(Long.toString(sonarLintRuntime.getClientPid()));
@@ -93,7 +100,6 @@ public class OmnisharpCommandBuilder {
     args.add("--encoding");
     args.add("utf-8");
     args.add("-s");
-    // OmniSharp 1.39.10 doesn't support .slnx files, so pass the directory instead
     var pathToPass = getPathForOmniSharp(projectBaseDir, solutionPath);
     args.add(pathToPass);
     args.add("--plugin");
@@ -101,15 +107,38 @@ public class OmnisharpCommandBuilder {
     return new ProcessBuilder(args);
   }
 
-  private static String getPathForOmniSharp(Path projectBaseDir, @Nullable Path solutionPath) {
+  /**
+   * OmniSharp logs are only logged in debug, so don't let OmniSharp produce and send them otherwise. OmniSharp can't change its level once started, so the
+   * level is read at each start: a change of the plugin log level or of {@link CSharpPropertyDefinitions#getLogLevel()} needs a restart of the server.
+   */
+  private List<String> verbosityArguments() {
+    var configuredLevel = config.get(CSharpPropertyDefinitions.getLogLevel());
+    if (configuredLevel.isPresent()) {
+      return List.of("--loglevel", configuredLevel.get());
+    }
+    if (LOG.isTraceEnabled()) {
+      return List.of("--loglevel", "Trace");
+    }
+    if (LOG.isDebugEnabled()) {
+      return List.of("-v");
+    }
+    return List.of("--loglevel", "Warning");
+  }
+
+  private String getPathForOmniSharp(Path projectBaseDir, @Nullable Path solutionPath) {
     if (solutionPath == null) {
       return projectBaseDir.toString();
     }
     // OmniSharp 1.39.10 only supports .sln and .slnf files, not .slnx
-    // When we have a .slnx file, pass the directory instead so OmniSharp can discover projects
     var solutionPathStr = solutionPath.toString();
     if (solutionPathStr.toLowerCase(Locale.getDefault()).endsWith(".slnx")) {
-      return solutionPath.getParent() != null ? solutionPath.getParent().toString() : projectBaseDir.toString();
+      try {
+        return solutionGenerator.generateSln(solutionPath).toString();
+      } catch (Exception e) {
+        // Pass the directory instead so OmniSharp can discover projects
+        LOG.warn("Unable to convert " + solutionPath + ", all projects of its directory will be loaded: " + e.getMessage());
+        return solutionPath.getParent() != null ? solutionPath.getParent().toString() : projectBaseDir.toString();
+      }
     }
     return solutionPathStr;
   }
@@ -0,0 +1,148 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.sonar.api.Startable;
+import org.sonarsource.api.sonarlint.SonarLintSide;
+
+/**
+ * Threads shared by all OmniSharp servers of the SonarLint instance, so that their number doesn't grow with the number of servers:
+ * <ul>
+ *   <li>a single scheduler thread for timers (health checks, resource sampling, debouncing of file events, timeouts). Tasks run on it must be short and must
+ *   not block.</li>
+ *   <li>a bounded pool for blocking work (spawning servers, pings, writing on stdin, notifying file events, decoding large responses, callbacks that should
+ *   not run on the thread reading OmniSharp output). Its threads exit after being idle for a while. Blocking tasks must be bounded by a timeout, since other
+ *   tasks queue behind them once all threads are busy.</li>
+ *   <li>the {@link ProcessIoReactor} reading the output of all OmniSharp processes.</li>
+ * </ul>
+ * Components should use them rather than the common pool or {@link CompletableFuture#delayedExecutor(long, TimeUnit)}, whose threads are not owned by the
+ * plugin. Executors are created on first use, and shut down with the reactor thread when the plugin is stopped, so that no thread outlives it.
+ */
+@SonarLintSide(lifespan = SonarLintSide.INSTANCE)
+public final class OmnisharpExecutors implements Startable {
+
+  static final int MAX_BACKGROUND_THREADS = 16;
+  private static final long BACKGROUND_KEEP_ALIVE_SECONDS = 30;
+
+  private final Object lock = new Object();
+  private final ProcessIoReactor ioReactor = new ProcessIoReactor("omnisharp-io", task -> background().execute(task));
+  private volatile ScheduledExecutorService scheduler;
+  private volatile ExecutorService background;
+
+  @Override
+  public void start() {
+    // Executors are created on first use
+  }
+
+  @Override
+  public void stop() {
+    ScheduledExecutorService previousScheduler;
+    ExecutorService previousBackground;
+    synchronized (lock) {
+      previousScheduler = scheduler;
+      previousBackground = background;
+      scheduler = null;
+      background = null;
+    }
+    if (previousScheduler != null) {
+      previousScheduler.shutdownNow();
+    }
+    if (previousBackground != null) {
+      previousBackground.shutdownNow();
+    }
+    ioReactor.shutdown();
+  }
+
+  private static ScheduledExecutorService createScheduler() {
+    var newScheduler = new ScheduledThreadPoolExecutor(1, daemonThreads("omnisharp-scheduler-"));
+    // Health checks and samplers are cancelled when their server stops, don't keep them until their delay expires
+    newScheduler.setRemoveOnCancelPolicy(true);
+    return newScheduler;
+  }
+
+  private static ExecutorService createBackground() {
+    var newBackground = new ThreadPoolExecutor(MAX_BACKGROUND_THREADS, MAX_BACKGROUND_THREADS, BACKGROUND_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+      new LinkedBlockingQueue<>(), daemonThreads("omnisharp-background-"));
+    newBackground.allowCoreThreadTimeOut(true);
+    return newBackground;
+  }
+
+  private static ThreadFactory daemonThreads(String namePrefix) {
+    var count = new AtomicInteger();
+    return r -> {
+      var thread = new Thread(r, namePrefix + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  public ScheduledExecutorService scheduler() {
+    var current = scheduler;
+    if (current == null) {
+      synchronized (lock) {
+        if (scheduler == null) {
+          scheduler = createScheduler();
+        }
+        current = scheduler;
+      }
+    }
+    return current;
+  }
+
+  public ExecutorService background() {
+    var current = background;
+    if (current == null) {
+      synchronized (lock) {
+        if (background == null) {
+          background = createBackground();
+        }
+        current = background;
+      }
+    }
+    return current;
+  }
+
+  ProcessIoReactor ioReactor() {
+    return ioReactor;
+  }
+
+  /**
+   * Same as {@link CompletableFuture#orTimeout(long, TimeUnit)}, on the {@link #scheduler()}.
+   */
+  public <T> CompletableFuture<T> orTimeout(CompletableFuture<T> future, Duration timeout) {
+    if (!future.isDone()) {
+      var timeoutTask = scheduler().schedule(() -> future.completeExceptionally(new TimeoutException()), timeout.toMillis(), TimeUnit.MILLISECONDS);
+      future.whenComplete((r, t) -> timeoutTask.cancel(false));
+    }
+    return future;
+  }
+
+}
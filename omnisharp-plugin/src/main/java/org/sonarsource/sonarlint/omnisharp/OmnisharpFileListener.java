@@ -28,39 +28,47 @@ import org.sonarsource.sonarlint.plugin.api.module.file.ModuleFileListener;
 @SonarLintSide(lifespan = "MODULE")
 public class OmnisharpFileListener implements ModuleFileListener {
 
-  private final OmnisharpEndpoints omnisharpEndpoints;
+  private final FileEventQueue fileEventQueue;
   private final OmnisharpServerController serverController;
+  private final WorkspaceState workspaceState;
 
-  public OmnisharpFileListener(OmnisharpServerController serverController, OmnisharpEndpoints omnisharpEndpoints) {
+  public OmnisharpFileListener(OmnisharpServerController serverController, FileEventQueue fileEventQueue, WorkspaceState workspaceState) {
     this.serverController = serverController;
-    this.omnisharpEndpoints = omnisharpEndpoints;
+    this.fileEventQueue = fileEventQueue;
+    this.workspaceState = workspaceState;
   }
 
   @Override
   public void process(ModuleFileEvent event) {
+    File file = event.getTarget().file();
+    // Even if the server is not started, it may be restarting after a crash and would replay the buffer
+    workspaceState.fileChanged(file.toPath());
+    if (event.getType() == ModuleFileEvent.Type.MODIFIED && file.getName().endsWith(".csproj") && serverController.scopedProjectChanged()) {
+      // Project references may have changed, so the scoped solution has to be generated again, even if OmniSharp is still starting
+      return;
+    }
     if (!serverController.isOmnisharpStarted()) {
       return;
     }
-    File file = event.getTarget().file();
     switch (event.getType()) {
       case CREATED:
         if (file.getName().endsWith(".sln") || file.getName().endsWith(".slnx") || file.getName().endsWith(".csproj")) {
           // Stop the server so that it is restarted during the next analysis and take into account changes to the solution, or added
           // projects
-          serverController.stopServer();
+          serverController.stopServerAsync();
         } else {
-          omnisharpEndpoints.fileChanged(file, OmnisharpEndpoints.FileChangeType.CREATE);
+          fileEventQueue.fileChanged(file, OmnisharpEndpoints.FileChangeType.CREATE);
         }
         break;
       case DELETED:
-        omnisharpEndpoints.fileChanged(file, OmnisharpEndpoints.FileChangeType.DELETE);
+        fileEventQueue.fileChanged(file, OmnisharpEndpoints.FileChangeType.DELETE);
         break;
       case MODIFIED:
         if (file.getName().endsWith(".sln") || file.getName().endsWith(".slnx")) {
           // Stop the server so that it is restarted during the next analysis and take into account changes to the solution
-          serverController.stopServer();
+          serverController.stopServerAsync();
         } else {
-          omnisharpEndpoints.fileChanged(file, OmnisharpEndpoints.FileChangeType.CHANGE);
+          fileEventQueue.fileChanged(file, OmnisharpEndpoints.FileChangeType.CHANGE);
         }
         break;
       default:
@@ -0,0 +1,218 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.annotation.Nullable;
+import org.sonarsource.api.sonarlint.SonarLintSide;
+
+/**
+ * Runtime metrics of the communication with OmniSharp. Components record events here, or register gauges for the counters they already maintain. Values are
+ * cumulative since the module started, and can be polled at any time with {@link #snapshot()}.
+ */
+@SonarLintSide(lifespan = SonarLintSide.MODULE)
+public class OmnisharpMetrics {
+
+  /**
+   * Upper bounds of histogram buckets, whatever the unit
+   */
+  static final long[] BUCKET_BOUNDS = {0, 1, 2, 5, 10, 20, 50, 100, 200, 500, 1_000, 2_000, 5_000, 10_000, 20_000, 50_000, 100_000};
+
+  /**
+   * Distribution of values in fixed buckets, so that recording is lock-free and takes constant memory. Percentiles are approximated by the upper bound of
+   * their bucket.
+   */
+  static class Histogram {
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long value) {
+      var index = Arrays.binarySearch(BUCKET_BOUNDS, value);
+      counts.incrementAndGet(index >= 0 ? index : (-index - 1));
+      sum.add(value);
+      max.accumulateAndGet(value, Math::max);
+    }
+
+    long getCount() {
+      long count = 0;
+      for (int i = 0; i < counts.length(); i++) {
+        count += counts.get(i);
+      }
+      return count;
+    }
+
+    long getMax() {
+      return max.get();
+    }
+
+    long percentile(double percentile) {
+      var count = getCount();
+      if (count == 0) {
+        return 0;
+      }
+      var rank = (long) Math.ceil(percentile * count);
+      long cumulated = 0;
+      for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+        cumulated += counts.get(i);
+        if (cumulated >= rank) {
+          return Math.min(BUCKET_BOUNDS[i], max.get());
+        }
+      }
+      return max.get();
+    }
+
+    private void addTo(String name, Map<String, Long> snapshot) {
+      var count = getCount();
+      snapshot.put(name + ".count", count);
+      snapshot.put(name + ".mean", count == 0 ? 0 : (sum.sum() / count));
+      snapshot.put(name + ".p50", percentile(0.5));
+      snapshot.put(name + ".p95", percentile(0.95));
+      snapshot.put(name + ".p99", percentile(0.99));
+      snapshot.put(name + ".max", max.get());
+    }
+  }
+
+  private final Map<String, Histogram> requestLatencies = new ConcurrentHashMap<>();
+  private final Histogram requestQueueTime = new Histogram();
+  private final Histogram decodeTime = new Histogram();
+  private final Histogram issuesPerFile = new Histogram();
+  private final Map<String, LongAdder> restarts = new ConcurrentHashMap<>();
+  private final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+  /**
+   * Bytes exchanged with processes that have exited, and lines of their output that were too large, the current one is polled
+   */
+  private final AtomicLong previousStdinBytes = new AtomicLong();
+  private final AtomicLong previousStdoutBytes = new AtomicLong();
+  private final AtomicLong previousStdoutSpilledLines = new AtomicLong();
+  private final AtomicLong previousStdoutDroppedLines = new AtomicLong();
+  @Nullable
+  private volatile ProcessWrapper currentProcess;
+
+  public OmnisharpMetrics() {
+    gauge("stdin.bytes", () -> {
+      var process = currentProcess;
+      return previousStdinBytes.get() + (process != null ? process.getStdinWriter().getWrittenBytes() : 0);
+    });
+    gauge("stdout.bytes", () -> {
+      var process = currentProcess;
+      return previousStdoutBytes.get() + (process != null ? process.getStdOutBytesRead() : 0);
+    });
+    gauge("stdin.queued", () -> {
+      var process = currentProcess;
+      return process != null ? process.getStdinWriter().getQueueDepth() : 0;
+    });
+    gauge("stdout.spilledLines", () -> {
+      var process = currentProcess;
+      return previousStdoutSpilledLines.get() + (process != null ? process.getStdOutSpilledLines() : 0);
+    });
+    gauge("stdout.droppedLines", () -> {
+      var process = currentProcess;
+      return previousStdoutDroppedLines.get() + (process != null ? process.getStdOutDroppedLines() : 0);
+    });
+  }
+
+  /**
+   * Register a value maintained by another component, read when a snapshot is taken
+   */
+  public void gauge(String name, LongSupplier value) {
+    gauges.put(name, value);
+  }
+
+  /**
+   * @param nanos time between the request being queued for writing and its response being received
+   */
+  public void requestCompleted(String command, long nanos) {
+    requestLatencies.computeIfAbsent(command, c -> new Histogram()).record(TimeUnit.NANOSECONDS.toMillis(nanos));
+  }
+
+  /**
+   * @param nanos time spent waiting for a slot of the request scheduler
+   */
+  public void requestScheduled(long nanos) {
+    requestQueueTime.record(TimeUnit.NANOSECONDS.toMillis(nanos));
+  }
+
+  public void messageDecoded(long nanos) {
+    decodeTime.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+  }
+
+  /**
+   * @param issuesCount all issues reported by OmniSharp for the file, including the ones dropped because there were too many of them
+   */
+  public void fileAnalyzed(long issuesCount) {
+    issuesPerFile.record(issuesCount);
+  }
+
+  public void serverRestarted(String reason) {
+    restarts.computeIfAbsent(reason, r -> new LongAdder()).increment();
+  }
+
+  public void processStarted(ProcessWrapper process) {
+    currentProcess = process;
+    process.getTerminationFuture().whenComplete((r, t) -> {
+      synchronized (this) {
+        previousStdinBytes.addAndGet(process.getStdinWriter().getWrittenBytes());
+        previousStdoutBytes.addAndGet(process.getStdOutBytesRead());
+        previousStdoutSpilledLines.addAndGet(process.getStdOutSpilledLines());
+        previousStdoutDroppedLines.addAndGet(process.getStdOutDroppedLines());
+        if (currentProcess == process) {
+          currentProcess = null;
+        }
+      }
+    });
+  }
+
+  /**
+   * @return current value of all metrics, sorted by name. Durations are in milliseconds, except decode times that are in microseconds.
+   */
+  public synchronized SortedMap<String, Long> snapshot() {
+    SortedMap<String, Long> snapshot = new TreeMap<>();
+    requestLatencies.forEach((command, histogram) -> histogram.addTo("request.latencyMs." + command, snapshot));
+    requestQueueTime.addTo("request.queueTimeMs", snapshot);
+    decodeTime.addTo("response.decodeTimeUs", snapshot);
+    issuesPerFile.addTo("issuesPerFile", snapshot);
+    snapshot.put("restarts", restarts.values().stream().mapToLong(LongAdder::sum).sum());
+    restarts.forEach((reason, count) -> snapshot.put("restarts." + reason, count.sum()));
+    gauges.forEach((name, value) -> snapshot.put(name, value.getAsLong()));
+    return Collections.unmodifiableSortedMap(snapshot);
+  }
+
+  /**
+   * @return one <code>name=value</code> line per metric
+   */
+  public String dump() {
+    var sb = new StringBuilder();
+    snapshot().forEach((name, value) -> sb.append("\n  ").append(name).append('=').append(value));
+    return sb.toString();
+  }
+
+}
@@ -35,8 +35,14 @@ public class OmnisharpPlugin implements Plugin {
         OmnisharpEndpoints.class,
         OmnisharpServicesExtractor.class,
         OmnisharpFileListener.class,
+        FileEventQueue.class,
         OmnisharpResponseProcessor.class,
-        OmnisharpCommandBuilder.class);
+        OmnisharpCommandBuilder.class,
+        SolutionGenerator.class,
+        StartupHistory.class,
+        WorkspaceState.class,
+        OmnisharpMetrics.class,
+        OmnisharpExecutors.class);
     }
 
     context.addExtension(CSharpLanguage.class);
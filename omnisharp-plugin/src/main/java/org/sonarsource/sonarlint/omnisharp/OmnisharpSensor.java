@@ -24,12 +24,20 @@ import com.google.gson.JsonObject;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
+import javax.annotation.Nullable;
 import org.sonar.api.batch.fs.FilePredicate;
 import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.batch.rule.ActiveRule;
@@ -41,6 +49,7 @@ import org.sonar.api.batch.sensor.issue.NewIssueLocation;
 import org.sonar.api.rule.RuleKey;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
+import org.sonar.api.utils.log.Profiler;
 import org.sonarsource.analyzer.commons.ProgressReport;
 import org.sonarsource.sonarlint.omnisharp.protocol.Diagnostic;
 import org.sonarsource.sonarlint.omnisharp.protocol.DiagnosticLocation;
@@ -48,17 +57,31 @@ import org.sonarsource.sonarlint.omnisharp.protocol.Fix;
 import org.sonarsource.sonarlint.omnisharp.protocol.OmnisharpEndpoints;
 import org.sonarsource.sonarlint.omnisharp.protocol.QuickFix;
 import org.sonarsource.sonarlint.omnisharp.protocol.QuickFixEdit;
+import org.sonarsource.sonarlint.omnisharp.protocol.RequestScheduler.Lane;
 
 public class OmnisharpSensor implements Sensor {
 
   private static final Logger LOG = Loggers.get(OmnisharpSensor.class);
 
+  /**
+   * Analyses of a few files are most likely triggered by the user editing them, so they are served before larger ones
+   */
+  static final int INTERACTIVE_MAX_FILES = 5;
+
   private final OmnisharpServerController server;
   private final OmnisharpEndpoints omnisharpEndpoints;
+  private final FileEventQueue fileEventQueue;
+  private final WorkspaceState workspaceState;
+  private final OmnisharpMetrics metrics;
+  private final AtomicLong analysisCount = new AtomicLong();
 
-  public OmnisharpSensor(OmnisharpServerController server, OmnisharpEndpoints omnisharpEndpoints) {
+  public OmnisharpSensor(OmnisharpServerController server, OmnisharpEndpoints omnisharpEndpoints, FileEventQueue fileEventQueue, WorkspaceState workspaceState,
+    OmnisharpMetrics metrics) {
     this.server = server;
     this.omnisharpEndpoints = omnisharpEndpoints;
+    this.fileEventQueue = fileEventQueue;
+    this.workspaceState = workspaceState;
+    this.metrics = metrics;
   }
 
   @Override
@@ -78,6 +101,23 @@ public class OmnisharpSensor implements Sensor {
     if (!context.fileSystem().hasFiles(predicate)) {
       return;
     }
+    var trace = AnalysisTrace.create(context.config().get(CSharpPropertyDefinitions.getTraceDirectory()).map(Paths::get).orElse(null));
+    try {
+      startAndAnalyze(context, predicate, trace);
+    } finally {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("OmniSharp metrics:{}", metrics.dump());
+      }
+      if (trace.isEnabled()) {
+        trace.addStartup(server.getStartupReport());
+        trace.write();
+      }
+    }
+  }
+
+  private void startAndAnalyze(SensorContext context, FilePredicate predicate, AnalysisTrace trace) {
+    CompletableFuture<Void> startFuture;
+    List<InputFile> inputFiles = null;
     try {
       Path analyzerPluginPath = context.config().get(CSharpPropertyDefinitions.getAnalyzerPath()).map(Paths::get).orElse(null);
       Path dotnetCliExePath = context.config().get(CSharpPropertyDefinitions.getDotnetCliExeLocation()).map(Paths::get).orElse(null);
@@ -86,21 +126,65 @@ public class OmnisharpSensor implements Sensor {
       Path solutionPath = context.config().get(CSharpPropertyDefinitions.getSolutionPath()).map(Paths::get).orElse(null);
       boolean useFramework = context.config().getBoolean(CSharpPropertyDefinitions.getUseNet6()).orElse(false);
       boolean loadProjectsOnDemand = context.config().getBoolean(CSharpPropertyDefinitions.getLoadProjectsOnDemand()).orElse(false);
-      int startupTimeOutSec = context.config().getInt(CSharpPropertyDefinitions.getStartupTimeout()).orElse(60);
-      int loadProjectsTimeOutSec = context.config().getInt(CSharpPropertyDefinitions.getLoadProjectsTimeout()).orElse(60);
-      server.lazyStart(context.fileSystem().baseDir().toPath(), analyzerPluginPath, useFramework, loadProjectsOnDemand, dotnetCliExePath, monoExePath, msBuildPath, solutionPath,
-        startupTimeOutSec, loadProjectsTimeOutSec);
+      // Only explicitly configured timeouts are passed, others are adapted to the solution
+      Integer startupTimeOutSec = context.config().getInt(CSharpPropertyDefinitions.getStartupTimeout()).orElse(null);
+      Integer loadProjectsTimeOutSec = context.config().getInt(CSharpPropertyDefinitions.getLoadProjectsTimeout()).orElse(null);
+      if (context.config().getBoolean(CSharpPropertyDefinitions.getScopedSolution()).orElse(false)) {
+        // Files have to be known before starting, so that OmniSharp only loads their projects
+        inputFiles = indexInputFiles(context, predicate);
+        server.extendAnalysisScope(inputFiles.stream().map(InputFile::path).collect(Collectors.toList()));
+      }
+      startFuture = server.lazyStartAsync(context.fileSystem().baseDir().toPath(), analyzerPluginPath, useFramework, loadProjectsOnDemand, dotnetCliExePath, monoExePath,
+        msBuildPath, solutionPath, startupTimeOutSec, loadProjectsTimeOutSec);
+    } catch (Exception e) {
+      throw new IllegalStateException("Unable to start OmniSharp", e);
+    }
+
+    // Prepare the analysis while OmniSharp is starting
+    if (inputFiles == null) {
+      inputFiles = indexInputFiles(context, predicate);
+    }
+    var profiler = Profiler.create(LOG).startDebug("Building rules configuration");
+    JsonObject config = buildRulesConfig(context);
+    profiler.stopDebug();
+
+    var startSpan = trace.begin("Wait for server start", AnalysisTrace.WAIT);
+    try {
+      server.awaitStart(startFuture);
     } catch (InterruptedException e) {
       LOG.warn("Interrupted", e);
       Thread.currentThread().interrupt();
       return;
     } catch (Exception e) {
       throw new IllegalStateException("Unable to start OmniSharp", e);
+    } finally {
+      startSpan.close();
     }
 
+    var lane = inputFiles.size() <= INTERACTIVE_MAX_FILES ? Lane.INTERACTIVE : Lane.BACKGROUND;
+    server.analysisStarted("analysis #" + analysisCount.incrementAndGet() + " (" + inputFiles.size() + " file(s))");
     try {
-      server.whenReady().get();
-      analyze(context, predicate);
+      // Rules configuration doesn't depend on projects, so send it while they are loading
+      profiler.startDebug("Sending rules configuration");
+      var configSpan = trace.begin("/sonarlint/config", AnalysisTrace.REQUEST);
+      try {
+        omnisharpEndpoints.config(config, lane);
+      } finally {
+        configSpan.close();
+      }
+      workspaceState.configSent(config);
+      profiler.stopDebug();
+      profiler.startDebug("Waiting for projects to load");
+      var loadSpan = trace.begin("Wait for projects to load", AnalysisTrace.WAIT);
+      try {
+        server.whenReady().get();
+      } finally {
+        loadSpan.close();
+      }
+      profiler.stopDebug();
+      // OmniSharp should know about files changed since the last analysis
+      fileEventQueue.flush();
+      analyze(context, inputFiles, lane, trace);
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
     } catch (ExecutionException e) {
@@ -111,9 +195,18 @@ public class OmnisharpSensor implements Sensor {
         return;
       }
       throw new IllegalStateException("Analysis failed: " + e.getMessage(), e.getCause());
+    } finally {
+      server.analysisFinished();
     }
   }
 
+  private static List<InputFile> indexInputFiles(SensorContext context, FilePredicate predicate) {
+    var profiler = Profiler.create(LOG).startDebug("Indexing input files");
+    List<InputFile> inputFiles = StreamSupport.stream(context.fileSystem().inputFiles(predicate).spliterator(), false).collect(Collectors.toList());
+    profiler.stopDebug();
+    return inputFiles;
+  }
+
   private static FilePredicate getIsCsharpLanguageAndNotRazorFilesPredicate(SensorContext context) {
     return context.fileSystem().predicates().and(
       context.fileSystem().predicates().hasLanguage(OmnisharpPluginConstants.LANGUAGE_KEY),
@@ -121,23 +214,44 @@ public class OmnisharpSensor implements Sensor {
     );
   }
 
-  private void analyze(SensorContext context, FilePredicate predicate) {
-    JsonObject config = buildRulesConfig(context);
-    omnisharpEndpoints.config(config);
-
+  private void analyze(SensorContext context, List<InputFile> inputFiles, Lane lane, AnalysisTrace trace) throws InterruptedException, ExecutionException {
+    int maxIssuesPerFile = context.config().getInt(CSharpPropertyDefinitions.getMaxIssuesPerFile()).orElse(OmnisharpEndpoints.DEFAULT_MAX_ISSUES_PER_FILE);
+    var ruleExecutionTimes = context.config().getBoolean(CSharpPropertyDefinitions.getProfileRules()).orElse(false) ? new RuleExecutionTimes() : null;
     ProgressReport progressReport = new ProgressReport("Report about progress of OmniSharp analyzer", TimeUnit.SECONDS.toMillis(10));
-    progressReport.start(StreamSupport.stream(context.fileSystem().inputFiles(predicate).spliterator(), false).map(InputFile::toString).collect(Collectors.toList()));
+    progressReport.start(inputFiles.stream().map(InputFile::toString).collect(Collectors.toList()));
     boolean successfullyCompleted = false;
     boolean cancelled = false;
     try {
-
-      for (InputFile inputFile : context.fileSystem().inputFiles(predicate)) {
+      // Analyze files as soon as their project is loaded, instead of waiting for the whole solution
+      // Files whose project is already loaded are queued right away, in the order of input files
+      BlockingQueue<Map.Entry<InputFile, CompletableFuture<Void>>> readyFiles = new LinkedBlockingQueue<>();
+      for (InputFile inputFile : inputFiles) {
+        var fileReady = server.whenFileReady(inputFile.path());
+        fileReady.whenComplete((r, e) -> readyFiles.add(Map.entry(inputFile, fileReady)));
+      }
+      var pendingFilesCount = inputFiles.size();
+      while (pendingFilesCount > 0) {
         if (context.isCancelled()) {
           cancelled = true;
           break;
         }
-        scanFile(context, inputFile);
-        progressReport.nextFile();
+        var readyFile = readyFiles.poll();
+        if (readyFile == null) {
+          var waitSpan = trace.begin("Wait for project of next file", AnalysisTrace.WAIT);
+          try {
+            // Give a chance to check for cancellation
+            readyFile = readyFiles.poll(1, TimeUnit.SECONDS);
+          } finally {
+            waitSpan.close();
+          }
+        }
+        if (readyFile != null) {
+          pendingFilesCount--;
+          if (isProjectLoaded(readyFile.getKey(), readyFile.getValue())) {
+            scanFile(context, readyFile.getKey(), lane, maxIssuesPerFile, ruleExecutionTimes, trace);
+          }
+          progressReport.nextFile();
+        }
       }
       successfullyCompleted = !cancelled;
     } finally {
@@ -146,6 +260,26 @@ public class OmnisharpSensor implements Sensor {
       } else {
         progressReport.cancel();
       }
+      if (ruleExecutionTimes != null) {
+        ruleExecutionTimes.log();
+      }
+    }
+  }
+
+  /**
+   * @return false if the project of the file was not loaded before the timeout, in which case its analysis would be incomplete
+   */
+  private static boolean isProjectLoaded(InputFile inputFile, CompletableFuture<Void> fileReady) throws InterruptedException, ExecutionException {
+    try {
+      // Propagate the failure if project loading was aborted
+      fileReady.get();
+      return true;
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof TimeoutException) {
+        LOG.warn("Skipping analysis of {}, its project was not loaded in time: {}", inputFile, e.getCause().getMessage());
+        return false;
+      }
+      throw e;
     }
   }
 
@@ -168,15 +302,42 @@ public class OmnisharpSensor implements Sensor {
     return config;
   }
 
-  private void scanFile(SensorContext context, InputFile f) {
+  private void scanFile(SensorContext context, InputFile f, Lane lane, int maxIssues, @Nullable RuleExecutionTimes ruleExecutionTimes, AnalysisTrace trace) {
     String buffer;
     try {
       buffer = f.contents();
     } catch (IOException e) {
       throw new IllegalStateException("Unable to read file buffer", e);
     }
-    omnisharpEndpoints.updateBuffer(f.file(), buffer);
-    omnisharpEndpoints.codeCheck(f.file(), diag -> handle(context, diag));
+    var updateBufferSpan = trace.begin("/updatebuffer", AnalysisTrace.REQUEST).arg("file", f.toString()).arg("size", buffer.length());
+    try {
+      omnisharpEndpoints.updateBuffer(f.file(), buffer, lane);
+    } finally {
+      updateBufferSpan.close();
+    }
+    if (lane == Lane.INTERACTIVE) {
+      // Unsaved buffers only come from files being edited, don't read the whole project from disk again to find them
+      workspaceState.bufferSent(f.path(), f.charset(), buffer);
+    }
+    // A span per issue would make the trace grow with the number of issues, only count them and add up the time spent converting them
+    var issuesCount = new AtomicInteger();
+    var conversionNanos = new AtomicLong();
+    Consumer<Diagnostic> issueHandler = diag -> {
+      issuesCount.incrementAndGet();
+      var start = System.nanoTime();
+      handle(context, diag);
+      conversionNanos.addAndGet(System.nanoTime() - start);
+    };
+    var codeCheckSpan = trace.begin("/sonarlint/codecheck", AnalysisTrace.REQUEST).arg("file", f.toString()).arg("size", buffer.length());
+    try {
+      if (ruleExecutionTimes != null) {
+        omnisharpEndpoints.codeCheck(f.file(), lane, maxIssues, issueHandler, ruleExecutionTimes::add);
+      } else {
+        omnisharpEndpoints.codeCheck(f.file(), lane, maxIssues, issueHandler);
+      }
+    } finally {
+      codeCheckSpan.arg("issues", issuesCount.get()).arg("conversionMs", conversionNanos.get() / 1_000 / 1_000.0).close();
+    }
   }
 
   private static void handle(SensorContext context, Diagnostic diag) {
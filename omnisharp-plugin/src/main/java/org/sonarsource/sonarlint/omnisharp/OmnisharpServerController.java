@@ -21,125 +21,243 @@ package org.sonarsource.sonarlint.omnisharp;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
 import org.sonar.api.Startable;
+import org.sonar.api.config.Configuration;
 import org.sonar.api.scanner.ScannerSide;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
+import org.sonar.api.utils.log.Profiler;
 import org.sonarsource.api.sonarlint.SonarLintSide;
+import org.sonarsource.sonarlint.omnisharp.SolutionGenerator.ScopedSolution;
+import org.sonarsource.sonarlint.omnisharp.StdinWriter.Backpressure;
 import org.sonarsource.sonarlint.omnisharp.protocol.OmnisharpEndpoints;
 import org.sonarsource.sonarlint.omnisharp.protocol.OmnisharpResponseProcessor;
+import org.sonarsource.sonarlint.omnisharp.protocol.RequestScheduler.Lane;
 
 import static java.util.stream.Collectors.joining;
 
+/**
+ * Starts and stops the OmniSharp process. The server state is an immutable {@link ServerState} snapshot, only updated by atomic transitions, so that concurrent
+ * sensors and listeners never wait on a lock: starting and stopping return futures, and only callers that need the result block on them.
+ */
 @ScannerSide
 @SonarLintSide(lifespan = SonarLintSide.MODULE)
 public class OmnisharpServerController implements Startable {
 
   private static final Logger LOG = Loggers.get(OmnisharpServerController.class);
 
-  enum ServerState {
+  /**
+   * Used for startup and project loading when the user didn't configure them, and the solution has no history yet
+   */
+  static final int DEFAULT_TIMEOUT_SEC = 60;
+  static final Duration PER_PROJECT_LOAD_TIMEOUT = Duration.ofSeconds(2);
+  static final Duration STOP_TIMEOUT = Duration.ofSeconds(1);
+  static final int MAX_AUTOMATIC_RESTARTS = 3;
+  static final Duration AUTOMATIC_RESTARTS_WINDOW = Duration.ofMinutes(10);
+
+  enum ServerStatus {
+    PROCESS_STARTING,
     PROCESS_STARTED,
     OMNISHARP_STARTED,
     STOPPING,
     STOPPED
   }
 
-  private static class ServerStateMachine {
-    private volatile ServerState state = ServerState.STOPPED;
-    private ProcessWrapper processWrapper;
-    private CompletableFuture<Integer> terminationFuture = CompletableFuture.completedFuture(0);
-    private CompletableFuture<Void> startFuture = failedNotStarted();
-    private CompletableFuture<Void> loadProjectsFuture = failedNotStarted();
-
-    private static CompletableFuture<Void> failedNotStarted() {
-      return CompletableFuture.failedFuture(new IllegalStateException("OmniSharp not started"));
+  /**
+   * Parameters that require to restart OmniSharp when they change.
+   */
+  private static final class ServerConfig {
+    private final Path projectBaseDir;
+    private final Path analyzerJarPath;
+    private final boolean useNet6;
+    private final boolean loadProjectsOnDemand;
+    @Nullable
+    private final Path dotnetCliPath;
+    @Nullable
+    private final Path monoPath;
+    @Nullable
+    private final Path msBuildPath;
+    @Nullable
+    private final Path solutionPath;
+    /**
+     * Not compared, only kept to start again after a crash. Null if not explicitly configured.
+     */
+    @Nullable
+    private final Integer serverStartupTimeoutSec;
+    @Nullable
+    private final Integer loadProjectsTimeoutSec;
+
+    private ServerConfig(Path projectBaseDir, Path analyzerJarPath, boolean useNet6, boolean loadProjectsOnDemand, @Nullable Path dotnetCliPath, @Nullable Path monoPath,
+      @Nullable Path msBuildPath, @Nullable Path solutionPath, @Nullable Integer serverStartupTimeoutSec, @Nullable Integer loadProjectsTimeoutSec) {
+      this.projectBaseDir = projectBaseDir;
+      this.analyzerJarPath = analyzerJarPath;
+      this.useNet6 = useNet6;
+      this.loadProjectsOnDemand = loadProjectsOnDemand;
+      this.dotnetCliPath = dotnetCliPath;
+      this.monoPath = monoPath;
+      this.msBuildPath = msBuildPath;
+      this.solutionPath = solutionPath;
+      this.serverStartupTimeoutSec = serverStartupTimeoutSec;
+      this.loadProjectsTimeoutSec = loadProjectsTimeoutSec;
     }
 
-    private static CompletableFuture<Void> failedToStart(Exception e) {
-      return CompletableFuture.failedFuture(e);
+    private List<String> differencesWith(ServerConfig other) {
+      var differences = new ArrayList<String>();
+      addIfDifferent(projectBaseDir, other.projectBaseDir, "project basedir", differences);
+      addIfDifferent(analyzerJarPath, other.analyzerJarPath, "analyzer JAR path", differences);
+      addIfDifferent(dotnetCliPath, other.dotnetCliPath, "dotnet CLI path", differences);
+      addIfDifferent(monoPath, other.monoPath, "Mono location", differences);
+      addIfDifferent(msBuildPath, other.msBuildPath, "MSBuild path", differences);
+      addIfDifferent(solutionPath, other.solutionPath, "solution path", differences);
+      addIfDifferent(useNet6, other.useNet6, "flavor of OmniSharp", differences);
+      addIfDifferent(loadProjectsOnDemand, other.loadProjectsOnDemand, "load projects on demand setting", differences);
+      return differences;
     }
 
-    public boolean isStopped() {
-      return state == ServerState.STOPPED;
+    private static void addIfDifferent(@Nullable Object value, @Nullable Object otherValue, String label, List<String> differences) {
+      if (!Objects.equals(value, otherValue)) {
+        differences.add(label);
+      }
     }
 
-    public boolean isOmnisharpStarted() {
-      return state == ServerState.OMNISHARP_STARTED;
+    private String getSolutionKey() {
+      return (solutionPath != null ? solutionPath : projectBaseDir).toAbsolutePath().normalize().toString();
     }
+  }
 
-    public synchronized void processStarted(ProcessWrapper processWrapper, CompletableFuture<Void> startFuture, CompletableFuture<Void> loadProjectsFuture,
-      boolean loadProjectsOnDemand) {
+  /**
+   * Immutable snapshot of the server. Each start attempt has its own futures, and events of an attempt are only applied while the current snapshot belongs to
+   * this attempt, so that late events of a previous process can't change the state of the next one.
+   */
+  private static final class ServerState {
+    private final ServerStatus status;
+    @Nullable
+    private final ServerConfig config;
+    /**
+     * Completed by the response processor when OmniSharp sends the started event. Also identifies the start attempt.
+     */
+    private final CompletableFuture<Void> pendingStartFuture;
+    private final CompletableFuture<Void> pendingLoadProjectsFuture;
+    private final CompletableFuture<Void> processSpawnedFuture;
+    private final CompletableFuture<Void> startFuture;
+    private final CompletableFuture<Void> loadProjectsFuture;
+    private final CompletableFuture<Void> stoppedFuture;
+    @Nullable
+    private final ProcessWrapper processWrapper;
+    private final StartupReport startupReport;
+    private final ProjectLoadTracker projectLoadTracker;
+    /**
+     * Automatic restart after a crash, that has to restore the state of the previous process
+     */
+    private final boolean recovery;
+
+    private ServerState(ServerStatus status, @Nullable ServerConfig config, CompletableFuture<Void> pendingStartFuture, CompletableFuture<Void> pendingLoadProjectsFuture,
+      CompletableFuture<Void> processSpawnedFuture, CompletableFuture<Void> startFuture, CompletableFuture<Void> loadProjectsFuture, CompletableFuture<Void> stoppedFuture,
+      @Nullable ProcessWrapper processWrapper, StartupReport startupReport, ProjectLoadTracker projectLoadTracker, boolean recovery) {
+      this.status = status;
+      this.config = config;
+      this.pendingStartFuture = pendingStartFuture;
+      this.pendingLoadProjectsFuture = pendingLoadProjectsFuture;
+      this.processSpawnedFuture = processSpawnedFuture;
+      this.startFuture = startFuture;
+      this.loadProjectsFuture = loadProjectsFuture;
+      this.stoppedFuture = stoppedFuture;
       this.processWrapper = processWrapper;
-      this.terminationFuture = processWrapper.getTerminationFuture().whenComplete((r, t) -> {
-        LOG.info("Omnisharp process terminated");
-        this.stopped();
-      });
-      this.state = ServerState.PROCESS_STARTED;
-      this.startFuture = startFuture
-        .whenComplete((r, t) -> {
-          if (t != null) {
-            loadProjectsFuture.completeExceptionally(t);
-            processWrapper.destroyForcibly();
-          } else {
-            this.state = ServerState.OMNISHARP_STARTED;
-            LOG.info("OmniSharp successfully started");
-          }
-        });
-      if (loadProjectsOnDemand) {
-        this.loadProjectsFuture = this.startFuture;
-      } else {
-        this.loadProjectsFuture = loadProjectsFuture
-          .thenRun(() -> LOG.info("Projects successfully loaded"));
-      }
+      this.startupReport = startupReport;
+      this.projectLoadTracker = projectLoadTracker;
+      this.recovery = recovery;
     }
 
-    public synchronized void processStartFailed(IOException e) {
-      startFuture = failedToStart(e);
-      loadProjectsFuture = failedToStart(e);
-      this.state = ServerState.STOPPED;
+    private static ServerState initial(OmnisharpExecutors executors) {
+      return new ServerState(ServerStatus.STOPPED, null, failedNotStarted(), failedNotStarted(), failedNotStarted(), failedNotStarted(), failedNotStarted(),
+        CompletableFuture.completedFuture(null), null, new StartupReport(), ProjectLoadTracker.notStarted(executors.scheduler()), false);
     }
 
-    public synchronized void stopped() {
-      boolean stoppedNormally = this.state == ServerState.STOPPING;
-      this.state = ServerState.STOPPED;
-      if (stoppedNormally) {
-        startFuture.cancel(true);
-        loadProjectsFuture.cancel(true);
+    /**
+     * A new start attempt. Futures are created right away so that callers can already wait on them, while the process is spawned in the background.
+     *
+     * @param replayBuffers when recovering from a crash, restores unsaved buffers once projects are loaded, before releasing callers waiting for them
+     */
+    private static ServerState starting(ServerConfig config, CompletableFuture<Void> pendingLoadProjectsFuture, StartupReport startupReport,
+      ProjectLoadTracker projectLoadTracker, @Nullable Runnable replayBuffers, Executor replayExecutor) {
+      var startFuture = new CompletableFuture<Void>();
+      CompletableFuture<Void> loadProjectsFuture;
+      if (config.loadProjectsOnDemand) {
+        loadProjectsFuture = startFuture;
       } else {
-        startFuture.completeExceptionally(new IllegalStateException("Process terminated unexpectedly"));
-        loadProjectsFuture.completeExceptionally(new IllegalStateException("Process terminated unexpectedly"));
+        loadProjectsFuture = pendingLoadProjectsFuture.thenRun(() -> LOG.info("Projects successfully loaded"));
+        if (replayBuffers != null) {
+          // Buffers of files that are not in a loaded project yet would be overwritten when the project is loaded
+          loadProjectsFuture = loadProjectsFuture.thenCombine(startFuture, (r1, r2) -> (Void) null).thenRunAsync(replayBuffers, replayExecutor);
+        }
       }
-      startFuture = failedNotStarted();
-      loadProjectsFuture = failedNotStarted();
+      return new ServerState(ServerStatus.PROCESS_STARTING, config, new CompletableFuture<>(), pendingLoadProjectsFuture, new CompletableFuture<>(), startFuture,
+        loadProjectsFuture, new CompletableFuture<>(), null, startupReport, projectLoadTracker, replayBuffers != null);
     }
 
-    public void stopping() {
-      this.state = ServerState.STOPPING;
+    private static CompletableFuture<Void> failedNotStarted() {
+      return CompletableFuture.failedFuture(new IllegalStateException("OmniSharp not started"));
     }
 
-    public void waitForStop() throws InterruptedException, ExecutionException {
-      this.processWrapper.waitForProcessToEndOrKill(1, TimeUnit.SECONDS);
-      terminationFuture.get();
+    private ServerState with(ServerStatus newStatus, @Nullable ProcessWrapper newProcessWrapper) {
+      return new ServerState(newStatus, config, pendingStartFuture, pendingLoadProjectsFuture, processSpawnedFuture, startFuture, loadProjectsFuture, stoppedFuture,
+        newProcessWrapper, startupReport, projectLoadTracker, recovery);
+    }
+
+    private ServerState stopped() {
+      return new ServerState(ServerStatus.STOPPED, config, pendingStartFuture, pendingLoadProjectsFuture, processSpawnedFuture, failedNotStarted(), failedNotStarted(),
+        stoppedFuture, null, startupReport, projectLoadTracker, recovery);
+    }
+
+    private boolean isSameAttempt(ServerState other) {
+      return pendingStartFuture == other.pendingStartFuture;
     }
-  }
 
-  private final ServerStateMachine stateMachine = new ServerStateMachine();
+    /**
+     * @return true if a process is running or about to be spawned, and is not being stopped
+     */
+    private boolean isActive() {
+      return status == ServerStatus.PROCESS_STARTING || status == ServerStatus.PROCESS_STARTED || status == ServerStatus.OMNISHARP_STARTED;
+    }
+
+    private boolean isLoadProjectsOnDemand() {
+      return config != null && config.loadProjectsOnDemand;
+    }
+
+    /**
+     * Release everyone waiting for this attempt when it is stopped on purpose.
+     */
+    private void cancel() {
+      startFuture.cancel(true);
+      loadProjectsFuture.cancel(true);
+      pendingStartFuture.cancel(false);
+      pendingLoadProjectsFuture.cancel(false);
+      processSpawnedFuture.cancel(false);
+      projectLoadTracker.abort();
+    }
+  }
 
-  private Path cachedAnalyzerJarPath;
-  private Path cachedProjectBaseDir;
-  private Path cachedDotnetCliPath;
-  private Path cachedMonoPath;
-  private Path cachedMsBuildPath;
-  private Path cachedSolutionPath;
-  private boolean cachedUseNet6;
-  private boolean cachedLoadProjectsOnDemand;
+  private final AtomicReference<ServerState> state;
 
   private final OmnisharpEndpoints omnisharpEndpoints;
 
@@ -147,81 +265,645 @@ public class OmnisharpServerController implements Startable {
 
   private final OmnisharpCommandBuilder omnisharpCommandBuilder;
 
-  public OmnisharpServerController(OmnisharpEndpoints omnisharpEndpoints, OmnisharpResponseProcessor omnisharpResponseProcessor, OmnisharpCommandBuilder omnisharpCommandBuilder) {
+  private final SolutionGenerator solutionGenerator;
+
+  private final StartupHistory startupHistory;
+
+  private final WorkspaceState workspaceState;
+
+  private final OmnisharpMetrics metrics;
+
+  /**
+   * Start times of automatic restarts, to give up if OmniSharp keeps crashing
+   */
+  private final Deque<Long> automaticRestartNanos = new ArrayDeque<>();
+  private volatile boolean closed;
+
+  /**
+   * Files analyzed so far, when OmniSharp should only load the projects they belong to
+   */
+  private final Set<Path> analysisScope = ConcurrentHashMap.newKeySet();
+  private volatile ScopedSolution scopedSolution;
+  /**
+   * Incremented when files are added to the scope, or projects change, so that a scoped solution being generated is generated again
+   */
+  private final AtomicLong scopeVersion = new AtomicLong();
+  private volatile boolean generatingScopedSolution;
+
+  private final OmnisharpExecutors executors;
+  private final HealthCheckWatchdog.Settings healthCheckSettings;
+  @Nullable
+  private volatile HealthCheckWatchdog healthCheck;
+  @Nullable
+  private volatile ProcessResourceSampler resourceSampler;
+
+  public OmnisharpServerController(OmnisharpEndpoints omnisharpEndpoints, OmnisharpResponseProcessor omnisharpResponseProcessor, OmnisharpCommandBuilder omnisharpCommandBuilder,
+    SolutionGenerator solutionGenerator, StartupHistory startupHistory, WorkspaceState workspaceState, OmnisharpMetrics metrics, OmnisharpExecutors executors,
+    Configuration config) {
+    this(omnisharpEndpoints, omnisharpResponseProcessor, omnisharpCommandBuilder, solutionGenerator, startupHistory, workspaceState, metrics, executors,
+      HealthCheckWatchdog.Settings.from(config));
+  }
+
+  OmnisharpServerController(OmnisharpEndpoints omnisharpEndpoints, OmnisharpResponseProcessor omnisharpResponseProcessor, OmnisharpCommandBuilder omnisharpCommandBuilder,
+    SolutionGenerator solutionGenerator, StartupHistory startupHistory, WorkspaceState workspaceState, OmnisharpMetrics metrics, OmnisharpExecutors executors,
+    HealthCheckWatchdog.Settings healthCheckSettings) {
+    this.healthCheckSettings = healthCheckSettings;
+    this.executors = executors;
+    this.state = new AtomicReference<>(ServerState.initial(executors));
     this.omnisharpEndpoints = omnisharpEndpoints;
     this.omnisharpResponseProcessor = omnisharpResponseProcessor;
     this.omnisharpCommandBuilder = omnisharpCommandBuilder;
+    this.solutionGenerator = solutionGenerator;
+    this.startupHistory = startupHistory;
+    this.workspaceState = workspaceState;
+    this.metrics = metrics;
     omnisharpEndpoints.setServer(this);
+    metrics.gauge("healthCheck.pings", () -> healthCheckValue(HealthCheckWatchdog::getPingCount));
+    metrics.gauge("healthCheck.missed", () -> healthCheckValue(HealthCheckWatchdog::getMissedCount));
+    metrics.gauge("healthCheck.missedWhileBusy", () -> healthCheckValue(HealthCheckWatchdog::getMissedWhileBusyCount));
+    metrics.gauge("healthCheck.lastLatencyMs", () -> healthCheckValue(HealthCheckWatchdog::getLastLatencyMs));
+    metrics.gauge("healthCheck.maxLatencyMs", () -> healthCheckValue(HealthCheckWatchdog::getMaxLatencyMs));
+    metrics.gauge("process.cpuTimeMs", () -> lastSampleValue(ProcessResourceSampler.Sample::getCpuTimeMs));
+    metrics.gauge("process.rssBytes", () -> lastSampleValue(ProcessResourceSampler.Sample::getRssBytes));
+    metrics.gauge("process.threads", () -> lastSampleValue(ProcessResourceSampler.Sample::getThreads));
+    metrics.gauge("process.openFds", () -> lastSampleValue(ProcessResourceSampler.Sample::getOpenFds));
+    metrics.gauge("process.rssMaxBytes", () -> {
+      var current = resourceSampler;
+      return current != null ? current.getMaxRssBytes() : 0;
+    });
+  }
+
+  private long healthCheckValue(ToLongFunction<HealthCheckWatchdog> getter) {
+    var current = healthCheck;
+    return current != null ? getter.applyAsLong(current) : 0;
+  }
+
+  /**
+   * @return value of the last sample of the current (or last) process, {@link ProcessResourceSampler#UNAVAILABLE} if not supported on this platform
+   */
+  private long lastSampleValue(ToLongFunction<ProcessResourceSampler.Sample> getter) {
+    var current = resourceSampler;
+    var sample = current != null ? current.getLastSample() : null;
+    return sample != null ? getter.applyAsLong(sample) : 0;
+  }
+
+  /**
+   * Only load the projects containing the given files (and the previously analyzed ones), instead of the whole solution. If OmniSharp is already
+   * running with a scoped solution that doesn't cover these files, it is stopped so that a new scoped solution is generated at next start.
+   */
+  public void extendAnalysisScope(Collection<Path> files) {
+    var newFiles = files.stream().filter(analysisScope::add).collect(Collectors.toList());
+    if (newFiles.isEmpty()) {
+      return;
+    }
+    scopeVersion.incrementAndGet();
+    var currentScopedSolution = scopedSolution;
+    // If the scoped solution is being generated, it will cover these files
+    if (generatingScopedSolution || currentScopedSolution == null || !state.get().isActive()) {
+      return;
+    }
+    try {
+      if (currentScopedSolution.isMissingProjectsFor(newFiles)) {
+        LOG.info("Analyzed files belong to projects that are not loaded, OmniSharp has to be restarted");
+        metrics.serverRestarted("scopeExtended");
+        stopServerAsync();
+      }
+    } catch (IOException e) {
+      LOG.debug("Unable to check projects of analyzed files", e);
+    }
+  }
+
+  /**
+   * @return true if OmniSharp only loads the projects of the analyzed files, including while the scoped solution is being generated
+   */
+  public boolean isUsingScopedSolution() {
+    return (generatingScopedSolution || scopedSolution != null) && state.get().isActive();
+  }
+
+  /**
+   * A project changed, its references may have changed too, so the scoped solution has to be generated again: right away if it is being generated,
+   * otherwise OmniSharp is stopped so that it is generated at next start.
+   *
+   * @return false if OmniSharp doesn't use a scoped solution, in which case the change has to be handled as any other file change
+   */
+  public boolean scopedProjectChanged() {
+    scopeVersion.incrementAndGet();
+    if (!isUsingScopedSolution()) {
+      return false;
+    }
+    if (!generatingScopedSolution) {
+      stopServerAsync();
+    }
+    return true;
   }
 
-  public synchronized void lazyStart(Path projectBaseDir, Path analyzerJarPath, boolean useNet6, boolean loadProjectsOnDemand, @Nullable Path dotnetCliPath,
+  public void lazyStart(Path projectBaseDir, Path analyzerJarPath, boolean useNet6, boolean loadProjectsOnDemand, @Nullable Path dotnetCliPath,
     @Nullable Path monoPath,
     @Nullable Path msBuildPath,
-    @Nullable Path solutionPath, int serverStartupTimeoutSec, int loadProjectsTimeoutSec)
+    @Nullable Path solutionPath, @Nullable Integer serverStartupTimeoutSec, @Nullable Integer loadProjectsTimeoutSec)
     throws InterruptedException {
-    AtomicBoolean shouldRestart = new AtomicBoolean(false);
-    this.cachedProjectBaseDir = checkIfRestartRequired(cachedProjectBaseDir, projectBaseDir, "project basedir", shouldRestart);
-    this.cachedAnalyzerJarPath = checkIfRestartRequired(cachedAnalyzerJarPath, analyzerJarPath, "analyzer JAR path", shouldRestart);
-    this.cachedDotnetCliPath = checkIfRestartRequired(cachedDotnetCliPath, dotnetCliPath, "dotnet CLI path", shouldRestart);
-    this.cachedMonoPath = checkIfRestartRequired(cachedMonoPath, monoPath, "Mono location", shouldRestart);
-    this.cachedMsBuildPath = checkIfRestartRequired(cachedMsBuildPath, msBuildPath, "MSBuild path", shouldRestart);
-    this.cachedSolutionPath = checkIfRestartRequired(cachedSolutionPath, solutionPath, "solution path", shouldRestart);
-    this.cachedUseNet6 = checkIfRestartRequired(cachedUseNet6, useNet6, "flavor of OmniSharp", shouldRestart);
-    this.cachedLoadProjectsOnDemand = checkIfRestartRequired(cachedLoadProjectsOnDemand, loadProjectsOnDemand, "load projects on demand setting", shouldRestart);
-    if (shouldRestart.get()) {
-      stopServer();
-    }
-    if (stateMachine.isStopped()) {
-      startServer(serverStartupTimeoutSec, loadProjectsTimeoutSec);
+    awaitStart(lazyStartAsync(projectBaseDir, analyzerJarPath, useNet6, loadProjectsOnDemand, dotnetCliPath, monoPath, msBuildPath, solutionPath, serverStartupTimeoutSec,
+      loadProjectsTimeoutSec));
+  }
+
+  /**
+   * Start the server if needed, without waiting for it. Building the command line (that may require to extract the services DLL) and spawning the process are done
+   * in the background, so that the caller can prepare the analysis in the meantime. If the server is running with a different configuration, it is stopped without
+   * waiting for the process to exit.
+   *
+   * @param serverStartupTimeoutSec explicitly configured timeout, never exceeded, or null to use a default one adapted to the solution, see {@link StartupHistory}
+   * @param loadProjectsTimeoutSec explicitly configured timeout, never exceeded, or null to use a default one adapted to the size of the solution and
+   *                               to its history
+   * @return a future completed when OmniSharp has sent the <code>started</code> event
+   */
+  public CompletableFuture<Void> lazyStartAsync(Path projectBaseDir, Path analyzerJarPath, boolean useNet6, boolean loadProjectsOnDemand,
+    @Nullable Path dotnetCliPath,
+    @Nullable Path monoPath,
+    @Nullable Path msBuildPath,
+    @Nullable Path solutionPath, @Nullable Integer serverStartupTimeoutSec, @Nullable Integer loadProjectsTimeoutSec) {
+    var config = new ServerConfig(projectBaseDir, analyzerJarPath, useNet6, loadProjectsOnDemand, dotnetCliPath, monoPath, msBuildPath, solutionPath, serverStartupTimeoutSec,
+      loadProjectsTimeoutSec);
+    while (true) {
+      var current = state.get();
+      if (current.isActive()) {
+        var differences = config.differencesWith(Objects.requireNonNull(current.config));
+        if (differences.isEmpty()) {
+          return current.startFuture;
+        }
+        if (stop(current)) {
+          metrics.serverRestarted("configChanged");
+          differences.forEach(label -> LOG.info("Using a different {}, OmniSharp has to be restarted", label));
+        }
+      } else {
+        var starting = newStartAttempt(config, false);
+        if (state.compareAndSet(current, starting)) {
+          startServer(starting);
+          return starting.startFuture;
+        }
+      }
     }
+  }
+
+  public void awaitStart(CompletableFuture<Void> startFuture) throws InterruptedException {
+    var profiler = Profiler.create(LOG).startDebug("Waiting for OmniSharp to start");
     try {
-      stateMachine.startFuture.get();
+      startFuture.get();
+      profiler.stopDebug();
     } catch (ExecutionException e) {
       if (e.getCause() instanceof TimeoutException) {
         throw new IllegalStateException("Timeout waiting for Omnisharp server to start");
       }
       throw new IllegalStateException("Unable to start the Omnisharp server: " + e.getCause().getMessage(), e.getCause());
     }
-
   }
 
   public CompletableFuture<Void> whenReady() {
-    return stateMachine.loadProjectsFuture;
+    return state.get().loadProjectsFuture;
   }
 
-  private <G> G checkIfRestartRequired(@Nullable G oldValue, @Nullable G newValue, String label, AtomicBoolean shouldRestart) {
-    if (stateMachine.isOmnisharpStarted() && !Objects.equals(oldValue, newValue)) {
-      shouldRestart.set(true);
-      LOG.info("Using a different {}, OmniSharp has to be restarted", label);
+  /**
+   * @return a future completed when the project containing the given file is loaded, so that the file can be analyzed while other projects are still loading
+   */
+  public CompletableFuture<Void> whenFileReady(Path file) {
+    var current = state.get();
+    if (current.isLoadProjectsOnDemand()) {
+      // Projects are loaded when their files are requested
+      return CompletableFuture.completedFuture(null);
     }
-    return newValue;
+    return current.projectLoadTracker.whenFileReady(file);
   }
 
   public boolean isOmnisharpStarted() {
-    return stateMachine.isOmnisharpStarted();
+    return state.get().status == ServerStatus.OMNISHARP_STARTED;
+  }
+
+  /**
+   * @return timings of the current (or last) server startup
+   */
+  public StartupReport getStartupReport() {
+    return state.get().startupReport;
+  }
+
+  public void codeCheckSucceeded() {
+    var startupReport = state.get().startupReport;
+    if (startupReport.codeCheckSucceeded()) {
+      LOG.info("OmniSharp startup report: {}", startupReport);
+    }
+  }
+
+  /**
+   * Create the futures of a start attempt. Nothing happens until the attempt becomes the current state, since it may be discarded if another thread wins the race.
+   */
+  private ServerState newStartAttempt(ServerConfig config, boolean recovery) {
+    var loadProjectsFuture = new CompletableFuture<Void>();
+    var startupReport = new StartupReport();
+    var projectLoadTracker = new ProjectLoadTracker(executors.scheduler(), ProjectLoadTracker.DEFAULT_SETTLE_DELAY);
+    return ServerState.starting(config, loadProjectsFuture, startupReport, projectLoadTracker, recovery ? this::replayBuffers : null, executors.background());
+  }
+
+  private void startServer(ServerState attempt) {
+    var config = Objects.requireNonNull(attempt.config);
+    var solutionKey = config.getSolutionKey();
+    var startupTimeout = startupHistory.getStartupTimeout(solutionKey, Duration.ofSeconds(DEFAULT_TIMEOUT_SEC), toDuration(config.serverStartupTimeoutSec));
+    var pendingStartFuture = attempt.pendingStartFuture;
+    // Timeout of the load projects future is set once the solution has been parsed
+    var loadProjectsFuture = attempt.pendingLoadProjectsFuture;
+    var startupReport = attempt.startupReport;
+    var projectLoadTracker = attempt.projectLoadTracker;
+    executors.orTimeout(pendingStartFuture, startupTimeout);
+    // Recording writes the history file, don't do it on the thread completing the futures
+    pendingStartFuture.whenCompleteAsync((r, t) -> {
+      if (t == null) {
+        startupReport.getOmnisharpStartedAfter().ifPresent(d -> startupHistory.recordStartup(solutionKey, d));
+      } else if (t instanceof TimeoutException) {
+        // Give more time to the next attempt
+        startupHistory.recordStartupTimeout(solutionKey, startupTimeout);
+      }
+    }, executors.background());
+    projectLoadTracker.whenSettled().thenRunAsync(() -> {
+      if (projectLoadTracker.isTimedOut()) {
+        startupHistory.recordLoadProjectsTimeout(solutionKey, projectLoadTracker.getLoadTimeout());
+      }
+      if (projectLoadTracker.getLoadedProjectsCount() == 0) {
+        // Don't wait for the timeout if no project can be loaded
+        if (projectLoadTracker.isLoadingComplete()) {
+          loadProjectsFuture.completeExceptionally(new IllegalStateException("Unable to load any project: " + projectLoadTracker.getFailureSummary()));
+        }
+      } else if (!projectLoadTracker.isTimedOut() && projectLoadTracker.getFailedProjects().isEmpty()) {
+        startupReport.getLastProjectAddedAfter().ifPresent(d -> startupHistory.recordLoadProjects(solutionKey, d));
+      }
+    }, executors.background());
+    // The started event may be received before the process is registered, so wait for both
+    pendingStartFuture.runAfterBoth(attempt.processSpawnedFuture, () -> {
+    }).whenComplete((r, t) -> {
+      if (t != null) {
+        startFailed(attempt, t);
+      } else {
+        omnisharpStarted(attempt);
+      }
+    });
+    // Projects are already loaded lazily when loading them on demand
+    var scoped = !config.loadProjectsOnDemand && !analysisScope.isEmpty();
+    this.scopedSolution = null;
+    this.generatingScopedSolution = scoped;
+    CompletableFuture.runAsync(() -> {
+      var solutionPath = scoped ? generateScopedSolution(config.projectBaseDir, config.solutionPath) : config.solutionPath;
+      var expectedProjects = config.loadProjectsOnDemand ? List.<Path>of() : parseExpectedProjects(config.projectBaseDir, solutionPath);
+      var configuredLoadProjectsTimeoutSec = config.loadProjectsTimeoutSec != null ? config.loadProjectsTimeoutSec : DEFAULT_TIMEOUT_SEC;
+      var loadProjectsTimeout = startupHistory.getLoadProjectsTimeout(solutionKey, computeLoadProjectsTimeout(configuredLoadProjectsTimeoutSec, expectedProjects.size()),
+        toDuration(config.loadProjectsTimeoutSec));
+      executors.orTimeout(loadProjectsFuture, loadProjectsTimeout);
+      projectLoadTracker.loadingStarted(expectedProjects, loadProjectsTimeout);
+      var profiler = Profiler.create(LOG).startDebug("Building OmniSharp command");
+      ProcessBuilder processBuilder;
+      try {
+        if (config.useNet6) {
+          processBuilder = omnisharpCommandBuilder.buildNet6(config.projectBaseDir, config.dotnetCliPath, config.msBuildPath, solutionPath, config.loadProjectsOnDemand);
+        } else {
+          processBuilder = omnisharpCommandBuilder.build(config.projectBaseDir, config.monoPath, config.msBuildPath, solutionPath, config.loadProjectsOnDemand);
+        }
+      } catch (Exception e) {
+        LOG.warn("Unable to start OmniSharp", e);
+        attempt.processSpawnedFuture.completeExceptionally(e);
+        pendingStartFuture.completeExceptionally(e);
+        return;
+      }
+      profiler.stopDebug();
+      spawn(processBuilder, attempt);
+    }, executors.background());
+  }
+
+  private void omnisharpStarted(ServerState attempt) {
+    var current = state.get();
+    while (current.isSameAttempt(attempt) && current.status == ServerStatus.PROCESS_STARTED) {
+      if (state.compareAndSet(current, current.with(ServerStatus.OMNISHARP_STARTED, current.processWrapper))) {
+        LOG.info("OmniSharp successfully started");
+        startHealthCheck(attempt);
+        if (attempt.recovery) {
+          // Restore the state of the previous process before accepting analysis requests
+          CompletableFuture.runAsync(() -> replayConfig(attempt.isLoadProjectsOnDemand()), executors.background())
+            .whenComplete((r, t) -> attempt.startFuture.complete(null));
+        } else {
+          attempt.startFuture.complete(null);
+        }
+        return;
+      }
+      current = state.get();
+    }
+    // Stopped in the meantime, futures have already been completed
+  }
+
+  private void startHealthCheck(ServerState attempt) {
+    // Loading projects and analyzing files keep OmniSharp busy, and are already guarded by their own timeouts
+    var watchdog = new HealthCheckWatchdog(executors.scheduler(), executors.background(), omnisharpEndpoints::ping,
+      () -> !attempt.projectLoadTracker.whenSettled().isDone() || omnisharpEndpoints.isCodeCheckInFlight(),
+      () -> serverUnhealthy(attempt), healthCheckSettings);
+    attempt.stoppedFuture.whenComplete((r, t) -> {
+      watchdog.stop();
+      LOG.debug("OmniSharp health check: {}", watchdog);
+    });
+    watchdog.start();
+    this.healthCheck = watchdog;
+  }
+
+  private void startResourceSampler(ProcessWrapper process) {
+    var sampler = new ProcessResourceSampler(executors.scheduler(), process.getPid());
+    process.getTerminationFuture().whenComplete((r, t) -> {
+      sampler.stop();
+      LOG.debug("OmniSharp process {} resources: {}", process.getPid(), sampler);
+    });
+    sampler.start();
+    this.resourceSampler = sampler;
+  }
+
+  /**
+   * Samples of the process resources are tagged with the given analysis until {@link #analysisFinished()}, so that its resource usage can be reported.
+   */
+  public void analysisStarted(String analysis) {
+    var current = resourceSampler;
+    if (current != null) {
+      current.analysisStarted(analysis);
+    }
+  }
+
+  /**
+   * Log the resources used by the process during the analysis
+   */
+  public void analysisFinished() {
+    var current = resourceSampler;
+    if (current != null) {
+      current.analysisFinished();
+    }
+  }
+
+  /**
+   * @return the resource sampler of the current (or last) process, or null if no process has been spawned
+   */
+  @CheckForNull
+  ProcessResourceSampler getResourceSampler() {
+    return resourceSampler;
   }
 
-  private void startServer(int serverStartupTimeoutSec, int loadProjectsTimeoutSec) {
-    var startFuture = new CompletableFuture<Void>()
-      .orTimeout(serverStartupTimeoutSec, TimeUnit.SECONDS);
-    var loadProjectsFuture = new CompletableFuture<Void>()
-      .orTimeout(loadProjectsTimeoutSec, TimeUnit.SECONDS);
-    ProcessBuilder processBuilder;
-    if (cachedUseNet6) {
-      processBuilder = omnisharpCommandBuilder.buildNet6(cachedProjectBaseDir, cachedDotnetCliPath, cachedMsBuildPath, cachedSolutionPath, cachedLoadProjectsOnDemand);
+  /**
+   * Don't let every later request wait for its full timeout: stop the server and start a new one.
+   */
+  private void serverUnhealthy(ServerState attempt) {
+    var current = state.get();
+    while (current.isSameAttempt(attempt) && current.status == ServerStatus.OMNISHARP_STARTED) {
+      if (stop(current)) {
+        restartAutomatically(attempt, "unresponsive", "OmniSharp is not responding");
+        return;
+      }
+      current = state.get();
+    }
+  }
+
+  /**
+   * @return the health check of the current (or last) server, or null if no server has been started
+   */
+  @CheckForNull
+  HealthCheckWatchdog getHealthCheck() {
+    return healthCheck;
+  }
+
+  private void startFailed(ServerState attempt, Throwable t) {
+    attempt.pendingLoadProjectsFuture.completeExceptionally(t);
+    attempt.projectLoadTracker.abort();
+    var current = state.get();
+    while (current.isSameAttempt(attempt) && current.isActive()) {
+      var process = current.processWrapper;
+      if (process != null) {
+        // The state will change when the process is terminated
+        process.destroyForcibly();
+        break;
+      }
+      // The process is not spawned yet, it will be killed as soon as it is
+      if (state.compareAndSet(current, current.stopped())) {
+        attempt.stoppedFuture.complete(null);
+        break;
+      }
+      current = state.get();
+    }
+    attempt.startFuture.completeExceptionally(t);
+  }
+
+  /**
+   * @return false if this start attempt has been stopped or superseded in the meantime, in which case the caller should kill the process
+   */
+  private boolean processSpawned(ServerState attempt, ProcessWrapper processWrapper) {
+    var current = state.get();
+    while (current.isSameAttempt(attempt) && current.status == ServerStatus.PROCESS_STARTING && !attempt.pendingStartFuture.isCompletedExceptionally()) {
+      if (state.compareAndSet(current, current.with(ServerStatus.PROCESS_STARTED, processWrapper))) {
+        processWrapper.getTerminationFuture().whenComplete((r, t) -> processTerminated(attempt, t));
+        attempt.processSpawnedFuture.complete(null);
+        return true;
+      }
+      current = state.get();
+    }
+    return false;
+  }
+
+  private void processTerminated(ServerState attempt, @Nullable Throwable t) {
+    LOG.info("Omnisharp process terminated");
+    var current = state.get();
+    while (current.isSameAttempt(attempt) && current.status != ServerStatus.STOPPED) {
+      if (state.compareAndSet(current, current.stopped())) {
+        if (current.status == ServerStatus.STOPPING) {
+          LOG.info("OmniSharp stopped");
+        } else {
+          processTerminatedUnexpectedly(attempt);
+          if (current.status == ServerStatus.OMNISHARP_STARTED) {
+            restartAutomatically(attempt, "crashed", "OmniSharp terminated unexpectedly");
+          }
+        }
+        break;
+      }
+      current = state.get();
+    }
+    if (t != null) {
+      attempt.stoppedFuture.completeExceptionally(t);
     } else {
-      processBuilder = omnisharpCommandBuilder.build(cachedProjectBaseDir, cachedMonoPath, cachedMsBuildPath, cachedSolutionPath, cachedLoadProjectsOnDemand);
+      attempt.stoppedFuture.complete(null);
+    }
+  }
+
+  private static void processTerminatedUnexpectedly(ServerState attempt) {
+    // If the start already failed (e.g. timeout), the process has been killed on purpose, so keep the original cause
+    if (!attempt.pendingStartFuture.isCompletedExceptionally()) {
+      attempt.startFuture.completeExceptionally(new IllegalStateException("Process terminated unexpectedly"));
+    }
+    attempt.pendingLoadProjectsFuture.completeExceptionally(new IllegalStateException("Process terminated unexpectedly"));
+    attempt.projectLoadTracker.abort();
+  }
+
+  /**
+   * Start a new process with the configuration of the given attempt, in the background. Unless an analysis already started a new server in the meantime.
+   *
+   * @param reasonKey short name of the reason, for metrics
+   */
+  private void restartAutomatically(ServerState previousAttempt, String reasonKey, String reason) {
+    var config = Objects.requireNonNull(previousAttempt.config);
+    if (closed) {
+      return;
+    }
+    if (!acquireAutomaticRestart()) {
+      LOG.warn("{}, but it has already been restarted {} times in the last {} minutes. It will be started again by the next analysis.", reason, MAX_AUTOMATIC_RESTARTS,
+        AUTOMATIC_RESTARTS_WINDOW.toMinutes());
+      return;
+    }
+    LOG.warn("{}, restarting it", reason);
+    metrics.serverRestarted(reasonKey);
+    while (true) {
+      var current = state.get();
+      if (current.isActive()) {
+        return;
+      }
+      var starting = newStartAttempt(config, true);
+      if (state.compareAndSet(current, starting)) {
+        startServer(starting);
+        return;
+      }
+    }
+  }
+
+  private boolean acquireAutomaticRestart() {
+    var now = System.nanoTime();
+    synchronized (automaticRestartNanos) {
+      while (!automaticRestartNanos.isEmpty() && now - automaticRestartNanos.peekFirst() > AUTOMATIC_RESTARTS_WINDOW.toNanos()) {
+        automaticRestartNanos.pollFirst();
+      }
+      if (automaticRestartNanos.size() >= MAX_AUTOMATIC_RESTARTS) {
+        return false;
+      }
+      automaticRestartNanos.addLast(now);
+      return true;
+    }
+  }
+
+  private void replayConfig(boolean withBuffers) {
+    var config = workspaceState.getConfig();
+    if (config != null) {
+      LOG.debug("Restoring rules configuration");
+      try {
+        omnisharpEndpoints.config(config, Lane.INTERACTIVE);
+      } catch (Exception e) {
+        LOG.warn("Unable to restore the rules configuration: " + e.getMessage());
+      }
+    }
+    if (withBuffers) {
+      replayBuffers();
+    }
+  }
+
+  private void replayBuffers() {
+    var buffers = workspaceState.getDirtyBuffers();
+    if (buffers.isEmpty()) {
+      return;
+    }
+    var profiler = Profiler.create(LOG).startInfo("Restoring " + buffers.size() + " unsaved buffer(s)");
+    for (var buffer : buffers.entrySet()) {
+      try {
+        omnisharpEndpoints.updateBuffer(buffer.getKey().toFile(), buffer.getValue(), Lane.INTERACTIVE);
+      } catch (Exception e) {
+        LOG.warn("Unable to restore the buffer of " + buffer.getKey() + ": " + e.getMessage());
+      }
     }
+    profiler.stopInfo();
+  }
 
+  /**
+   * Generated again as long as files are added to the scope, or projects change, in the meantime. Otherwise they would be silently ignored, since they are
+   * only compared with the scoped solution once it is known.
+   */
+  @CheckForNull
+  private Path generateScopedSolution(Path projectBaseDir, @Nullable Path solutionPath) {
+    var solution = SolutionParser.findSolution(projectBaseDir, solutionPath);
+    if (solution.isEmpty()) {
+      generatingScopedSolution = false;
+      return solutionPath;
+    }
+    var profiler = Profiler.create(LOG).startDebug("Generating scoped solution");
+    try {
+      ScopedSolution generated;
+      long version;
+      do {
+        generatingScopedSolution = true;
+        version = scopeVersion.get();
+        generated = solutionGenerator.generateScopedSolution(solution.get(), List.copyOf(analysisScope));
+        this.scopedSolution = generated;
+        // Later changes are compared with the published scoped solution, see extendAnalysisScope
+        generatingScopedSolution = false;
+      } while (version != scopeVersion.get());
+      return generated.getPath();
+    } catch (Exception e) {
+      this.scopedSolution = null;
+      generatingScopedSolution = false;
+      LOG.warn("Unable to generate a solution scoped to the analyzed files, all projects will be loaded: " + e.getMessage());
+      return solutionPath;
+    } finally {
+      profiler.stopDebug();
+    }
+  }
+
+  private static List<Path> parseExpectedProjects(Path projectBaseDir, @Nullable Path solutionPath) {
+    var solution = SolutionParser.findSolution(projectBaseDir, solutionPath);
+    if (solution.isEmpty()) {
+      return List.of();
+    }
+    var profiler = Profiler.create(LOG).startDebug("Parsing solution " + solution.get());
+    try {
+      var projects = SolutionParser.parseProjects(solution.get());
+      LOG.debug("{} project(s) expected to be loaded", projects.size());
+      return projects;
+    } catch (Exception e) {
+      LOG.debug("Unable to parse solution " + solution.get(), e);
+      return List.of();
+    } finally {
+      profiler.stopDebug();
+    }
+  }
+
+  @CheckForNull
+  private static Duration toDuration(@Nullable Integer seconds) {
+    return seconds != null ? Duration.ofSeconds(seconds) : null;
+  }
+
+  /**
+   * Large solutions need more time to be loaded, so give each project at least {@link #PER_PROJECT_LOAD_TIMEOUT}.
+   */
+  static Duration computeLoadProjectsTimeout(int loadProjectsTimeoutSec, int expectedProjectsCount) {
+    var configured = Duration.ofSeconds(loadProjectsTimeoutSec);
+    var proportional = PER_PROJECT_LOAD_TIMEOUT.multipliedBy(expectedProjectsCount);
+    if (proportional.compareTo(configured) > 0) {
+      LOG.debug("Using a load projects timeout of {}s for {} projects", proportional.toSeconds(), expectedProjectsCount);
+      return proportional;
+    }
+    return configured;
+  }
+
+  private void spawn(ProcessBuilder processBuilder, ServerState attempt) {
     LOG.info("Starting OmniSharp...");
     LOG.debug(processBuilder.command().stream().collect(joining(" ")));
+    var profiler = Profiler.create(LOG).startDebug("Spawning OmniSharp process");
     try {
-      var startedProcess = ProcessWrapper.start(processBuilder,
-        s -> omnisharpResponseProcessor.handleOmnisharpOutput(startFuture, loadProjectsFuture, s), LOG::error);
-      stateMachine.processStarted(startedProcess, startFuture, loadProjectsFuture, cachedLoadProjectsOnDemand);
+      var startedProcess = ProcessWrapper.start(executors, processBuilder,
+        s -> omnisharpResponseProcessor.handleOmnisharpOutput(attempt.pendingStartFuture, attempt.pendingLoadProjectsFuture, attempt.startupReport,
+          attempt.projectLoadTracker, s),
+        r -> omnisharpResponseProcessor.handleLargeOmnisharpOutput(attempt.pendingStartFuture, attempt.pendingLoadProjectsFuture, attempt.startupReport,
+          attempt.projectLoadTracker, r),
+        LOG::error);
+      profiler.stopDebug();
+      metrics.processStarted(startedProcess);
+      startResourceSampler(startedProcess);
+      attempt.startupReport.processSpawned(startedProcess.getStartNanos());
+      if (!processSpawned(attempt, startedProcess)) {
+        LOG.debug("OmniSharp start was cancelled, killing the process");
+        startedProcess.destroyForcibly();
+      }
     } catch (IOException e) {
       LOG.warn("Unable to start OmniSharp", e);
-      stateMachine.processStartFailed(e);
+      attempt.processSpawnedFuture.completeExceptionally(e);
+      attempt.pendingStartFuture.completeExceptionally(e);
     }
   }
 
@@ -232,37 +914,91 @@ public class OmnisharpServerController implements Startable {
 
   @Override
   public void stop() {
+    closed = true;
+    // Health check and resource sampling of the process are cancelled once it has exited
     stopServer();
   }
 
-  public synchronized void stopServer() {
-    if (!stateMachine.isStopped()) {
-      stateMachine.stopping();
-      LOG.info("Stopping OmniSharp");
-      omnisharpEndpoints.stopServer();
-      try {
-        stateMachine.waitForStop();
-        LOG.info("OmniSharp stopped");
-      } catch (InterruptedException e) {
-        LOG.debug("Interrupted!", e);
-        Thread.currentThread().interrupt();
-      } catch (ExecutionException e) {
-        LOG.error("Could not stop Omnisharp properly", e);
-        throw new IllegalStateException("Could not stop Omnisharp properly", e.getCause());
+  /**
+   * Stop the server and wait for the process to exit.
+   */
+  public void stopServer() {
+    try {
+      stopServerAsync().get();
+    } catch (InterruptedException e) {
+      LOG.debug("Interrupted!", e);
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      LOG.error("Could not stop Omnisharp properly", e);
+      throw new IllegalStateException("Could not stop Omnisharp properly", e.getCause());
+    }
+  }
+
+  /**
+   * Ask the server to stop, without waiting for it. Callers waiting for the server to start or to load projects are released right away, and the process is killed
+   * if it doesn't exit within {@link #STOP_TIMEOUT}.
+   *
+   * @return a future completed when the process has exited
+   */
+  public CompletableFuture<Void> stopServerAsync() {
+    while (true) {
+      var current = state.get();
+      if (!current.isActive() || stop(current)) {
+        return current.stoppedFuture;
       }
     }
   }
 
-  public synchronized boolean writeRequestOnStdIn(String str) {
-    if (stateMachine.isStopped()) {
-      LOG.debug("Server stopped, ignoring request");
+  /**
+   * @return false if the state changed concurrently
+   */
+  private boolean stop(ServerState current) {
+    var process = current.processWrapper;
+    if (process == null) {
+      // The process is not spawned yet, it will be killed as soon as it is
+      if (!state.compareAndSet(current, current.stopped())) {
+        return false;
+      }
+      current.cancel();
+      current.stoppedFuture.complete(null);
+      return true;
+    }
+    if (!state.compareAndSet(current, current.with(ServerStatus.STOPPING, process))) {
       return false;
     }
+    current.cancel();
+    LOG.info("Stopping OmniSharp");
     try {
-      stateMachine.processWrapper.writeLnStdIn(str);
-      return true;
-    } catch (IOException e) {
-      throw new IllegalStateException("Unable to write in Omnisharp stdin", e);
+      omnisharpEndpoints.stopServer();
+    } catch (IllegalStateException e) {
+      // The process may have died in the meantime
+      LOG.debug("Unable to send the stop request", e);
+    }
+    executors.scheduler().schedule(() -> {
+      if (!current.stoppedFuture.isDone()) {
+        LOG.debug("Unable to terminate process, killing it");
+        process.destroyForcibly();
+      }
+    }, STOP_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+    return true;
+  }
+
+  /**
+   * @param supersedeKey requests having the same key supersede each other, only used with {@link Backpressure#DROP_SUPERSEDED}
+   * @return a future completed once the request has been written, with false if it has been superseded by a newer one
+   */
+  public CompletableFuture<Boolean> writeRequestOnStdIn(String str, Backpressure backpressure, @Nullable String supersedeKey) {
+    var current = state.get();
+    var process = current.processWrapper;
+    if (current.status == ServerStatus.STOPPED || process == null) {
+      LOG.debug("Server stopped, ignoring request");
+      return CompletableFuture.failedFuture(new IllegalStateException("Server stopped"));
+    }
+    try {
+      return process.writeLnStdIn(str, backpressure, supersedeKey);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return CompletableFuture.failedFuture(new IllegalStateException("Interrupted!", e));
     }
   }
 
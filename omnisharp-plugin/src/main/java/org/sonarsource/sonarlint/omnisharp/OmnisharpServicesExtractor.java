@@ -19,18 +19,26 @@
  */
 package org.sonarsource.sonarlint.omnisharp;
 
-import java.io.File;
-import java.io.FileInputStream;
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.stream.Stream;
-import org.sonar.api.Startable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 import org.sonar.api.config.Configuration;
 import org.sonar.api.scanner.ScannerSide;
 import org.sonar.api.utils.TempFolder;
-import org.sonar.api.utils.ZipUtils;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonar.api.utils.log.Profiler;
 import org.sonarsource.api.sonarlint.SonarLintSide;
 
 import static java.util.Objects.requireNonNull;
@@ -39,61 +47,115 @@ import static java.util.Objects.requireNonNull;
 @SonarLintSide(lifespan = SonarLintSide.INSTANCE)
 public class OmnisharpServicesExtractor {
 
+  private static final Logger LOG = Loggers.get(OmnisharpServicesExtractor.class);
+
   private static final String SERVICES_DLL_FILENAME = "SonarLint.OmniSharp.DotNet.Services.dll";
 
   private static final String OMNISHARP_SERVICES_LOCATION = "slServices";
 
-  private Path analyzerZipPath;
+  /**
+   * Entries bigger than this are written to disk in the background, while decompression of the next entries goes on.
+   */
+  static final long PARALLEL_WRITE_THRESHOLD_BYTES = 1024L * 1024L;
+  /**
+   * Decompression waits beyond this number of pending writes, so that neither the shared pool nor the memory holding entries is exhausted
+   */
+  static final int MAX_PARALLEL_WRITES = 2;
+
   private Path omnisharpServicesDir;
 
   private final TempFolder tempFolder;
   private final Configuration configuration;
+  private final Executor writers;
+
+  public OmnisharpServicesExtractor(TempFolder tempFolder, Configuration configuration, OmnisharpExecutors executors) {
+    this(tempFolder, configuration, executors.background());
+  }
 
-  public OmnisharpServicesExtractor(TempFolder tempFolder, Configuration configuration) {
+  /**
+   * @param writers writes large entries in the background
+   */
+  OmnisharpServicesExtractor(TempFolder tempFolder, Configuration configuration, Executor writers) {
     this.tempFolder = tempFolder;
     this.configuration = configuration;
+    this.writers = writers;
   }
 
-  public Path getOmnisharpServicesDllPath() {
+  public synchronized Path getOmnisharpServicesDllPath() {
     if (omnisharpServicesDir == null) {
-      unzipAnalyzerPlugin();
-      this.omnisharpServicesDir = tempFolder.newDir(OMNISHARP_SERVICES_LOCATION).toPath();
-      unzipAnalyzer();
-      extractOmnisharpServicesDll();
+      var profiler = Profiler.create(LOG).startDebug("Extracting OmniSharp services");
+      var servicesDir = tempFolder.newDir(OMNISHARP_SERVICES_LOCATION).toPath();
+      unzipAnalyzer(servicesDir);
+      extractOmnisharpServicesDll(servicesDir);
+      this.omnisharpServicesDir = servicesDir;
+      profiler.stopDebug();
     }
     return omnisharpServicesDir.resolve(SERVICES_DLL_FILENAME);
   }
 
-  private void unzipAnalyzerPlugin() {
-    var pluginUnzipDir = tempFolder.newDir("pluginZip");
+  private static void extractOmnisharpServicesDll(Path servicesDir) {
+    try (InputStream bundle = OmnisharpServicesExtractor.class.getResourceAsStream("/" + SERVICES_DLL_FILENAME)) {
+      requireNonNull(bundle, SERVICES_DLL_FILENAME + " not found in plugin jar");
+      Files.copy(bundle, servicesDir.resolve(SERVICES_DLL_FILENAME));
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to extract services", e);
+    }
+  }
+
+  /**
+   * The analyzer DLLs are inside a ZIP, itself stored in the analyzer plugin JAR. Decompress the inner ZIP directly from the JAR entry stream
+   * instead of writing it to disk first.
+   */
+  private void unzipAnalyzer(Path servicesDir) {
     var analyzerPluginPath = configuration.get(CSharpPropertyDefinitions.getAnalyzerPath()).orElse(null);
-    try (InputStream analyzerPlugin = new FileInputStream(analyzerPluginPath)) {
-      requireNonNull(analyzerPlugin, "Plugin jar not found");
-      ZipUtils.unzip(analyzerPlugin, pluginUnzipDir, ze -> ze.getName().endsWith(".zip"));
-      analyzerZipPath = Stream.of(new File(pluginUnzipDir, "static").listFiles((dir, name) -> name.endsWith(".zip")))
+    requireNonNull(analyzerPluginPath, "Plugin jar not found");
+    var analyzersDir = servicesDir.resolve("analyzers");
+    Deque<CompletableFuture<Void>> pendingWrites = new ArrayDeque<>();
+    try (var analyzerPlugin = new ZipFile(analyzerPluginPath)) {
+      var analyzerZipEntry = analyzerPlugin.stream()
+        .filter(ze -> ze.getName().startsWith("static/") && ze.getName().endsWith(".zip"))
         .findFirst()
-        .orElseThrow(() -> new IllegalStateException("Unable to find analyzer ZIP"))
-        .toPath();
+        .orElseThrow(() -> new IllegalStateException("Unable to find analyzer ZIP"));
+      try (var analyzerZip = new ZipInputStream(new BufferedInputStream(analyzerPlugin.getInputStream(analyzerZipEntry)))) {
+        ZipEntry entry;
+        while ((entry = analyzerZip.getNextEntry()) != null) {
+          if (!entry.isDirectory() && entry.getName().endsWith(".dll")) {
+            var target = resolveEntry(analyzersDir, entry);
+            Files.createDirectories(target.getParent());
+            // The size of an entry is unknown until it has been read if it is followed by a data descriptor, as written by most ZIP tools
+            var content = analyzerZip.readAllBytes();
+            if (content.length > PARALLEL_WRITE_THRESHOLD_BYTES) {
+              if (pendingWrites.size() >= MAX_PARALLEL_WRITES) {
+                pendingWrites.removeFirst().join();
+              }
+              pendingWrites.add(CompletableFuture.runAsync(() -> write(target, content), writers));
+            } else {
+              write(target, content);
+            }
+          }
+        }
+      }
+      CompletableFuture.allOf(pendingWrites.toArray(new CompletableFuture[0])).join();
     } catch (IOException e) {
       throw new IllegalStateException("Unable to extract analyzers", e);
+    } catch (CompletionException | UncheckedIOException e) {
+      throw new IllegalStateException("Unable to extract analyzers", e.getCause());
     }
   }
 
-  private void extractOmnisharpServicesDll() {
-    try (InputStream bundle = getClass().getResourceAsStream("/" + SERVICES_DLL_FILENAME)) {
-      requireNonNull(bundle, SERVICES_DLL_FILENAME + " not found in plugin jar");
-      Files.copy(bundle, omnisharpServicesDir.resolve(SERVICES_DLL_FILENAME));
-    } catch (IOException e) {
-      throw new IllegalStateException("Unable to extract services", e);
+  private static Path resolveEntry(Path dir, ZipEntry entry) {
+    var target = dir.resolve(entry.getName()).normalize();
+    if (!target.startsWith(dir)) {
+      throw new IllegalStateException("Unable to extract '" + entry.getName() + "', it is outside of the target directory");
     }
+    return target;
   }
 
-  private void unzipAnalyzer() {
-    try (InputStream bundle = new FileInputStream(analyzerZipPath.toFile())) {
-      requireNonNull(bundle, "SonarAnalyzer not found in extracted plugin jar");
-      ZipUtils.unzip(bundle, omnisharpServicesDir.resolve("analyzers").toFile(), ze -> ze.getName().endsWith(".dll"));
+  private static void write(Path target, byte[] content) {
+    try {
+      Files.write(target, content);
     } catch (IOException e) {
-      throw new IllegalStateException("Unable to extract analyzers", e);
+      throw new UncheckedIOException(e);
     }
   }
 }
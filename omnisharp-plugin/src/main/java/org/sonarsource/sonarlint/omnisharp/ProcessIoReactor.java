@@ -0,0 +1,405 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Reads the output of all OmniSharp processes from a single thread, so that the number of threads doesn't grow with the number of servers. Process pipes can't
+ * be registered in a NIO selector, so streams are polled for available bytes, with a growing backoff when all of them are idle.
+ * <p>
+ * Most output answers a request, and {@link #wakeUp()} cuts the backoff short when a request has been written or a process exited, so that responses are read
+ * right away. The backoff only bounds how late output that doesn't answer a request (e.g. events while projects are loaded) is read, so it can grow up to
+ * {@link #MAX_IDLE_SLEEP} without waking up an idle IDE more than once a second.
+ * <p>
+ * A line is kept in memory up to a limit. Beyond it, the line is spilled to a temporary file and given to the large line consumer as a {@link Reader}, so
+ * that a huge response (e.g. thousands of issues in a generated file) doesn't have to fit in memory several times. Decoding such a response takes a while,
+ * so it is done on the large line executor, and the reactor keeps reading the output of other processes in the meantime.
+ */
+class ProcessIoReactor {
+
+  private static final Logger LOG = Loggers.get(ProcessIoReactor.class);
+
+  static final Duration MAX_IDLE_SLEEP = Duration.ofSeconds(1);
+  private static final int READ_BUFFER_SIZE = 8192;
+  static final int DEFAULT_MAX_LINE_SIZE_IN_MEMORY = 8 * 1024 * 1024;
+
+  private final String threadName;
+  private final Executor largeLineExecutor;
+  private final int maxLineSizeInMemory;
+  private final List<Source> sources = new CopyOnWriteArrayList<>();
+  private final Object lock = new Object();
+  private Thread thread;
+  private boolean wokenUp;
+
+  ProcessIoReactor(String threadName, Executor largeLineExecutor) {
+    this(threadName, largeLineExecutor, DEFAULT_MAX_LINE_SIZE_IN_MEMORY);
+  }
+
+  ProcessIoReactor(String threadName, Executor largeLineExecutor, int maxLineSizeInMemory) {
+    this.threadName = threadName;
+    this.largeLineExecutor = largeLineExecutor;
+    this.maxLineSizeInMemory = maxLineSizeInMemory;
+  }
+
+  /**
+   * Lines are passed to the consumer on the reactor thread, so it should not block.
+   */
+  Source register(InputStream in, Consumer<String> lineConsumer) {
+    return register(in, lineConsumer, null);
+  }
+
+  /**
+   * @param largeLineConsumer receives lines too large to be kept in memory, on the large line executor. Large lines of a stream are passed in order, but
+   *                          may be passed after the small lines that follow them. The reader is closed, and the temporary file deleted, once the consumer
+   *                          returns. If null, such lines are dropped.
+   */
+  Source register(InputStream in, Consumer<String> lineConsumer, @Nullable Consumer<Reader> largeLineConsumer) {
+    var source = new Source(in, lineConsumer, largeLineConsumer);
+    synchronized (lock) {
+      sources.add(source);
+      if (thread == null) {
+        thread = new Thread(this::run, threadName);
+        thread.setDaemon(true);
+        thread.start();
+      }
+      wokenUp = true;
+      lock.notifyAll();
+    }
+    return source;
+  }
+
+  /**
+   * Output is expected soon, e.g. a request has just been written: poll right away.
+   */
+  void wakeUp() {
+    synchronized (lock) {
+      wokenUp = true;
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * Stop the thread, e.g. when the plugin is unloaded. It is started again if a stream is registered later.
+   */
+  void shutdown() {
+    synchronized (lock) {
+      if (thread != null) {
+        thread.interrupt();
+        thread = null;
+      }
+    }
+  }
+
+  int getSourcesCount() {
+    return sources.size();
+  }
+
+  private void run() {
+    long idleSleepMs = 0;
+    try {
+      while (true) {
+        synchronized (lock) {
+          if (thread != Thread.currentThread()) {
+            // Shut down
+            return;
+          }
+          while (sources.isEmpty()) {
+            idleSleepMs = 0;
+            wokenUp = false;
+            lock.wait();
+          }
+        }
+        var progress = false;
+        for (var source : sources) {
+          progress |= source.poll();
+        }
+        synchronized (lock) {
+          if (progress || wokenUp) {
+            idleSleepMs = 0;
+            wokenUp = false;
+          } else {
+            idleSleepMs = Math.min(Math.max(1, idleSleepMs * 2), MAX_IDLE_SLEEP.toMillis());
+            lock.wait(idleSleepMs);
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  class Source {
+    private final InputStream in;
+    private final Consumer<String> lineConsumer;
+    @Nullable
+    private final Consumer<Reader> largeLineConsumer;
+    private final byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+    private final ByteArrayOutputStream currentLine = new ByteArrayOutputStream();
+    private final CompletableFuture<Void> closedFuture = new CompletableFuture<>();
+    /**
+     * Large lines are decoded one after the other
+     */
+    private CompletableFuture<Void> pendingLargeLines = CompletableFuture.completedFuture(null);
+    private volatile boolean endOfInput;
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong spilledLinesCount = new AtomicLong();
+    private final AtomicLong droppedLinesCount = new AtomicLong();
+    /**
+     * Size of the current line, including what has been spilled or dropped
+     */
+    private long currentLineSize;
+    @Nullable
+    private Path spillFile;
+    @Nullable
+    private OutputStream spillOut;
+    private boolean dropping;
+
+    private Source(InputStream in, Consumer<String> lineConsumer, @Nullable Consumer<Reader> largeLineConsumer) {
+      this.in = in;
+      this.lineConsumer = lineConsumer;
+      this.largeLineConsumer = largeLineConsumer;
+    }
+
+    /**
+     * The process has exited: read what is left, then release the stream.
+     */
+    void endOfInput() {
+      endOfInput = true;
+      wakeUp();
+    }
+
+    /**
+     * @return a future completed when all lines have been passed to the consumers, and large lines have been processed
+     */
+    CompletableFuture<Void> whenClosed() {
+      return closedFuture;
+    }
+
+    long getBytesRead() {
+      return bytesRead.get();
+    }
+
+    long getSpilledLinesCount() {
+      return spilledLinesCount.get();
+    }
+
+    long getDroppedLinesCount() {
+      return droppedLinesCount.get();
+    }
+
+    /**
+     * @return true if some progress has been made
+     */
+    private boolean poll() {
+      // Check the flag before the stream, so that nothing written before the process exited is lost
+      var exited = endOfInput;
+      try {
+        var available = in.available();
+        if (available > 0) {
+          var read = in.read(readBuffer, 0, Math.min(available, readBuffer.length));
+          if (read < 0) {
+            close();
+          } else {
+            bytesRead.addAndGet(read);
+            consume(read);
+          }
+          return true;
+        }
+      } catch (IOException e) {
+        LOG.debug("Unable to read process output", e);
+        close();
+        return true;
+      }
+      if (exited) {
+        close();
+        return true;
+      }
+      return false;
+    }
+
+    private void consume(int length) {
+      var lineStart = 0;
+      for (var i = 0; i < length; i++) {
+        if (readBuffer[i] == '\n') {
+          append(lineStart, i - lineStart);
+          emitLine();
+          lineStart = i + 1;
+        }
+      }
+      append(lineStart, length - lineStart);
+    }
+
+    private void append(int offset, int length) {
+      currentLineSize += length;
+      if (!dropping && spillOut == null && currentLineSize > maxLineSizeInMemory) {
+        startSpilling();
+      }
+      if (dropping) {
+        return;
+      }
+      if (spillOut != null) {
+        try {
+          spillOut.write(readBuffer, offset, length);
+        } catch (IOException e) {
+          LOG.warn("Unable to spill process output to " + spillFile + ": " + e.getMessage());
+          stopSpilling();
+          dropping = true;
+        }
+      } else {
+        currentLine.write(readBuffer, offset, length);
+      }
+    }
+
+    private void startSpilling() {
+      if (largeLineConsumer != null) {
+        try {
+          spillFile = Files.createTempFile("omnisharp-output", ".json");
+          spillOut = new BufferedOutputStream(Files.newOutputStream(spillFile));
+          currentLine.writeTo(spillOut);
+        } catch (IOException e) {
+          LOG.warn("Unable to spill process output to a temporary file: " + e.getMessage());
+          stopSpilling();
+          dropping = true;
+        }
+      } else {
+        dropping = true;
+      }
+      currentLine.reset();
+    }
+
+    private void stopSpilling() {
+      if (spillOut != null) {
+        try {
+          spillOut.close();
+        } catch (IOException e) {
+          LOG.debug("Unable to close " + spillFile, e);
+        }
+        spillOut = null;
+      }
+    }
+
+    private void emitLine() {
+      try {
+        if (dropping) {
+          droppedLinesCount.incrementAndGet();
+          LOG.warn("Ignoring a line of {} bytes of process output", currentLineSize);
+        } else if (spillOut != null) {
+          emitSpilledLine();
+        } else {
+          emitLineInMemory();
+        }
+      } catch (RuntimeException e) {
+        // Don't let a consumer prevent reading the output of other processes
+        LOG.error("Error while processing process output", e);
+      } finally {
+        resetLine();
+      }
+    }
+
+    private void emitLineInMemory() {
+      var line = currentLine.toString(StandardCharsets.UTF_8);
+      if (line.endsWith("\r")) {
+        line = line.substring(0, line.length() - 1);
+      }
+      lineConsumer.accept(line);
+    }
+
+    private void emitSpilledLine() {
+      stopSpilling();
+      spilledLinesCount.incrementAndGet();
+      // The file now belongs to the task processing it, which deletes it once done
+      var file = spillFile;
+      spillFile = null;
+      LOG.debug("Processing a line of {} bytes of process output from {}", currentLineSize, file);
+      pendingLargeLines = pendingLargeLines.thenRunAsync(() -> processSpilledLine(file), largeLineExecutor)
+        .exceptionally(t -> {
+          // Executor shut down
+          LOG.debug("Unable to process " + file, t);
+          deleteSpillFile(file);
+          return null;
+        });
+    }
+
+    private void processSpilledLine(Path file) {
+      // A trailing '\r' is left to the consumer, it is only whitespace for a JSON parser
+      try (var reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+        largeLineConsumer.accept(reader);
+      } catch (IOException e) {
+        LOG.warn("Unable to read process output from " + file + ": " + e.getMessage());
+      } catch (RuntimeException e) {
+        LOG.error("Error while processing process output", e);
+      } finally {
+        deleteSpillFile(file);
+      }
+    }
+
+    private void resetLine() {
+      currentLine.reset();
+      currentLineSize = 0;
+      dropping = false;
+      stopSpilling();
+      if (spillFile != null) {
+        deleteSpillFile(spillFile);
+        spillFile = null;
+      }
+    }
+
+    private void deleteSpillFile(Path file) {
+      try {
+        Files.deleteIfExists(file);
+      } catch (IOException e) {
+        LOG.debug("Unable to delete " + file, e);
+      }
+    }
+
+    private void close() {
+      if (currentLineSize > 0) {
+        emitLine();
+      }
+      try {
+        in.close();
+      } catch (IOException e) {
+        LOG.debug("Unable to close process output", e);
+      }
+      sources.remove(this);
+      pendingLargeLines.thenRun(() -> closedFuture.complete(null));
+    }
+  }
+
+}
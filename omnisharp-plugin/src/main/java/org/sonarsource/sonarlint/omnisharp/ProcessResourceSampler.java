@@ -0,0 +1,289 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Periodically samples the resources used by the OmniSharp process: CPU time, resident memory, threads and open file descriptors. Memory, threads and file
+ * descriptors are read from <code>/proc/&lt;pid&gt;</code>, so they are only available on Linux. Each sample is tagged with the analysis running at that time,
+ * so that a server whose memory keeps growing over a long session can be told apart from one that is busy with a large analysis.
+ * <p>
+ * Sampling runs on the shared scheduler. A sample is only logged when it differs notably from the last logged one, so that an idle server doesn't fill the
+ * logs.
+ */
+class ProcessResourceSampler {
+
+  private static final Logger LOG = Loggers.get(ProcessResourceSampler.class);
+
+  static final Duration DEFAULT_INTERVAL = Duration.ofSeconds(10);
+  static final Path PROC_DIR = Paths.get("/proc");
+  static final long UNAVAILABLE = -1;
+
+  private static final long BYTES_PER_KB = 1024;
+  private static final long BYTES_PER_MB = BYTES_PER_KB * 1024;
+  /**
+   * Relative change of memory, threads or file descriptors above which a periodic sample is logged
+   */
+  static final double LOG_CHANGE_RATIO = 0.1;
+
+  static class Sample {
+    private final long cpuTimeMs;
+    private final long rssBytes;
+    private final long threads;
+    private final long openFds;
+    @Nullable
+    private final String analysis;
+
+    Sample(long cpuTimeMs, long rssBytes, long threads, long openFds, @Nullable String analysis) {
+      this.cpuTimeMs = cpuTimeMs;
+      this.rssBytes = rssBytes;
+      this.threads = threads;
+      this.openFds = openFds;
+      this.analysis = analysis;
+    }
+
+    long getCpuTimeMs() {
+      return cpuTimeMs;
+    }
+
+    long getRssBytes() {
+      return rssBytes;
+    }
+
+    long getThreads() {
+      return threads;
+    }
+
+    long getOpenFds() {
+      return openFds;
+    }
+
+    @CheckForNull
+    String getAnalysis() {
+      return analysis;
+    }
+
+    @Override
+    public String toString() {
+      return "cpu=" + orNa(cpuTimeMs, "ms") + " rss=" + megabytesOrNa(rssBytes) + " threads=" + orNa(threads, "") + " fds=" + orNa(openFds, "");
+    }
+  }
+
+  private final ScheduledExecutorService executor;
+  private final long pid;
+  private final Path procDir;
+  private final Duration interval;
+  private final AtomicLong samplesCount = new AtomicLong();
+  private final AtomicLong maxRssBytes = new AtomicLong(UNAVAILABLE);
+  private final AtomicLong analysisMaxRssBytes = new AtomicLong(UNAVAILABLE);
+  @Nullable
+  private volatile Sample firstSample;
+  @Nullable
+  private volatile Sample lastSample;
+  @Nullable
+  private Sample lastLoggedSample;
+  @Nullable
+  private volatile Sample analysisStartSample;
+  @Nullable
+  private volatile String currentAnalysis;
+  private volatile ScheduledFuture<?> scheduled;
+  private volatile boolean stopped;
+
+  ProcessResourceSampler(ScheduledExecutorService executor, long pid) {
+    this(executor, pid, PROC_DIR, DEFAULT_INTERVAL);
+  }
+
+  ProcessResourceSampler(ScheduledExecutorService executor, long pid, Path procDir, Duration interval) {
+    this.executor = executor;
+    this.pid = pid;
+    this.procDir = procDir;
+    this.interval = interval;
+  }
+
+  void start() {
+    if (stopped) {
+      // The process exited before sampling could start
+      return;
+    }
+    scheduled = executor.scheduleWithFixedDelay(this::periodicSample, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  void stop() {
+    stopped = true;
+    var current = scheduled;
+    if (current != null) {
+      current.cancel(false);
+    }
+  }
+
+  private void periodicSample() {
+    if (stopped) {
+      return;
+    }
+    var sample = sample();
+    // Only run on the scheduler, one at a time
+    if (lastLoggedSample == null || changedNotably(lastLoggedSample, sample)) {
+      lastLoggedSample = sample;
+      LOG.debug("OmniSharp process {}: {} [{}]", pid, sample, sample.getAnalysis() != null ? sample.getAnalysis() : "idle");
+    }
+  }
+
+  static boolean changedNotably(Sample previous, Sample current) {
+    return !Objects.equals(previous.analysis, current.analysis)
+      || changedNotably(previous.rssBytes, current.rssBytes)
+      || changedNotably(previous.threads, current.threads)
+      || changedNotably(previous.openFds, current.openFds);
+  }
+
+  private static boolean changedNotably(long previous, long current) {
+    if (previous == UNAVAILABLE || current == UNAVAILABLE) {
+      return previous != current;
+    }
+    return Math.abs(current - previous) > previous * LOG_CHANGE_RATIO;
+  }
+
+  /**
+   * Samples taken until {@link #analysisFinished()} are tagged with the given analysis
+   */
+  void analysisStarted(String analysis) {
+    currentAnalysis = analysis;
+    analysisMaxRssBytes.set(UNAVAILABLE);
+    analysisStartSample = sample();
+  }
+
+  /**
+   * Log the resources used by the process during the current analysis
+   */
+  void analysisFinished() {
+    var analysis = currentAnalysis;
+    var startSample = analysisStartSample;
+    if (analysis == null || startSample == null) {
+      return;
+    }
+    var endSample = sample();
+    currentAnalysis = null;
+    analysisStartSample = null;
+    var cpuTimeMs = startSample.cpuTimeMs == UNAVAILABLE || endSample.cpuTimeMs == UNAVAILABLE ? UNAVAILABLE : (endSample.cpuTimeMs - startSample.cpuTimeMs);
+    LOG.debug("OmniSharp process {} during {}: cpu=+{} rss={} (peak {}) threads={} fds={}", pid, analysis, orNa(cpuTimeMs, "ms"), megabytesOrNa(endSample.rssBytes),
+      megabytesOrNa(analysisMaxRssBytes.get()), orNa(endSample.threads, ""), orNa(endSample.openFds, ""));
+  }
+
+  synchronized Sample sample() {
+    var processDir = procDir.resolve(String.valueOf(pid));
+    long rssBytes = UNAVAILABLE;
+    long threads = UNAVAILABLE;
+    try {
+      for (String line : Files.readAllLines(processDir.resolve("status"), StandardCharsets.UTF_8)) {
+        if (line.startsWith("VmRSS:")) {
+          // Always in kB
+          rssBytes = parseFirstNumber(line) * BYTES_PER_KB;
+        } else if (line.startsWith("Threads:")) {
+          threads = parseFirstNumber(line);
+        }
+      }
+    } catch (IOException | NumberFormatException e) {
+      LOG.trace("Unable to read status of process " + pid, e);
+    }
+    var sample = new Sample(readCpuTimeMs(), rssBytes, threads, countOpenFds(processDir), currentAnalysis);
+    samplesCount.incrementAndGet();
+    if (firstSample == null) {
+      firstSample = sample;
+    }
+    lastSample = sample;
+    maxRssBytes.accumulateAndGet(rssBytes, Math::max);
+    analysisMaxRssBytes.accumulateAndGet(rssBytes, Math::max);
+    return sample;
+  }
+
+  /**
+   * Unlike memory, CPU time is available on all platforms. On Linux, it is read from <code>/proc/&lt;pid&gt;/stat</code> with the right clock tick.
+   */
+  private long readCpuTimeMs() {
+    return ProcessHandle.of(pid).flatMap(p -> p.info().totalCpuDuration()).map(Duration::toMillis).orElse(UNAVAILABLE);
+  }
+
+  private static long countOpenFds(Path processDir) {
+    var fdDir = processDir.resolve("fd");
+    if (!Files.isDirectory(fdDir)) {
+      return UNAVAILABLE;
+    }
+    try (var fds = Files.list(fdDir)) {
+      return fds.count();
+    } catch (IOException e) {
+      LOG.trace("Unable to list file descriptors in " + fdDir, e);
+      return UNAVAILABLE;
+    }
+  }
+
+  private static long parseFirstNumber(String line) {
+    return Long.parseLong(line.substring(line.indexOf(':') + 1).trim().split("\\s+")[0]);
+  }
+
+  private static String orNa(long value, String unit) {
+    return value == UNAVAILABLE ? "n/a" : (value + unit);
+  }
+
+  private static String megabytesOrNa(long bytes) {
+    return bytes == UNAVAILABLE ? "n/a" : ((bytes / BYTES_PER_MB) + "MB");
+  }
+
+  long getSamplesCount() {
+    return samplesCount.get();
+  }
+
+  /**
+   * @return highest resident memory observed since the process started, or {@link #UNAVAILABLE}
+   */
+  long getMaxRssBytes() {
+    return maxRssBytes.get();
+  }
+
+  @CheckForNull
+  Sample getLastSample() {
+    return lastSample;
+  }
+
+  @Override
+  public String toString() {
+    var first = firstSample;
+    var last = lastSample;
+    if (first == null || last == null) {
+      return "no sample";
+    }
+    return samplesCount.get() + " sample(s), rss " + megabytesOrNa(first.rssBytes) + " -> " + megabytesOrNa(last.rssBytes) + " (peak "
+      + megabytesOrNa(maxRssBytes.get()) + "), last " + last;
+  }
+
+}
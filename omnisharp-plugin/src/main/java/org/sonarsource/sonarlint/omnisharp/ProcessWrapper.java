@@ -19,115 +19,106 @@
  */
 package org.sonarsource.sonarlint.omnisharp;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
+import java.io.Reader;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import javax.annotation.Nullable;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
+import org.sonarsource.sonarlint.omnisharp.StdinWriter.Backpressure;
 
 public class ProcessWrapper {
 
   private static final Logger LOG = Loggers.get(ProcessWrapper.class);
 
   private final Process p;
-  private final Thread stdOutThread;
-  private final Thread stdErrThread;
-  private volatile boolean terminated = false;
+  private final long startNanos;
+  private final StdinWriter stdinWriter;
   private final CompletableFuture<Integer> terminationFuture = new CompletableFuture<>();
+  private ProcessIoReactor.Source stdOut;
 
-  private ProcessWrapper(Process p, Consumer<String> stdOutConsumer, Consumer<String> stdErrConsumer) {
+  private ProcessWrapper(Process p, long startNanos, OmnisharpExecutors executors) {
     this.p = p;
-    stdOutThread = new Thread(() -> {
-      try (BufferedReader streamReader = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
-        while (!terminated) {
-          String line = streamReader.readLine();
-          if (line == null) {
-            break;
-          }
-          stdOutConsumer.accept(line);
-        }
-      } catch (IOException e) {
-        LOG.error("Error while reading stdout stream", e);
-      }
-    });
-    stdOutThread.setName("omnisharp-stdout-stream-consumer-" + p.pid());
-    stdErrThread = new Thread(() -> {
-      try (BufferedReader errorReader = new BufferedReader(new InputStreamReader(p.getErrorStream(), StandardCharsets.UTF_8))) {
-        while (!terminated) {
-          String line = errorReader.readLine();
-          if (line == null) {
-            break;
-          }
-          stdErrConsumer.accept(line);
-        }
-      } catch (IOException e) {
-        LOG.error("Error while reading stderr stream", e);
-      }
-    });
-    stdErrThread.setName("omnisharp-stderr-stream-consumer-" + p.pid());
+    this.startNanos = startNanos;
+    // Responses are expected once a request has been written
+    stdinWriter = new StdinWriter(p.getOutputStream(), executors.background(), executors.ioReactor()::wakeUp);
   }
 
-  private void startStdIoConsumers() {
-    stdOutThread.start();
-    stdErrThread.start();
-  }
-
-  private void startWaitForThread() {
-    Thread isAliveWatcherThread = new Thread(() -> {
-      try {
-        int exitCode = p.waitFor();
-        LOG.debug("Process " + p.pid() + " exited with " + exitCode);
-        terminationFuture.complete(exitCode);
-      } catch (InterruptedException e) {
-        p.destroyForcibly();
-        Thread.currentThread().interrupt();
-        terminationFuture.completeExceptionally(e);
-      } finally {
-        terminated = true;
-        try {
-          stdOutThread.join();
-          stdErrThread.join();
-        } catch (InterruptedException e) {
-          Thread.currentThread().interrupt();
-        }
-      }
+  private void startStdIo(OmnisharpExecutors executors, Consumer<String> stdOutConsumer, @Nullable Consumer<Reader> largeStdOutConsumer,
+    Consumer<String> stdErrConsumer) {
+    var reactor = executors.ioReactor();
+    stdOut = reactor.register(p.getInputStream(), stdOutConsumer, largeStdOutConsumer);
+    var stdErr = reactor.register(p.getErrorStream(), stdErrConsumer);
+    p.onExit().thenRun(() -> {
+      int exitCode = p.exitValue();
+      LOG.debug("Process " + p.pid() + " exited with " + exitCode);
+      stdinWriter.close();
+      LOG.debug("OmniSharp stdin: {}", stdinWriter);
+      stdOut.endOfInput();
+      stdErr.endOfInput();
+      // Only report the termination once the whole output has been processed, and not on the reactor thread
+      CompletableFuture.allOf(stdOut.whenClosed(), stdErr.whenClosed()).thenRunAsync(() -> terminationFuture.complete(exitCode), executors.background());
     });
-    isAliveWatcherThread.setName("omnisharp-is-alive-watcher-" + p.pid());
-    isAliveWatcherThread.start();
   }
 
-  public static ProcessWrapper start(ProcessBuilder builder, Consumer<String> stdOutConsumer, Consumer<String> stdErrConsumer) throws IOException {
+  /**
+   * Output of the process is read by the shared {@link ProcessIoReactor} of the executors, so consumers should not block.
+   *
+   * @param largeStdOutConsumer receives lines of stdout too large to be kept in memory, dropped if null
+   */
+  public static ProcessWrapper start(OmnisharpExecutors executors, ProcessBuilder builder, Consumer<String> stdOutConsumer,
+    @Nullable Consumer<Reader> largeStdOutConsumer, Consumer<String> stdErrConsumer) throws IOException {
     Process process = builder.start();
+    long startNanos = System.nanoTime();
     LOG.debug("Process {} started", process.pid());
-    ProcessWrapper p = new ProcessWrapper(process, stdOutConsumer, stdErrConsumer);
-    p.startStdIoConsumers();
-    p.startWaitForThread();
+    ProcessWrapper p = new ProcessWrapper(process, startNanos, executors);
+    p.startStdIo(executors, stdOutConsumer, largeStdOutConsumer, stdErrConsumer);
     return p;
   }
 
+  /**
+   * @return the {@link System#nanoTime()} at which the process was spawned
+   */
+  public long getStartNanos() {
+    return startNanos;
+  }
+
+  public long getPid() {
+    return p.pid();
+  }
+
   public CompletableFuture<Integer> getTerminationFuture() {
     return terminationFuture;
   }
 
-  public void writeLnStdIn(String str) throws IOException {
-    p.getOutputStream().write(str.getBytes(StandardCharsets.UTF_8));
-    p.getOutputStream().write("\n".getBytes(StandardCharsets.UTF_8));
-    p.getOutputStream().flush();
+  /**
+   * Queue a line to be written on stdin in the background.
+   *
+   * @see StdinWriter#write(String, Backpressure, String)
+   */
+  public CompletableFuture<Boolean> writeLnStdIn(String str, Backpressure backpressure, @Nullable String supersedeKey) throws InterruptedException {
+    return stdinWriter.write(str, backpressure, supersedeKey);
   }
 
-  public void destroyForcibly() {
-    p.destroyForcibly();
+  public StdinWriter getStdinWriter() {
+    return stdinWriter;
+  }
+
+  public long getStdOutBytesRead() {
+    return stdOut.getBytesRead();
+  }
+
+  public long getStdOutSpilledLines() {
+    return stdOut.getSpilledLinesCount();
   }
 
-  public void waitForProcessToEndOrKill(int timeout, TimeUnit unit) throws InterruptedException {
-    if (!p.waitFor(timeout, unit)) {
-      LOG.debug("Unable to terminate process, killing it");
-      p.destroyForcibly();
-    }
+  public long getStdOutDroppedLines() {
+    return stdOut.getDroppedLinesCount();
+  }
+
+  public void destroyForcibly() {
+    p.destroyForcibly();
   }
 
 }
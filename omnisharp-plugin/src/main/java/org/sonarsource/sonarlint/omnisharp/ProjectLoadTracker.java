@@ -0,0 +1,283 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp;
+
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import javax.annotation.CheckForNull;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Track which projects have been loaded by one OmniSharp server, so that a file can be analyzed as soon as its own project is loaded, instead of
+ * waiting for the whole solution.
+ * <p>
+ * Files that are not (yet) part of a loaded project are released once loading has settled, meaning all expected projects of the solution are
+ * loaded or failed to load, or at the latest when the load timeout expires. Files still waiting for their project when the load timeout expires are
+ * failed with a {@link TimeoutException}, rather than analyzed against a project that is not loaded. A failed project may still be loaded later, so when some failed, loading
+ * settles once no project was added, changed or failed to load during the settle delay. If the expected projects are unknown, this quiet period is the
+ * only way to know that loading is over.
+ */
+public class ProjectLoadTracker {
+
+  private static final Logger LOG = Loggers.get(ProjectLoadTracker.class);
+
+  static final Duration DEFAULT_SETTLE_DELAY = Duration.ofSeconds(3);
+  private static final int PROGRESS_STEPS = 10;
+
+  private final ScheduledExecutorService scheduler;
+  private final Duration settleDelay;
+  private final Set<Path> expectedProjects = ConcurrentHashMap.newKeySet();
+  private final Set<String> loadedProjects = ConcurrentHashMap.newKeySet();
+  private final Set<Path> loadedExpectedProjects = ConcurrentHashMap.newKeySet();
+  private final Map<String, List<String>> failedProjects = new ConcurrentHashMap<>();
+  private final Set<Path> loadedSourceFiles = ConcurrentHashMap.newKeySet();
+  private final Map<Path, CompletableFuture<Void>> waitingFiles = new ConcurrentHashMap<>();
+  private final AtomicLong projectEventsCount = new AtomicLong();
+  private final CompletableFuture<Void> settledFuture = new CompletableFuture<>();
+  private volatile boolean timedOut;
+  private volatile Duration loadTimeout = Duration.ZERO;
+
+  /**
+   * @param scheduler runs the settle checks and the load timeout, usually {@link OmnisharpExecutors#scheduler()}
+   */
+  public ProjectLoadTracker(ScheduledExecutorService scheduler, Duration settleDelay) {
+    this.scheduler = scheduler;
+    this.settleDelay = settleDelay;
+    settledFuture.whenComplete((r, t) -> {
+      if (t == null && !failedProjects.isEmpty()) {
+        LOG.warn("{} project(s) failed to load: {}", failedProjects.size(), getFailureSummary());
+      }
+      releaseWaitingFiles();
+    });
+  }
+
+  private ProjectLoadTracker(ScheduledExecutorService scheduler, Throwable notStartedCause) {
+    this.scheduler = scheduler;
+    this.settleDelay = DEFAULT_SETTLE_DELAY;
+    settledFuture.completeExceptionally(notStartedCause);
+  }
+
+  static ProjectLoadTracker notStarted(ScheduledExecutorService scheduler) {
+    return new ProjectLoadTracker(scheduler, new IllegalStateException("OmniSharp not started"));
+  }
+
+  /**
+   * Called once the solution has been parsed, before OmniSharp starts loading projects.
+   *
+   * @param expectedProjects projects of the solution, or empty if unknown
+   */
+  public void loadingStarted(Collection<Path> expectedProjects, Duration loadTimeout) {
+    expectedProjects.forEach(p -> this.expectedProjects.add(p.normalize()));
+    this.loadTimeout = loadTimeout;
+    scheduler.schedule(() -> {
+      if (!settledFuture.isDone()) {
+        timedOut = true;
+        settledFuture.complete(null);
+      }
+    }, loadTimeout.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  public void projectLoaded(String projectPath, Collection<Path> sourceFiles) {
+    loadedProjects.add(projectPath);
+    // Project may have been loaded despite errors
+    failedProjects.remove(projectPath);
+    for (Path sourceFile : sourceFiles) {
+      var normalized = sourceFile.normalize();
+      loadedSourceFiles.add(normalized);
+      var waiting = waitingFiles.remove(normalized);
+      if (waiting != null) {
+        waiting.complete(null);
+      }
+    }
+    scheduleSettleCheck();
+    var expectedProject = toExpectedProject(projectPath);
+    if (expectedProject != null && loadedExpectedProjects.add(expectedProject)) {
+      logProgress();
+    }
+  }
+
+  public void projectFailed(String projectPath, List<String> errors) {
+    if (!loadedProjects.contains(projectPath)) {
+      failedProjects.put(projectPath, List.copyOf(errors));
+      scheduleSettleCheck();
+      if (toExpectedProject(projectPath) != null) {
+        logProgress();
+      }
+    }
+  }
+
+  @CheckForNull
+  private Path toExpectedProject(String projectPath) {
+    if (expectedProjects.isEmpty()) {
+      return null;
+    }
+    Path path;
+    try {
+      path = Paths.get(projectPath).normalize();
+    } catch (InvalidPathException e) {
+      return null;
+    }
+    return expectedProjects.contains(path) ? path : null;
+  }
+
+  private int countFailedExpectedProjects() {
+    return (int) failedProjects.keySet().stream().map(this::toExpectedProject).filter(Objects::nonNull).filter(p -> !loadedExpectedProjects.contains(p)).count();
+  }
+
+  private void logProgress() {
+    int failed = countFailedExpectedProjects();
+    int processed = loadedExpectedProjects.size() + failed;
+    int expected = expectedProjects.size();
+    if (processed >= expected) {
+      // In case of failure, the project may still be loaded later, so let loading settle
+      if (failed == 0 && settledFuture.complete(null)) {
+        LOG.info("All {} project(s) of the solution loaded", expected);
+      }
+    } else if (processed * PROGRESS_STEPS / expected > (processed - 1) * PROGRESS_STEPS / expected) {
+      LOG.info("{}/{} project(s) of the solution loaded", processed, expected);
+    }
+  }
+
+  private void scheduleSettleCheck() {
+    long eventsCount = projectEventsCount.incrementAndGet();
+    scheduler.schedule(() -> {
+      // MSBuild may be quiet for a while between two projects, don't settle while expected projects are still missing
+      if (projectEventsCount.get() == eventsCount && (expectedProjects.isEmpty() || isLoadingComplete()) && settledFuture.complete(null)) {
+        LOG.debug("Project loading settled, {} project(s) loaded", loadedProjects.size());
+      }
+    }, settleDelay.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @return a future completed when the project containing the given file is loaded, or when loading has settled. Failed with a {@link TimeoutException}
+   * if the project was still not loaded when the load timeout expired.
+   */
+  public CompletableFuture<Void> whenFileReady(Path file) {
+    var normalized = file.normalize();
+    if (settledFuture.isCompletedExceptionally()) {
+      return settledFuture;
+    }
+    if (loadedSourceFiles.contains(normalized)) {
+      return CompletableFuture.completedFuture(null);
+    }
+    var waiting = waitingFiles.computeIfAbsent(normalized, k -> new CompletableFuture<>());
+    // Loading may have progressed concurrently
+    if (loadedSourceFiles.contains(normalized)) {
+      waitingFiles.remove(normalized, waiting);
+      waiting.complete(null);
+    } else if (settledFuture.isDone()) {
+      releaseWaitingFiles();
+    }
+    return waiting;
+  }
+
+  public boolean isProjectLoaded(String projectPath) {
+    return loadedProjects.contains(projectPath);
+  }
+
+  public int getLoadedProjectsCount() {
+    return loadedProjects.size();
+  }
+
+  /**
+   * @return true if all expected projects are either loaded or failed to load
+   */
+  public boolean isLoadingComplete() {
+    return !expectedProjects.isEmpty() && loadedExpectedProjects.size() + countFailedExpectedProjects() >= expectedProjects.size();
+  }
+
+  /**
+   * @return true if loading settled because the load timeout expired
+   */
+  public boolean isTimedOut() {
+    return timedOut;
+  }
+
+  /**
+   * @return the timeout given to {@link #loadingStarted(Collection, Duration)}
+   */
+  public Duration getLoadTimeout() {
+    return loadTimeout;
+  }
+
+  /**
+   * @return errors of projects that failed to load, by project path
+   */
+  public Map<String, List<String>> getFailedProjects() {
+    return Map.copyOf(failedProjects);
+  }
+
+  public String getFailureSummary() {
+    return failedProjects.entrySet().stream()
+      .map(e -> e.getKey() + " (" + String.join(", ", e.getValue()) + ")")
+      .collect(Collectors.joining(", "));
+  }
+
+  /**
+   * @return the number of projects expected to be loaded, or 0 if unknown
+   */
+  public int getExpectedProjectsCount() {
+    return expectedProjects.size();
+  }
+
+  public CompletableFuture<Void> whenSettled() {
+    return settledFuture;
+  }
+
+  /**
+   * Server is stopping, fail all waiters.
+   */
+  public void abort() {
+    settledFuture.completeExceptionally(new IllegalStateException("OmniSharp server stopped"));
+  }
+
+  private void releaseWaitingFiles() {
+    for (var file : waitingFiles.keySet()) {
+      var waiting = waitingFiles.remove(file);
+      if (waiting != null) {
+        settledFuture.whenComplete((r, t) -> {
+          if (t != null) {
+            waiting.completeExceptionally(t);
+          } else if (timedOut) {
+            waiting.completeExceptionally(new TimeoutException("Project of " + file + " not loaded after " + loadTimeout.toSeconds() + "s"));
+          } else {
+            waiting.complete(null);
+          }
+        });
+      }
+    }
+  }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.stream.Collectors;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonarsource.sonarlint.omnisharp.protocol.AnalyzerExecutionTime;
+
+/**
+ * Time spent by each rule during an analysis, only measured when {@link CSharpPropertyDefinitions#getProfileRules()} is set. Rules implemented by the same
+ * analyzer can't be told apart, so they are reported together.
+ */
+class RuleExecutionTimes {
+
+  private static final Logger LOG = Loggers.get(RuleExecutionTimes.class);
+
+  static final int REPORTED_RULES_COUNT = 10;
+
+  private final Map<String, DoubleAdder> elapsedMsPerRules = new ConcurrentHashMap<>();
+
+  void add(AnalyzerExecutionTime executionTime) {
+    elapsedMsPerRules.computeIfAbsent(String.join(",", executionTime.getRuleIds()), k -> new DoubleAdder()).add(executionTime.getElapsedMs());
+  }
+
+  /**
+   * @return total time in ms per rule (or comma separated rules of the same analyzer), the slowest first
+   */
+  List<Map.Entry<String, Double>> getSlowest(int count) {
+    return elapsedMsPerRules.entrySet().stream()
+      .map(e -> Map.entry(e.getKey(), e.getValue().sum()))
+      .sorted(Map.Entry.<String, Double>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+      .limit(count)
+      .collect(Collectors.toList());
+  }
+
+  void log() {
+    var slowest = getSlowest(REPORTED_RULES_COUNT);
+    if (slowest.isEmpty()) {
+      LOG.info("No rule execution time reported by OmniSharp");
+      return;
+    }
+    LOG.info("Slowest rules:{}", slowest.stream().map(e -> String.format(Locale.ENGLISH, "%n  %s: %.0fms", e.getKey(), e.getValue())).collect(Collectors.joining()));
+  }
+
+}
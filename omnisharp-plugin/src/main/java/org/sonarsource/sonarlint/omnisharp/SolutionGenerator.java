@@ -0,0 +1,189 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import org.sonar.api.utils.TempFolder;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonarsource.api.sonarlint.SonarLintSide;
+
+/**
+ * Generate solution files in the temp folder, for solutions OmniSharp can't load directly.
+ */
+@SonarLintSide(lifespan = SonarLintSide.MODULE)
+public class SolutionGenerator {
+
+  private static final Logger LOG = Loggers.get(SolutionGenerator.class);
+
+  private static final String GENERATED_SOLUTIONS_LOCATION = "generatedSolutions";
+  private static final String CSHARP_PROJECT_TYPE_GUID = "FAE04EC0-301F-11D3-BF4B-00C04F79EFBC";
+
+  private final TempFolder tempFolder;
+
+  public SolutionGenerator(TempFolder tempFolder) {
+    this.tempFolder = tempFolder;
+  }
+
+  /**
+   * OmniSharp 1.39.10 doesn't support .slnx files, so generate an equivalent .sln referencing exactly the same C# projects.
+   */
+  public Path generateSln(Path slnxPath) throws IOException {
+    var projects = SolutionParser.parseProjects(slnxPath);
+    if (projects.isEmpty()) {
+      throw new IOException("No C# project found in " + slnxPath);
+    }
+    var slnPath = getGeneratedSolutionPath(slnxPath, ".sln");
+    Files.write(slnPath, toSln(projects).getBytes(StandardCharsets.UTF_8));
+    LOG.debug("Generated {} with {} project(s) from {}", slnPath, projects.size(), slnxPath);
+    return slnPath;
+  }
+
+  /**
+   * Generate a solution restricted to the projects containing the given files, plus their transitive project references, so that OmniSharp
+   * doesn't load projects that are irrelevant for the analysis. A .slnf is generated for .sln and .slnf solutions, a .sln for .slnx solutions.
+   */
+  public ScopedSolution generateScopedSolution(Path solutionPath, Collection<Path> files) throws IOException {
+    var projectEntries = SolutionParser.parseProjectEntries(solutionPath);
+    var projects = findScopedProjects(projectEntries.keySet(), files);
+    if (projects.isEmpty()) {
+      throw new IOException("None of the analyzed files belongs to a C# project of " + solutionPath);
+    }
+    Path scopedSolutionPath;
+    if (solutionPath.getFileName().toString().toLowerCase(Locale.ENGLISH).endsWith(".slnx")) {
+      scopedSolutionPath = getGeneratedSolutionPath(solutionPath, ".scoped.sln");
+      Files.write(scopedSolutionPath, toSln(new ArrayList<>(projects)).getBytes(StandardCharsets.UTF_8));
+    } else {
+      var filteredSolution = solutionPath.getFileName().toString().toLowerCase(Locale.ENGLISH).endsWith(".slnf") ? SolutionParser.getFilteredSolution(solutionPath)
+        : solutionPath.toAbsolutePath().normalize();
+      scopedSolutionPath = getGeneratedSolutionPath(solutionPath, ".scoped.slnf");
+      Files.write(scopedSolutionPath, toSlnf(filteredSolution, projects.stream().map(projectEntries::get).collect(Collectors.toList())).getBytes(StandardCharsets.UTF_8));
+    }
+    LOG.debug("Generated {} with {}/{} project(s) of {}", scopedSolutionPath, projects.size(), projectEntries.size(), solutionPath);
+    return new ScopedSolution(scopedSolutionPath, projectEntries.keySet(), projects);
+  }
+
+  /**
+   * SDK-style projects include all source files below their directory, so consider that a file belongs to the closest project above it.
+   */
+  static Set<Path> findScopedProjects(Collection<Path> solutionProjects, Collection<Path> files) throws IOException {
+    Map<Path, Path> projectsByDir = new HashMap<>();
+    solutionProjects.forEach(p -> projectsByDir.putIfAbsent(p.getParent(), p));
+    Set<Path> result = new LinkedHashSet<>();
+    Deque<Path> toVisit = new ArrayDeque<>();
+    for (Path file : files) {
+      var dir = file.toAbsolutePath().normalize().getParent();
+      while (dir != null && !projectsByDir.containsKey(dir)) {
+        dir = dir.getParent();
+      }
+      if (dir != null && result.add(projectsByDir.get(dir))) {
+        toVisit.add(projectsByDir.get(dir));
+      }
+    }
+    while (!toVisit.isEmpty()) {
+      for (Path reference : SolutionParser.parseProjectReferences(toVisit.poll())) {
+        // Only projects of the solution can be part of the filter, OmniSharp will load other references anyway
+        if (solutionProjects.contains(reference) && result.add(reference)) {
+          toVisit.add(reference);
+        }
+      }
+    }
+    return result;
+  }
+
+  public static class ScopedSolution {
+    private final Path path;
+    private final Set<Path> solutionProjects;
+    private final Set<Path> projects;
+
+    ScopedSolution(Path path, Set<Path> solutionProjects, Set<Path> projects) {
+      this.path = path;
+      this.solutionProjects = Set.copyOf(solutionProjects);
+      this.projects = Set.copyOf(projects);
+    }
+
+    public Path getPath() {
+      return path;
+    }
+
+    /**
+     * @return true if the given files belong to projects that are not part of this scoped solution
+     */
+    public boolean isMissingProjectsFor(Collection<Path> files) throws IOException {
+      return !projects.containsAll(findScopedProjects(solutionProjects, files));
+    }
+  }
+
+  private Path getGeneratedSolutionPath(Path sourceSolution, String extension) {
+    var dir = tempFolder.newDir(GENERATED_SOLUTIONS_LOCATION).toPath();
+    var absolute = sourceSolution.toAbsolutePath().normalize();
+    var fileName = absolute.getFileName().toString();
+    var dot = fileName.lastIndexOf('.');
+    var baseName = dot > 0 ? fileName.substring(0, dot) : fileName;
+    // Different modules may use solutions having the same name
+    return dir.resolve(baseName + "-" + Integer.toHexString(absolute.toString().hashCode()) + extension);
+  }
+
+  private static String toSlnf(Path filteredSolution, List<String> projects) {
+    var solution = new JsonObject();
+    solution.addProperty("path", filteredSolution.toString());
+    var projectsJson = new JsonArray();
+    projects.forEach(projectsJson::add);
+    solution.add("projects", projectsJson);
+    var slnf = new JsonObject();
+    slnf.add("solution", solution);
+    return slnf.toString();
+  }
+
+  private static String toSln(List<Path> projects) {
+    var sb = new StringBuilder();
+    sb.append("Microsoft Visual Studio Solution File, Format Version 12.00\r\n");
+    sb.append("# Visual Studio Version 17\r\n");
+    for (Path project : projects) {
+      var fileName = project.getFileName().toString();
+      var name = fileName.substring(0, fileName.lastIndexOf('.'));
+      var projectGuid = UUID.nameUUIDFromBytes(project.toString().getBytes(StandardCharsets.UTF_8)).toString().toUpperCase(Locale.ENGLISH);
+      sb.append("Project(\"{").append(CSHARP_PROJECT_TYPE_GUID).append("}\") = \"").append(name).append("\", \"").append(project).append("\", \"{").append(projectGuid)
+        .append("}\"\r\n");
+      sb.append("EndProject\r\n");
+    }
+    sb.append("Global\r\n");
+    sb.append("EndGlobal\r\n");
+    return sb.toString();
+  }
+
+}
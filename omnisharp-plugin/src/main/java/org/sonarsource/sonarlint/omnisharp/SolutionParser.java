@@ -0,0 +1,207 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Lightweight parser listing the C# projects referenced by a solution (.sln, .slnf or .slnx), so that project loading progress can be tracked.
+ * This is not meant to be a complete solution parser, projects that can't be resolved are simply ignored.
+ */
+public class SolutionParser {
+
+  private static final Logger LOG = Loggers.get(SolutionParser.class);
+  private static final Pattern SLN_PROJECT_PATTERN = Pattern.compile("^\\s*Project\\(\"\\{[^}]*+}\"\\)\\s*=\\s*\"[^\"]*+\"\\s*,\\s*\"([^\"]++)\"");
+  private static final String CSPROJ_EXTENSION = ".csproj";
+
+  private SolutionParser() {
+    // Utility class
+  }
+
+  /**
+   * Find the solution OmniSharp is going to load: the configured one, or the single solution at the root of the project.
+   */
+  public static Optional<Path> findSolution(Path projectBaseDir, @Nullable Path solutionPath) {
+    if (solutionPath != null) {
+      return Optional.of(solutionPath);
+    }
+    try (Stream<Path> files = Files.list(projectBaseDir)) {
+      var solutions = files.filter(p -> p.getFileName().toString().toLowerCase(Locale.ENGLISH).endsWith(".sln")).collect(Collectors.toList());
+      return solutions.size() == 1 ? Optional.of(solutions.get(0)) : Optional.empty();
+    } catch (IOException e) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * @return absolute and normalized paths of existing C# projects referenced by the solution
+   */
+  public static List<Path> parseProjects(Path solutionPath) throws IOException {
+    return new ArrayList<>(parseProjectEntries(solutionPath).keySet());
+  }
+
+  /**
+   * @return absolute and normalized paths of existing C# projects referenced by the solution, associated to the path as written in the solution
+   */
+  public static Map<Path, String> parseProjectEntries(Path solutionPath) throws IOException {
+    var fileName = solutionPath.getFileName().toString().toLowerCase(Locale.ENGLISH);
+    Path baseDir;
+    List<String> rawPaths;
+    if (fileName.endsWith(".slnf")) {
+      baseDir = getFilteredSolution(solutionPath).getParent();
+      rawPaths = parseSlnf(solutionPath);
+    } else if (fileName.endsWith(".slnx")) {
+      baseDir = solutionPath.toAbsolutePath().getParent();
+      rawPaths = parseSlnx(solutionPath);
+    } else {
+      baseDir = solutionPath.toAbsolutePath().getParent();
+      rawPaths = parseSln(solutionPath);
+    }
+    Map<Path, String> result = new LinkedHashMap<>();
+    for (String rawPath : rawPaths) {
+      var project = resolve(baseDir, rawPath);
+      if (project.getFileName().toString().toLowerCase(Locale.ENGLISH).endsWith(CSPROJ_EXTENSION) && Files.isRegularFile(project)) {
+        result.putIfAbsent(project.toAbsolutePath().normalize(), rawPath);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Projects of a solution filter are relative to the filtered solution. If the filter doesn't reference it, the single solution next to the filter is
+   * assumed.
+   */
+  public static Path getFilteredSolution(Path slnfPath) throws IOException {
+    var solution = parseSlnfSolution(slnfPath);
+    var slnfDir = slnfPath.toAbsolutePath().getParent();
+    if (solution == null || !solution.has("path")) {
+      var siblingSolution = findSolution(slnfDir, null)
+        .orElseThrow(() -> new IOException("No solution referenced by " + slnfPath));
+      LOG.debug("No solution referenced by {}, using {}", slnfPath, siblingSolution);
+      return siblingSolution.toAbsolutePath().normalize();
+    }
+    return resolve(slnfDir, solution.get("path").getAsString()).normalize();
+  }
+
+  /**
+   * @return absolute and normalized paths of existing projects referenced by the given project
+   */
+  public static List<Path> parseProjectReferences(Path projectPath) throws IOException {
+    var baseDir = projectPath.toAbsolutePath().getParent();
+    List<Path> references = new ArrayList<>();
+    for (String include : parseXmlAttributes(projectPath, "ProjectReference", "Include")) {
+      var reference = resolve(baseDir, include).normalize();
+      if (Files.isRegularFile(reference)) {
+        references.add(reference);
+      }
+    }
+    return references;
+  }
+
+  private static List<String> parseSln(Path slnPath) throws IOException {
+    List<String> projects = new ArrayList<>();
+    for (String line : Files.readAllLines(slnPath, StandardCharsets.UTF_8)) {
+      var matcher = SLN_PROJECT_PATTERN.matcher(line);
+      if (matcher.find()) {
+        projects.add(matcher.group(1));
+      }
+    }
+    return projects;
+  }
+
+  private static List<String> parseSlnf(Path slnfPath) throws IOException {
+    var solution = parseSlnfSolution(slnfPath);
+    if (solution == null || !solution.has("projects")) {
+      return List.of();
+    }
+    List<String> projects = new ArrayList<>();
+    for (JsonElement project : solution.getAsJsonArray("projects")) {
+      projects.add(project.getAsString());
+    }
+    return projects;
+  }
+
+  @CheckForNull
+  private static JsonObject parseSlnfSolution(Path slnfPath) throws IOException {
+    try {
+      return JsonParser.parseString(Files.readString(slnfPath, StandardCharsets.UTF_8)).getAsJsonObject().getAsJsonObject("solution");
+    } catch (JsonParseException | IllegalStateException | ClassCastException e) {
+      throw new IOException("Unable to parse " + slnfPath, e);
+    }
+  }
+
+  private static List<String> parseSlnx(Path slnxPath) throws IOException {
+    return parseXmlAttributes(slnxPath, "Project", "Path");
+  }
+
+  private static List<String> parseXmlAttributes(Path xmlPath, String tagName, String attributeName) throws IOException {
+    List<String> values = new ArrayList<>();
+    try (InputStream is = Files.newInputStream(xmlPath)) {
+      var factory = DocumentBuilderFactory.newInstance();
+      factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+      factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+      NodeList nodes = factory.newDocumentBuilder().parse(is).getElementsByTagName(tagName);
+      for (int i = 0; i < nodes.getLength(); i++) {
+        var value = ((Element) nodes.item(i)).getAttribute(attributeName);
+        if (!value.isEmpty()) {
+          values.add(value);
+        }
+      }
+    } catch (ParserConfigurationException | SAXException e) {
+      throw new IOException("Unable to parse " + xmlPath, e);
+    }
+    return values;
+  }
+
+  private static Path resolve(Path baseDir, String relativePath) {
+    // Solutions always use Windows separators
+    return baseDir.resolve(Paths.get(relativePath.replace('\\', File.separatorChar)));
+  }
+
+}
@@ -0,0 +1,234 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonarsource.api.sonarlint.SonarLintSide;
+
+/**
+ * Keep track of the observed OmniSharp startup and project loading durations per solution, in a small local file, so that timeouts can be adapted to each
+ * solution: raised for solutions known to be slow, and lowered for solutions known to be fast, so that a broken one doesn't make the user wait for nothing.
+ * Timeouts explicitly configured by the user are never exceeded.
+ */
+@SonarLintSide(lifespan = SonarLintSide.INSTANCE)
+public class StartupHistory {
+
+  private static final Logger LOG = Loggers.get(StartupHistory.class);
+
+  static final int MAX_SAMPLES = 50;
+  static final int MIN_SAMPLES = 5;
+  /**
+   * Solutions not analyzed recently are forgotten, so that the file doesn't grow forever
+   */
+  static final int MAX_SOLUTIONS = 100;
+  static final double MARGIN = 2.0;
+  static final Duration MIN_TIMEOUT = Duration.ofSeconds(10);
+  /**
+   * Don't let consecutive timeouts raise the timeout forever
+   */
+  static final Duration MAX_TIMEOUT = Duration.ofMinutes(30);
+
+  private static final String STARTUP = "startup";
+  private static final String LOAD_PROJECTS = "loadProjects";
+  private static final String TIMEOUTS_SUFFIX = "Timeouts";
+
+  private final Path historyFile;
+  private Map<String, Map<String, List<Long>>> samplesBySolution;
+
+  public StartupHistory(Configuration config) {
+    this.historyFile = config.get(CSharpPropertyDefinitions.getStartupHistoryPath()).map(Paths::get)
+      .orElseGet(() -> Paths.get(System.getProperty("user.home"), ".sonarlint", "omnisharp", "startup-history.json"));
+  }
+
+  public void recordStartup(String solutionKey, Duration duration) {
+    record(solutionKey, STARTUP, duration, false);
+  }
+
+  /**
+   * @param timeout the timeout that expired, a lower bound of the actual startup duration
+   */
+  public void recordStartupTimeout(String solutionKey, Duration timeout) {
+    record(solutionKey, STARTUP, timeout, true);
+  }
+
+  public void recordLoadProjects(String solutionKey, Duration duration) {
+    record(solutionKey, LOAD_PROJECTS, duration, false);
+  }
+
+  /**
+   * @param timeout the timeout that expired, a lower bound of the actual load duration
+   */
+  public void recordLoadProjectsTimeout(String solutionKey, Duration timeout) {
+    record(solutionKey, LOAD_PROJECTS, timeout, true);
+  }
+
+  /**
+   * @param defaultTimeout used as long as not enough durations have been observed
+   * @param explicitTimeout timeout explicitly configured by the user, if any
+   */
+  public Duration getStartupTimeout(String solutionKey, Duration defaultTimeout, @Nullable Duration explicitTimeout) {
+    return getTimeout(solutionKey, STARTUP, defaultTimeout, explicitTimeout);
+  }
+
+  /**
+   * @param defaultTimeout used as long as not enough durations have been observed
+   * @param explicitTimeout timeout explicitly configured by the user, if any
+   */
+  public Duration getLoadProjectsTimeout(String solutionKey, Duration defaultTimeout, @Nullable Duration explicitTimeout) {
+    return getTimeout(solutionKey, LOAD_PROJECTS, defaultTimeout, explicitTimeout);
+  }
+
+  /**
+   * The timeout is:
+   * <ul>
+   *   <li>the 99th percentile of the durations observed for a solution with a margin, once there are enough of them, instead of the default one</li>
+   *   <li>the timeout that expired multiplied by the margin, if the previous run(s) timed out</li>
+   *   <li>never higher than the one explicitly configured by the user</li>
+   * </ul>
+   */
+  private synchronized Duration getTimeout(String solutionKey, String kind, Duration defaultTimeout, @Nullable Duration explicitTimeout) {
+    var timeout = defaultTimeout;
+    var samples = getSamples(solutionKey, kind);
+    if (samples.size() >= MIN_SAMPLES) {
+      timeout = max(MIN_TIMEOUT, Duration.ofMillis((long) (percentile99(samples) * MARGIN)));
+    }
+    var timeouts = getSamples(solutionKey, kind + TIMEOUTS_SUFFIX);
+    if (!timeouts.isEmpty()) {
+      timeout = max(timeout, Duration.ofMillis((long) (timeouts.get(timeouts.size() - 1) * MARGIN)));
+    }
+    if (timeout.compareTo(defaultTimeout) > 0) {
+      timeout = max(defaultTimeout, min(timeout, MAX_TIMEOUT));
+    }
+    if (explicitTimeout != null) {
+      timeout = min(timeout, explicitTimeout);
+    }
+    if (!timeout.equals(defaultTimeout)) {
+      LOG.debug("Using a {} timeout of {}ms learned from {} previous run(s) and {} timeout(s) in a row", kind, timeout.toMillis(), samples.size(), timeouts.size());
+    }
+    return timeout;
+  }
+
+  private static Duration max(Duration d1, Duration d2) {
+    return d1.compareTo(d2) >= 0 ? d1 : d2;
+  }
+
+  private static Duration min(Duration d1, Duration d2) {
+    return d1.compareTo(d2) <= 0 ? d1 : d2;
+  }
+
+  static long percentile99(List<Long> samples) {
+    var sorted = new ArrayList<>(samples);
+    sorted.sort(null);
+    var index = (int) Math.ceil(0.99 * sorted.size()) - 1;
+    return sorted.get(Math.max(0, index));
+  }
+
+  /**
+   * Timed out runs are kept as samples too, and also counted as consecutive timeouts until a run completes in time
+   */
+  private synchronized void record(String solutionKey, String kind, Duration duration, boolean timedOut) {
+    var history = load();
+    // Most recently recorded solution last, to evict the least recently recorded ones
+    var samplesByKind = history.remove(solutionKey);
+    if (samplesByKind == null) {
+      samplesByKind = new HashMap<>();
+    }
+    history.put(solutionKey, samplesByKind);
+    addSample(samplesByKind.computeIfAbsent(kind, k -> new ArrayList<>()), duration);
+    if (timedOut) {
+      addSample(samplesByKind.computeIfAbsent(kind + TIMEOUTS_SUFFIX, k -> new ArrayList<>()), duration);
+    } else {
+      samplesByKind.remove(kind + TIMEOUTS_SUFFIX);
+    }
+    var solutions = history.keySet().iterator();
+    while (history.size() > MAX_SOLUTIONS) {
+      solutions.next();
+      solutions.remove();
+    }
+    save();
+  }
+
+  /**
+   * Several IDE instances may share the file, so never let them read a partially written one
+   */
+  private void save() {
+    try {
+      Files.createDirectories(historyFile.getParent());
+      var tmpFile = Files.createTempFile(historyFile.getParent(), historyFile.getFileName().toString(), ".tmp");
+      try {
+        Files.write(tmpFile, new Gson().toJson(samplesBySolution).getBytes(StandardCharsets.UTF_8));
+        Files.move(tmpFile, historyFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } finally {
+        Files.deleteIfExists(tmpFile);
+      }
+    } catch (IOException e) {
+      LOG.debug("Unable to save OmniSharp startup history to " + historyFile, e);
+    }
+  }
+
+  private static void addSample(List<Long> samples, Duration duration) {
+    samples.add(duration.toMillis());
+    while (samples.size() > MAX_SAMPLES) {
+      samples.remove(0);
+    }
+  }
+
+  private List<Long> getSamples(String solutionKey, String kind) {
+    return load().getOrDefault(solutionKey, Map.of()).getOrDefault(kind, List.of());
+  }
+
+  private Map<String, Map<String, List<Long>>> load() {
+    if (samplesBySolution == null) {
+      samplesBySolution = new LinkedHashMap<>();
+      if (Files.exists(historyFile)) {
+        try {
+          Map<String, Map<String, List<Long>>> loaded = new Gson().fromJson(Files.readString(historyFile, StandardCharsets.UTF_8),
+            new TypeToken<LinkedHashMap<String, HashMap<String, ArrayList<Long>>>>() {
+            }.getType());
+          if (loaded != null) {
+            samplesBySolution = loaded;
+          }
+        } catch (IOException | JsonParseException e) {
+          LOG.debug("Unable to read OmniSharp startup history from " + historyFile + ", starting from scratch", e);
+        }
+      }
+    }
+    return samplesBySolution;
+  }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.CheckForNull;
+
+/**
+ * Timings of the startup phases of one OmniSharp server, relative to the moment the start was requested. Helps to tell apart a slow runtime start
+ * (spawn to <code>started</code>), a slow MSBuild evaluation (<code>started</code> to last project added) and a slow analyzer warm-up (first code check).
+ */
+public class StartupReport {
+
+  private static final long NOT_RECORDED = -1;
+
+  private final Instant requestedAt;
+  private final long requestedNanos;
+  private final AtomicLong processSpawnedNanos = new AtomicLong(NOT_RECORDED);
+  private final AtomicLong omnisharpStartedNanos = new AtomicLong(NOT_RECORDED);
+  private final AtomicLong firstCodeCheckNanos = new AtomicLong(NOT_RECORDED);
+  private final List<ProjectTiming> projectsAdded = new CopyOnWriteArrayList<>();
+
+  public StartupReport() {
+    this.requestedAt = Instant.now();
+    this.requestedNanos = System.nanoTime();
+  }
+
+  public static class ProjectTiming {
+    private final String projectPath;
+    private final Duration loadedAfter;
+
+    ProjectTiming(String projectPath, Duration loadedAfter) {
+      this.projectPath = projectPath;
+      this.loadedAfter = loadedAfter;
+    }
+
+    public String getProjectPath() {
+      return projectPath;
+    }
+
+    public Duration getLoadedAfter() {
+      return loadedAfter;
+    }
+  }
+
+  void processSpawned(long nanos) {
+    processSpawnedNanos.compareAndSet(NOT_RECORDED, nanos);
+  }
+
+  public void omnisharpStarted() {
+    omnisharpStartedNanos.compareAndSet(NOT_RECORDED, System.nanoTime());
+  }
+
+  public void projectAdded(String projectPath) {
+    projectsAdded.add(new ProjectTiming(projectPath, sinceRequested(System.nanoTime())));
+  }
+
+  /**
+   * @return true if this was the first successful code check
+   */
+  boolean codeCheckSucceeded() {
+    return firstCodeCheckNanos.compareAndSet(NOT_RECORDED, System.nanoTime());
+  }
+
+  public Instant getRequestedAt() {
+    return requestedAt;
+  }
+
+  /**
+   * @return value of {@link System#nanoTime()} when the start was requested
+   */
+  long getRequestedNanos() {
+    return requestedNanos;
+  }
+
+  public Optional<Duration> getProcessSpawnedAfter() {
+    return toDuration(processSpawnedNanos.get());
+  }
+
+  public Optional<Duration> getOmnisharpStartedAfter() {
+    return toDuration(omnisharpStartedNanos.get());
+  }
+
+  public List<ProjectTiming> getProjectsAdded() {
+    return List.copyOf(projectsAdded);
+  }
+
+  public Optional<Duration> getLastProjectAddedAfter() {
+    return projectsAdded.stream().map(ProjectTiming::getLoadedAfter).max(Duration::compareTo);
+  }
+
+  public Optional<Duration> getFirstCodeCheckAfter() {
+    return toDuration(firstCodeCheckNanos.get());
+  }
+
+  private Optional<Duration> toDuration(long nanos) {
+    return nanos == NOT_RECORDED ? Optional.empty() : Optional.of(sinceRequested(nanos));
+  }
+
+  private Duration sinceRequested(long nanos) {
+    return Duration.ofNanos(nanos - requestedNanos);
+  }
+
+  /**
+   * Single line summary, with one <code>key=value</code> pair per phase, values in milliseconds since the start was requested.
+   */
+  @Override
+  public String toString() {
+    return "spawn=" + millisOrNa(getProcessSpawnedAfter().orElse(null))
+      + " started=" + millisOrNa(getOmnisharpStartedAfter().orElse(null))
+      + " projects=" + projectsAdded.size()
+      + " lastProjectAdded=" + millisOrNa(getLastProjectAddedAfter().orElse(null))
+      + " firstCodeCheck=" + millisOrNa(getFirstCodeCheckAfter().orElse(null));
+  }
+
+  private static String millisOrNa(@CheckForNull Duration duration) {
+    return duration == null ? "n/a" : (duration.toMillis() + "ms");
+  }
+
+}
@@ -0,0 +1,242 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Writes requests on the stdin of the OmniSharp process in the background, so that callers don't block on a full pipe when OmniSharp is busy. Requests are
+ * queued in a bounded queue, and written in batches with a single flush per batch.
+ * <p>
+ * There is no thread per process: when requests are queued, a drain task is submitted to the shared {@link OmnisharpExecutors#background()} pool, and runs
+ * until the queue is empty. At most one drain task runs at a time for a given process, so that requests are written in order.
+ */
+public class StdinWriter {
+
+  private static final Logger LOG = Loggers.get(StdinWriter.class);
+
+  /**
+   * What to do when the queue is full
+   */
+  public enum Backpressure {
+    /**
+     * Wait until there is room in the queue
+     */
+    WAIT,
+    /**
+     * Fail right away
+     */
+    FAIL_FAST,
+    /**
+     * Drop queued requests having the same key, since they are superseded by the new one, then wait if the queue is still full
+     */
+    DROP_SUPERSEDED
+  }
+
+  static final int DEFAULT_CAPACITY = 1000;
+  static final int MAX_BATCH_SIZE = 100;
+
+  private static class PendingWrite {
+    private final String line;
+    @Nullable
+    private final String key;
+    private final CompletableFuture<Boolean> written = new CompletableFuture<>();
+
+    private PendingWrite(String line, @Nullable String key) {
+      this.line = line;
+      this.key = key;
+    }
+  }
+
+  private final OutputStream out;
+  private final BlockingQueue<PendingWrite> queue;
+  private final Executor executor;
+  private final Runnable afterFlush;
+  private final AtomicBoolean draining = new AtomicBoolean();
+  private volatile boolean closed;
+  private final AtomicInteger maxQueueDepth = new AtomicInteger();
+  private final AtomicLong writtenCount = new AtomicLong();
+  private final AtomicLong writtenBytes = new AtomicLong();
+  private final AtomicLong flushCount = new AtomicLong();
+  private final AtomicLong droppedCount = new AtomicLong();
+  private final AtomicLong rejectedCount = new AtomicLong();
+
+  /**
+   * @param executor runs the drain tasks, usually {@link OmnisharpExecutors#background()}
+   * @param afterFlush called each time a batch of requests has been written, to wake up the thread reading the responses
+   */
+  public StdinWriter(OutputStream out, Executor executor, Runnable afterFlush) {
+    this(out, executor, afterFlush, DEFAULT_CAPACITY);
+  }
+
+  StdinWriter(OutputStream out, Executor executor, Runnable afterFlush, int capacity) {
+    this.out = out;
+    this.executor = executor;
+    this.afterFlush = afterFlush;
+    this.queue = new LinkedBlockingQueue<>(capacity);
+  }
+
+  /**
+   * @param key requests having the same key supersede each other, only used with {@link Backpressure#DROP_SUPERSEDED}
+   * @return a future completed with true once the request has been written, or with false if it has been dropped because superseded by a newer one
+   */
+  public CompletableFuture<Boolean> write(String line, Backpressure backpressure, @Nullable String key) throws InterruptedException {
+    if (closed) {
+      return CompletableFuture.failedFuture(new IllegalStateException("OmniSharp stdin is closed"));
+    }
+    var pending = new PendingWrite(line, key);
+    if (backpressure == Backpressure.DROP_SUPERSEDED && key != null) {
+      dropSuperseded(key);
+    }
+    if (backpressure == Backpressure.FAIL_FAST) {
+      if (!queue.offer(pending)) {
+        rejectedCount.incrementAndGet();
+        return CompletableFuture.failedFuture(new IllegalStateException("OmniSharp stdin queue is full"));
+      }
+    } else {
+      queue.put(pending);
+    }
+    maxQueueDepth.accumulateAndGet(queue.size(), Math::max);
+    if (closed && queue.remove(pending)) {
+      // Closed in the meantime, nobody will write it
+      pending.written.completeExceptionally(new IllegalStateException("OmniSharp stdin is closed"));
+    } else {
+      scheduleDrain();
+    }
+    return pending.written;
+  }
+
+  private void dropSuperseded(String key) {
+    for (var queued : queue) {
+      if (key.equals(queued.key) && queue.remove(queued)) {
+        droppedCount.incrementAndGet();
+        queued.written.complete(false);
+      }
+    }
+  }
+
+  private void scheduleDrain() {
+    if (draining.compareAndSet(false, true)) {
+      executor.execute(this::drain);
+    }
+  }
+
+  private void drain() {
+    List<PendingWrite> batch = new ArrayList<>();
+    try {
+      while (!closed && queue.drainTo(batch, MAX_BATCH_SIZE) > 0) {
+        writeBatch(batch);
+        batch.clear();
+      }
+    } catch (IOException e) {
+      LOG.debug("Unable to write in OmniSharp stdin", e);
+      batch.forEach(p -> p.written.completeExceptionally(new IllegalStateException("Unable to write in Omnisharp stdin", e)));
+      closed = true;
+    } finally {
+      draining.set(false);
+    }
+    if (closed) {
+      failQueued();
+    } else if (!queue.isEmpty()) {
+      // Queued after the queue was found empty, but before the flag was reset
+      scheduleDrain();
+    }
+  }
+
+  private void writeBatch(List<PendingWrite> batch) throws IOException {
+    long bytes = 0;
+    for (var pending : batch) {
+      var line = pending.line.getBytes(StandardCharsets.UTF_8);
+      out.write(line);
+      out.write('\n');
+      bytes += line.length + 1;
+    }
+    out.flush();
+    flushCount.incrementAndGet();
+    writtenCount.addAndGet(batch.size());
+    writtenBytes.addAndGet(bytes);
+    afterFlush.run();
+    batch.forEach(p -> p.written.complete(true));
+  }
+
+  private void failQueued() {
+    PendingWrite pending;
+    while ((pending = queue.poll()) != null) {
+      pending.written.completeExceptionally(new IllegalStateException("OmniSharp stdin is closed"));
+    }
+  }
+
+  /**
+   * Stop writing, requests not written yet are failed.
+   */
+  public void close() {
+    closed = true;
+    failQueued();
+  }
+
+  public int getQueueDepth() {
+    return queue.size();
+  }
+
+  public int getMaxQueueDepth() {
+    return maxQueueDepth.get();
+  }
+
+  public long getWrittenCount() {
+    return writtenCount.get();
+  }
+
+  public long getWrittenBytes() {
+    return writtenBytes.get();
+  }
+
+  public long getFlushCount() {
+    return flushCount.get();
+  }
+
+  public long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  public long getRejectedCount() {
+    return rejectedCount.get();
+  }
+
+  @Override
+  public String toString() {
+    return writtenCount.get() + " request(s) (" + writtenBytes.get() + " bytes) written in " + flushCount.get() + " flush(es), max queue depth " + maxQueueDepth.get() + ", "
+      + droppedCount.get() + " superseded, " + rejectedCount.get() + " rejected";
+  }
+
+}
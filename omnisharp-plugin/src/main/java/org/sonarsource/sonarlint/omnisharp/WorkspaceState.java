@@ -0,0 +1,103 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp;
+
+import com.google.gson.JsonObject;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.annotation.CheckForNull;
+import org.sonarsource.api.sonarlint.SonarLintSide;
+
+/**
+ * What has been sent to OmniSharp and would be lost if the process died: the rules configuration, and the buffers that are not saved on disk. Buffers that
+ * match the file on disk are not kept, since OmniSharp reads them from disk anyway.
+ */
+@SonarLintSide(lifespan = SonarLintSide.MODULE)
+public class WorkspaceState {
+
+  static final int MAX_DIRTY_BUFFERS = 100;
+
+  @CheckForNull
+  private JsonObject config;
+  /**
+   * Least recently sent buffers are evicted first
+   */
+  private final Map<Path, String> dirtyBuffers = new LinkedHashMap<>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Path, String> eldest) {
+      return size() > MAX_DIRTY_BUFFERS;
+    }
+  };
+
+  public synchronized void configSent(JsonObject config) {
+    this.config = config.deepCopy();
+  }
+
+  public void bufferSent(Path file, Charset charset, String buffer) {
+    var dirty = isDirty(file, charset, buffer);
+    synchronized (this) {
+      if (dirty) {
+        dirtyBuffers.put(file, buffer);
+      } else {
+        dirtyBuffers.remove(file);
+      }
+    }
+  }
+
+  /**
+   * The file has been saved, reverted or changed outside of the IDE, so the last sent buffer is outdated. The next analysis sends the new content anyway.
+   */
+  public synchronized void fileChanged(Path file) {
+    dirtyBuffers.remove(file);
+  }
+
+  /**
+   * Only files existing on disk are considered, so that the buffer of a deleted file is not replayed.
+   */
+  private static boolean isDirty(Path file, Charset charset, String buffer) {
+    try {
+      if (!Files.isRegularFile(file)) {
+        return false;
+      }
+      var bytes = buffer.getBytes(charset);
+      return Files.size(file) != bytes.length || !buffer.equals(Files.readString(file, charset));
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  @CheckForNull
+  public synchronized JsonObject getConfig() {
+    return config != null ? config.deepCopy() : null;
+  }
+
+  /**
+   * @return unsaved buffers that still exist on disk, least recently sent first
+   */
+  public synchronized Map<Path, String> getDirtyBuffers() {
+    dirtyBuffers.keySet().removeIf(file -> !Files.isRegularFile(file));
+    return new LinkedHashMap<>(dirtyBuffers);
+  }
+
+}
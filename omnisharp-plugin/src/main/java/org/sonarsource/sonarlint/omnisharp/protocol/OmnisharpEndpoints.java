@@ -23,19 +23,31 @@ import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
-import java.util.stream.Stream;
 import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
 import org.sonar.api.scanner.ScannerSide;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
 import org.sonarsource.api.sonarlint.SonarLintSide;
+import org.sonarsource.sonarlint.omnisharp.OmnisharpMetrics;
 import org.sonarsource.sonarlint.omnisharp.OmnisharpServerController;
+import org.sonarsource.sonarlint.omnisharp.StdinWriter.Backpressure;
+import org.sonarsource.sonarlint.omnisharp.protocol.OmnisharpResponseProcessor.BodyReader;
 import org.sonarsource.sonarlint.omnisharp.protocol.OmnisharpResponseProcessor.OmnisharpResponseHandler;
+import org.sonarsource.sonarlint.omnisharp.protocol.RequestScheduler.Lane;
 
 @ScannerSide
 @SonarLintSide(lifespan = "MODULE")
@@ -44,6 +56,8 @@ public class OmnisharpEndpoints {
   private static final Logger LOG = Loggers.get(OmnisharpEndpoints.class);
 
   private static final String FILENAME_PROPERTY = "FileName";
+  private static final Duration RESPONSE_TIMEOUT = Duration.ofMinutes(1);
+  public static final int DEFAULT_MAX_ISSUES_PER_FILE = 1000;
 
   private final AtomicLong requestId = new AtomicLong(1L);
 
@@ -51,23 +65,71 @@ public class OmnisharpEndpoints {
 
   private final OmnisharpResponseProcessor responseProcessor;
 
-  public OmnisharpEndpoints(OmnisharpResponseProcessor responseProcessor) {
+  private final OmnisharpMetrics metrics;
+
+  private final RequestScheduler requestScheduler = new RequestScheduler();
+
+  private final AtomicInteger codeChecksInFlight = new AtomicInteger();
+  private final AtomicLong truncatedFilesCount = new AtomicLong();
+  private final AtomicLong droppedIssuesCount = new AtomicLong();
+  private final AtomicLong maxIssuesInOneFile = new AtomicLong();
+
+  public OmnisharpEndpoints(OmnisharpResponseProcessor responseProcessor, OmnisharpMetrics metrics) {
     this.responseProcessor = responseProcessor;
+    this.metrics = metrics;
+    metrics.gauge("requests.inFlight", requestScheduler::getInFlight);
+    for (Lane lane : Lane.values()) {
+      metrics.gauge("requests.waiting." + lane.name().toLowerCase(Locale.ENGLISH), () -> requestScheduler.getWaiting(lane));
+    }
+    metrics.gauge("issues.truncatedFiles", truncatedFilesCount::get);
+    metrics.gauge("issues.dropped", droppedIssuesCount::get);
   }
 
   public void setServer(OmnisharpServerController server) {
     this.server = server;
   }
 
-  public void codeCheck(File f, Consumer<Diagnostic> issueHandler) {
+  /**
+   * @param maxIssues issues beyond this number are dropped while reading the response, so that a pathological file can't exhaust the memory
+   */
+  public void codeCheck(File f, Lane lane, int maxIssues, Consumer<Diagnostic> issueHandler) {
+    codeCheck(f, lane, maxIssues, issueHandler, null);
+  }
+
+  /**
+   * @param executionTimeHandler if not null, OmniSharp measures the time spent by each analyzer on the file, which makes the analysis slower
+   */
+  public void codeCheck(File f, Lane lane, int maxIssues, Consumer<Diagnostic> issueHandler, @Nullable Consumer<AnalyzerExecutionTime> executionTimeHandler) {
     JsonObject args = new JsonObject();
     args.addProperty(FILENAME_PROPERTY, f.getAbsolutePath());
-    JsonObject resp = doRequestAndWaitForResponse("/sonarlint/codecheck", args);
-    handle(resp, issueHandler);
+    if (executionTimeHandler != null) {
+      args.addProperty("ReportAnalyzerExecutionTimes", true);
+    }
+    var body = new CodeCheckBody(maxIssues);
+    JsonObject resp;
+    codeChecksInFlight.incrementAndGet();
+    try {
+      resp = doRequestAndWaitForResponse("/sonarlint/codecheck", args, lane, body);
+    } finally {
+      codeChecksInFlight.decrementAndGet();
+    }
+    if (handle(f, resp, body, issueHandler)) {
+      if (executionTimeHandler != null) {
+        body.executionTimes.forEach(executionTimeHandler);
+      }
+      server.codeCheckSucceeded();
+    }
   }
 
-  public void config(JsonObject config) {
-    doRequestAndWaitForResponse("/sonarlint/config", config);
+  /**
+   * @return true while OmniSharp is analyzing a file, which may delay the answers to other requests
+   */
+  public boolean isCodeCheckInFlight() {
+    return codeChecksInFlight.get() > 0;
+  }
+
+  public void config(JsonObject config, Lane lane) {
+    doRequestAndWaitForResponse("/sonarlint/config", config, lane);
   }
 
   public enum FileChangeType {
@@ -85,19 +147,36 @@ public class OmnisharpEndpoints {
   }
 
   public void fileChanged(File f, FileChangeType type) {
+    filesChanged(Map.of(f, type));
+  }
+
+  public void filesChanged(Map<File, FileChangeType> changes) {
     JsonArray args = new JsonArray();
-    JsonObject req = new JsonObject();
-    req.addProperty(FILENAME_PROPERTY, f.getAbsolutePath());
-    req.addProperty("changeType", type.protocolValue);
-    args.add(req);
-    doRequestAndWaitForResponse("/filesChanged", args);
+    for (Map.Entry<File, FileChangeType> change : changes.entrySet()) {
+      JsonObject req = new JsonObject();
+      req.addProperty(FILENAME_PROPERTY, change.getKey().getAbsolutePath());
+      req.addProperty("changeType", change.getValue().protocolValue);
+      args.add(req);
+    }
+    // Notifications are never urgent, so don't delay the analysis of the files being edited
+    doRequestAndWaitForResponse("/filesChanged", args, Lane.BACKGROUND);
   }
 
-  public void updateBuffer(File f, String buffer) {
+  public void updateBuffer(File f, String buffer, Lane lane) {
     JsonObject args = new JsonObject();
     args.addProperty(FILENAME_PROPERTY, f.getAbsolutePath());
     args.addProperty("Buffer", buffer);
-    doRequestAndWaitForResponse("/updatebuffer", args);
+    // Only the latest content of the buffer matters, so don't write outdated ones if OmniSharp is lagging behind
+    doRequestAndWaitForResponse("/updatebuffer", args, lane, Backpressure.DROP_SUPERSEDED, "/updatebuffer:" + f.getAbsolutePath(), null);
+  }
+
+  /**
+   * Check that the server is responsive. Not subject to the request scheduler, since it is about the server itself, not about the analysis.
+   *
+   * @throws IllegalStateException if the server didn't answer within the timeout
+   */
+  public void ping(Duration timeout) {
+    doRequestAndWaitForResponse("/sonarlint/ping", null, Backpressure.FAIL_FAST, null, timeout, null);
   }
 
   public void stopServer() {
@@ -105,23 +184,102 @@ public class OmnisharpEndpoints {
     doRequest("/stopserver", null);
   }
 
-  private static void handle(JsonObject response, Consumer<Diagnostic> issueHandler) {
+  private boolean handle(File f, JsonObject response, CodeCheckBody body, Consumer<Diagnostic> issueHandler) {
     boolean success = response.get("Success").getAsBoolean();
     if (!success) {
       String message = response.get("Message").getAsString();
       LOG.error(message);
-      return;
-    }
-    JsonObject body = response.get("Body").getAsJsonObject();
-    JsonArray issues = body.get("QuickFixes").getAsJsonArray();
-    Diagnostic[] diagnostics = new Gson().fromJson(issues, Diagnostic[].class);
-    Stream.of(diagnostics).forEach(i -> {
-      if (!i.getId().startsWith("S")) {
-        // Optimization: ignore some non SonarCS issues
+      return false;
+    }
+    long issuesCount = (long) body.diagnostics.size() + body.droppedCount;
+    maxIssuesInOneFile.accumulateAndGet(issuesCount, Math::max);
+    metrics.fileAnalyzed(issuesCount);
+    if (body.droppedCount > 0) {
+      truncatedFilesCount.incrementAndGet();
+      droppedIssuesCount.addAndGet(body.droppedCount);
+      LOG.warn("Too many issues in {}, only the first {} are reported ({} ignored)", f, body.maxIssues, body.droppedCount);
+    }
+    // Issues are reported on the analysis thread, not on the one reading OmniSharp output
+    body.diagnostics.forEach(issueHandler);
+    return true;
+  }
+
+  /**
+   * Decodes the issues of a <code>/sonarlint/codecheck</code> response one by one, keeping at most a given number of them.
+   */
+  private static class CodeCheckBody implements BodyReader {
+    private final Gson gson = new Gson();
+    private final int maxIssues;
+    private final List<Diagnostic> diagnostics = new ArrayList<>();
+    private final List<AnalyzerExecutionTime> executionTimes = new ArrayList<>();
+    private int droppedCount;
+
+    private CodeCheckBody(int maxIssues) {
+      this.maxIssues = maxIssues;
+    }
+
+    @Override
+    public void read(JsonReader body) throws IOException {
+      if (body.peek() == JsonToken.NULL) {
+        body.nextNull();
         return;
       }
-      issueHandler.accept(i);
-    });
+      body.beginObject();
+      while (body.hasNext()) {
+        var name = body.nextName();
+        if ("QuickFixes".equals(name) && body.peek() != JsonToken.NULL) {
+          readQuickFixes(body);
+        } else if ("AnalyzerExecutionTimes".equals(name) && body.peek() != JsonToken.NULL) {
+          readExecutionTimes(body);
+        } else {
+          body.skipValue();
+        }
+      }
+      body.endObject();
+    }
+
+    private void readExecutionTimes(JsonReader body) throws IOException {
+      body.beginArray();
+      while (body.hasNext()) {
+        executionTimes.add(gson.fromJson(body, AnalyzerExecutionTime.class));
+      }
+      body.endArray();
+    }
+
+    private void readQuickFixes(JsonReader body) throws IOException {
+      body.beginArray();
+      while (body.hasNext()) {
+        Diagnostic diagnostic = gson.fromJson(body, Diagnostic.class);
+        if (!diagnostic.getId().startsWith("S")) {
+          // Optimization: ignore some non SonarCS issues
+          continue;
+        }
+        if (diagnostics.size() < maxIssues) {
+          diagnostics.add(diagnostic);
+        } else {
+          droppedCount++;
+        }
+      }
+      body.endArray();
+    }
+  }
+
+  /**
+   * @return number of files for which some issues have been dropped, because there were too many of them
+   */
+  public long getTruncatedFilesCount() {
+    return truncatedFilesCount.get();
+  }
+
+  public long getDroppedIssuesCount() {
+    return droppedIssuesCount.get();
+  }
+
+  /**
+   * @return highest number of issues found in a single file, including dropped ones
+   */
+  public long getMaxIssuesInOneFile() {
+    return maxIssuesInOneFile.get();
   }
 
   @CheckForNull
@@ -129,18 +287,65 @@ public class OmnisharpEndpoints {
     return (element == null || element.isJsonNull()) ? null : element.getAsString();
   }
 
-  private JsonObject doRequestAndWaitForResponse(String command, @Nullable JsonElement dataJson) {
+  private JsonObject doRequestAndWaitForResponse(String command, @Nullable JsonElement dataJson, Lane lane) {
+    return doRequestAndWaitForResponse(command, dataJson, lane, null);
+  }
+
+  private JsonObject doRequestAndWaitForResponse(String command, @Nullable JsonElement dataJson, Lane lane, @Nullable BodyReader bodyReader) {
+    return doRequestAndWaitForResponse(command, dataJson, lane, Backpressure.WAIT, null, bodyReader);
+  }
+
+  @CheckForNull
+  private JsonObject doRequestAndWaitForResponse(String command, @Nullable JsonElement dataJson, Lane lane, Backpressure backpressure, @Nullable String supersedeKey,
+    @Nullable BodyReader bodyReader) {
+    try {
+      long queuedNanos = System.nanoTime();
+      requestScheduler.acquire(lane);
+      metrics.requestScheduled(System.nanoTime() - queuedNanos);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted!", e);
+    }
+    try {
+      return doRequestAndWaitForResponse(command, dataJson, backpressure, supersedeKey, RESPONSE_TIMEOUT, bodyReader);
+    } finally {
+      requestScheduler.release();
+    }
+  }
+
+  /**
+   * @return the response, or null if the request has been superseded by a newer one before being written
+   */
+  @CheckForNull
+  private JsonObject doRequestAndWaitForResponse(String command, @Nullable JsonElement dataJson, Backpressure backpressure, @Nullable String supersedeKey,
+    Duration timeout, @Nullable BodyReader bodyReader) {
     long id = requestId.getAndIncrement();
     OmnisharpRequest req = buildRequest(command, dataJson, id);
 
-    OmnisharpResponseHandler omnisharpResponseHandler = responseProcessor.registerResponseHandler(id);
+    OmnisharpResponseHandler omnisharpResponseHandler = responseProcessor.registerResponseHandler(id, bodyReader);
+    long startNanos = System.nanoTime();
     try {
-      if (!server.writeRequestOnStdIn(req.getJsonPayload())) {
-        throw new IllegalStateException("Unable to send request to the OmniSharp server: " + command);
-      }
-      if (!omnisharpResponseHandler.responseLatch.await(1, TimeUnit.MINUTES)) {
+      server.writeRequestOnStdIn(req.getJsonPayload(), backpressure, supersedeKey).whenComplete((written, error) -> {
+        if (error != null) {
+          omnisharpResponseHandler.writeFailure = error;
+          omnisharpResponseHandler.responseLatch.countDown();
+        } else if (!written) {
+          // Superseded, no response will come
+          omnisharpResponseHandler.responseLatch.countDown();
+        }
+      });
+      if (!omnisharpResponseHandler.responseLatch.await(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
         throw new IllegalStateException("Timeout waiting for response to: " + command);
       }
+      if (omnisharpResponseHandler.response != null) {
+        metrics.requestCompleted(command, System.nanoTime() - startNanos);
+      }
+      if (omnisharpResponseHandler.writeFailure != null) {
+        throw new IllegalStateException("Unable to send request to the OmniSharp server: " + command, omnisharpResponseHandler.writeFailure);
+      }
+      if (omnisharpResponseHandler.bodyFailure != null) {
+        throw new IllegalStateException("Unable to read response to: " + command, omnisharpResponseHandler.bodyFailure);
+      }
       return omnisharpResponseHandler.response;
 
     } catch (InterruptedException e) {
@@ -154,7 +359,8 @@ public class OmnisharpEndpoints {
   private void doRequest(String command, @Nullable JsonObject dataJson) {
     long id = requestId.getAndIncrement();
     OmnisharpRequest req = buildRequest(command, dataJson, id);
-    server.writeRequestOnStdIn(req.getJsonPayload());
+    // Don't wait behind a full queue when stopping, the process will be killed anyway
+    server.writeRequestOnStdIn(req.getJsonPayload(), Backpressure.FAIL_FAST, null);
   }
 
   private static OmnisharpRequest buildRequest(String command, @Nullable JsonElement dataJson, long id) {
@@ -19,14 +19,32 @@
  */
 package org.sonarsource.sonarlint.omnisharp.protocol;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
 import org.sonarsource.api.sonarlint.SonarLintSide;
+import org.sonarsource.sonarlint.omnisharp.OmnisharpExecutors;
+import org.sonarsource.sonarlint.omnisharp.OmnisharpMetrics;
+import org.sonarsource.sonarlint.omnisharp.ProjectLoadTracker;
+import org.sonarsource.sonarlint.omnisharp.StartupReport;
 
 
 @SonarLintSide(lifespan = "MODULE")
@@ -34,20 +52,128 @@ public class OmnisharpResponseProcessor {
 
   private static final Logger LOG = Loggers.get(OmnisharpResponseProcessor.class);
 
+  /**
+   * OmniSharp writes the event name first
+   */
+  private static final String LOG_EVENT_PREFIX = "{\"Event\":\"log\"";
+
   private final ConcurrentHashMap<Long, OmnisharpResponseHandler> responseLatchQueue = new ConcurrentHashMap<>();
 
-  public void handleOmnisharpOutput(CompletableFuture<Void> startFuture, CompletableFuture<Void> loadProjectsFuture, String line) {
+  private final OmnisharpMetrics metrics;
+  /**
+   * Futures are completed on it, so that their dependent stages (e.g. starting the health check) don't run on the thread reading OmniSharp output
+   */
+  private final Executor completionExecutor;
+
+  public OmnisharpResponseProcessor(OmnisharpMetrics metrics, OmnisharpExecutors executors) {
+    this(metrics, executors.background());
+  }
+
+  OmnisharpResponseProcessor(OmnisharpMetrics metrics, Executor completionExecutor) {
+    this.metrics = metrics;
+    this.completionExecutor = completionExecutor;
+  }
+
+  public void handleOmnisharpOutput(CompletableFuture<Void> startFuture, CompletableFuture<Void> loadProjectsFuture, StartupReport startupReport,
+    ProjectLoadTracker projectLoadTracker, String line) {
+    if (line.startsWith(LOG_EVENT_PREFIX) && !LOG.isDebugEnabled()) {
+      // Most of the output of a verbose server, don't decode what won't be logged. The log level may have been lowered since the server started.
+      return;
+    }
     JsonObject jsonObject;
     try {
-      jsonObject = JsonParser.parseString(line).getAsJsonObject();
+      jsonObject = readMessage(new StringReader(line));
     } catch (Exception e) {
       LOG.debug(line);
       return;
     }
-    handleJsonMessage(startFuture, loadProjectsFuture, line, jsonObject);
+    handleJsonMessage(startFuture, loadProjectsFuture, startupReport, projectLoadTracker, line, jsonObject);
+  }
+
+  /**
+   * Same as {@link #handleOmnisharpOutput(CompletableFuture, CompletableFuture, StartupReport, ProjectLoadTracker, String)}, for a line too large to be
+   * kept in memory as a string.
+   */
+  public void handleLargeOmnisharpOutput(CompletableFuture<Void> startFuture, CompletableFuture<Void> loadProjectsFuture, StartupReport startupReport,
+    ProjectLoadTracker projectLoadTracker, Reader line) {
+    JsonObject jsonObject;
+    try {
+      var reader = line.markSupported() ? line : new BufferedReader(line);
+      if (!LOG.isDebugEnabled() && startsWith(reader, LOG_EVENT_PREFIX)) {
+        // Same as for lines kept in memory, and even more worth it for a large one
+        return;
+      }
+      jsonObject = readMessage(reader);
+    } catch (Exception e) {
+      LOG.debug("Unable to parse OmniSharp output", e);
+      return;
+    }
+    handleJsonMessage(startFuture, loadProjectsFuture, startupReport, projectLoadTracker, LOG.isDebugEnabled() ? jsonObject.toString() : "", jsonObject);
+  }
+
+  /**
+   * Peek at the beginning of the line, the reader is rewound afterwards, so it must support marks
+   */
+  private static boolean startsWith(Reader line, String prefix) throws IOException {
+    line.mark(prefix.length());
+    try {
+      var buffer = new char[prefix.length()];
+      int read = 0;
+      int count;
+      while (read < buffer.length && (count = line.read(buffer, read, buffer.length - read)) != -1) {
+        read += count;
+      }
+      return read == buffer.length && prefix.equals(new String(buffer));
+    } finally {
+      line.reset();
+    }
+  }
+
+  /**
+   * Read a message field by field, so that the body of a response can be streamed to the reader registered for it, instead of being fully decoded in
+   * memory. OmniSharp writes the sequence number of the request before the body. If it doesn't, the body is decoded in memory and then passed to the reader,
+   * so that the response is not silently empty.
+   */
+  private JsonObject readMessage(Reader line) throws IOException {
+    long startNanos = System.nanoTime();
+    var reader = new JsonReader(line);
+    var message = new JsonObject();
+    OmnisharpResponseHandler handler = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      var name = reader.nextName();
+      if ("Body".equals(name) && handler != null && handler.bodyReader != null) {
+        readBody(reader, handler);
+      } else {
+        var value = JsonParser.parseReader(reader);
+        message.add(name, value);
+        if ("Request_seq".equals(name) && value.isJsonPrimitive()) {
+          handler = responseLatchQueue.get(value.getAsLong());
+        }
+      }
+    }
+    reader.endObject();
+    if (handler != null && handler.bodyReader != null && message.has("Body")) {
+      var body = message.remove("Body");
+      readBody(new JsonReader(new StringReader(body.toString())), handler);
+    }
+    metrics.messageDecoded(System.nanoTime() - startNanos);
+    return message;
+  }
+
+  private static void readBody(JsonReader reader, OmnisharpResponseHandler handler) throws IOException {
+    try {
+      handler.bodyReader.read(reader);
+    } catch (IOException | RuntimeException e) {
+      // Don't let the requester wait for a response that will never be complete
+      handler.bodyFailure = e;
+      handler.responseLatch.countDown();
+      throw e;
+    }
   }
 
-  private void handleJsonMessage(CompletableFuture<Void> startFuture, CompletableFuture<Void> loadProjectsFuture, String line, JsonObject jsonObject) {
+  private void handleJsonMessage(CompletableFuture<Void> startFuture, CompletableFuture<Void> loadProjectsFuture, StartupReport startupReport,
+    ProjectLoadTracker projectLoadTracker, String line, JsonObject jsonObject) {
     String type = jsonObject.get("Type").getAsString();
     switch (type) {
       case "response":
@@ -66,23 +192,35 @@ public class OmnisharpResponseProcessor {
             break;
           case "started":
             LOG.debug(line);
-            startFuture.complete(null);
+            startupReport.omnisharpStarted();
+            completeAsync(startFuture);
             break;
           case "ProjectAdded":
+            LOG.debug(line);
+            startupReport.projectAdded(getProjectPath(jsonObject));
+            projectLoadTracker.projectLoaded(getProjectPath(jsonObject), getProjectSourceFiles(jsonObject));
+            completeAsync(loadProjectsFuture);
+            break;
           case "ProjectChanged":
+            LOG.debug(line);
+            projectLoadTracker.projectLoaded(getProjectPath(jsonObject), getProjectSourceFiles(jsonObject));
+            completeAsync(loadProjectsFuture);
+            break;
           case "ProjectRemoved":
             LOG.debug(line);
-            loadProjectsFuture.complete(null);
+            completeAsync(loadProjectsFuture);
             break;
           case "Diagnostic":
             // For now we ignore diagnostics "pushed" by Omnisharp
             break;
           case "MsBuildProjectDiagnostics":
-            var msbuildErrors = jsonObject.get("Body").getAsJsonObject().get("Errors").getAsJsonArray();
+            var body = jsonObject.get("Body").getAsJsonObject();
+            var msbuildErrors = body.get("Errors").getAsJsonArray();
             if (!msbuildErrors.isEmpty()) {
-              LOG.error("MSBuild failed to load the project");
-              // No need to wait for project loading, it might never happen
-              // firstUpdateProjectLatch.countDown();
+              var projectPath = body.has("FileName") ? body.get("FileName").getAsString() : "unknown";
+              LOG.error("MSBuild failed to load the project " + projectPath);
+              // No need to wait for this project to be loaded, it might never happen
+              projectLoadTracker.projectFailed(projectPath, getErrorMessages(msbuildErrors));
             }
             LOG.debug(line);
             break;
@@ -95,19 +233,102 @@ public class OmnisharpResponseProcessor {
     }
   }
 
+  private void completeAsync(CompletableFuture<Void> future) {
+    if (!future.isDone()) {
+      future.completeAsync(() -> null, completionExecutor);
+    }
+  }
+
+  private static String getProjectPath(JsonObject event) {
+    var msBuildProject = getMsBuildProject(event);
+    if (msBuildProject != null) {
+      var path = msBuildProject.get("Path");
+      if (path != null && !path.isJsonNull()) {
+        return path.getAsString();
+      }
+    }
+    return "unknown";
+  }
+
+  private static List<Path> getProjectSourceFiles(JsonObject event) {
+    var msBuildProject = getMsBuildProject(event);
+    if (msBuildProject == null) {
+      return List.of();
+    }
+    var sourceFiles = msBuildProject.get("SourceFiles");
+    if (sourceFiles == null || !sourceFiles.isJsonArray()) {
+      return List.of();
+    }
+    List<Path> result = new ArrayList<>();
+    for (JsonElement sourceFile : sourceFiles.getAsJsonArray()) {
+      result.add(Paths.get(sourceFile.getAsString()));
+    }
+    return result;
+  }
+
+  private static List<String> getErrorMessages(JsonArray msbuildErrors) {
+    List<String> result = new ArrayList<>();
+    for (JsonElement error : msbuildErrors) {
+      var text = error.isJsonObject() ? error.getAsJsonObject().get("Text") : null;
+      result.add(text != null && !text.isJsonNull() ? text.getAsString() : error.toString());
+    }
+    return result;
+  }
+
+  @CheckForNull
+  private static JsonObject getMsBuildProject(JsonObject event) {
+    var body = event.get("Body");
+    if (body != null && body.isJsonObject()) {
+      var msBuildProject = body.getAsJsonObject().get("MsBuildProject");
+      if (msBuildProject != null && msBuildProject.isJsonObject()) {
+        return msBuildProject.getAsJsonObject();
+      }
+    }
+    return null;
+  }
+
   private static void handleLog(JsonObject jsonObject) {
     String level = jsonObject.get("LogLevel").getAsString();
-    String message = jsonObject.get("Message").getAsString();
-    LOG.debug("Omnisharp: [" + level + "] " + message);
+    if ("TRACE".equalsIgnoreCase(level)) {
+      if (LOG.isTraceEnabled()) {
+        LOG.trace("Omnisharp: [" + level + "] " + jsonObject.get("Message").getAsString());
+      }
+    } else if (LOG.isDebugEnabled()) {
+      LOG.debug("Omnisharp: [" + level + "] " + jsonObject.get("Message").getAsString());
+    }
+  }
+
+  /**
+   * Reads the body of a response. Called on the thread reading OmniSharp output, or on a background thread for large responses, so it should only decode
+   * the body.
+   */
+  @FunctionalInterface
+  interface BodyReader {
+    void read(JsonReader body) throws IOException;
   }
 
   static class OmnisharpResponseHandler {
-    JsonObject response;
+    volatile JsonObject response;
+    volatile Throwable writeFailure;
+    volatile Throwable bodyFailure;
+    @Nullable
+    final BodyReader bodyReader;
     CountDownLatch responseLatch = new CountDownLatch(1);
+
+    OmnisharpResponseHandler(@Nullable BodyReader bodyReader) {
+      this.bodyReader = bodyReader;
+    }
   }
 
   public OmnisharpResponseHandler registerResponseHandler(long id) {
-    OmnisharpResponseHandler omnisharpResponseHandler = new OmnisharpResponseHandler();
+    return registerResponseHandler(id, null);
+  }
+
+  /**
+   * @param bodyReader if not null, the body of the response is streamed to it, and is not part of {@link OmnisharpResponseHandler#response}
+   */
+  OmnisharpResponseHandler registerResponseHandler(long id, @Nullable BodyReader bodyReader) {
+    OmnisharpResponseHandler omnisharpResponseHandler = new OmnisharpResponseHandler(bodyReader);
     responseLatchQueue.put(id, omnisharpResponseHandler);
     return omnisharpResponseHandler;
   }
@@ -0,0 +1,128 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp.protocol;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of requests in flight on the OmniSharp server, and serves interactive requests (analysis of the files being edited) before background
+ * ones (full analysis, file change notifications). Background requests can't use the last slot, so an interactive request never waits behind them, and they
+ * yield as long as interactive requests are waiting.
+ */
+public class RequestScheduler {
+
+  public enum Lane {
+    INTERACTIVE,
+    BACKGROUND
+  }
+
+  static final int DEFAULT_MAX_IN_FLIGHT = 2;
+
+  private final int maxInFlight;
+  private final int maxBackgroundInFlight;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition interactiveTurn = lock.newCondition();
+  private final Condition backgroundTurn = lock.newCondition();
+  private int inFlight;
+  private int interactiveWaiting;
+  private int backgroundWaiting;
+
+  public RequestScheduler() {
+    this(DEFAULT_MAX_IN_FLIGHT);
+  }
+
+  RequestScheduler(int maxInFlight) {
+    this.maxInFlight = maxInFlight;
+    this.maxBackgroundInFlight = Math.max(1, maxInFlight - 1);
+  }
+
+  /**
+   * Wait for a slot in the given lane. Every successful call must be followed by a call to {@link #release()}.
+   */
+  public void acquire(Lane lane) throws InterruptedException {
+    lock.lock();
+    try {
+      if (lane == Lane.INTERACTIVE) {
+        interactiveWaiting++;
+        try {
+          while (inFlight >= maxInFlight) {
+            interactiveTurn.await();
+          }
+        } finally {
+          interactiveWaiting--;
+        }
+      } else {
+        backgroundWaiting++;
+        try {
+          while (inFlight >= maxBackgroundInFlight || interactiveWaiting > 0) {
+            backgroundTurn.await();
+          }
+        } finally {
+          backgroundWaiting--;
+        }
+      }
+      inFlight++;
+    } finally {
+      // A slot may still be available, e.g. for background requests that yielded to the interactive one
+      signalNext();
+      lock.unlock();
+    }
+  }
+
+  public void release() {
+    lock.lock();
+    try {
+      inFlight--;
+      signalNext();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void signalNext() {
+    if (interactiveWaiting > 0) {
+      if (inFlight < maxInFlight) {
+        interactiveTurn.signal();
+      }
+    } else if (backgroundWaiting > 0 && inFlight < maxBackgroundInFlight) {
+      backgroundTurn.signal();
+    }
+  }
+
+  int getInFlight() {
+    lock.lock();
+    try {
+      return inFlight;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  int getWaiting(Lane lane) {
+    lock.lock();
+    try {
+      return lane == Lane.INTERACTIVE ? interactiveWaiting : backgroundWaiting;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+}
@@ -0,0 +1,164 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+import org.sonar.api.testfixtures.log.LogTesterJUnit5;
+import org.sonar.api.utils.log.LoggerLevel;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+class AnalysisTraceTests {
+
+  @RegisterExtension
+  LogTesterJUnit5 logTester = new LogTesterJUnit5();
+
+  @TempDir
+  Path tmpDir;
+
+  @Test
+  void disabledTraceRecordsNothing() {
+    var trace = AnalysisTrace.create(null);
+    trace.begin("/sonarlint/codecheck", AnalysisTrace.REQUEST).arg("file", "Foo.cs").close();
+
+    assertThat(trace.isEnabled()).isFalse();
+    assertThat(trace.write()).isNull();
+  }
+
+  @Test
+  void spansWithArguments() throws IOException {
+    var trace = AnalysisTrace.create(tmpDir);
+    var span = trace.begin("Wait for project of next file", AnalysisTrace.WAIT).arg("pending", 2);
+    trace.begin("/sonarlint/codecheck", AnalysisTrace.REQUEST).arg("file", "Foo.cs").arg("size", 12).close();
+    span.close();
+
+    var events = traceEvents(trace);
+
+    assertThat(events)
+      .filteredOn(e -> "X".equals(e.get("ph").getAsString()))
+      .extracting(e -> e.get("name").getAsString(), e -> e.get("cat").getAsString(), e -> e.get("tid").getAsLong(), e -> e.get("args").toString())
+      .containsExactly(
+        tuple("/sonarlint/codecheck", "request", Thread.currentThread().getId(), "{\"file\":\"Foo.cs\",\"size\":12}"),
+        tuple("Wait for project of next file", "wait", Thread.currentThread().getId(), "{\"pending\":2}"));
+    var wait = events.get(events.size() - 1);
+    var codeCheck = events.get(events.size() - 2);
+    assertThat(codeCheck.get("ts").getAsLong()).isGreaterThanOrEqualTo(wait.get("ts").getAsLong());
+    assertThat(codeCheck.get("dur").getAsLong()).isLessThanOrEqualTo(wait.get("dur").getAsLong());
+    assertThat(events)
+      .filteredOn(e -> "M".equals(e.get("ph").getAsString()))
+      .extracting(e -> e.get("tid").getAsLong(), e -> e.getAsJsonObject("args").get("name").getAsString())
+      .containsExactlyInAnyOrder(
+        tuple(AnalysisTrace.SERVER_TID, "OmniSharp server"),
+        tuple(Thread.currentThread().getId(), Thread.currentThread().getName()));
+  }
+
+  @Test
+  void startupPhasesOfServerStartedDuringAnalysis() throws IOException {
+    var trace = AnalysisTrace.create(tmpDir);
+    var report = new StartupReport();
+    report.processSpawned(System.nanoTime());
+    report.omnisharpStarted();
+    report.projectAdded("Foo.csproj");
+    report.projectAdded("Bar.csproj");
+
+    trace.addStartup(report);
+
+    assertThat(traceEvents(trace))
+      .filteredOn(e -> e.get("tid").getAsLong() == AnalysisTrace.SERVER_TID && !"M".equals(e.get("ph").getAsString()))
+      .extracting(e -> e.get("name").getAsString(), e -> e.get("ph").getAsString(), e -> e.has("args") ? e.getAsJsonObject("args").get("project").getAsString() : null)
+      .containsExactly(
+        tuple("Spawn process", "X", null),
+        tuple("Start OmniSharp", "X", null),
+        tuple("Load projects", "X", null),
+        tuple("Project added", "i", "Foo.csproj"),
+        tuple("Project added", "i", "Bar.csproj"));
+  }
+
+  @Test
+  void ignoreStartupOfServerStartedBeforeAnalysis() throws IOException {
+    var report = new StartupReport();
+    report.omnisharpStarted();
+    var trace = AnalysisTrace.create(tmpDir);
+
+    trace.addStartup(report);
+    trace.addStartup(null);
+
+    assertThat(traceEvents(trace)).extracting(e -> e.get("ph").getAsString()).containsOnly("M");
+  }
+
+  @Test
+  void writeOneFilePerAnalysis() throws IOException {
+    var traceDir = tmpDir.resolve("traces");
+    var trace = AnalysisTrace.create(traceDir);
+    trace.begin("/sonarlint/config", AnalysisTrace.REQUEST).close();
+
+    var file = trace.write();
+
+    assertThat(file).hasParent(traceDir);
+    assertThat(file.getFileName().toString()).startsWith("omnisharp-trace-").endsWith(".json");
+    var json = JsonParser.parseString(Files.readString(file, StandardCharsets.UTF_8)).getAsJsonObject();
+    assertThat(json.get("displayTimeUnit").getAsString()).isEqualTo("ms");
+    assertThat(json.getAsJsonArray("traceEvents")).extracting(e -> e.getAsJsonObject().get("name").getAsString()).contains("/sonarlint/config");
+    assertThat(logTester.logs(LoggerLevel.INFO)).containsExactly("Analysis trace written to " + file);
+  }
+
+  @Test
+  void limitNumberOfEvents() throws IOException {
+    var trace = AnalysisTrace.create(tmpDir);
+    for (int i = 0; i < AnalysisTrace.MAX_EVENTS + 10; i++) {
+      trace.begin("/sonarlint/codecheck", AnalysisTrace.REQUEST).close();
+    }
+
+    assertThat(traceEvents(trace)).filteredOn(e -> "X".equals(e.get("ph").getAsString())).hasSize(AnalysisTrace.MAX_EVENTS);
+    trace.write();
+    assertThat(logTester.logs(LoggerLevel.WARN)).containsExactly("10 event(s) not written, the analysis trace is limited to 100000 events");
+  }
+
+  @Test
+  void logFailureToWriteFile() throws IOException {
+    var notADirectory = Files.createFile(tmpDir.resolve("file"));
+    var trace = AnalysisTrace.create(notADirectory);
+
+    assertThat(trace.write()).isNull();
+    assertThat(logTester.logs(LoggerLevel.WARN)).singleElement().asString().startsWith("Unable to write analysis trace to " + notADirectory);
+  }
+
+  private static List<JsonObject> traceEvents(AnalysisTrace trace) throws IOException {
+    var writer = new StringWriter();
+    trace.writeTo(writer);
+    var json = JsonParser.parseString(writer.toString()).getAsJsonObject();
+    return StreamSupport.stream(json.getAsJsonArray("traceEvents").spliterator(), false).map(JsonElement::getAsJsonObject).collect(Collectors.toList());
+  }
+
+}
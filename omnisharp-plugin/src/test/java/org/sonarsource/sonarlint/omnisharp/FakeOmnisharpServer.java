@@ -0,0 +1,247 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stand-in for the OmniSharp server, speaking the same JSON protocol on stdio, so that throughput, timeouts, restarts and backpressure can be tested
+ * deterministically without .NET. Started in a separate JVM by {@link #processBuilder(String...)}, with the following options:
+ * <ul>
+ *   <li><code>--startup-delay-ms=N</code>: wait before sending the <code>started</code> event</li>
+ *   <li><code>--projects=N</code>: number of <code>ProjectAdded</code> events sent after the <code>started</code> event</li>
+ *   <li><code>--latency-ms=N</code>: delay before answering each request</li>
+ *   <li><code>--issues=N</code>: number of issues in each <code>/sonarlint/codecheck</code> response</li>
+ *   <li><code>--crash-after=N</code>: exit with code 1 after having answered N requests</li>
+ *   <li><code>--hang-after=N</code>: stop answering after having answered N requests, only <code>/stopserver</code> is still honored</li>
+ *   <li><code>--read-delay-ms=N</code>: delay after reading each request, before reading the next one, like a server lagging behind its stdin</li>
+ *   <li><code>--stop-reading-after=N</code>: stop reading stdin after having read N requests, so that the pipe fills up, until the process is killed</li>
+ * </ul>
+ * When stopped, the maximum number of requests that were in flight at the same time is sent as a log event.
+ */
+class FakeOmnisharpServer {
+
+  private static final List<String> OPTIONS = List.of("startup-delay-ms", "projects", "latency-ms", "issues", "crash-after", "hang-after", "read-delay-ms",
+    "stop-reading-after");
+  private static final long STOP_READING_MAX_MS = TimeUnit.MINUTES.toMillis(10);
+
+  private final Map<String, Integer> options;
+  private final PrintStream out;
+  private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(4);
+  private final Gson gson = new GsonBuilder().serializeNulls().create();
+  // Guarded by this
+  private long seq = 1;
+  private int answeredCount;
+  private int inFlight;
+  private int maxInFlight;
+  private boolean hanging;
+
+  FakeOmnisharpServer(Map<String, Integer> options, PrintStream out) {
+    this.options = options;
+    this.out = out;
+    this.hanging = option("hang-after") == 0;
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    var out = new PrintStream(new FileOutputStream(FileDescriptor.out), false, StandardCharsets.UTF_8);
+    var server = new FakeOmnisharpServer(parseOptions(args), out);
+    server.run(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Command line running the fake server with the classpath of the tests
+   */
+  static ProcessBuilder processBuilder(String... options) {
+    var java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+    List<String> command = new ArrayList<>(List.of(java, "-cp", System.getProperty("java.class.path"), FakeOmnisharpServer.class.getName()));
+    command.addAll(Arrays.asList(options));
+    return new ProcessBuilder(command);
+  }
+
+  static Map<String, Integer> parseOptions(String[] args) {
+    Map<String, Integer> result = new HashMap<>();
+    for (String arg : args) {
+      var separator = arg.indexOf('=');
+      var name = arg.startsWith("--") && separator > 0 ? arg.substring(2, separator) : null;
+      if (name == null || !OPTIONS.contains(name)) {
+        throw new IllegalArgumentException("Unsupported option: " + arg);
+      }
+      result.put(name, Integer.parseInt(arg.substring(separator + 1)));
+    }
+    return result;
+  }
+
+  private int option(String name) {
+    return options.getOrDefault(name, -1);
+  }
+
+  void run(BufferedReader in) throws IOException, InterruptedException {
+    Thread.sleep(Math.max(0, option("startup-delay-ms")));
+    sendEvent("started", JsonNull.INSTANCE);
+    for (int i = 1; i <= option("projects"); i++) {
+      var project = new JsonObject();
+      project.addProperty("Path", Paths.get("Project" + i, "Project" + i + ".csproj").toAbsolutePath().toString());
+      project.add("SourceFiles", new JsonArray());
+      var body = new JsonObject();
+      body.add("MsBuildProject", project);
+      sendEvent("ProjectAdded", body);
+    }
+    if (option("crash-after") == 0) {
+      System.exit(1);
+    }
+    if (option("stop-reading-after") == 0) {
+      stopReading();
+    }
+    String line;
+    int readCount = 0;
+    while ((line = in.readLine()) != null) {
+      if (line.isBlank()) {
+        continue;
+      }
+      readCount++;
+      handle(line);
+      if (readCount == option("stop-reading-after")) {
+        stopReading();
+      }
+      Thread.sleep(Math.max(0, option("read-delay-ms")));
+    }
+    // Stdin closed, like OmniSharp when its parent process is gone
+    System.exit(0);
+  }
+
+  /**
+   * Exits anyway after a while, in case the process is not killed
+   */
+  private static void stopReading() throws InterruptedException {
+    Thread.sleep(STOP_READING_MAX_MS);
+    System.exit(1);
+  }
+
+  private void handle(String line) {
+    var request = JsonParser.parseString(line).getAsJsonObject();
+    if ("/stopserver".equals(request.get("Command").getAsString())) {
+      stop(request);
+    }
+    synchronized (this) {
+      inFlight++;
+      maxInFlight = Math.max(maxInFlight, inFlight);
+    }
+    executor.schedule(() -> answer(request), Math.max(0, option("latency-ms")), TimeUnit.MILLISECONDS);
+  }
+
+  private synchronized void stop(JsonObject request) {
+    sendEvent("log", log("Max requests in flight: " + maxInFlight));
+    sendResponse(request, JsonNull.INSTANCE);
+    System.exit(0);
+  }
+
+  private synchronized void answer(JsonObject request) {
+    if (hanging) {
+      return;
+    }
+    inFlight--;
+    var command = request.get("Command").getAsString();
+    sendResponse(request, "/sonarlint/codecheck".equals(command) ? codeCheckBody(request.getAsJsonObject("Arguments").get("FileName").getAsString()) : JsonNull.INSTANCE);
+    answeredCount++;
+    if (answeredCount == option("crash-after")) {
+      System.exit(1);
+    }
+    hanging = answeredCount == option("hang-after");
+  }
+
+  private JsonElement codeCheckBody(String fileName) {
+    var quickFixes = new JsonArray();
+    for (int i = 1; i <= option("issues"); i++) {
+      var issue = new JsonObject();
+      issue.addProperty("LogLevel", "Warning");
+      issue.addProperty("Id", "S1118");
+      issue.add("Tags", new JsonArray());
+      issue.addProperty("FileName", fileName);
+      issue.addProperty("Line", i);
+      issue.addProperty("Column", 1);
+      issue.addProperty("EndLine", i);
+      issue.addProperty("EndColumn", 10);
+      issue.addProperty("Text", "Add a 'protected' constructor or the 'static' keyword to the class declaration.");
+      quickFixes.add(issue);
+    }
+    var body = new JsonObject();
+    body.add("QuickFixes", quickFixes);
+    return body;
+  }
+
+  private static JsonObject log(String message) {
+    var body = new JsonObject();
+    body.addProperty("LogLevel", "INFORMATION");
+    body.addProperty("Name", FakeOmnisharpServer.class.getSimpleName());
+    body.addProperty("Message", message);
+    return body;
+  }
+
+  private synchronized void sendEvent(String event, JsonElement body) {
+    var message = new JsonObject();
+    message.addProperty("Event", event);
+    message.add("Body", body);
+    message.addProperty("Seq", seq++);
+    message.addProperty("Type", "event");
+    send(message);
+  }
+
+  private synchronized void sendResponse(JsonObject request, JsonElement body) {
+    // Same order of properties as OmniSharp, the request sequence comes before the body
+    var message = new JsonObject();
+    message.add("Request_seq", request.get("Seq"));
+    message.add("Command", request.get("Command"));
+    message.addProperty("Running", true);
+    message.addProperty("Success", true);
+    message.add("Message", JsonNull.INSTANCE);
+    message.add("Body", body);
+    message.addProperty("Seq", seq++);
+    message.addProperty("Type", "response");
+    send(message);
+  }
+
+  private void send(JsonObject message) {
+    out.println(gson.toJson(message));
+    out.flush();
+  }
+
+}
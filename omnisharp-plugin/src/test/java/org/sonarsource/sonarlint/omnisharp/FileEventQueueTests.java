@@ -0,0 +1,203 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.sonar.api.testfixtures.log.LogTesterJUnit5;
+import org.sonar.api.utils.log.LoggerLevel;
+import org.sonarsource.sonarlint.omnisharp.protocol.OmnisharpEndpoints;
+import org.sonarsource.sonarlint.omnisharp.protocol.OmnisharpEndpoints.FileChangeType;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class FileEventQueueTests {
+
+  @RegisterExtension
+  LogTesterJUnit5 logTester = new LogTesterJUnit5();
+
+  private final List<Map<File, FileChangeType>> sentBatches = new CopyOnWriteArrayList<>();
+  private final OmnisharpExecutors executors = new OmnisharpExecutors();
+  private OmnisharpServerController server;
+  private OmnisharpEndpoints endpoints;
+  private FileEventQueue underTest;
+
+  @BeforeEach
+  void prepare() {
+    server = mock(OmnisharpServerController.class);
+    when(server.isOmnisharpStarted()).thenReturn(true);
+    endpoints = mock(OmnisharpEndpoints.class);
+    doAnswer(invocation -> {
+      sentBatches.add(Map.copyOf(invocation.getArgument(0)));
+      return null;
+    }).when(endpoints).filesChanged(any());
+    underTest = new FileEventQueue(server, endpoints, executors, Duration.ofMillis(100), Duration.ofSeconds(1));
+  }
+
+  @AfterEach
+  void cleanup() {
+    underTest.stop();
+    executors.stop();
+  }
+
+  @Test
+  void sendBurstAsOneRequest() {
+    var foo = new File("Foo.cs");
+    var bar = new File("Bar.cs");
+
+    underTest.fileChanged(foo, FileChangeType.CREATE);
+    underTest.fileChanged(foo, FileChangeType.CHANGE);
+    underTest.fileChanged(bar, FileChangeType.CHANGE);
+
+    await().atMost(5, TimeUnit.SECONDS).until(() -> !sentBatches.isEmpty());
+    assertThat(sentBatches).hasSize(1);
+    assertThat(sentBatches.get(0)).containsOnly(entry(foo, FileChangeType.CREATE), entry(bar, FileChangeType.CHANGE));
+    assertThat(underTest.getPendingEventsCount()).isZero();
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+    ", CHANGE, CHANGE",
+    "CREATE, CHANGE, CREATE",
+    "CREATE, DELETE, ",
+    "CHANGE, DELETE, DELETE",
+    "DELETE, CREATE, CHANGE",
+    "CHANGE, CHANGE, CHANGE"
+  })
+  void mergeEventsOfSameFile(FileChangeType previous, FileChangeType current, FileChangeType expected) {
+    assertThat(FileEventQueue.merge(previous, current)).isEqualTo(expected);
+  }
+
+  @Test
+  void dontSendEventsThatCancelEachOther() {
+    var foo = new File("Foo.cs");
+    underTest.fileChanged(foo, FileChangeType.CREATE);
+    underTest.fileChanged(foo, FileChangeType.DELETE);
+
+    assertThat(underTest.getPendingEventsCount()).isZero();
+    underTest.flush();
+    verify(endpoints, never()).filesChanged(any());
+  }
+
+  @Test
+  void dontPostponeForeverIfEventsKeepComing() throws Exception {
+    underTest.stop();
+    underTest = new FileEventQueue(server, endpoints, executors, Duration.ofMillis(200), Duration.ofMillis(300));
+    var start = System.nanoTime();
+    // An event every 50ms during one second, always within the debounce delay
+    for (int i = 0; i < 20; i++) {
+      underTest.fileChanged(new File("Foo" + i + ".cs"), FileChangeType.CHANGE);
+      Thread.sleep(50);
+    }
+
+    assertThat(sentBatches).isNotEmpty();
+    assertThat(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofMillis(1000));
+    await().atMost(5, TimeUnit.SECONDS).until(() -> sentBatches.stream().mapToInt(Map::size).sum() == 20);
+  }
+
+  @Test
+  void scheduleSingleFlushForBurst() {
+    var scheduler = new ScheduledThreadPoolExecutor(1);
+    try {
+      underTest.stop();
+      underTest = new FileEventQueue(server, endpoints, scheduler, Runnable::run, Duration.ofMinutes(1), Duration.ofMinutes(1));
+      for (int i = 0; i < 100; i++) {
+        underTest.fileChanged(new File("Foo" + i + ".cs"), FileChangeType.CHANGE);
+      }
+
+      assertThat(scheduler.getQueue()).hasSize(1);
+      assertThat(underTest.getPendingEventsCount()).isEqualTo(100);
+    } finally {
+      scheduler.shutdownNow();
+    }
+  }
+
+  @Test
+  void ignoreEventsOnceStopped() {
+    var scheduler = new ScheduledThreadPoolExecutor(1);
+    scheduler.shutdown();
+    underTest.stop();
+    underTest = new FileEventQueue(server, endpoints, scheduler, Runnable::run, Duration.ofMillis(100), Duration.ofSeconds(1));
+    underTest.stop();
+
+    underTest.fileChanged(new File("Foo.cs"), FileChangeType.CHANGE);
+
+    assertThat(underTest.getPendingEventsCount()).isZero();
+  }
+
+  @Test
+  void splitLargeBursts() {
+    underTest.stop();
+    // Only flushed explicitly
+    underTest = new FileEventQueue(server, endpoints, executors, Duration.ofMinutes(1), Duration.ofMinutes(1));
+    for (int i = 0; i < FileEventQueue.MAX_BATCH_SIZE + 1; i++) {
+      underTest.fileChanged(new File("Foo" + i + ".cs"), FileChangeType.CHANGE);
+    }
+
+    underTest.flush();
+
+    assertThat(sentBatches).hasSize(2);
+    assertThat(sentBatches.get(0)).hasSize(FileEventQueue.MAX_BATCH_SIZE);
+    assertThat(sentBatches.get(1)).hasSize(1);
+  }
+
+  @Test
+  void ignoreEventsIfServerNotStarted() {
+    when(server.isOmnisharpStarted()).thenReturn(false);
+    logTester.setLevel(LoggerLevel.DEBUG);
+    underTest.fileChanged(new File("Foo.cs"), FileChangeType.CHANGE);
+
+    underTest.flush();
+
+    verify(endpoints, never()).filesChanged(any());
+    assertThat(logTester.logs(LoggerLevel.DEBUG)).contains("Server not started, ignoring file events");
+  }
+
+  @Test
+  void logFailuresInBackground() {
+    doThrow(new IllegalStateException("Timeout waiting for response to: /filesChanged")).when(endpoints).filesChanged(any());
+
+    underTest.fileChanged(new File("Foo.cs"), FileChangeType.CHANGE);
+
+    await().atMost(5, TimeUnit.SECONDS).untilAsserted(
+      () -> assertThat(logTester.logs(LoggerLevel.WARN)).contains("Unable to notify OmniSharp of file changes: Timeout waiting for response to: /filesChanged"));
+  }
+
+}
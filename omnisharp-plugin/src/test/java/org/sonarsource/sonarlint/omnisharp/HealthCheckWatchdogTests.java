@@ -0,0 +1,150 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.sonar.api.config.internal.MapSettings;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+class HealthCheckWatchdogTests {
+
+  private static final Duration INTERVAL = Duration.ofMillis(20);
+
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+  private final AtomicInteger unhealthyCount = new AtomicInteger();
+  private final AtomicBoolean responsive = new AtomicBoolean(true);
+  private HealthCheckWatchdog underTest;
+
+  @AfterEach
+  void cleanup() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  void recordLatencyOfAnsweredPings() {
+    underTest = new HealthCheckWatchdog(executor, executor, timeout -> ping(), () -> false, unhealthyCount::incrementAndGet, settings(3));
+    assertThat(underTest.getLastLatencyMs()).isEqualTo(-1);
+
+    underTest.start();
+
+    await().atMost(5, TimeUnit.SECONDS).until(() -> underTest.getPingCount() >= 3);
+    assertThat(underTest.getLastLatencyMs()).isNotNegative();
+    assertThat(underTest.getMaxLatencyMs()).isGreaterThanOrEqualTo(underTest.getLastLatencyMs());
+    assertThat(underTest.getMissedCount()).isZero();
+    assertThat(unhealthyCount).hasValue(0);
+  }
+
+  @Test
+  void declareUnhealthyAfterMissedPingsInARow() {
+    responsive.set(false);
+    underTest = new HealthCheckWatchdog(executor, executor, timeout -> ping(), () -> false, unhealthyCount::incrementAndGet, settings(3));
+
+    underTest.start();
+
+    await().atMost(5, TimeUnit.SECONDS).until(() -> unhealthyCount.get() == 1);
+    assertThat(underTest.getMissedCount()).isEqualTo(3);
+    assertThat(underTest).hasToString("3 ping(s), 3 missed, 0 missed while busy, last latency -1ms, max latency -1ms");
+    // Stops checking once unhealthy
+    await().during(INTERVAL.multipliedBy(5)).atMost(5, TimeUnit.SECONDS).until(() -> underTest.getPingCount() == 3);
+  }
+
+  @Test
+  void answeredPingResetsMissedDeadlines() {
+    var pings = new AtomicInteger();
+    // Every other ping is missed, never twice in a row
+    underTest = new HealthCheckWatchdog(executor, executor, timeout -> {
+      if (pings.incrementAndGet() % 2 == 0) {
+        throw new IllegalStateException("Timeout waiting for response to: /sonarlint/ping");
+      }
+    }, () -> false, unhealthyCount::incrementAndGet, settings(2));
+
+    underTest.start();
+
+    await().atMost(5, TimeUnit.SECONDS).until(() -> underTest.getMissedCount() >= 3);
+    assertThat(unhealthyCount).hasValue(0);
+  }
+
+  @Test
+  void dontCheckOnceStopped() {
+    responsive.set(false);
+    underTest = new HealthCheckWatchdog(executor, executor, timeout -> ping(), () -> false, unhealthyCount::incrementAndGet, settings(1));
+
+    underTest.stop();
+    underTest.start();
+
+    await().during(INTERVAL.multipliedBy(5)).atMost(5, TimeUnit.SECONDS).until(() -> underTest.getPingCount() == 0);
+    assertThat(unhealthyCount).hasValue(0);
+  }
+
+  @Test
+  void dontCountPingsMissedWhileBusy() {
+    responsive.set(false);
+    var busy = new AtomicBoolean(true);
+    underTest = new HealthCheckWatchdog(executor, executor, timeout -> ping(), busy::get, unhealthyCount::incrementAndGet, settings(2));
+
+    underTest.start();
+
+    await().atMost(5, TimeUnit.SECONDS).until(() -> underTest.getMissedWhileBusyCount() >= 3);
+    assertThat(underTest.getMissedCount()).isZero();
+    assertThat(unhealthyCount).hasValue(0);
+
+    busy.set(false);
+    await().atMost(5, TimeUnit.SECONDS).until(() -> unhealthyCount.get() == 1);
+    assertThat(underTest.getMissedCount()).isEqualTo(2);
+  }
+
+  @Test
+  void readSettingsFromConfiguration() {
+    var settings = HealthCheckWatchdog.Settings.from(new MapSettings()
+      .setProperty(CSharpPropertyDefinitions.getHealthCheckInterval(), 30)
+      .setProperty(CSharpPropertyDefinitions.getHealthCheckTimeout(), 15)
+      .setProperty(CSharpPropertyDefinitions.getHealthCheckMaxMissedPings(), 5)
+      .asConfig());
+
+    assertThat(settings.getInterval()).isEqualTo(Duration.ofSeconds(30));
+    assertThat(settings.getPingTimeout()).isEqualTo(Duration.ofSeconds(15));
+    assertThat(settings.getMaxMissedPings()).isEqualTo(5);
+
+    var defaults = HealthCheckWatchdog.Settings.from(new MapSettings().asConfig());
+    assertThat(defaults.getInterval()).isEqualTo(HealthCheckWatchdog.DEFAULT_INTERVAL);
+    assertThat(defaults.getPingTimeout()).isEqualTo(HealthCheckWatchdog.DEFAULT_PING_TIMEOUT);
+    assertThat(defaults.getMaxMissedPings()).isEqualTo(HealthCheckWatchdog.DEFAULT_MAX_MISSED_PINGS);
+  }
+
+  private static HealthCheckWatchdog.Settings settings(int maxMissedPings) {
+    return new HealthCheckWatchdog.Settings(INTERVAL, Duration.ofSeconds(1), maxMissedPings);
+  }
+
+  private void ping() {
+    if (!responsive.get()) {
+      throw new IllegalStateException("Timeout waiting for response to: /sonarlint/ping");
+    }
+  }
+
+}
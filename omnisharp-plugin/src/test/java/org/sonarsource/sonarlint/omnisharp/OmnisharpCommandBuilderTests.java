@@ -23,10 +23,14 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
 import org.junit.jupiter.api.io.TempDir;
 import org.sonar.api.config.Configuration;
 import org.sonar.api.config.internal.MapSettings;
+import org.sonar.api.impl.utils.DefaultTempFolder;
+import org.sonar.api.testfixtures.log.LogTesterJUnit5;
 import org.sonar.api.utils.System2;
+import org.sonar.api.utils.log.LoggerLevel;
 import org.sonarsource.sonarlint.plugin.api.SonarLintRuntime;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -36,6 +40,9 @@ import static org.mockito.Mockito.when;
 
 class OmnisharpCommandBuilderTests {
 
+  @RegisterExtension
+  LogTesterJUnit5 logTester = new LogTesterJUnit5();
+
   OmnisharpCommandBuilder underTest;
 
   @TempDir
@@ -46,6 +53,8 @@ class OmnisharpCommandBuilderTests {
   public Path omnisharpWinLocation;
   @TempDir
   public Path omnisharpDllServicesPath;
+  @TempDir
+  public Path slTmpDir;
 
   private SonarLintRuntime sonarLintRuntime;
 
@@ -55,6 +64,7 @@ class OmnisharpCommandBuilderTests {
 
   @BeforeEach
   void prepare() {
+    logTester.setLevel(LoggerLevel.DEBUG);
     system2 = mock(System2.class);
     OmnisharpServicesExtractor extractor = mock(OmnisharpServicesExtractor.class);
     when(extractor.getOmnisharpServicesDllPath()).thenReturn(omnisharpDllServicesPath);
@@ -64,7 +74,7 @@ class OmnisharpCommandBuilderTests {
     mapSettings.appendProperty("sonar.cs.internal.omnisharpMonoLocation", omnisharpMonoLocation.toString());
     mapSettings.appendProperty("sonar.cs.internal.omnisharpWinLocation", omnisharpWinLocation.toString());
     Configuration config = mapSettings.asConfig();
-    underTest = new OmnisharpCommandBuilder(system2, extractor, sonarLintRuntime, config);
+    underTest = new OmnisharpCommandBuilder(system2, extractor, sonarLintRuntime, config, new SolutionGenerator(new DefaultTempFolder(slTmpDir.toFile())));
   }
 
   @Test
@@ -285,6 +295,22 @@ class OmnisharpCommandBuilderTests {
       omnisharpDllServicesPath.toString());
   }
 
+  @Test
+  void buildCommandNet6_slnx_file_converted_to_sln(@TempDir Path projectBaseDir, @TempDir Path solutionDir) throws Exception {
+    var project = solutionDir.resolve("Foo").resolve("Foo.csproj");
+    Files.createDirectories(project.getParent());
+    Files.createFile(project);
+    var slnxFile = solutionDir.resolve("Solution.slnx");
+    Files.writeString(slnxFile, "<Solution><Project Path=\"Foo\\Foo.csproj\" /></Solution>");
+
+    var pb = underTest.buildNet6(projectBaseDir, null, null, slnxFile, false);
+
+    var generatedSln = Path.of(pb.command().get(pb.command().indexOf("-s") + 1));
+    assertThat(generatedSln.getParent().getParent()).isEqualTo(slTmpDir);
+    assertThat(generatedSln.getFileName().toString()).startsWith("Solution-").endsWith(".sln");
+    assertThat(SolutionParser.parseProjects(generatedSln)).containsExactly(project.toAbsolutePath().normalize());
+  }
+
   @Test
   void buildCommandNet6_sln_file_still_uses_file_path(@TempDir Path projectBaseDir, @TempDir Path solutionDir) throws Exception {
     var slnFile = solutionDir.resolve("Solution.sln");
@@ -323,4 +349,21 @@ class OmnisharpCommandBuilderTests {
       omnisharpDllServicesPath.toString());
   }
 
+  @Test
+  void onlyAskForOmnisharpLogsThatWillBeLogged(@TempDir Path projectBaseDir) {
+    logTester.setLevel(LoggerLevel.INFO);
+    assertThat(underTest.buildNet6(projectBaseDir, null, null, null, false).command()).containsSequence("--loglevel", "Warning").doesNotContain("-v");
+
+    logTester.setLevel(LoggerLevel.TRACE);
+    assertThat(underTest.buildNet6(projectBaseDir, null, null, null, false).command()).containsSequence("--loglevel", "Trace").doesNotContain("-v");
+  }
+
+  @Test
+  void useConfiguredOmnisharpLogLevel(@TempDir Path projectBaseDir) {
+    mapSettings.appendProperty("sonar.cs.internal.loglevel", "Information");
+    logTester.setLevel(LoggerLevel.INFO);
+
+    assertThat(underTest.buildNet6(projectBaseDir, null, null, null, false).command()).containsSequence("--loglevel", "Information").doesNotContain("-v");
+  }
+
 }
@@ -0,0 +1,130 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+
+class OmnisharpExecutorsTests {
+
+  private final OmnisharpExecutors underTest = new OmnisharpExecutors();
+
+  @AfterEach
+  void cleanup() {
+    underTest.stop();
+  }
+
+  @Test
+  void shutDownExecutorsWhenStopped() throws Exception {
+    var scheduler = underTest.scheduler();
+    var background = underTest.background();
+    assertThat(underTest.scheduler()).isSameAs(scheduler);
+    assertThat(underTest.background()).isSameAs(background);
+
+    underTest.stop();
+
+    assertThat(scheduler.isShutdown()).isTrue();
+    assertThat(background.isShutdown()).isTrue();
+    // Created again on next use
+    assertThat(underTest.scheduler()).isNotSameAs(scheduler);
+    assertThat(CompletableFuture.supplyAsync(() -> Thread.currentThread().getName(), underTest.background()).get(5, TimeUnit.SECONDS))
+      .startsWith("omnisharp-background-");
+  }
+
+  @Test
+  void dontShareExecutorsBetweenInstances() {
+    var other = new OmnisharpExecutors();
+    try {
+      assertThat(other.scheduler()).isNotSameAs(underTest.scheduler());
+      assertThat(other.background()).isNotSameAs(underTest.background());
+      assertThat(other.ioReactor()).isNotSameAs(underTest.ioReactor());
+
+      other.stop();
+
+      assertThat(underTest.scheduler().isShutdown()).isFalse();
+      assertThat(underTest.background().isShutdown()).isFalse();
+    } finally {
+      other.stop();
+    }
+  }
+
+  @Test
+  void boundBackgroundThreads() throws Exception {
+    var running = new AtomicInteger();
+    var maxRunning = new AtomicInteger();
+    var release = new CountDownLatch(1);
+    var tasks = new ArrayList<CompletableFuture<Void>>();
+    for (var i = 0; i < OmnisharpExecutors.MAX_BACKGROUND_THREADS * 2; i++) {
+      tasks.add(CompletableFuture.runAsync(() -> {
+        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        running.decrementAndGet();
+      }, underTest.background()));
+    }
+
+    await().atMost(5, TimeUnit.SECONDS).until(() -> running.get() == OmnisharpExecutors.MAX_BACKGROUND_THREADS);
+    release.countDown();
+
+    // Tasks beyond the limit are queued, not rejected
+    CompletableFuture.allOf(tasks.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+    assertThat(maxRunning.get()).isEqualTo(OmnisharpExecutors.MAX_BACKGROUND_THREADS);
+  }
+
+  @Test
+  void stopReactorThreadWhenStopped() throws Exception {
+    var readerThread = new CompletableFuture<Thread>();
+    underTest.ioReactor().register(new ByteArrayInputStream("line\n".getBytes(StandardCharsets.UTF_8)), l -> readerThread.complete(Thread.currentThread()));
+    var thread = readerThread.get(5, TimeUnit.SECONDS);
+    assertThat(thread.getName()).isEqualTo("omnisharp-io");
+
+    underTest.stop();
+
+    await().atMost(5, TimeUnit.SECONDS).until(() -> !thread.isAlive());
+  }
+
+  @Test
+  void timeoutOnScheduler() {
+    var future = underTest.orTimeout(new CompletableFuture<Void>(), Duration.ofMillis(10));
+
+    assertThatThrownBy(() -> future.get(5, TimeUnit.SECONDS))
+      .isInstanceOf(ExecutionException.class)
+      .hasCauseInstanceOf(TimeoutException.class);
+    assertThat(underTest.orTimeout(CompletableFuture.completedFuture("done"), Duration.ofMillis(10))).isCompletedWithValue("done");
+  }
+
+}
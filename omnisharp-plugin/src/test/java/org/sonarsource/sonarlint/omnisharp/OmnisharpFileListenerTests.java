@@ -28,11 +28,11 @@ import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.CsvSource;
 import org.junit.jupiter.params.provider.MethodSource;
 import org.sonar.api.batch.fs.InputFile;
-import org.sonarsource.sonarlint.omnisharp.protocol.OmnisharpEndpoints;
 import org.sonarsource.sonarlint.omnisharp.protocol.OmnisharpEndpoints.FileChangeType;
 import org.sonarsource.sonarlint.plugin.api.module.file.ModuleFileEvent;
 
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -42,25 +42,30 @@ class OmnisharpFileListenerTests {
 
   private OmnisharpFileListener underTest;
   private OmnisharpServerController omnisharpServer;
-  private OmnisharpEndpoints omnisharpProtocol;
+  private FileEventQueue fileEventQueue;
+  private WorkspaceState workspaceState;
 
   @BeforeEach
   void prepare() {
     omnisharpServer = mock(OmnisharpServerController.class);
     when(omnisharpServer.isOmnisharpStarted()).thenReturn(true);
-    omnisharpProtocol = mock(OmnisharpEndpoints.class);
-    underTest = new OmnisharpFileListener(omnisharpServer, omnisharpProtocol);
+    fileEventQueue = mock(FileEventQueue.class);
+    workspaceState = mock(WorkspaceState.class);
+    underTest = new OmnisharpFileListener(omnisharpServer, fileEventQueue, workspaceState);
   }
 
   @Test
   void dontBroadcastIfServerNotStarted() {
     when(omnisharpServer.isOmnisharpStarted()).thenReturn(false);
 
-    underTest.process(mock(ModuleFileEvent.class));
+    var f = new File("some/Foo.cs");
+    underTest.process(mockEvent(ModuleFileEvent.Type.MODIFIED, f));
 
     verify(omnisharpServer).isOmnisharpStarted();
     verifyNoMoreInteractions(omnisharpServer);
-    verifyNoInteractions(omnisharpProtocol);
+    verifyNoInteractions(fileEventQueue);
+    // A crashed server being restarted must not replay the outdated buffer
+    verify(workspaceState).fileChanged(f.toPath());
   }
 
   @ParameterizedTest
@@ -77,7 +82,8 @@ class OmnisharpFileListenerTests {
 
     verify(omnisharpServer).isOmnisharpStarted();
     verifyNoMoreInteractions(omnisharpServer);
-    verify(omnisharpProtocol).fileChanged(f, expectedChangeType);
+    verify(fileEventQueue).fileChanged(f, expectedChangeType);
+    verify(workspaceState).fileChanged(f.toPath());
   }
 
   @ParameterizedTest
@@ -89,9 +95,9 @@ class OmnisharpFileListenerTests {
     underTest.process(event);
 
     verify(omnisharpServer).isOmnisharpStarted();
-    verify(omnisharpServer).stopServer();
+    verify(omnisharpServer).stopServerAsync();
     verifyNoMoreInteractions(omnisharpServer);
-    verifyNoInteractions(omnisharpProtocol);
+    verifyNoInteractions(fileEventQueue);
   }
 
   static Stream<Arguments> solutionFileArguments() {
@@ -111,9 +117,46 @@ class OmnisharpFileListenerTests {
     underTest.process(event);
 
     verify(omnisharpServer).isOmnisharpStarted();
-    verify(omnisharpServer).stopServer();
+    verify(omnisharpServer).stopServerAsync();
+    verifyNoMoreInteractions(omnisharpServer);
+    verifyNoInteractions(fileEventQueue);
+  }
+
+  @Test
+  void notifyModifiedProjectWithScopedSolution() {
+    when(omnisharpServer.scopedProjectChanged()).thenReturn(true);
+    var f = new File("foo/Project1.csproj");
+    var event = mockEvent(ModuleFileEvent.Type.MODIFIED, f);
+
+    underTest.process(event);
+
+    verify(omnisharpServer).scopedProjectChanged();
     verifyNoMoreInteractions(omnisharpServer);
-    verifyNoInteractions(omnisharpProtocol);
+    verifyNoInteractions(fileEventQueue);
+  }
+
+  @Test
+  void notifyModifiedProjectWhileServerIsStarting() {
+    when(omnisharpServer.isOmnisharpStarted()).thenReturn(false);
+    when(omnisharpServer.scopedProjectChanged()).thenReturn(true);
+    var f = new File("foo/Project1.csproj");
+    var event = mockEvent(ModuleFileEvent.Type.MODIFIED, f);
+
+    underTest.process(event);
+
+    verify(omnisharpServer).scopedProjectChanged();
+    verifyNoInteractions(fileEventQueue);
+  }
+
+  @Test
+  void broadcastModifiedProjectWithoutScopedSolution() {
+    var f = new File("foo/Project1.csproj");
+    var event = mockEvent(ModuleFileEvent.Type.MODIFIED, f);
+
+    underTest.process(event);
+
+    verify(omnisharpServer, never()).stopServerAsync();
+    verify(fileEventQueue).fileChanged(f, FileChangeType.CHANGE);
   }
 
   private ModuleFileEvent mockEvent(ModuleFileEvent.Type type, File f) {
@@ -0,0 +1,222 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+import org.sonar.api.impl.utils.DefaultTempFolder;
+import org.sonar.api.testfixtures.log.LogTesterJUnit5;
+import org.sonar.api.utils.log.LoggerLevel;
+import org.sonarsource.sonarlint.omnisharp.StdinWriter.Backpressure;
+import org.sonarsource.sonarlint.omnisharp.protocol.Diagnostic;
+import org.sonarsource.sonarlint.omnisharp.protocol.OmnisharpEndpoints;
+import org.sonarsource.sonarlint.omnisharp.protocol.OmnisharpResponseProcessor;
+import org.sonarsource.sonarlint.omnisharp.protocol.RequestScheduler.Lane;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Real controller, endpoints and response processor, talking to {@link FakeOmnisharpServer}.
+ */
+@Timeout(value = 60, unit = TimeUnit.SECONDS)
+class OmnisharpLoadTests {
+
+  @RegisterExtension
+  LogTesterJUnit5 logTester = new LogTesterJUnit5();
+
+  @TempDir
+  Path solutionDir;
+
+  private OmnisharpCommandBuilder commandBuilder;
+  private OmnisharpMetrics metrics;
+  private OmnisharpExecutors executors;
+  private OmnisharpEndpoints endpoints;
+  private OmnisharpServerController underTest;
+
+  @BeforeEach
+  void prepare(@TempDir Path tmpDir) throws IOException {
+    logTester.setLevel(LoggerLevel.DEBUG);
+    commandBuilder = mock(OmnisharpCommandBuilder.class);
+    var startupHistory = mock(StartupHistory.class);
+    when(startupHistory.getStartupTimeout(any(), any(), any())).thenAnswer(i -> i.getArgument(2));
+    when(startupHistory.getLoadProjectsTimeout(any(), any(), any())).thenAnswer(i -> i.getArgument(2));
+    metrics = new OmnisharpMetrics();
+    executors = new OmnisharpExecutors();
+    var responseProcessor = new OmnisharpResponseProcessor(metrics, executors);
+    endpoints = new OmnisharpEndpoints(responseProcessor, metrics);
+    // No health check, so that pings don't interfere with the requests of the tests
+    underTest = new OmnisharpServerController(endpoints, responseProcessor, commandBuilder,
+      new SolutionGenerator(new DefaultTempFolder(Files.createDirectories(tmpDir.resolve("slTmp")).toFile())), startupHistory, new WorkspaceState(),
+      metrics, executors, HealthCheckWatchdog.Settings.withInterval(Duration.ofHours(1)));
+  }
+
+  @AfterEach
+  void cleanup() {
+    underTest.stop();
+    executors.stop();
+  }
+
+  @Test
+  void answerManyConcurrentCodeChecks() throws Exception {
+    start("--projects=3", "--latency-ms=5", "--issues=10");
+    var diagnostics = new AtomicInteger();
+    var errors = new CopyOnWriteArrayList<Throwable>();
+    var executor = Executors.newFixedThreadPool(8);
+    try {
+      for (int t = 0; t < 8; t++) {
+        var thread = t;
+        executor.execute(() -> {
+          try {
+            for (int i = 0; i < 25; i++) {
+              endpoints.codeCheck(new File("Foo" + thread + "_" + i + ".cs"), Lane.INTERACTIVE, OmnisharpEndpoints.DEFAULT_MAX_ISSUES_PER_FILE,
+                d -> diagnostics.incrementAndGet());
+            }
+          } catch (Throwable e) {
+            errors.add(e);
+          }
+        });
+      }
+      executor.shutdown();
+      assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertThat(errors).isEmpty();
+    assertThat(diagnostics.get()).isEqualTo(8 * 25 * 10);
+    assertThat(underTest.getStartupReport().getProjectsAdded()).hasSize(3);
+    var snapshot = metrics.snapshot();
+    assertThat(snapshot).containsEntry("request.latencyMs./sonarlint/codecheck.count", 200L)
+      .containsEntry("request.queueTimeMs.count", 200L)
+      .containsEntry("issuesPerFile.count", 200L)
+      .containsEntry("issuesPerFile.max", 10L)
+      .containsEntry("requests.inFlight", 0L);
+    assertThat(snapshot.get("request.latencyMs./sonarlint/codecheck.p50")).isGreaterThanOrEqualTo(5);
+    assertThat(snapshot.get("stdin.bytes")).isPositive();
+    assertThat(snapshot.get("stdout.bytes")).isPositive();
+    assertThat(snapshot.get("response.decodeTimeUs.count")).isGreaterThanOrEqualTo(200);
+
+    underTest.stop();
+    // Callers waited for a slot instead of flooding the server
+    await().atMost(10, TimeUnit.SECONDS).untilAsserted(() -> assertThat(logTester.logs(LoggerLevel.DEBUG))
+      .contains("Omnisharp: [INFORMATION] Max requests in flight: 2"));
+  }
+
+  @Test
+  void truncateLargeResponses() throws Exception {
+    start("--projects=1", "--issues=5000");
+    List<Diagnostic> diagnostics = new CopyOnWriteArrayList<>();
+
+    endpoints.codeCheck(new File("Foo.cs"), Lane.INTERACTIVE, 1000, diagnostics::add);
+
+    assertThat(diagnostics).hasSize(1000);
+    assertThat(endpoints.getTruncatedFilesCount()).isEqualTo(1);
+    assertThat(endpoints.getDroppedIssuesCount()).isEqualTo(4000);
+    assertThat(metrics.snapshot()).containsEntry("issues.dropped", 4000L).containsEntry("issuesPerFile.max", 5000L);
+  }
+
+  @Test
+  void timeoutIfServerHangs() throws Exception {
+    start("--projects=1", "--hang-after=1");
+    endpoints.codeCheck(new File("Foo.cs"), Lane.INTERACTIVE, OmnisharpEndpoints.DEFAULT_MAX_ISSUES_PER_FILE, d -> {
+    });
+
+    var thrown = assertThrows(IllegalStateException.class, () -> endpoints.ping(Duration.ofMillis(500)));
+
+    assertThat(thrown).hasMessage("Timeout waiting for response to: /sonarlint/ping");
+    assertThat(underTest.isOmnisharpStarted()).isTrue();
+  }
+
+  @Test
+  void restartAfterCrash() throws Exception {
+    start("--projects=1", "--issues=1", "--crash-after=2");
+    List<Diagnostic> diagnostics = new CopyOnWriteArrayList<>();
+    endpoints.codeCheck(new File("Foo.cs"), Lane.INTERACTIVE, OmnisharpEndpoints.DEFAULT_MAX_ISSUES_PER_FILE, diagnostics::add);
+    endpoints.codeCheck(new File("Bar.cs"), Lane.INTERACTIVE, OmnisharpEndpoints.DEFAULT_MAX_ISSUES_PER_FILE, diagnostics::add);
+
+    await().atMost(10, TimeUnit.SECONDS).untilAsserted(() -> assertThat(logTester.logs(LoggerLevel.WARN)).contains("OmniSharp terminated unexpectedly, restarting it"));
+    underTest.lazyStartAsync(solutionDir, OmnisharpTestUtils.ANALYZER_JAR, false, false, null, null, null, null, 30, 30).get(30, TimeUnit.SECONDS);
+    underTest.whenReady().get(30, TimeUnit.SECONDS);
+    endpoints.codeCheck(new File("Baz.cs"), Lane.INTERACTIVE, OmnisharpEndpoints.DEFAULT_MAX_ISSUES_PER_FILE, diagnostics::add);
+
+    assertThat(diagnostics).extracting(Diagnostic::getFilename).containsExactly(new File("Foo.cs").getAbsolutePath(), new File("Bar.cs").getAbsolutePath(),
+      new File("Baz.cs").getAbsolutePath());
+  }
+
+  @Test
+  void applyBackpressureWhenServerStopsReading() throws Exception {
+    start("--projects=1", "--stop-reading-after=0");
+    // The pipe can't hold it, so the writer is blocked until the process is killed, and next requests stay queued
+    var blocking = underTest.writeRequestOnStdIn("{\"Padding\":\"" + "x".repeat(1024 * 1024) + "\"}", Backpressure.WAIT, null);
+    await().atMost(10, TimeUnit.SECONDS).until(() -> metrics.snapshot().get("stdin.queued") == 0);
+    var executor = Executors.newFixedThreadPool(2);
+    try {
+      var file = new File("Foo.cs");
+      var superseded = CompletableFuture.runAsync(() -> endpoints.updateBuffer(file, "class Foo {}", Lane.INTERACTIVE), executor);
+      await().atMost(10, TimeUnit.SECONDS).until(() -> metrics.snapshot().get("stdin.queued") == 1);
+      var latest = CompletableFuture.runAsync(() -> endpoints.updateBuffer(file, "class Foo { }", Lane.INTERACTIVE), executor);
+
+      // The outdated buffer is dropped from the queue, and its caller released without waiting for a response
+      superseded.get(10, TimeUnit.SECONDS);
+      assertThat(metrics.snapshot()).containsEntry("stdin.queued", 1L);
+      assertThat(latest).isNotDone();
+
+      int accepted = 0;
+      while (!underTest.writeRequestOnStdIn("{}", Backpressure.FAIL_FAST, null).isCompletedExceptionally()) {
+        accepted++;
+      }
+      assertThat(accepted).isEqualTo(StdinWriter.DEFAULT_CAPACITY - 1);
+      var thrown = assertThrows(IllegalStateException.class, () -> endpoints.ping(Duration.ofSeconds(5)));
+      assertThat(thrown).hasMessage("Unable to send request to the OmniSharp server: /sonarlint/ping")
+        .hasRootCauseMessage("OmniSharp stdin queue is full");
+      assertThat(blocking).isNotDone();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void start(String... options) throws Exception {
+    when(commandBuilder.build(any(), any(), any(), any(), anyBoolean())).thenReturn(FakeOmnisharpServer.processBuilder(options).directory(solutionDir.toFile()));
+    underTest.lazyStart(solutionDir, OmnisharpTestUtils.ANALYZER_JAR, false, false, null, null, null, null, 30, 30);
+    underTest.whenReady().get(30, TimeUnit.SECONDS);
+  }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.sonarsource.sonarlint.omnisharp.OmnisharpMetrics.Histogram;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class OmnisharpMetricsTests {
+
+  private final OmnisharpMetrics underTest = new OmnisharpMetrics();
+
+  @Test
+  void emptyHistogram() {
+    var histogram = new Histogram();
+
+    assertThat(histogram.getCount()).isZero();
+    assertThat(histogram.percentile(0.99)).isZero();
+    assertThat(histogram.getMax()).isZero();
+  }
+
+  @Test
+  void percentilesAreUpperBoundsOfBuckets() {
+    var histogram = new Histogram();
+    IntStream.rangeClosed(1, 100).forEach(histogram::record);
+
+    assertThat(histogram.getCount()).isEqualTo(100);
+    assertThat(histogram.percentile(0.5)).isEqualTo(50);
+    assertThat(histogram.percentile(0.95)).isEqualTo(100);
+    // Never more than the max
+    histogram.record(150);
+    assertThat(histogram.percentile(1)).isEqualTo(150);
+  }
+
+  @Test
+  void valuesBeyondLastBucket() {
+    var histogram = new Histogram();
+    histogram.record(1_000_000);
+
+    assertThat(histogram.percentile(0.5)).isEqualTo(1_000_000);
+    assertThat(histogram.getMax()).isEqualTo(1_000_000);
+  }
+
+  @Test
+  void snapshotOfHistograms() {
+    underTest.requestCompleted("/sonarlint/codecheck", TimeUnit.MILLISECONDS.toNanos(10));
+    underTest.requestCompleted("/sonarlint/codecheck", TimeUnit.MILLISECONDS.toNanos(30));
+    underTest.requestScheduled(TimeUnit.MILLISECONDS.toNanos(2));
+    underTest.messageDecoded(TimeUnit.MICROSECONDS.toNanos(40));
+    underTest.fileAnalyzed(3);
+
+    assertThat(underTest.snapshot())
+      .containsEntry("request.latencyMs./sonarlint/codecheck.count", 2L)
+      .containsEntry("request.latencyMs./sonarlint/codecheck.mean", 20L)
+      .containsEntry("request.latencyMs./sonarlint/codecheck.p50", 10L)
+      .containsEntry("request.latencyMs./sonarlint/codecheck.p99", 30L)
+      .containsEntry("request.latencyMs./sonarlint/codecheck.max", 30L)
+      .containsEntry("request.queueTimeMs.max", 2L)
+      .containsEntry("response.decodeTimeUs.max", 40L)
+      .containsEntry("issuesPerFile.count", 1L)
+      .containsEntry("issuesPerFile.max", 3L)
+      .doesNotContainKey("request.latencyMs./sonarlint/config.count");
+  }
+
+  @Test
+  void countRestartsPerReason() {
+    underTest.serverRestarted("crashed");
+    underTest.serverRestarted("crashed");
+    underTest.serverRestarted("configChanged");
+
+    assertThat(underTest.snapshot())
+      .containsEntry("restarts", 3L)
+      .containsEntry("restarts.crashed", 2L)
+      .containsEntry("restarts.configChanged", 1L);
+  }
+
+  @Test
+  void gaugesAreReadWhenTakingSnapshot() {
+    var value = new long[] {1};
+    underTest.gauge("foo", () -> value[0]);
+    assertThat(underTest.snapshot()).containsEntry("foo", 1L).containsEntry("stdin.bytes", 0L).containsEntry("stdout.bytes", 0L);
+
+    value[0] = 2;
+    assertThat(underTest.snapshot()).containsEntry("foo", 2L);
+  }
+
+  @Test
+  void accumulateOutputLinesOfSuccessiveProcesses() {
+    var firstTermination = new CompletableFuture<Integer>();
+    var first = mockProcess(firstTermination, 2, 1);
+    underTest.processStarted(first);
+    assertThat(underTest.snapshot()).containsEntry("stdout.spilledLines", 2L).containsEntry("stdout.droppedLines", 1L);
+
+    firstTermination.complete(0);
+    underTest.processStarted(mockProcess(new CompletableFuture<>(), 3, 0));
+
+    assertThat(underTest.snapshot()).containsEntry("stdout.spilledLines", 5L).containsEntry("stdout.droppedLines", 1L);
+  }
+
+  private static ProcessWrapper mockProcess(CompletableFuture<Integer> termination, long spilledLines, long droppedLines) {
+    var process = mock(ProcessWrapper.class);
+    when(process.getTerminationFuture()).thenReturn(termination);
+    when(process.getStdinWriter()).thenReturn(mock(StdinWriter.class));
+    when(process.getStdOutSpilledLines()).thenReturn(spilledLines);
+    when(process.getStdOutDroppedLines()).thenReturn(droppedLines);
+    return process;
+  }
+
+  @Test
+  void snapshotIsSortedCopy() {
+    underTest.gauge("b", () -> 2);
+    underTest.gauge("a", () -> 1);
+
+    var snapshot = underTest.snapshot();
+    assertThat(List.copyOf(snapshot.keySet())).isSorted();
+    assertThrows(UnsupportedOperationException.class, () -> snapshot.put("c", 3L));
+    underTest.gauge("c", () -> 3);
+    assertThat(snapshot).doesNotContainKey("c");
+  }
+
+  @Test
+  void dumpOneMetricPerLine() {
+    underTest.gauge("foo", () -> 42);
+
+    assertThat(underTest.dump()).startsWith("\n  ").contains("\n  foo=42\n").contains("\n  restarts=0");
+  }
+
+}
@@ -27,6 +27,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
 import javax.annotation.Nullable;
@@ -56,20 +57,30 @@ import org.sonar.api.issue.impact.SoftwareQuality;
 import org.sonar.api.rule.RuleKey;
 import org.sonar.api.testfixtures.log.LogTesterJUnit5;
 import org.sonar.api.utils.log.LoggerLevel;
+import org.sonarsource.sonarlint.omnisharp.protocol.AnalyzerExecutionTime;
 import org.sonarsource.sonarlint.omnisharp.protocol.Diagnostic;
 import org.sonarsource.sonarlint.omnisharp.protocol.DiagnosticLocation;
 import org.sonarsource.sonarlint.omnisharp.protocol.Fix;
 import org.sonarsource.sonarlint.omnisharp.protocol.OmnisharpEndpoints;
 import org.sonarsource.sonarlint.omnisharp.protocol.QuickFix;
 import org.sonarsource.sonarlint.omnisharp.protocol.QuickFixEdit;
+import org.sonarsource.sonarlint.omnisharp.protocol.RequestScheduler.Lane;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
 import static org.assertj.core.api.Assertions.tuple;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -79,6 +90,8 @@ class OmnisharpSensorTests {
 
   private final OmnisharpServerController mockServer = mock(OmnisharpServerController.class);
   private final OmnisharpEndpoints mockProtocol = mock(OmnisharpEndpoints.class);
+  private final FileEventQueue mockFileEvents = mock(FileEventQueue.class);
+  private final WorkspaceState workspaceState = new WorkspaceState();
   @RegisterExtension
   LogTesterJUnit5 logTester = new LogTesterJUnit5();
   private OmnisharpSensor underTest;
@@ -111,8 +124,11 @@ class OmnisharpSensorTests {
   @BeforeEach
   void prepare(@TempDir Path tmp) throws Exception {
     baseDir = tmp.toRealPath();
-    underTest = new OmnisharpSensor(mockServer, mockProtocol);
+    underTest = new OmnisharpSensor(mockServer, mockProtocol, mockFileEvents, workspaceState, new OmnisharpMetrics());
     when(mockServer.whenReady()).thenReturn(CompletableFuture.completedFuture(null));
+    when(mockServer.whenFileReady(any())).thenReturn(CompletableFuture.completedFuture(null));
+    when(mockServer.lazyStartAsync(any(), any(), anyBoolean(), anyBoolean(), any(), any(), any(), any(), any(), any()))
+      .thenReturn(CompletableFuture.completedFuture(null));
   }
 
   @Test
@@ -148,6 +164,7 @@ class OmnisharpSensorTests {
 
   @Test
   void scanCsFile() throws Exception {
+    logTester.setLevel(LoggerLevel.DEBUG);
     SensorContextTester sensorContext = SensorContextTester.create(baseDir);
     sensorContext.settings().appendProperty(CSharpPropertyDefinitions.getAnalyzerPath(), OmnisharpTestUtils.ANALYZER_JAR.toString());
 
@@ -164,12 +181,40 @@ class OmnisharpSensorTests {
 
     underTest.execute(sensorContext);
 
-    verify(mockServer).lazyStart(baseDir, OmnisharpTestUtils.ANALYZER_JAR, false, false, null, null, null, null, 60, 60);
+    verify(mockServer).lazyStartAsync(baseDir, OmnisharpTestUtils.ANALYZER_JAR, false, false, null, null, null, null, null, null);
 
-    verify(mockProtocol).updateBuffer(filePath.toFile(), content);
-    verify(mockProtocol).config(argThat(json -> json.toString().equals("{\"activeRules\":[]}")));
-    verify(mockProtocol).codeCheck(eq(filePath.toFile()), any());
+    verify(mockProtocol).updateBuffer(filePath.toFile(), content, Lane.INTERACTIVE);
+    verify(mockProtocol).config(argThat(json -> json.toString().equals("{\"activeRules\":[]}")), eq(Lane.INTERACTIVE));
+    verify(mockProtocol).codeCheck(eq(filePath.toFile()), any(), anyInt(), any());
     verifyNoMoreInteractions(mockProtocol);
+    assertThat(logTester.logs(LoggerLevel.DEBUG)).anyMatch(log -> log.startsWith("OmniSharp metrics:\n") && log.contains("\n  restarts=0"));
+  }
+
+  @Test
+  void rememberConfigAndUnsavedBuffers() throws Exception {
+    SensorContextTester sensorContext = SensorContextTester.create(baseDir);
+    sensorContext.settings().appendProperty(CSharpPropertyDefinitions.getAnalyzerPath(), OmnisharpTestUtils.ANALYZER_JAR.toString());
+
+    Path savedPath = baseDir.resolve("Saved.cs");
+    Files.write(savedPath, "class Saved {}".getBytes(StandardCharsets.UTF_8));
+    sensorContext.fileSystem().add(TestInputFileBuilder.create("", "Saved.cs")
+      .setModuleBaseDir(baseDir)
+      .setLanguage(OmnisharpPluginConstants.LANGUAGE_KEY)
+      .setCharset(StandardCharsets.UTF_8)
+      .build());
+    Path unsavedPath = baseDir.resolve("Unsaved.cs");
+    Files.write(unsavedPath, "class Unsaved {}".getBytes(StandardCharsets.UTF_8));
+    sensorContext.fileSystem().add(TestInputFileBuilder.create("", "Unsaved.cs")
+      .setModuleBaseDir(baseDir)
+      .setLanguage(OmnisharpPluginConstants.LANGUAGE_KEY)
+      .setCharset(StandardCharsets.UTF_8)
+      .setContents("class Unsaved { int edited; }")
+      .build());
+
+    underTest.execute(sensorContext);
+
+    assertThat(workspaceState.getConfig()).hasToString("{\"activeRules\":[]}");
+    assertThat(workspaceState.getDirtyBuffers()).containsOnly(entry(unsavedPath, "class Unsaved { int edited; }"));
   }
 
   @Test
@@ -192,9 +237,11 @@ class OmnisharpSensorTests {
 
     underTest.execute(sensorContext);
 
-    verify(mockServer).lazyStart(baseDir, OmnisharpTestUtils.ANALYZER_JAR, false, false, null, null, null, null, 60, 60);
+    verify(mockServer).lazyStartAsync(baseDir, OmnisharpTestUtils.ANALYZER_JAR, false, false, null, null, null, null, null, null);
 
-    verifyNoInteractions(mockProtocol);
+    // Rules configuration is sent while projects are loading
+    verify(mockProtocol).config(any(), any());
+    verifyNoMoreInteractions(mockProtocol);
 
     assertThat(logTester.logs(LoggerLevel.ERROR))
       .contains("Timeout waiting for the solution to be loaded." +
@@ -202,6 +249,247 @@ class OmnisharpSensorTests {
         " or https://docs.sonarsource.com/sonarlint/vs-code/getting-started/requirements/#csharp-analysis");
   }
 
+  @Test
+  void sendRulesConfigBeforeWaitingForProjects() throws Exception {
+    SensorContextTester sensorContext = SensorContextTester.create(baseDir);
+    sensorContext.settings().appendProperty(CSharpPropertyDefinitions.getAnalyzerPath(), OmnisharpTestUtils.ANALYZER_JAR.toString());
+
+    Path filePath = baseDir.resolve("Foo.cs");
+    String content = "Console.WriteLine(\"Hello World!\");";
+    Files.write(filePath, content.getBytes(StandardCharsets.UTF_8));
+
+    InputFile file = TestInputFileBuilder.create("", "Foo.cs")
+      .setModuleBaseDir(baseDir)
+      .setLanguage(OmnisharpPluginConstants.LANGUAGE_KEY)
+      .setCharset(StandardCharsets.UTF_8)
+      .build();
+    sensorContext.fileSystem().add(file);
+
+    underTest.execute(sensorContext);
+
+    var inOrder = inOrder(mockServer, mockProtocol, mockFileEvents);
+    inOrder.verify(mockServer).lazyStartAsync(baseDir, OmnisharpTestUtils.ANALYZER_JAR, false, false, null, null, null, null, null, null);
+    inOrder.verify(mockServer).awaitStart(any());
+    inOrder.verify(mockProtocol).config(any(), any());
+    inOrder.verify(mockServer).whenReady();
+    // Pending file events are sent before analyzing
+    inOrder.verify(mockFileEvents).flush();
+    inOrder.verify(mockProtocol).updateBuffer(filePath.toFile(), content, Lane.INTERACTIVE);
+  }
+
+  @Test
+  void analyzeFilesAsSoonAsTheirProjectIsLoaded() throws Exception {
+    SensorContextTester sensorContext = SensorContextTester.create(baseDir);
+    sensorContext.settings().appendProperty(CSharpPropertyDefinitions.getAnalyzerPath(), OmnisharpTestUtils.ANALYZER_JAR.toString());
+
+    Path fooPath = baseDir.resolve("Foo.cs");
+    Path barPath = baseDir.resolve("Bar.cs");
+    Files.write(fooPath, "class Foo {}".getBytes(StandardCharsets.UTF_8));
+    Files.write(barPath, "class Bar {}".getBytes(StandardCharsets.UTF_8));
+    for (String name : List.of("Foo.cs", "Bar.cs")) {
+      sensorContext.fileSystem().add(TestInputFileBuilder.create("", name)
+        .setModuleBaseDir(baseDir)
+        .setLanguage(OmnisharpPluginConstants.LANGUAGE_KEY)
+        .setCharset(StandardCharsets.UTF_8)
+        .build());
+    }
+
+    var fooReady = new CompletableFuture<Void>();
+    when(mockServer.whenFileReady(fooPath)).thenReturn(fooReady);
+    when(mockServer.whenFileReady(barPath)).thenReturn(CompletableFuture.completedFuture(null));
+    doAnswer(invocation -> {
+      fooReady.complete(null);
+      return null;
+    }).when(mockProtocol).codeCheck(eq(barPath.toFile()), any(), anyInt(), any());
+
+    underTest.execute(sensorContext);
+
+    var inOrder = inOrder(mockProtocol);
+    inOrder.verify(mockProtocol).codeCheck(eq(barPath.toFile()), any(), anyInt(), any());
+    inOrder.verify(mockProtocol).codeCheck(eq(fooPath.toFile()), any(), anyInt(), any());
+  }
+
+  @Test
+  void skipFilesWhoseProjectIsNotLoadedInTime() throws Exception {
+    SensorContextTester sensorContext = SensorContextTester.create(baseDir);
+    sensorContext.settings().appendProperty(CSharpPropertyDefinitions.getAnalyzerPath(), OmnisharpTestUtils.ANALYZER_JAR.toString());
+
+    Path fooPath = baseDir.resolve("Foo.cs");
+    Path barPath = baseDir.resolve("Bar.cs");
+    Files.write(fooPath, "class Foo {}".getBytes(StandardCharsets.UTF_8));
+    Files.write(barPath, "class Bar {}".getBytes(StandardCharsets.UTF_8));
+    for (String name : List.of("Foo.cs", "Bar.cs")) {
+      sensorContext.fileSystem().add(TestInputFileBuilder.create("", name)
+        .setModuleBaseDir(baseDir)
+        .setLanguage(OmnisharpPluginConstants.LANGUAGE_KEY)
+        .setCharset(StandardCharsets.UTF_8)
+        .build());
+    }
+
+    when(mockServer.whenFileReady(fooPath)).thenReturn(CompletableFuture.failedFuture(new TimeoutException("Project of Foo.cs not loaded after 60s")));
+    when(mockServer.whenFileReady(barPath)).thenReturn(CompletableFuture.completedFuture(null));
+
+    underTest.execute(sensorContext);
+
+    verify(mockProtocol, never()).codeCheck(eq(fooPath.toFile()), any(), anyInt(), any());
+    verify(mockProtocol).codeCheck(eq(barPath.toFile()), any(), anyInt(), any());
+    assertThat(logTester.logs(LoggerLevel.WARN)).contains("Skipping analysis of Foo.cs, its project was not loaded in time: Project of Foo.cs not loaded after 60s");
+  }
+
+  @Test
+  void stopWaitingForProjectsWhenCancelled() throws Exception {
+    SensorContextTester sensorContext = SensorContextTester.create(baseDir);
+    sensorContext.settings().appendProperty(CSharpPropertyDefinitions.getAnalyzerPath(), OmnisharpTestUtils.ANALYZER_JAR.toString());
+    mockFile(sensorContext, "Foo.cs", "class Foo {}");
+    when(mockServer.whenFileReady(any())).thenReturn(new CompletableFuture<>());
+    CompletableFuture.runAsync(() -> sensorContext.setCancelled(true), CompletableFuture.delayedExecutor(100, TimeUnit.MILLISECONDS));
+
+    underTest.execute(sensorContext);
+
+    verify(mockProtocol, never()).codeCheck(any(), any(), anyInt(), any());
+  }
+
+  @Test
+  void reportSlowestRulesWhenProfiling() throws Exception {
+    SensorContextTester sensorContext = SensorContextTester.create(baseDir);
+    sensorContext.settings().appendProperty(CSharpPropertyDefinitions.getAnalyzerPath(), OmnisharpTestUtils.ANALYZER_JAR.toString());
+    sensorContext.settings().setProperty(CSharpPropertyDefinitions.getProfileRules(), true);
+    for (String name : List.of("Foo.cs", "Bar.cs")) {
+      Files.write(baseDir.resolve(name), "class Foo {}".getBytes(StandardCharsets.UTF_8));
+      sensorContext.fileSystem().add(TestInputFileBuilder.create("", name)
+        .setModuleBaseDir(baseDir)
+        .setLanguage(OmnisharpPluginConstants.LANGUAGE_KEY)
+        .setCharset(StandardCharsets.UTF_8)
+        .build());
+    }
+    doAnswer(invocation -> {
+      Consumer<AnalyzerExecutionTime> executionTimeHandler = invocation.getArgument(4);
+      executionTimeHandler.accept(mockExecutionTime(12.3, "S1118"));
+      executionTimeHandler.accept(mockExecutionTime(100, "S1144", "S4487"));
+      return null;
+    }).when(mockProtocol).codeCheck(any(), any(), anyInt(), any(), any());
+
+    underTest.execute(sensorContext);
+
+    verify(mockProtocol, times(2)).codeCheck(any(), any(), anyInt(), any(), any());
+    assertThat(logTester.logs(LoggerLevel.INFO)).contains(String.format("Slowest rules:%n  S1144,S4487: 200ms%n  S1118: 25ms"));
+  }
+
+  @Test
+  void writeTraceWhenEnabled(@TempDir Path traceDir) throws Exception {
+    SensorContextTester sensorContext = SensorContextTester.create(baseDir);
+    sensorContext.settings().appendProperty(CSharpPropertyDefinitions.getAnalyzerPath(), OmnisharpTestUtils.ANALYZER_JAR.toString());
+    sensorContext.settings().setProperty(CSharpPropertyDefinitions.getTraceDirectory(), traceDir.toString());
+    mockFile(sensorContext, "Foo.cs", "class Foo {}");
+    doAnswer(invocation -> {
+      Consumer<Diagnostic> issueHandler = invocation.getArgument(3);
+      Diagnostic diag = mock(Diagnostic.class);
+      when(diag.getId()).thenReturn("S1118");
+      issueHandler.accept(diag);
+      return null;
+    }).when(mockProtocol).codeCheck(any(), any(), anyInt(), any());
+
+    underTest.execute(sensorContext);
+
+    assertThat(traceDir).isDirectoryContaining("glob:**/omnisharp-trace-*.json");
+    Path trace;
+    try (var files = Files.list(traceDir)) {
+      trace = files.findFirst().orElseThrow();
+    }
+    assertThat(Files.readString(trace, StandardCharsets.UTF_8))
+      .contains("\"name\":\"Wait for server start\"", "\"name\":\"/sonarlint/config\"", "\"name\":\"Wait for projects to load\"",
+        "\"name\":\"/updatebuffer\"", "\"name\":\"/sonarlint/codecheck\"", "\"file\":\"Foo.cs\",\"size\":12}", "\"file\":\"Foo.cs\",\"size\":12,\"issues\":1,\"conversionMs\":");
+  }
+
+  @Test
+  void tagProcessResourcesWithAnalysis() throws Exception {
+    SensorContextTester sensorContext = SensorContextTester.create(baseDir);
+    sensorContext.settings().appendProperty(CSharpPropertyDefinitions.getAnalyzerPath(), OmnisharpTestUtils.ANALYZER_JAR.toString());
+    mockFile(sensorContext, "Foo.cs", "class Foo {}");
+
+    underTest.execute(sensorContext);
+    underTest.execute(sensorContext);
+
+    var inOrder = inOrder(mockServer);
+    inOrder.verify(mockServer).analysisStarted("analysis #1 (1 file(s))");
+    inOrder.verify(mockServer).analysisFinished();
+    inOrder.verify(mockServer).analysisStarted("analysis #2 (1 file(s))");
+    inOrder.verify(mockServer).analysisFinished();
+  }
+
+  private static AnalyzerExecutionTime mockExecutionTime(double elapsedMs, String... ruleIds) {
+    var executionTime = mock(AnalyzerExecutionTime.class);
+    when(executionTime.getRuleIds()).thenReturn(ruleIds);
+    when(executionTime.getElapsedMs()).thenReturn(elapsedMs);
+    return executionTime;
+  }
+
+  @Test
+  void largeAnalysisUsesBackgroundLane() throws Exception {
+    SensorContextTester sensorContext = SensorContextTester.create(baseDir);
+    sensorContext.settings().appendProperty(CSharpPropertyDefinitions.getAnalyzerPath(), OmnisharpTestUtils.ANALYZER_JAR.toString());
+
+    for (int i = 0; i <= OmnisharpSensor.INTERACTIVE_MAX_FILES; i++) {
+      var name = "Foo" + i + ".cs";
+      Files.write(baseDir.resolve(name), "class Foo {}".getBytes(StandardCharsets.UTF_8));
+      sensorContext.fileSystem().add(TestInputFileBuilder.create("", name)
+        .setModuleBaseDir(baseDir)
+        .setLanguage(OmnisharpPluginConstants.LANGUAGE_KEY)
+        .setCharset(StandardCharsets.UTF_8)
+        .build());
+    }
+
+    underTest.execute(sensorContext);
+
+    verify(mockProtocol).config(any(), eq(Lane.BACKGROUND));
+    verify(mockProtocol, times(OmnisharpSensor.INTERACTIVE_MAX_FILES + 1)).updateBuffer(any(), any(), eq(Lane.BACKGROUND));
+    verify(mockProtocol, times(OmnisharpSensor.INTERACTIVE_MAX_FILES + 1)).codeCheck(any(), eq(Lane.BACKGROUND), anyInt(), any());
+    verifyNoMoreInteractions(mockProtocol);
+    // Don't read files of large analyses again to find unsaved buffers
+    assertThat(workspaceState.getDirtyBuffers()).isEmpty();
+  }
+
+  @Test
+  void failAnalysisIfServerStopsWhileLoadingProjects() throws Exception {
+    SensorContextTester sensorContext = SensorContextTester.create(baseDir);
+    sensorContext.settings().appendProperty(CSharpPropertyDefinitions.getAnalyzerPath(), OmnisharpTestUtils.ANALYZER_JAR.toString());
+
+    Path filePath = baseDir.resolve("Foo.cs");
+    Files.write(filePath, "class Foo {}".getBytes(StandardCharsets.UTF_8));
+    sensorContext.fileSystem().add(TestInputFileBuilder.create("", "Foo.cs")
+      .setModuleBaseDir(baseDir)
+      .setLanguage(OmnisharpPluginConstants.LANGUAGE_KEY)
+      .setCharset(StandardCharsets.UTF_8)
+      .build());
+
+    when(mockServer.whenFileReady(filePath)).thenReturn(CompletableFuture.failedFuture(new IllegalStateException("OmniSharp server stopped")));
+
+    var thrown = assertThrows(IllegalStateException.class, () -> underTest.execute(sensorContext));
+    assertThat(thrown).hasMessageContaining("OmniSharp server stopped");
+    verify(mockProtocol, never()).codeCheck(any(), any(), anyInt(), any());
+  }
+
+  @Test
+  void extendAnalysisScopeBeforeStartingWithScopedSolution() throws Exception {
+    SensorContextTester sensorContext = SensorContextTester.create(baseDir);
+    sensorContext.settings().appendProperty(CSharpPropertyDefinitions.getAnalyzerPath(), OmnisharpTestUtils.ANALYZER_JAR.toString());
+    sensorContext.settings().appendProperty(CSharpPropertyDefinitions.getScopedSolution(), "true");
+
+    Path filePath = baseDir.resolve("Foo.cs");
+    Files.write(filePath, "class Foo {}".getBytes(StandardCharsets.UTF_8));
+    sensorContext.fileSystem().add(TestInputFileBuilder.create("", "Foo.cs")
+      .setModuleBaseDir(baseDir)
+      .setLanguage(OmnisharpPluginConstants.LANGUAGE_KEY)
+      .setCharset(StandardCharsets.UTF_8)
+      .build());
+
+    underTest.execute(sensorContext);
+
+    var inOrder = inOrder(mockServer);
+    inOrder.verify(mockServer).extendAnalysisScope(List.of(filePath));
+    inOrder.verify(mockServer).lazyStartAsync(baseDir, OmnisharpTestUtils.ANALYZER_JAR, false, false, null, null, null, null, null, null);
+  }
+
   @Test
   void passConfig() throws Exception {
     SensorContextTester sensorContext = SensorContextTester.create(baseDir);
@@ -225,7 +513,7 @@ class OmnisharpSensorTests {
 
     underTest.execute(sensorContext);
 
-    verify(mockServer).lazyStart(baseDir, OmnisharpTestUtils.ANALYZER_JAR, true, true, null, null, null, null, 999, 123);
+    verify(mockServer).lazyStartAsync(baseDir, OmnisharpTestUtils.ANALYZER_JAR, true, true, null, null, null, null, 999, 123);
   }
 
   @Test
@@ -257,7 +545,7 @@ class OmnisharpSensorTests {
     // The order of parameters is not guaranteed
     verify(mockProtocol)
       .config(argThat(json -> json.toString().equals("{\"activeRules\":[{\"ruleId\":\"S123\"},{\"ruleId\":\"S456\",\"params\":{\"param1\":\"val1\",\"param2\":\"val2\"}}]}")
-        || json.toString().equals("{\"activeRules\":[{\"ruleId\":\"S123\"},{\"ruleId\":\"S456\",\"params\":{\"param2\":\"val2\",\"param1\":\"val1\"}}]}")));
+        || json.toString().equals("{\"activeRules\":[{\"ruleId\":\"S123\"},{\"ruleId\":\"S456\",\"params\":{\"param2\":\"val2\",\"param1\":\"val1\"}}]}")), any());
   }
 
   @Test
@@ -279,8 +567,8 @@ class OmnisharpSensorTests {
 
     underTest.execute(sensorContext);
 
-    verify(mockServer).lazyStart(baseDir, OmnisharpTestUtils.ANALYZER_JAR, false, false, null, null, null, null, 60, 60);
-    verify(mockProtocol).config(any());
+    verify(mockServer).lazyStartAsync(baseDir, OmnisharpTestUtils.ANALYZER_JAR, false, false, null, null, null, null, null, null);
+    verify(mockProtocol).config(any(), any());
     verifyNoMoreInteractions(mockProtocol);
   }
 
@@ -304,7 +592,7 @@ class OmnisharpSensorTests {
 
     underTest.execute(sensorContext);
 
-    verify(mockProtocol).codeCheck(eq(filePath.toFile()), captor.capture());
+    verify(mockProtocol).codeCheck(eq(filePath.toFile()), any(), eq(OmnisharpEndpoints.DEFAULT_MAX_ISSUES_PER_FILE), captor.capture());
 
     Consumer<Diagnostic> issueConsumer = captor.getValue();
 
@@ -354,7 +642,7 @@ class OmnisharpSensorTests {
 
     underTest.execute(sensorContext);
 
-    verify(mockProtocol).codeCheck(eq(filePath.toFile()), captor.capture());
+    verify(mockProtocol).codeCheck(eq(filePath.toFile()), any(), eq(OmnisharpEndpoints.DEFAULT_MAX_ISSUES_PER_FILE), captor.capture());
 
     Consumer<Diagnostic> issueConsumer = captor.getValue();
 
@@ -402,7 +690,7 @@ class OmnisharpSensorTests {
 
     underTest.execute(sensorContext);
 
-    verify(mockProtocol).codeCheck(eq(filePath.toFile()), captor.capture());
+    verify(mockProtocol).codeCheck(eq(filePath.toFile()), any(), eq(OmnisharpEndpoints.DEFAULT_MAX_ISSUES_PER_FILE), captor.capture());
 
     Consumer<Diagnostic> issueConsumer = captor.getValue();
 
@@ -445,7 +733,7 @@ class OmnisharpSensorTests {
 
     underTest.execute(sensorContext);
 
-    verify(mockProtocol).codeCheck(eq(filePath.toFile()), captor.capture());
+    verify(mockProtocol).codeCheck(eq(filePath.toFile()), any(), eq(OmnisharpEndpoints.DEFAULT_MAX_ISSUES_PER_FILE), captor.capture());
 
     Consumer<Diagnostic> issueConsumer = captor.getValue();
 
@@ -527,7 +815,7 @@ class OmnisharpSensorTests {
 
     underTest.execute(sensorContext);
 
-    verify(mockProtocol).codeCheck(eq(filePath.toFile()), captor.capture());
+    verify(mockProtocol).codeCheck(eq(filePath.toFile()), any(), eq(OmnisharpEndpoints.DEFAULT_MAX_ISSUES_PER_FILE), captor.capture());
 
     Consumer<Diagnostic> issueConsumer = captor.getValue();
 
@@ -19,21 +19,29 @@
  */
 package org.sonarsource.sonarlint.omnisharp;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.attribute.FileAttribute;
 import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.assertj.core.api.SoftAssertionsProvider.ThrowingRunnable;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -41,22 +49,30 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Timeout;
 import org.junit.jupiter.api.extension.RegisterExtension;
 import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.sonar.api.utils.System2;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.api.impl.utils.DefaultTempFolder;
 import org.sonar.api.utils.log.LoggerLevel;
 import org.sonar.api.testfixtures.log.LogTesterJUnit5;
+import org.sonarsource.sonarlint.omnisharp.StdinWriter.Backpressure;
 import org.sonarsource.sonarlint.omnisharp.protocol.OmnisharpEndpoints;
 import org.sonarsource.sonarlint.omnisharp.protocol.OmnisharpResponseProcessor;
+import org.sonarsource.sonarlint.omnisharp.protocol.RequestScheduler.Lane;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.Mockito.clearInvocations;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -76,6 +92,12 @@ class OmnisharpServerControllerTests {
   private Path anotherSolutionDir;
   private OmnisharpEndpoints endpoints;
   private OmnisharpCommandBuilder commandBuilder;
+  private SolutionGenerator solutionGenerator;
+  private StartupHistory startupHistory;
+  private WorkspaceState workspaceState;
+  private OmnisharpMetrics metrics;
+  private OmnisharpExecutors executors;
+  private Path historyFile;
   private final List<String> processedOutput = new CopyOnWriteArrayList<>();
 
   @BeforeEach
@@ -85,7 +107,13 @@ class OmnisharpServerControllerTests {
     anotherSolutionDir = tmpDir.resolve("anotherSolution");
     endpoints = mock(OmnisharpEndpoints.class);
     commandBuilder = mock(OmnisharpCommandBuilder.class);
-    underTest = new OmnisharpServerController(endpoints, new FakeOmnisharpResponseProcessor(), commandBuilder);
+    solutionGenerator = new SolutionGenerator(new DefaultTempFolder(Files.createDirectories(tmpDir.resolve("slTmp")).toFile()));
+    historyFile = tmpDir.resolve("history.json");
+    startupHistory = new NoRecordStartupHistory(historyFile);
+    workspaceState = new WorkspaceState();
+    metrics = new OmnisharpMetrics();
+    executors = new OmnisharpExecutors();
+    underTest = new OmnisharpServerController(endpoints, new FakeOmnisharpResponseProcessor(), commandBuilder, solutionGenerator, startupHistory, workspaceState, metrics, executors, new MapSettings().asConfig());
     // Does nothing, for coverage
     underTest.start();
   }
@@ -94,11 +122,13 @@ class OmnisharpServerControllerTests {
   public void cleanup() {
     underTest.stop();
     assertThat(underTest.isOmnisharpStarted()).isFalse();
+    executors.stop();
   }
 
   @Test
   void dontWriteRequestIfServerStopped() {
-    underTest.writeRequestOnStdIn("foo");
+    var written = underTest.writeRequestOnStdIn("foo", Backpressure.WAIT, null);
+    assertThat(written).isCompletedExceptionally();
     assertThat(logTester.logs(LoggerLevel.DEBUG)).contains("Server stopped, ignoring request");
   }
 
@@ -230,6 +260,7 @@ class OmnisharpServerControllerTests {
     verify(endpoints).stopServer();
     assertThat(processedOutput).containsExactly("STARTED", "STARTED");
     assertThat(logTester.logs(LoggerLevel.INFO)).contains(expectedMsg);
+    assertThat(metrics.snapshot()).containsEntry("restarts.configChanged", 1L);
 
     // Same parameters, should not restart
     clearInvocations(endpoints);
@@ -260,7 +291,7 @@ class OmnisharpServerControllerTests {
       @Override
       public Void answer(InvocationOnMock invocation) throws Throwable {
         // Write something on stdin to resume program
-        underTest.writeRequestOnStdIn("");
+        underTest.writeRequestOnStdIn("", Backpressure.WAIT, null);
         return null;
       }
     }).when(endpoints).stopServer();
@@ -271,9 +302,11 @@ class OmnisharpServerControllerTests {
     mockOmnisharpRun(emulateStartEvent() + waitForKeyPress());
 
     lazyStart();
+    // The automatic restart fails
+    when(commandBuilder.build(any(), any(), any(), any(), anyBoolean())).thenReturn(new ProcessBuilder("not existing command"));
 
     // Write something on stdin to resume program
-    underTest.writeRequestOnStdIn("");
+    underTest.writeRequestOnStdIn("", Backpressure.WAIT, null);
 
     // give time for process to die
     Thread.sleep(1000);
@@ -281,6 +314,37 @@ class OmnisharpServerControllerTests {
     underTest.stop();
 
     verify(endpoints, never()).stopServer();
+    assertThat(logTester.logs(LoggerLevel.WARN)).contains("OmniSharp terminated unexpectedly, restarting it");
+  }
+
+  @Test
+  void restartAndRestoreStateAfterCrash() throws Exception {
+    var config = new JsonObject();
+    config.add("activeRules", new JsonArray());
+    workspaceState.configSent(config);
+    var unsavedFile = Files.createDirectories(solutionDir).resolve("Foo.cs");
+    Files.writeString(unsavedFile, "class Foo {}");
+    workspaceState.bufferSent(unsavedFile, StandardCharsets.UTF_8, "class Foo { int edited; }");
+    mockOmnisharpRun(emulateStartEvent() + emulateProjectLoaded() + waitForKeyPress());
+    pressKeyWhenEndpointCallStopServer();
+    lazyStart();
+    underTest.whenReady().get();
+    verify(endpoints, never()).config(any(), any());
+
+    // Write something on stdin to make the process exit
+    underTest.writeRequestOnStdIn("", Backpressure.WAIT, null);
+
+    await().atMost(5, TimeUnit.SECONDS).until(() -> processedOutput.size() == 4);
+    // Analysis requests are only accepted once the state is restored
+    underTest.lazyStartAsync(solutionDir, OmnisharpTestUtils.ANALYZER_JAR, false, false, null, null, null, null, 1, 1).get(5, TimeUnit.SECONDS);
+    verify(endpoints).config(config, Lane.INTERACTIVE);
+    underTest.whenReady().get(5, TimeUnit.SECONDS);
+    verify(endpoints).updateBuffer(unsavedFile.toFile(), "class Foo { int edited; }", Lane.INTERACTIVE);
+    assertThat(underTest.isOmnisharpStarted()).isTrue();
+    assertThat(logTester.logs(LoggerLevel.WARN)).contains("OmniSharp terminated unexpectedly, restarting it");
+    assertThat(metrics.snapshot()).containsEntry("restarts", 1L).containsEntry("restarts.crashed", 1L);
+    // Bytes written to the previous process are still counted
+    await().atMost(5, TimeUnit.SECONDS).untilAsserted(() -> assertThat(metrics.snapshot()).containsEntry("stdin.bytes", 1L));
   }
 
   @Test
@@ -306,6 +370,27 @@ class OmnisharpServerControllerTests {
     assertThat(underTest.whenReady()).isCompleted();
   }
 
+  @Test
+  void reportStartupTimings() throws Exception {
+    mockOmnisharpRun(emulateStartEvent() + emulateProjectLoaded() + waitForKeyPress());
+    pressKeyWhenEndpointCallStopServer();
+
+    lazyStart();
+    underTest.whenReady().get();
+    underTest.codeCheckSucceeded();
+    underTest.codeCheckSucceeded();
+
+    var report = underTest.getStartupReport();
+    assertThat(report.getProcessSpawnedAfter()).isPresent();
+    assertThat(report.getOmnisharpStartedAfter().get()).isGreaterThanOrEqualTo(report.getProcessSpawnedAfter().get());
+    assertThat(report.getProjectsAdded()).hasSize(1);
+    assertThat(report.getFirstCodeCheckAfter().get()).isGreaterThanOrEqualTo(report.getLastProjectAddedAfter().get());
+    assertThat(logTester.logs(LoggerLevel.INFO).stream().filter(l -> l.startsWith("OmniSharp startup report: spawn=")))
+      .singleElement()
+      .asString()
+      .contains(" projects=1 ");
+  }
+
   @Test
   void dontWaitForProjectLoadedIfLoadOnDemand() throws Exception {
     mockOmnisharpRun(emulateStartEvent() + waitForKeyPress());
@@ -335,7 +420,7 @@ class OmnisharpServerControllerTests {
 
   @Test
   void waitingForProjectToLoadDoesntPreventStopping() throws Exception {
-    underTest = new OmnisharpServerController(endpoints, new FakeOmnisharpResponseProcessor(), commandBuilder);
+    underTest = new OmnisharpServerController(endpoints, new FakeOmnisharpResponseProcessor(), commandBuilder, solutionGenerator, startupHistory, workspaceState, metrics, executors, new MapSettings().asConfig());
 
     mockOmnisharpRun(emulateStartEvent() + waitForKeyPress());
     pressKeyWhenEndpointCallStopServer();
@@ -372,6 +457,295 @@ class OmnisharpServerControllerTests {
     }
   }
 
+  @Test
+  void lazyStartAsyncDoesntWaitForCommandToBeBuilt() throws Exception {
+    var commandRequested = new CountDownLatch(1);
+    var releaseCommand = new CountDownLatch(1);
+    when(commandBuilder.build(any(), any(), any(), any(), anyBoolean())).thenAnswer(invocation -> {
+      commandRequested.countDown();
+      releaseCommand.await();
+      return new ProcessBuilder("not existing command");
+    });
+
+    var startFuture = underTest.lazyStartAsync(solutionDir, OmnisharpTestUtils.ANALYZER_JAR, false, false, null, null, null, null, 1, 1);
+    commandRequested.await();
+
+    assertThat(startFuture).isNotDone();
+    // Stopping before the process is spawned should not block
+    underTest.stop();
+    assertThat(startFuture).isCancelled();
+
+    releaseCommand.countDown();
+  }
+
+  @Test
+  void stopServerAsyncDoesntWaitForProcessToExit() throws Exception {
+    // The process ignores the stop request
+    mockOmnisharpRun(emulateStartEvent() + waitForKeyPress());
+    lazyStart();
+    var whenReady = underTest.whenReady();
+
+    var stopped = underTest.stopServerAsync();
+
+    assertThat(stopped).isNotDone();
+    assertThat(underTest.isOmnisharpStarted()).isFalse();
+    assertThat(whenReady).isCancelled();
+    verify(endpoints).stopServer();
+    // Stopping twice doesn't send a new request
+    assertThat(underTest.stopServerAsync()).isSameAs(stopped);
+    verify(endpoints).stopServer();
+
+    stopped.get(10, TimeUnit.SECONDS);
+    assertThat(logTester.logs(LoggerLevel.DEBUG)).contains("Unable to terminate process, killing it");
+    assertThat(logTester.logs(LoggerLevel.INFO)).contains("OmniSharp stopped");
+  }
+
+  @Test
+  void restartDoesntWaitForPreviousProcessToExit() throws Exception {
+    // The process ignores the stop request
+    mockOmnisharpRun(emulateStartEvent() + waitForKeyPress());
+    lazyStart();
+    var firstStartupReport = underTest.getStartupReport();
+
+    underTest.lazyStart(anotherSolutionDir, OmnisharpTestUtils.ANALYZER_JAR, false, false, null, null, null, null, 1, 1);
+
+    assertThat(underTest.isOmnisharpStarted()).isTrue();
+    assertThat(underTest.getStartupReport()).isNotSameAs(firstStartupReport);
+    // Termination of the previous process doesn't change the state of the new one
+    await().atMost(10, TimeUnit.SECONDS).until(() -> logTester.logs(LoggerLevel.INFO).contains("Omnisharp process terminated"));
+    assertThat(underTest.isOmnisharpStarted()).isTrue();
+  }
+
+  @Test
+  void concurrentStartAndStopNeverBlock() throws Exception {
+    mockOmnisharpRun(emulateStartEvent() + waitForKeyPress());
+    pressKeyWhenEndpointCallStopServer();
+    var threads = 8;
+    var iterations = 20;
+    var startLine = new CountDownLatch(1);
+    var unexpectedErrors = new CopyOnWriteArrayList<Throwable>();
+    var executor = Executors.newFixedThreadPool(threads);
+    try {
+      for (int t = 0; t < threads; t++) {
+        var threadIndex = t;
+        executor.execute(() -> {
+          try {
+            startLine.await();
+            for (int i = 0; i < iterations; i++) {
+              switch ((threadIndex + i) % 4) {
+                case 0:
+                  underTest.lazyStartAsync(solutionDir, OmnisharpTestUtils.ANALYZER_JAR, false, false, null, null, null, null, 5, 5);
+                  break;
+                case 1:
+                  underTest.stopServerAsync();
+                  break;
+                case 2:
+                  underTest.whenReady();
+                  underTest.whenFileReady(solutionDir.resolve("Foo.cs"));
+                  underTest.isOmnisharpStarted();
+                  break;
+                default:
+                  underTest.writeRequestOnStdIn("", Backpressure.WAIT, null);
+                  break;
+              }
+            }
+          } catch (Throwable e) {
+            unexpectedErrors.add(e);
+          }
+        });
+      }
+      startLine.countDown();
+      executor.shutdown();
+      assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+    } finally {
+      executor.shutdownNow();
+    }
+    assertThat(unexpectedErrors).isEmpty();
+
+    // Whatever the interleaving, the server ends up in a consistent state
+    underTest.stopServerAsync().get(10, TimeUnit.SECONDS);
+    assertThat(underTest.isOmnisharpStarted()).isFalse();
+    assertThat(underTest.whenReady()).isCompletedExceptionally();
+    lazyStart();
+    assertThat(underTest.isOmnisharpStarted()).isTrue();
+    underTest.stop();
+    assertThat(underTest.isOmnisharpStarted()).isFalse();
+  }
+
+  @Test
+  void onlyLoadProjectsOfAnalyzedFiles() throws Exception {
+    var fooCs = createProject("Foo");
+    var barCs = createProject("Bar");
+    Files.writeString(solutionDir.resolve("Solution.sln"),
+      "Project(\"{FAE04EC0-301F-11D3-BF4B-00C04F79EFBC}\") = \"Foo\", \"Foo\\Foo.csproj\", \"{11111111-1111-1111-1111-111111111111}\"\n"
+        + "EndProject\n"
+        + "Project(\"{FAE04EC0-301F-11D3-BF4B-00C04F79EFBC}\") = \"Bar\", \"Bar\\Bar.csproj\", \"{22222222-2222-2222-2222-222222222222}\"\n"
+        + "EndProject\n");
+    mockOmnisharpRun(emulateStartEvent() + waitForKeyPress());
+    pressKeyWhenEndpointCallStopServer();
+
+    underTest.extendAnalysisScope(List.of(fooCs));
+    lazyStart();
+
+    var solutionCaptor = ArgumentCaptor.forClass(Path.class);
+    verify(commandBuilder).build(any(), any(), any(), solutionCaptor.capture(), anyBoolean());
+    assertThat(solutionCaptor.getValue().getFileName().toString()).endsWith(".scoped.slnf");
+    assertThat(SolutionParser.parseProjects(solutionCaptor.getValue())).containsExactly(fooCs.resolveSibling("Foo.csproj"));
+    assertThat(underTest.isUsingScopedSolution()).isTrue();
+
+    // Same project, no restart
+    underTest.extendAnalysisScope(List.of(fooCs.resolveSibling("Other.cs")));
+    assertThat(underTest.isOmnisharpStarted()).isTrue();
+
+    underTest.extendAnalysisScope(List.of(barCs));
+    assertThat(underTest.isOmnisharpStarted()).isFalse();
+    assertThat(underTest.isUsingScopedSolution()).isFalse();
+    assertThat(logTester.logs(LoggerLevel.INFO)).contains("Analyzed files belong to projects that are not loaded, OmniSharp has to be restarted");
+    assertThat(metrics.snapshot()).containsEntry("restarts.scopeExtended", 1L);
+  }
+
+  @Test
+  void includeFilesAddedWhileScopedSolutionIsGenerated() throws Exception {
+    var fooCs = createProject("Foo");
+    var barCs = createProject("Bar");
+    Files.writeString(solutionDir.resolve("Solution.sln"),
+      "Project(\"{FAE04EC0-301F-11D3-BF4B-00C04F79EFBC}\") = \"Foo\", \"Foo\\Foo.csproj\", \"{11111111-1111-1111-1111-111111111111}\"\n"
+        + "EndProject\n"
+        + "Project(\"{FAE04EC0-301F-11D3-BF4B-00C04F79EFBC}\") = \"Bar\", \"Bar\\Bar.csproj\", \"{22222222-2222-2222-2222-222222222222}\"\n"
+        + "EndProject\n");
+    var generationStarted = new CountDownLatch(1);
+    var releaseGeneration = new CountDownLatch(1);
+    var blockingGenerator = new SolutionGenerator(new DefaultTempFolder(Files.createDirectories(solutionDir.resolveSibling("slTmp2")).toFile())) {
+      @Override
+      public ScopedSolution generateScopedSolution(Path solutionPath, Collection<Path> files) throws IOException {
+        generationStarted.countDown();
+        try {
+          releaseGeneration.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return super.generateScopedSolution(solutionPath, files);
+      }
+    };
+    underTest = new OmnisharpServerController(endpoints, new FakeOmnisharpResponseProcessor(), commandBuilder, blockingGenerator, startupHistory, workspaceState, metrics, executors, new MapSettings().asConfig());
+    mockOmnisharpRun(emulateStartEvent() + waitForKeyPress());
+    pressKeyWhenEndpointCallStopServer();
+
+    underTest.extendAnalysisScope(List.of(fooCs));
+    underTest.lazyStartAsync(solutionDir, OmnisharpTestUtils.ANALYZER_JAR, false, false, null, null, null, null, 1, 60);
+    generationStarted.await();
+    assertThat(underTest.isUsingScopedSolution()).isTrue();
+    underTest.extendAnalysisScope(List.of(barCs));
+    releaseGeneration.countDown();
+    underTest.whenReady().get(30, TimeUnit.SECONDS);
+
+    var solutionCaptor = ArgumentCaptor.forClass(Path.class);
+    verify(commandBuilder).build(any(), any(), any(), solutionCaptor.capture(), anyBoolean());
+    assertThat(SolutionParser.parseProjects(solutionCaptor.getValue())).containsExactlyInAnyOrder(fooCs.resolveSibling("Foo.csproj"), barCs.resolveSibling("Bar.csproj"));
+    assertThat(underTest.isOmnisharpStarted()).isTrue();
+    assertThat(metrics.snapshot()).doesNotContainKey("restarts.scopeExtended");
+  }
+
+  @Test
+  void regenerateScopedSolutionIfProjectChangedWhileGenerating() throws Exception {
+    var fooCs = createProject("Foo");
+    Files.writeString(solutionDir.resolve("Solution.sln"),
+      "Project(\"{FAE04EC0-301F-11D3-BF4B-00C04F79EFBC}\") = \"Foo\", \"Foo\\Foo.csproj\", \"{11111111-1111-1111-1111-111111111111}\"\n"
+        + "EndProject\n");
+    var generationCount = new AtomicInteger();
+    var releaseGeneration = new CountDownLatch(1);
+    var blockingGenerator = new SolutionGenerator(new DefaultTempFolder(Files.createDirectories(solutionDir.resolveSibling("slTmp2")).toFile())) {
+      @Override
+      public ScopedSolution generateScopedSolution(Path solutionPath, Collection<Path> files) throws IOException {
+        if (generationCount.incrementAndGet() == 1) {
+          try {
+            releaseGeneration.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+        return super.generateScopedSolution(solutionPath, files);
+      }
+    };
+    underTest = new OmnisharpServerController(endpoints, new FakeOmnisharpResponseProcessor(), commandBuilder, blockingGenerator, startupHistory, workspaceState, metrics, executors, new MapSettings().asConfig());
+    mockOmnisharpRun(emulateStartEvent() + waitForKeyPress());
+    pressKeyWhenEndpointCallStopServer();
+
+    underTest.extendAnalysisScope(List.of(fooCs));
+    underTest.lazyStartAsync(solutionDir, OmnisharpTestUtils.ANALYZER_JAR, false, false, null, null, null, null, 1, 60);
+    await().atMost(10, TimeUnit.SECONDS).until(() -> generationCount.get() == 1);
+
+    assertThat(underTest.scopedProjectChanged()).isTrue();
+    releaseGeneration.countDown();
+    underTest.whenReady().get(30, TimeUnit.SECONDS);
+
+    assertThat(generationCount).hasValue(2);
+    assertThat(underTest.isOmnisharpStarted()).isTrue();
+  }
+
+  @Test
+  void failFastIfNoProjectCanBeLoaded() throws Exception {
+    createProject("Foo");
+    Files.writeString(solutionDir.resolve("Solution.sln"),
+      "Project(\"{FAE04EC0-301F-11D3-BF4B-00C04F79EFBC}\") = \"Foo\", \"Foo\\Foo.csproj\", \"{11111111-1111-1111-1111-111111111111}\"\n"
+        + "EndProject\n");
+    mockOmnisharpRun(emulateStartEvent() + "echo " + FakeOmnisharpResponseProcessor.FAILED_EVENT + "\n" + waitForKeyPress());
+    pressKeyWhenEndpointCallStopServer();
+
+    underTest.lazyStart(solutionDir, OmnisharpTestUtils.ANALYZER_JAR, false, false, null, null, null, null, 1, 60);
+
+    var thrown = assertThrows(ExecutionException.class, () -> underTest.whenReady().get(30, TimeUnit.SECONDS));
+    assertThat(thrown).hasCauseInstanceOf(IllegalStateException.class);
+    assertThat(thrown.getCause()).hasMessage("Unable to load any project: " + solutionDir.resolve("Foo").resolve("Foo.csproj") + " (SDK not found)");
+  }
+
+  private Path createProject(String name) throws IOException {
+    var projectDir = Files.createDirectories(solutionDir.resolve(name));
+    Files.writeString(projectDir.resolve(name + ".csproj"), "<Project Sdk=\"Microsoft.NET.Sdk\" />");
+    var sourceFile = projectDir.resolve(name + ".cs");
+    Files.writeString(sourceFile, "class " + name + " {}");
+    return sourceFile.toRealPath();
+  }
+
+  @Test
+  void loadProjectsTimeoutIsProportionalToSolutionSize() {
+    assertThat(OmnisharpServerController.computeLoadProjectsTimeout(60, 0)).isEqualTo(Duration.ofSeconds(60));
+    assertThat(OmnisharpServerController.computeLoadProjectsTimeout(60, 30)).isEqualTo(Duration.ofSeconds(60));
+    assertThat(OmnisharpServerController.computeLoadProjectsTimeout(60, 100)).isEqualTo(Duration.ofSeconds(200));
+  }
+
+  @Test
+  void recordStartupHistory() throws Exception {
+    startupHistory = new StartupHistory(new MapSettings().setProperty(CSharpPropertyDefinitions.getStartupHistoryPath(), historyFile.toString()).asConfig());
+    underTest = new OmnisharpServerController(endpoints, new FakeOmnisharpResponseProcessor(), commandBuilder, solutionGenerator, startupHistory, workspaceState, metrics, executors, new MapSettings().asConfig());
+    mockOmnisharpRun(emulateStartEvent() + emulateProjectLoaded() + waitForKeyPress());
+    pressKeyWhenEndpointCallStopServer();
+
+    underTest.lazyStart(solutionDir, OmnisharpTestUtils.ANALYZER_JAR, false, false, null, null, null, null, 1, 60);
+    underTest.whenReady().get();
+
+    // Loading settles after the settle delay
+    await().atMost(10, TimeUnit.SECONDS).untilAsserted(() -> assertThat(historyFile).content().contains("\"startup\"", "\"loadProjects\""));
+    var solutionKey = solutionDir.toAbsolutePath().toString();
+    for (int i = 0; i < StartupHistory.MIN_SAMPLES - 1; i++) {
+      startupHistory.recordStartup(solutionKey, Duration.ofSeconds(10));
+    }
+    assertThat(startupHistory.getStartupTimeout(solutionKey, Duration.ofSeconds(60), null)).isEqualTo(Duration.ofSeconds(20));
+  }
+
+  @Test
+  void raiseStartupTimeoutAfterTimeout() throws Exception {
+    startupHistory = new StartupHistory(new MapSettings().setProperty(CSharpPropertyDefinitions.getStartupHistoryPath(), historyFile.toString()).asConfig());
+    underTest = new OmnisharpServerController(endpoints, new FakeOmnisharpResponseProcessor(), commandBuilder, solutionGenerator, startupHistory, workspaceState, metrics, executors, new MapSettings().asConfig());
+    mockOmnisharpRun(waitForKeyPress());
+
+    assertThrows(IllegalStateException.class, () -> lazyStart());
+
+    var solutionKey = solutionDir.toAbsolutePath().toString();
+    await().atMost(10, TimeUnit.SECONDS).untilAsserted(() -> assertThat(historyFile).content().contains("\"startupTimeouts\""));
+    assertThat(startupHistory.getStartupTimeout(solutionKey, Duration.ofSeconds(1), null)).isEqualTo(Duration.ofSeconds(2));
+  }
+
   @Test
   void startFailed() throws Exception {
     when(commandBuilder.build(any(), any(), any(), any(), anyBoolean())).thenReturn(new ProcessBuilder("not existing command"));
@@ -383,6 +757,82 @@ class OmnisharpServerControllerTests {
     assertThat(underTest.whenReady()).isCompletedExceptionally();
   }
 
+  @Test
+  void restartServerThatDoesntAnswerPings() throws Exception {
+    underTest.stop();
+    underTest = new OmnisharpServerController(endpoints, new FakeOmnisharpResponseProcessor(), commandBuilder, solutionGenerator, startupHistory, workspaceState, metrics,
+      executors, HealthCheckWatchdog.Settings.withInterval(Duration.ofMillis(100)));
+    doThrow(new IllegalStateException("Timeout waiting for response to: /sonarlint/ping")).when(endpoints).ping(any());
+    mockOmnisharpRun(emulateStartEvent() + emulateProjectLoaded() + waitForKeyPress());
+    pressKeyWhenEndpointCallStopServer();
+
+    lazyStart();
+
+    // Give up after a few restarts, pings are only counted as missed once projects are loaded
+    await().atMost(30, TimeUnit.SECONDS).untilAsserted(() -> assertThat(logTester.logs(LoggerLevel.WARN))
+      .contains("OmniSharp is not responding, but it has already been restarted 3 times in the last 10 minutes. It will be started again by the next analysis."));
+    assertThat(logTester.logs(LoggerLevel.WARN).stream().filter("OmniSharp is not responding, restarting it"::equals)).hasSize(OmnisharpServerController.MAX_AUTOMATIC_RESTARTS);
+    assertThat(underTest.isOmnisharpStarted()).isFalse();
+    verify(endpoints, times(OmnisharpServerController.MAX_AUTOMATIC_RESTARTS + 1)).stopServer();
+    assertThat(underTest.getHealthCheck().getMissedCount()).isEqualTo(HealthCheckWatchdog.DEFAULT_MAX_MISSED_PINGS);
+    assertThat(metrics.snapshot()).containsEntry("restarts.unresponsive", (long) OmnisharpServerController.MAX_AUTOMATIC_RESTARTS)
+      .containsEntry("healthCheck.missed", (long) HealthCheckWatchdog.DEFAULT_MAX_MISSED_PINGS);
+  }
+
+  @Test
+  void dontCountMissedPingsWhileAnalyzingFiles() throws Exception {
+    underTest.stop();
+    underTest = new OmnisharpServerController(endpoints, new FakeOmnisharpResponseProcessor(), commandBuilder, solutionGenerator, startupHistory, workspaceState, metrics,
+      executors, HealthCheckWatchdog.Settings.withInterval(Duration.ofMillis(100)));
+    doThrow(new IllegalStateException("Timeout waiting for response to: /sonarlint/ping")).when(endpoints).ping(any());
+    when(endpoints.isCodeCheckInFlight()).thenReturn(true);
+    mockOmnisharpRun(emulateStartEvent() + emulateProjectLoaded() + waitForKeyPress());
+    pressKeyWhenEndpointCallStopServer();
+
+    lazyStart();
+
+    await().atMost(10, TimeUnit.SECONDS).until(() -> underTest.getHealthCheck().getMissedWhileBusyCount() > HealthCheckWatchdog.DEFAULT_MAX_MISSED_PINGS);
+    assertThat(underTest.getHealthCheck().getMissedCount()).isZero();
+    assertThat(underTest.isOmnisharpStarted()).isTrue();
+  }
+
+  @Test
+  void recordPingLatency() throws Exception {
+    underTest.stop();
+    underTest = new OmnisharpServerController(endpoints, new FakeOmnisharpResponseProcessor(), commandBuilder, solutionGenerator, startupHistory, workspaceState, metrics,
+      executors, HealthCheckWatchdog.Settings.withInterval(Duration.ofMillis(100)));
+    mockOmnisharpRun(emulateStartEvent() + waitForKeyPress());
+    pressKeyWhenEndpointCallStopServer();
+
+    lazyStart();
+
+    await().atMost(5, TimeUnit.SECONDS).until(() -> underTest.getHealthCheck().getLastLatencyMs() >= 0);
+    assertThat(underTest.isOmnisharpStarted()).isTrue();
+    assertThat(underTest.getHealthCheck().getMissedCount()).isZero();
+    assertThat(metrics.snapshot().get("healthCheck.pings")).isPositive();
+  }
+
+  @Test
+  void sampleResourcesOfProcess() throws Exception {
+    mockOmnisharpRun(emulateStartEvent() + waitForKeyPress());
+    pressKeyWhenEndpointCallStopServer();
+
+    lazyStart();
+
+    await().atMost(5, TimeUnit.SECONDS).until(() -> underTest.getResourceSampler() != null && underTest.getResourceSampler().getSamplesCount() > 0);
+    assertThat(metrics.snapshot()).containsKeys("process.cpuTimeMs", "process.rssBytes", "process.rssMaxBytes", "process.threads", "process.openFds");
+
+    underTest.analysisStarted("analysis #1 (2 file(s))");
+    underTest.analysisFinished();
+
+    assertThat(logTester.logs(LoggerLevel.DEBUG)).anyMatch(l -> l.matches("OmniSharp process \\d+ during analysis #1 \\(2 file\\(s\\)\\): cpu=\\+.*"));
+
+    underTest.stopServer();
+
+    await().atMost(5, TimeUnit.SECONDS)
+      .untilAsserted(() -> assertThat(logTester.logs(LoggerLevel.DEBUG)).anyMatch(l -> l.matches("OmniSharp process \\d+ resources: \\d+ sample\\(s\\), .*")));
+  }
+
   private void lazyStart() throws InterruptedException {
     underTest.lazyStart(solutionDir, OmnisharpTestUtils.ANALYZER_JAR, false, false, null, null, null, null, 1, 1);
   }
@@ -429,21 +879,63 @@ class OmnisharpServerControllerTests {
     Files.write(scriptPath, ("@echo off\n" + batScript).getBytes(StandardCharsets.UTF_8));
   }
 
+  /**
+   * Recording happens in background, and could create files while temp directories are deleted
+   */
+  private static class NoRecordStartupHistory extends StartupHistory {
+
+    NoRecordStartupHistory(Path historyFile) {
+      super(new MapSettings().setProperty(CSharpPropertyDefinitions.getStartupHistoryPath(), historyFile.toString()).asConfig());
+    }
+
+    @Override
+    public void recordStartup(String solutionKey, Duration duration) {
+      // Nothing to do
+    }
+
+    @Override
+    public void recordStartupTimeout(String solutionKey, Duration timeout) {
+      // Nothing to do
+    }
+
+    @Override
+    public void recordLoadProjects(String solutionKey, Duration duration) {
+      // Nothing to do
+    }
+
+    @Override
+    public void recordLoadProjectsTimeout(String solutionKey, Duration timeout) {
+      // Nothing to do
+    }
+  }
+
   private class FakeOmnisharpResponseProcessor extends OmnisharpResponseProcessor {
 
     private static final String STARTED_EVENT = "STARTED";
     private static final String LOADED_EVENT = "LOADED";
+    private static final String FAILED_EVENT = "FAILED";
+
+    FakeOmnisharpResponseProcessor() {
+      super(new OmnisharpMetrics(), executors);
+    }
 
     @Override
-    public void handleOmnisharpOutput(CompletableFuture<Void> startFuture, CompletableFuture<Void> loadProjectsFuture, String line) {
+    public void handleOmnisharpOutput(CompletableFuture<Void> startFuture, CompletableFuture<Void> loadProjectsFuture, StartupReport startupReport,
+      ProjectLoadTracker projectLoadTracker, String line) {
       processedOutput.add(line);
       switch (line) {
         case STARTED_EVENT:
+          startupReport.omnisharpStarted();
           startFuture.complete(null);
           break;
         case LOADED_EVENT:
+          startupReport.projectAdded("Project.csproj");
+          projectLoadTracker.projectLoaded("Project.csproj", List.of(Paths.get("Foo.cs")));
           loadProjectsFuture.complete(null);
           break;
+        case FAILED_EVENT:
+          projectLoadTracker.projectFailed(solutionDir.resolve("Foo").resolve("Foo.csproj").toString(), List.of("SDK not found"));
+          break;
       }
     }
   }
@@ -19,12 +19,21 @@
  */
 package org.sonarsource.sonarlint.omnisharp;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.TrueFileFilter;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.RegisterExtension;
@@ -34,12 +43,14 @@ import org.sonar.api.impl.utils.DefaultTempFolder;
 import org.sonar.api.testfixtures.log.LogTesterJUnit5;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 class OmnisharpServicesExtractorTests {
 
   @RegisterExtension
   LogTesterJUnit5 logTester = new LogTesterJUnit5();
 
+  private final OmnisharpExecutors executors = new OmnisharpExecutors();
   private OmnisharpServicesExtractor underTest;
   private Path slTmpDir;
 
@@ -49,7 +60,12 @@ class OmnisharpServicesExtractorTests {
     var config = new MapSettings()
       .setProperty(CSharpPropertyDefinitions.getAnalyzerPath(), OmnisharpTestUtils.ANALYZER_JAR.toString())
       .asConfig();
-    underTest = new OmnisharpServicesExtractor(new DefaultTempFolder(slTmpDir.toFile()), config);
+    underTest = new OmnisharpServicesExtractor(new DefaultTempFolder(slTmpDir.toFile()), config, executors);
+  }
+
+  @AfterEach
+  void cleanup() {
+    executors.stop();
   }
 
   @Test
@@ -63,6 +79,67 @@ class OmnisharpServicesExtractorTests {
       .extracting(File::getName)
       .containsExactly("SonarAnalyzer.CSharp.dll");
     assertThat(underTest.getOmnisharpServicesDllPath()).endsWith(Paths.get("SonarLint.OmniSharp.DotNet.Services.dll"));
+    assertThat(slTmpDir.resolve("pluginZip")).doesNotExist();
+  }
+
+  @Test
+  void extractNestedZipWithoutWritingItToDisk(@TempDir Path jarDir) throws IOException {
+    var bigDll = new byte[(int) OmnisharpServicesExtractor.PARALLEL_WRITE_THRESHOLD_BYTES + 1];
+    bigDll[bigDll.length - 1] = 42;
+    var innerZip = zip(Map.of(
+      "Big.dll", bigDll,
+      "sub/Small.dll", new byte[] {1, 2, 3},
+      "Readme.txt", new byte[] {4}));
+    var pluginJar = jarDir.resolve("plugin.jar");
+    try (OutputStream out = Files.newOutputStream(pluginJar)) {
+      out.write(zip(Map.of("static/SonarAnalyzer-1.0.zip", innerZip, "Foo.class", new byte[0])));
+    }
+    var parallelWrites = new AtomicInteger();
+    var writers = executors.background();
+    underTest = new OmnisharpServicesExtractor(new DefaultTempFolder(slTmpDir.toFile()), new MapSettings()
+      .setProperty(CSharpPropertyDefinitions.getAnalyzerPath(), pluginJar.toString())
+      .asConfig(), command -> {
+        parallelWrites.incrementAndGet();
+        writers.execute(command);
+      });
+
+    underTest.getOmnisharpServicesDllPath();
+
+    Path analyzersDir = slTmpDir.resolve("slServices/analyzers");
+    assertThat(analyzersDir.resolve("Big.dll")).hasBinaryContent(bigDll);
+    assertThat(analyzersDir.resolve("sub/Small.dll")).hasBinaryContent(new byte[] {1, 2, 3});
+    assertThat(analyzersDir.resolve("Readme.txt")).doesNotExist();
+    // Entries written by ZipOutputStream are followed by a data descriptor, their size is only known once read
+    assertThat(parallelWrites).hasValue(1);
+    // The shared pool is not owned by the extractor
+    assertThat(writers.isShutdown()).isFalse();
+  }
+
+  @Test
+  void failIfNoNestedZip(@TempDir Path jarDir) throws IOException {
+    var pluginJar = jarDir.resolve("plugin.jar");
+    try (OutputStream out = Files.newOutputStream(pluginJar)) {
+      out.write(zip(Map.of("Foo.class", new byte[0])));
+    }
+    underTest = new OmnisharpServicesExtractor(new DefaultTempFolder(slTmpDir.toFile()), new MapSettings()
+      .setProperty(CSharpPropertyDefinitions.getAnalyzerPath(), pluginJar.toString())
+      .asConfig(), executors);
+
+    var thrown = assertThrows(IllegalStateException.class, () -> underTest.getOmnisharpServicesDllPath());
+
+    assertThat(thrown).hasMessage("Unable to find analyzer ZIP");
+  }
+
+  private static byte[] zip(Map<String, byte[]> entries) throws IOException {
+    var bytes = new ByteArrayOutputStream();
+    try (var zip = new ZipOutputStream(bytes)) {
+      for (var entry : entries.entrySet()) {
+        zip.putNextEntry(new ZipEntry(entry.getKey()));
+        zip.write(entry.getValue());
+        zip.closeEntry();
+      }
+    }
+    return bytes.toByteArray();
   }
 
 }
@@ -0,0 +1,312 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.sonar.api.testfixtures.log.LogTesterJUnit5;
+import org.sonar.api.utils.log.LoggerLevel;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+@Timeout(value = 20, unit = TimeUnit.SECONDS)
+class ProcessIoReactorTests {
+
+  @RegisterExtension
+  LogTesterJUnit5 logTester = new LogTesterJUnit5();
+
+  private final ExecutorService largeLineExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "test-large-lines"));
+  private final ProcessIoReactor underTest = new ProcessIoReactor("test-io-reactor", largeLineExecutor);
+
+  @AfterEach
+  void cleanup() {
+    underTest.shutdown();
+    largeLineExecutor.shutdownNow();
+  }
+
+  @Test
+  void splitLinesAcrossReads() throws Exception {
+    var lines = new CopyOnWriteArrayList<String>();
+    var out = new PipedOutputStream();
+    var source = underTest.register(new PipedInputStream(out), lines::add);
+
+    out.write("first\r\nsec".getBytes(StandardCharsets.UTF_8));
+    out.flush();
+    await().atMost(5, TimeUnit.SECONDS).until(() -> lines.size() == 1);
+    out.write("ond\nthi".getBytes(StandardCharsets.UTF_8));
+    out.flush();
+    await().atMost(5, TimeUnit.SECONDS).until(() -> lines.size() == 2);
+    out.write("rd é".getBytes(StandardCharsets.UTF_8));
+    out.flush();
+
+    // The last line is not terminated
+    source.endOfInput();
+    source.whenClosed().get(5, TimeUnit.SECONDS);
+    assertThat(lines).containsExactly("first", "second", "third é");
+    assertThat(underTest.getSourcesCount()).isZero();
+  }
+
+  @Test
+  void readEverythingWrittenBeforeEndOfInput() throws Exception {
+    var lines = new CopyOnWriteArrayList<String>();
+    var content = new StringBuilder();
+    for (int i = 0; i < 10_000; i++) {
+      content.append("line").append(i).append('\n');
+    }
+    var source = underTest.register(new ByteArrayInputStream(content.toString().getBytes(StandardCharsets.UTF_8)), lines::add);
+
+    source.endOfInput();
+
+    source.whenClosed().get(5, TimeUnit.SECONDS);
+    assertThat(lines).hasSize(10_000).endsWith("line9999");
+  }
+
+  @Test
+  void serveAllSourcesFromASingleThread() throws Exception {
+    var threads = new CopyOnWriteArrayList<String>();
+    var sources = new CopyOnWriteArrayList<ProcessIoReactor.Source>();
+    for (int i = 0; i < 20; i++) {
+      sources.add(underTest.register(new ByteArrayInputStream(("out" + i + "\n").getBytes(StandardCharsets.UTF_8)), line -> threads.add(Thread.currentThread().getName())));
+    }
+
+    await().atMost(5, TimeUnit.SECONDS).until(() -> threads.size() == 20);
+    assertThat(Set.copyOf(threads)).containsOnly("test-io-reactor");
+    sources.forEach(ProcessIoReactor.Source::endOfInput);
+    for (var source : sources) {
+      source.whenClosed().get(5, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  void readUnsolicitedOutputAfterIdlePeriod() throws Exception {
+    var receivedNanos = new CopyOnWriteArrayList<Long>();
+    var out = new PipedOutputStream();
+    var source = underTest.register(new PipedInputStream(out), l -> receivedNanos.add(System.nanoTime()));
+    out.write("first\n".getBytes(StandardCharsets.UTF_8));
+    out.flush();
+    await().atMost(5, TimeUnit.SECONDS).until(() -> receivedNanos.size() == 1);
+
+    // Idle for a while, then an event that doesn't answer a request, so without any wake up
+    Thread.sleep(3000);
+    var writtenNanos = System.nanoTime();
+    out.write("{\"Event\":\"ProjectAdded\"}\n".getBytes(StandardCharsets.UTF_8));
+    out.flush();
+
+    await().atMost(5, TimeUnit.SECONDS).until(() -> receivedNanos.size() == 2);
+    assertThat(TimeUnit.NANOSECONDS.toMillis(receivedNanos.get(1) - writtenNanos)).isLessThan(ProcessIoReactor.MAX_IDLE_SLEEP.toMillis() * 2);
+    source.endOfInput();
+    source.whenClosed().get(5, TimeUnit.SECONDS);
+  }
+
+  @Test
+  void readOutputRightAfterWakeUp() throws Exception {
+    var receivedNanos = new CopyOnWriteArrayList<Long>();
+    var out = new PipedOutputStream();
+    var source = underTest.register(new PipedInputStream(out), l -> receivedNanos.add(System.nanoTime()));
+
+    // Idle long enough for the backoff to reach its maximum, then a response to a request that has just been written
+    Thread.sleep(3000);
+    var writtenNanos = System.nanoTime();
+    out.write("{\"Type\":\"response\"}\n".getBytes(StandardCharsets.UTF_8));
+    out.flush();
+    underTest.wakeUp();
+
+    await().atMost(5, TimeUnit.SECONDS).until(() -> receivedNanos.size() == 1);
+    assertThat(TimeUnit.NANOSECONDS.toMillis(receivedNanos.get(0) - writtenNanos)).isLessThan(ProcessIoReactor.MAX_IDLE_SLEEP.toMillis() / 2);
+    source.endOfInput();
+    source.whenClosed().get(5, TimeUnit.SECONDS);
+  }
+
+  @Test
+  void rarelyPollIdleStreams() throws Exception {
+    var pollCount = new AtomicInteger();
+    var out = new PipedOutputStream();
+    var in = new PipedInputStream(out) {
+      @Override
+      public synchronized int available() throws IOException {
+        pollCount.incrementAndGet();
+        return super.available();
+      }
+    };
+    var source = underTest.register(in, l -> {
+    });
+
+    Thread.sleep(3000);
+
+    // 1 + 2 + 4 + ... + 512 ms, then once per second
+    assertThat(pollCount.get()).isBetween(2, 15);
+    source.endOfInput();
+    source.whenClosed().get(5, TimeUnit.SECONDS);
+  }
+
+  @Test
+  void restartThreadAfterShutdown() throws Exception {
+    var threads = new CopyOnWriteArrayList<Thread>();
+    var out = new PipedOutputStream();
+    var source = underTest.register(new PipedInputStream(out), l -> threads.add(Thread.currentThread()));
+    out.write("first\n".getBytes(StandardCharsets.UTF_8));
+    out.flush();
+    await().atMost(5, TimeUnit.SECONDS).until(() -> threads.size() == 1);
+
+    underTest.shutdown();
+    await().atMost(5, TimeUnit.SECONDS).until(() -> !threads.get(0).isAlive());
+
+    var lines = new CopyOnWriteArrayList<String>();
+    var otherSource = underTest.register(new ByteArrayInputStream("second\n".getBytes(StandardCharsets.UTF_8)), lines::add);
+    otherSource.endOfInput();
+    otherSource.whenClosed().get(5, TimeUnit.SECONDS);
+    assertThat(lines).containsExactly("second");
+    source.endOfInput();
+    source.whenClosed().get(5, TimeUnit.SECONDS);
+  }
+
+  @Test
+  void failingConsumerDoesntStopOtherSources() throws Exception {
+    var lines = new CopyOnWriteArrayList<String>();
+    var failing = underTest.register(new ByteArrayInputStream("boom\n".getBytes(StandardCharsets.UTF_8)), line -> {
+      throw new IllegalStateException(line);
+    });
+    var other = underTest.register(new ByteArrayInputStream("ok\n".getBytes(StandardCharsets.UTF_8)), lines::add);
+
+    failing.endOfInput();
+    other.endOfInput();
+
+    failing.whenClosed().get(5, TimeUnit.SECONDS);
+    other.whenClosed().get(5, TimeUnit.SECONDS);
+    assertThat(lines).isEqualTo(List.of("ok"));
+    assertThat(logTester.logs(LoggerLevel.ERROR)).contains("Error while processing process output");
+  }
+
+  @Test
+  void spillLargeLinesToTemporaryFile() throws Exception {
+    var smallReactor = new ProcessIoReactor("test-io-reactor-small", largeLineExecutor, 16);
+    var lines = new CopyOnWriteArrayList<String>();
+    var largeLines = new CopyOnWriteArrayList<String>();
+    var largeLineThreads = new CopyOnWriteArrayList<String>();
+    var spillFiles = new CopyOnWriteArrayList<Path>();
+    var largeLine = "x".repeat(20_000);
+    var content = "small\n" + largeLine + "\r\nsmall again\n" + largeLine.replace('x', 'y') + "\n";
+
+    var source = smallReactor.register(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), lines::add, reader -> {
+      largeLineThreads.add(Thread.currentThread().getName());
+      spillFiles.addAll(findSpillFiles());
+      largeLines.add(readAll(reader));
+    });
+    source.endOfInput();
+
+    source.whenClosed().get(5, TimeUnit.SECONDS);
+    assertThat(lines).containsExactly("small", "small again");
+    assertThat(largeLines).containsExactly(largeLine + "\r", largeLine.replace('x', 'y'));
+    assertThat(largeLineThreads).containsOnly("test-large-lines");
+    assertThat(source.getSpilledLinesCount()).isEqualTo(2);
+    assertThat(source.getDroppedLinesCount()).isZero();
+    assertThat(spillFiles).isNotEmpty().noneMatch(Files::exists);
+  }
+
+  @Test
+  void keepReadingWhileLargeLineIsProcessed() throws Exception {
+    var smallReactor = new ProcessIoReactor("test-io-reactor-small", largeLineExecutor, 16);
+    var release = new CountDownLatch(1);
+    var spillFiles = new CopyOnWriteArrayList<Path>();
+    var large = smallReactor.register(new ByteArrayInputStream(("x".repeat(100) + "\n").getBytes(StandardCharsets.UTF_8)), l -> {
+    }, reader -> {
+      spillFiles.addAll(findSpillFiles());
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    large.endOfInput();
+    await().atMost(5, TimeUnit.SECONDS).until(() -> !spillFiles.isEmpty());
+
+    var lines = new CopyOnWriteArrayList<String>();
+    var other = smallReactor.register(new ByteArrayInputStream("small\n".getBytes(StandardCharsets.UTF_8)), lines::add);
+    other.endOfInput();
+    other.whenClosed().get(5, TimeUnit.SECONDS);
+
+    assertThat(lines).containsExactly("small");
+    // Not closed until the large line has been processed, and its file is only deleted then
+    assertThat(large.whenClosed()).isNotDone();
+    assertThat(spillFiles).allMatch(Files::exists);
+    release.countDown();
+    large.whenClosed().get(5, TimeUnit.SECONDS);
+    assertThat(spillFiles).noneMatch(Files::exists);
+    smallReactor.shutdown();
+  }
+
+  @Test
+  void dropLargeLinesIfNoConsumer() throws Exception {
+    var smallReactor = new ProcessIoReactor("test-io-reactor-small", largeLineExecutor, 16);
+    var lines = new CopyOnWriteArrayList<String>();
+    var content = "small\n" + "x".repeat(100) + "\nsmall again\n";
+
+    var source = smallReactor.register(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), lines::add);
+    source.endOfInput();
+
+    source.whenClosed().get(5, TimeUnit.SECONDS);
+    assertThat(lines).containsExactly("small", "small again");
+    assertThat(source.getDroppedLinesCount()).isEqualTo(1);
+    assertThat(source.getSpilledLinesCount()).isZero();
+    assertThat(logTester.logs(LoggerLevel.WARN)).containsExactly("Ignoring a line of 100 bytes of process output");
+  }
+
+  private static List<Path> findSpillFiles() {
+    try (var files = Files.list(Paths.get(System.getProperty("java.io.tmpdir")))) {
+      return files.filter(f -> f.getFileName().toString().startsWith("omnisharp-output")).collect(Collectors.toList());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static String readAll(Reader reader) {
+    var writer = new StringWriter();
+    try {
+      reader.transferTo(writer);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return writer.toString();
+  }
+
+}
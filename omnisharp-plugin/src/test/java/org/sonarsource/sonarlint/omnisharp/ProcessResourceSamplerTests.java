@@ -0,0 +1,183 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+import org.sonar.api.testfixtures.log.LogTesterJUnit5;
+import org.sonar.api.utils.log.LoggerLevel;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+class ProcessResourceSamplerTests {
+
+  private static final Duration INTERVAL = Duration.ofMillis(20);
+  /**
+   * Current JVM, so that CPU time is available
+   */
+  private static final long PID = ProcessHandle.current().pid();
+
+  @RegisterExtension
+  LogTesterJUnit5 logTester = new LogTesterJUnit5();
+
+  @TempDir
+  Path procDir;
+
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+  private ProcessResourceSampler underTest;
+
+  @BeforeEach
+  void prepare() {
+    logTester.setLevel(LoggerLevel.DEBUG);
+    underTest = new ProcessResourceSampler(executor, PID, procDir, INTERVAL);
+  }
+
+  @AfterEach
+  void cleanup() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  void readProcessStatus() throws IOException {
+    mockProc(204800, 42, 3);
+
+    var sample = underTest.sample();
+
+    assertThat(sample.getRssBytes()).isEqualTo(204800L * 1024);
+    assertThat(sample.getThreads()).isEqualTo(42);
+    assertThat(sample.getOpenFds()).isEqualTo(3);
+    assertThat(sample.getCpuTimeMs()).isNotNegative();
+    assertThat(sample.getAnalysis()).isNull();
+    assertThat(sample.toString()).matches("cpu=\\d+ms rss=200MB threads=42 fds=3");
+    assertThat(underTest.getLastSample()).isSameAs(sample);
+  }
+
+  @Test
+  void unavailableWithoutProcFileSystem() {
+    var sample = underTest.sample();
+
+    assertThat(sample.getRssBytes()).isEqualTo(ProcessResourceSampler.UNAVAILABLE);
+    assertThat(sample.getThreads()).isEqualTo(ProcessResourceSampler.UNAVAILABLE);
+    assertThat(sample.getOpenFds()).isEqualTo(ProcessResourceSampler.UNAVAILABLE);
+    assertThat(sample.toString()).endsWith("rss=n/a threads=n/a fds=n/a");
+    assertThat(underTest.getMaxRssBytes()).isEqualTo(ProcessResourceSampler.UNAVAILABLE);
+  }
+
+  @Test
+  void samplePeriodically() throws IOException {
+    mockProc(1024, 10, 2);
+
+    underTest.start();
+
+    await().atMost(5, TimeUnit.SECONDS).until(() -> underTest.getSamplesCount() >= 3);
+    // Unchanged samples are not logged
+    assertThat(logTester.logs(LoggerLevel.DEBUG)).singleElement().asString().matches("OmniSharp process " + PID + ": cpu=\\d+ms rss=1MB threads=10 fds=2 \\[idle\\]");
+
+    mockProc(2 * 1024, 10, 2);
+    await().atMost(5, TimeUnit.SECONDS).until(() -> logTester.logs(LoggerLevel.DEBUG).size() == 2);
+    assertThat(logTester.logs(LoggerLevel.DEBUG).get(1)).matches("OmniSharp process " + PID + ": cpu=\\d+ms rss=2MB threads=10 fds=2 \\[idle\\]");
+
+    underTest.stop();
+    var count = underTest.getSamplesCount();
+    await().pollDelay(INTERVAL.multipliedBy(5)).atMost(5, TimeUnit.SECONDS).until(() -> true);
+    assertThat(underTest.getSamplesCount()).isEqualTo(count);
+  }
+
+  @Test
+  void onlyNotableChangesAreLogged() {
+    var sample = new ProcessResourceSampler.Sample(10, 100 * 1024 * 1024, 40, 100, null);
+
+    assertThat(ProcessResourceSampler.changedNotably(sample, new ProcessResourceSampler.Sample(5000, 105 * 1024 * 1024, 42, 105, null))).isFalse();
+    assertThat(ProcessResourceSampler.changedNotably(sample, new ProcessResourceSampler.Sample(10, 120 * 1024 * 1024, 40, 100, null))).isTrue();
+    assertThat(ProcessResourceSampler.changedNotably(sample, new ProcessResourceSampler.Sample(10, 100 * 1024 * 1024, 50, 100, null))).isTrue();
+    assertThat(ProcessResourceSampler.changedNotably(sample, new ProcessResourceSampler.Sample(10, 100 * 1024 * 1024, 40, 80, null))).isTrue();
+    assertThat(ProcessResourceSampler.changedNotably(sample, new ProcessResourceSampler.Sample(10, 100 * 1024 * 1024, 40, 100, "analysis #1"))).isTrue();
+    assertThat(ProcessResourceSampler.changedNotably(sample, new ProcessResourceSampler.Sample(10, ProcessResourceSampler.UNAVAILABLE, 40, 100, null))).isTrue();
+  }
+
+  @Test
+  void tagSamplesWithRunningAnalysis() throws IOException {
+    mockProc(1024, 10, 2);
+
+    underTest.analysisStarted("analysis #1");
+    assertThat(underTest.sample().getAnalysis()).isEqualTo("analysis #1");
+    mockProc(3 * 1024, 12, 4);
+    underTest.sample();
+    mockProc(2 * 1024, 11, 3);
+    underTest.analysisFinished();
+
+    assertThat(logTester.logs(LoggerLevel.DEBUG)).singleElement().asString()
+      .matches("OmniSharp process " + PID + " during analysis #1: cpu=\\+\\d+ms rss=2MB \\(peak 3MB\\) threads=11 fds=3");
+    assertThat(underTest.sample().getAnalysis()).isNull();
+    assertThat(underTest.getMaxRssBytes()).isEqualTo(3L * 1024 * 1024);
+  }
+
+  @Test
+  void ignoreAnalysisFinishedWithoutStart() {
+    underTest.analysisFinished();
+
+    assertThat(underTest.getSamplesCount()).isZero();
+    assertThat(logTester.logs()).isEmpty();
+  }
+
+  @Test
+  void summary() throws IOException {
+    assertThat(underTest).hasToString("no sample");
+    mockProc(1024, 10, 2);
+    underTest.sample();
+    mockProc(5 * 1024, 10, 2);
+    underTest.sample();
+    mockProc(4 * 1024, 10, 2);
+    underTest.sample();
+
+    assertThat(underTest.toString()).startsWith("3 sample(s), rss 1MB -> 4MB (peak 5MB), last cpu=");
+  }
+
+  private void mockProc(long rssKb, int threads, int openFds) throws IOException {
+    var processDir = Files.createDirectories(procDir.resolve(String.valueOf(PID)));
+    Files.writeString(processDir.resolve("status"), "Name:\tdotnet\nVmPeak:\t  999999 kB\nVmRSS:\t  " + rssKb + " kB\nThreads:\t" + threads + "\n",
+      StandardCharsets.UTF_8);
+    var fdDir = processDir.resolve("fd");
+    if (Files.exists(fdDir)) {
+      try (var fds = Files.list(fdDir)) {
+        for (Path fd : (Iterable<Path>) fds::iterator) {
+          Files.delete(fd);
+        }
+      }
+    }
+    Files.createDirectories(fdDir);
+    for (int i = 0; i < openFds; i++) {
+      Files.createFile(fdDir.resolve(String.valueOf(i)));
+    }
+  }
+
+}
@@ -0,0 +1,235 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.sonar.api.testfixtures.log.LogTesterJUnit5;
+import org.sonar.api.utils.log.LoggerLevel;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+
+class ProjectLoadTrackerTests {
+
+  private static final Path FOO_CS = Paths.get("src", "Foo.cs").toAbsolutePath();
+  private static final Path BAR_CS = Paths.get("src", "Bar.cs").toAbsolutePath();
+
+  @RegisterExtension
+  LogTesterJUnit5 logTester = new LogTesterJUnit5();
+
+  private final OmnisharpExecutors executors = new OmnisharpExecutors();
+
+  @AfterEach
+  void cleanup() {
+    executors.stop();
+  }
+
+  private ProjectLoadTracker startTracker(Duration settleDelay, Duration loadTimeout) {
+    var tracker = new ProjectLoadTracker(executors.scheduler(), settleDelay);
+    tracker.loadingStarted(List.of(), loadTimeout);
+    return tracker;
+  }
+
+  @Test
+  void fileIsReadyWhenItsProjectIsLoaded() {
+    var underTest = startTracker(Duration.ofMinutes(1), Duration.ofMinutes(1));
+
+    var fooReady = underTest.whenFileReady(FOO_CS);
+    var barReady = underTest.whenFileReady(BAR_CS);
+    assertThat(fooReady).isNotDone();
+
+    underTest.projectLoaded("Foo.csproj", List.of(FOO_CS));
+
+    assertThat(fooReady).isCompleted();
+    assertThat(barReady).isNotDone();
+    assertThat(underTest.isProjectLoaded("Foo.csproj")).isTrue();
+    assertThat(underTest.isProjectLoaded("Bar.csproj")).isFalse();
+    assertThat(underTest.getLoadedProjectsCount()).isEqualTo(1);
+    assertThat(underTest.whenSettled()).isNotDone();
+  }
+
+  @Test
+  void fileIsReadyImmediatelyIfItsProjectIsAlreadyLoaded() {
+    var underTest = startTracker(Duration.ofMinutes(1), Duration.ofMinutes(1));
+    underTest.projectLoaded("Foo.csproj", List.of(FOO_CS));
+
+    assertThat(underTest.whenFileReady(FOO_CS.getParent().resolve("../src/Foo.cs"))).isCompleted();
+  }
+
+  @Test
+  void releaseOtherFilesWhenLoadingSettles() throws Exception {
+    var underTest = startTracker(Duration.ofMillis(100), Duration.ofMinutes(1));
+
+    var barReady = underTest.whenFileReady(BAR_CS);
+    underTest.projectLoaded("Foo.csproj", List.of(FOO_CS));
+
+    barReady.get(5, TimeUnit.SECONDS);
+    assertThat(underTest.whenSettled()).isCompleted();
+    assertThat(underTest.whenFileReady(Paths.get("Other.cs").toAbsolutePath())).isCompleted();
+  }
+
+  @Test
+  void failWaitingFilesOnLoadTimeout() {
+    var underTest = startTracker(Duration.ofMinutes(1), Duration.ofMillis(100));
+
+    var barReady = underTest.whenFileReady(BAR_CS);
+
+    assertThatThrownBy(() -> barReady.get(5, TimeUnit.SECONDS))
+      .isInstanceOf(ExecutionException.class)
+      .hasCauseInstanceOf(TimeoutException.class)
+      .hasMessageContaining("Project of " + BAR_CS + " not loaded");
+    assertThat(underTest.isTimedOut()).isTrue();
+    assertThat(underTest.getLoadedProjectsCount()).isZero();
+    assertThat(underTest.whenFileReady(FOO_CS)).isCompletedExceptionally();
+  }
+
+  @Test
+  void dontReleaseFileOfProjectStillLoadingAfterQuietPeriod() throws Exception {
+    var fooProj = FOO_CS.resolveSibling("Foo.csproj");
+    var barProj = BAR_CS.resolveSibling("Bar.csproj");
+    var underTest = new ProjectLoadTracker(executors.scheduler(), Duration.ofMillis(50));
+    underTest.loadingStarted(List.of(fooProj, barProj), Duration.ofSeconds(1));
+    var barReady = underTest.whenFileReady(BAR_CS);
+
+    underTest.projectLoaded(fooProj.toString(), List.of(FOO_CS));
+    Thread.sleep(500);
+    assertThat(barReady).isNotDone();
+    assertThat(underTest.whenFileReady(FOO_CS)).isCompleted();
+
+    assertThatThrownBy(() -> barReady.get(5, TimeUnit.SECONDS))
+      .isInstanceOf(ExecutionException.class)
+      .hasCauseInstanceOf(TimeoutException.class);
+    // Files of projects loaded before the timeout are still ready
+    assertThat(underTest.whenFileReady(FOO_CS)).isCompleted();
+  }
+
+  @Test
+  void failWaitingFilesOnAbort() {
+    var underTest = startTracker(Duration.ofMinutes(1), Duration.ofMinutes(1));
+    var barReady = underTest.whenFileReady(BAR_CS);
+
+    underTest.abort();
+
+    assertThatThrownBy(() -> barReady.get(5, TimeUnit.SECONDS))
+      .isInstanceOf(ExecutionException.class)
+      .hasMessageContaining("OmniSharp server stopped");
+  }
+
+  @Test
+  void settleAsSoonAsAllExpectedProjectsAreLoaded() {
+    var fooProj = FOO_CS.resolveSibling("Foo.csproj");
+    var barProj = BAR_CS.resolveSibling("Bar.csproj");
+    var underTest = new ProjectLoadTracker(executors.scheduler(), Duration.ofMinutes(1));
+    underTest.loadingStarted(List.of(fooProj, barProj), Duration.ofMinutes(1));
+    var otherReady = underTest.whenFileReady(Paths.get("Other.cs").toAbsolutePath());
+
+    assertThat(underTest.getExpectedProjectsCount()).isEqualTo(2);
+    underTest.projectLoaded(fooProj.toString(), List.of(FOO_CS));
+    underTest.projectLoaded("Unexpected.csproj", List.of());
+    underTest.projectLoaded(fooProj.toString(), List.of(FOO_CS));
+    assertThat(otherReady).isNotDone();
+    assertThat(logTester.logs(LoggerLevel.INFO)).containsExactly("1/2 project(s) of the solution loaded");
+
+    underTest.projectLoaded(barProj.toString(), List.of(BAR_CS));
+
+    assertThat(otherReady).isCompleted();
+    assertThat(underTest.whenSettled()).isCompleted();
+    assertThat(logTester.logs(LoggerLevel.INFO)).containsExactly("1/2 project(s) of the solution loaded", "All 2 project(s) of the solution loaded");
+  }
+
+  @Test
+  void settleWhenAllExpectedProjectsAreLoadedOrFailed() throws Exception {
+    var fooProj = FOO_CS.resolveSibling("Foo.csproj");
+    var barProj = BAR_CS.resolveSibling("Bar.csproj");
+    var underTest = new ProjectLoadTracker(executors.scheduler(), Duration.ofMillis(100));
+    underTest.loadingStarted(List.of(fooProj, barProj), Duration.ofMinutes(1));
+
+    underTest.projectFailed(barProj.toString(), List.of("error1", "error2"));
+    assertThat(underTest.isLoadingComplete()).isFalse();
+    underTest.projectLoaded(fooProj.toString(), List.of(FOO_CS));
+    assertThat(underTest.isLoadingComplete()).isTrue();
+
+    underTest.whenSettled().get(5, TimeUnit.SECONDS);
+    assertThat(underTest.getFailedProjects()).containsOnlyKeys(barProj.toString());
+    // Logged by the thread that settled loading, which may release waiters first
+    await().atMost(5, TimeUnit.SECONDS).untilAsserted(
+      () -> assertThat(logTester.logs(LoggerLevel.WARN)).containsExactly("1 project(s) failed to load: " + barProj + " (error1, error2)"));
+  }
+
+  @Test
+  void dontSettleOnQuietPeriodWhileExpectedProjectsAreMissing() throws Exception {
+    var fooProj = FOO_CS.resolveSibling("Foo.csproj");
+    var barProj = BAR_CS.resolveSibling("Bar.csproj");
+    var underTest = new ProjectLoadTracker(executors.scheduler(), Duration.ofMillis(50));
+    underTest.loadingStarted(List.of(fooProj, barProj), Duration.ofMinutes(1));
+
+    underTest.projectLoaded(fooProj.toString(), List.of(FOO_CS));
+    Thread.sleep(500);
+    assertThat(underTest.whenSettled()).isNotDone();
+
+    underTest.projectLoaded(barProj.toString(), List.of(BAR_CS));
+    assertThat(underTest.whenSettled()).isCompleted();
+  }
+
+  @Test
+  void projectLoadedDespiteErrorsIsNotFailed() {
+    var fooProj = FOO_CS.resolveSibling("Foo.csproj");
+    var underTest = new ProjectLoadTracker(executors.scheduler(), Duration.ofMinutes(1));
+    underTest.loadingStarted(List.of(fooProj), Duration.ofMinutes(1));
+
+    underTest.projectFailed(fooProj.toString(), List.of("error"));
+    assertThat(underTest.isLoadingComplete()).isTrue();
+    assertThat(underTest.whenSettled()).isNotDone();
+
+    underTest.projectLoaded(fooProj.toString(), List.of(FOO_CS));
+    underTest.projectFailed(fooProj.toString(), List.of("error while reloading"));
+
+    assertThat(underTest.getFailedProjects()).isEmpty();
+    assertThat(underTest.whenSettled()).isCompleted();
+  }
+
+  @Test
+  void loadingIsNeverCompleteIfExpectedProjectsAreUnknown() {
+    var underTest = startTracker(Duration.ofMinutes(1), Duration.ofMinutes(1));
+
+    underTest.projectFailed("Foo.csproj", List.of("error"));
+
+    assertThat(underTest.isLoadingComplete()).isFalse();
+    assertThat(underTest.getFailureSummary()).isEqualTo("Foo.csproj (error)");
+  }
+
+  @Test
+  void notStartedFailsImmediately() {
+    var underTest = ProjectLoadTracker.notStarted(executors.scheduler());
+
+    assertThat(underTest.whenFileReady(FOO_CS)).isCompletedExceptionally();
+  }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp;
+
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.sonar.api.testfixtures.log.LogTesterJUnit5;
+import org.sonar.api.utils.log.LoggerLevel;
+import org.sonarsource.sonarlint.omnisharp.protocol.AnalyzerExecutionTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RuleExecutionTimesTests {
+
+  @RegisterExtension
+  LogTesterJUnit5 logTester = new LogTesterJUnit5();
+
+  private final RuleExecutionTimes underTest = new RuleExecutionTimes();
+
+  @Test
+  void sumTimesOfAllFiles() {
+    underTest.add(executionTime(1.5, "S1118"));
+    underTest.add(executionTime(10, "S1144", "S4487"));
+    underTest.add(executionTime(2, "S1118"));
+
+    assertThat(underTest.getSlowest(10)).containsExactly(Map.entry("S1144,S4487", 10.0), Map.entry("S1118", 3.5));
+  }
+
+  @Test
+  void keepOnlySlowestRules() {
+    underTest.add(executionTime(1, "S1"));
+    underTest.add(executionTime(3, "S3"));
+    underTest.add(executionTime(2, "S2"));
+    underTest.add(executionTime(2, "S0"));
+
+    assertThat(underTest.getSlowest(3)).extracting(Map.Entry::getKey).containsExactly("S3", "S0", "S2");
+  }
+
+  @Test
+  void logSlowestRules() {
+    for (int i = 1; i <= RuleExecutionTimes.REPORTED_RULES_COUNT + 1; i++) {
+      underTest.add(executionTime(i * 1000, "S" + i));
+    }
+
+    underTest.log();
+
+    assertThat(logTester.logs(LoggerLevel.INFO)).hasSize(1);
+    assertThat(logTester.logs(LoggerLevel.INFO).get(0)).startsWith(String.format("Slowest rules:%n  S11: 11000ms%n  S10: 10000ms")).doesNotContain("S1:");
+  }
+
+  @Test
+  void logIfNothingReported() {
+    underTest.log();
+
+    assertThat(logTester.logs(LoggerLevel.INFO)).containsExactly("No rule execution time reported by OmniSharp");
+  }
+
+  private static AnalyzerExecutionTime executionTime(double elapsedMs, String... ruleIds) {
+    var executionTime = mock(AnalyzerExecutionTime.class);
+    when(executionTime.getRuleIds()).thenReturn(ruleIds);
+    when(executionTime.getElapsedMs()).thenReturn(elapsedMs);
+    return executionTime;
+  }
+
+}
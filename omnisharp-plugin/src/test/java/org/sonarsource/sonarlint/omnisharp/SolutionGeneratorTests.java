@@ -0,0 +1,144 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sonar.api.impl.utils.DefaultTempFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SolutionGeneratorTests {
+
+  @TempDir
+  Path slTmpDir;
+  @TempDir
+  Path solutionDir;
+
+  private SolutionGenerator underTest;
+
+  @BeforeEach
+  void prepare() throws IOException {
+    solutionDir = solutionDir.toRealPath();
+    underTest = new SolutionGenerator(new DefaultTempFolder(slTmpDir.toFile()));
+  }
+
+  @Test
+  void generateSlnFromSlnx() throws IOException {
+    var fooProj = createFile("src/Foo/Foo.csproj");
+    var barProj = createFile("tests/Bar.Tests/Bar.Tests.csproj");
+    createFile("tools/Tool/Tool.csproj");
+    var slnx = solutionDir.resolve("Solution.slnx");
+    Files.writeString(slnx, "<Solution>\n"
+      + "  <Project Path=\"src/Foo/Foo.csproj\" />\n"
+      + "  <Folder Name=\"/tests/\">\n"
+      + "    <Project Path=\"tests\\Bar.Tests\\Bar.Tests.csproj\" />\n"
+      + "  </Folder>\n"
+      + "</Solution>\n");
+
+    var sln = underTest.generateSln(slnx);
+
+    assertThat(sln).startsWith(slTmpDir);
+    assertThat(Files.readString(sln)).startsWith("Microsoft Visual Studio Solution File, Format Version 12.00");
+    assertThat(SolutionParser.parseProjects(sln)).containsExactly(fooProj, barProj);
+    // Regenerating overwrites the same file
+    assertThat(underTest.generateSln(slnx)).isEqualTo(sln);
+  }
+
+  @Test
+  void generateScopedSlnfWithTransitiveReferences() throws IOException {
+    var appProj = createFile("src/App/App.csproj", "<Project><ItemGroup><ProjectReference Include=\"..\\Lib\\Lib.csproj\" /></ItemGroup></Project>");
+    var libProj = createFile("src/Lib/Lib.csproj", "<Project><ItemGroup><ProjectReference Include=\"..\\Core\\Core.csproj\" /></ItemGroup></Project>");
+    var coreProj = createFile("src/Core/Core.csproj", "<Project/>");
+    var otherProj = createFile("src/Other/Other.csproj", "<Project/>");
+    var sln = solutionDir.resolve("Solution.sln");
+    Files.writeString(sln, slnProject("App", "src\\App\\App.csproj")
+      + slnProject("Lib", "src\\Lib\\Lib.csproj")
+      + slnProject("Core", "src\\Core\\Core.csproj")
+      + slnProject("Other", "src\\Other\\Other.csproj"));
+
+    var scoped = underTest.generateScopedSolution(sln, List.of(solutionDir.resolve("src/App/Sub/Program.cs")));
+
+    assertThat(scoped.getPath()).startsWith(slTmpDir);
+    assertThat(scoped.getPath().getFileName().toString()).endsWith(".scoped.slnf");
+    assertThat(Files.readString(scoped.getPath())).contains("src\\\\App\\\\App.csproj");
+    assertThat(SolutionParser.getFilteredSolution(scoped.getPath())).isEqualTo(sln);
+    assertThat(SolutionParser.parseProjects(scoped.getPath())).containsExactlyInAnyOrder(appProj, libProj, coreProj);
+    assertThat(scoped.isMissingProjectsFor(List.of(solutionDir.resolve("src/Core/Core.cs")))).isFalse();
+    assertThat(scoped.isMissingProjectsFor(List.of(solutionDir.resolve("NotInProject.cs")))).isFalse();
+    assertThat(scoped.isMissingProjectsFor(List.of(solutionDir.resolve("src/Other/Other.cs")))).isTrue();
+    assertThat(otherProj).exists();
+  }
+
+  @Test
+  void generateScopedSlnFromSlnx() throws IOException {
+    var fooProj = createFile("src/Foo/Foo.csproj");
+    createFile("src/Bar/Bar.csproj");
+    var slnx = solutionDir.resolve("Solution.slnx");
+    Files.writeString(slnx, "<Solution><Project Path=\"src/Foo/Foo.csproj\" /><Project Path=\"src/Bar/Bar.csproj\" /></Solution>");
+
+    var scoped = underTest.generateScopedSolution(slnx, List.of(solutionDir.resolve("src/Foo/Foo.cs")));
+
+    assertThat(scoped.getPath().getFileName().toString()).endsWith(".scoped.sln");
+    assertThat(SolutionParser.parseProjects(scoped.getPath())).containsExactly(fooProj);
+  }
+
+  @Test
+  void failIfNoAnalyzedFileBelongsToTheSolution() throws IOException {
+    createFile("src/Foo/Foo.csproj");
+    var sln = solutionDir.resolve("Solution.sln");
+    Files.writeString(sln, slnProject("Foo", "src\\Foo\\Foo.csproj"));
+
+    var thrown = assertThrows(IOException.class, () -> underTest.generateScopedSolution(sln, List.of(solutionDir.resolve("Other.cs"))));
+    assertThat(thrown).hasMessage("None of the analyzed files belongs to a C# project of " + sln);
+  }
+
+  private static String slnProject(String name, String path) {
+    return "Project(\"{9A19103F-16F7-4668-BE54-9A1E7A4F7556}\") = \"" + name + "\", \"" + path + "\", \"{11111111-1111-1111-1111-111111111111}\"\nEndProject\n";
+  }
+
+  @Test
+  void failIfNoProject() throws IOException {
+    var slnx = solutionDir.resolve("Solution.slnx");
+    Files.writeString(slnx, "<Solution />");
+
+    var thrown = assertThrows(IOException.class, () -> underTest.generateSln(slnx));
+    assertThat(thrown).hasMessage("No C# project found in " + slnx);
+  }
+
+  private Path createFile(String relativePath) throws IOException {
+    return createFile(relativePath, "<Project/>");
+  }
+
+  private Path createFile(String relativePath, String content) throws IOException {
+    var path = solutionDir.resolve(relativePath);
+    Files.createDirectories(path.getParent());
+    Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    return path;
+  }
+
+}
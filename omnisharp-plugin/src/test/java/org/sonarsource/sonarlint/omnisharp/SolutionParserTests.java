@@ -0,0 +1,147 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SolutionParserTests {
+
+  @TempDir
+  Path baseDir;
+
+  private Path fooProj;
+  private Path barProj;
+
+  @BeforeEach
+  void prepare() throws IOException {
+    baseDir = baseDir.toRealPath();
+    fooProj = createFile("src/Foo/Foo.csproj", "<Project/>");
+    barProj = createFile("src/Bar/Bar.csproj", "<Project/>");
+    createFile("src/Native/Native.vcxproj", "<Project/>");
+  }
+
+  @Test
+  void parseSln() throws IOException {
+    var sln = createFile("Solution.sln", "﻿\n"
+      + "Microsoft Visual Studio Solution File, Format Version 12.00\n"
+      + "Project(\"{FAE04EC0-301F-11D3-BF4B-00C04F79EFBC}\") = \"Foo\", \"src\\Foo\\Foo.csproj\", \"{11111111-1111-1111-1111-111111111111}\"\n"
+      + "EndProject\n"
+      + "Project(\"{2150E333-8FDC-42A3-9474-1A3956D46DE8}\") = \"Folder\", \"Folder\", \"{22222222-2222-2222-2222-222222222222}\"\n"
+      + "EndProject\n"
+      + "Project(\"{9A19103F-16F7-4668-BE54-9A1E7A4F7556}\") = \"Bar\", \"src\\Bar\\Bar.csproj\", \"{33333333-3333-3333-3333-333333333333}\"\n"
+      + "EndProject\n"
+      + "Project(\"{8BC9CEB8-8B4A-11D0-8D11-00A0C91BC942}\") = \"Native\", \"src\\Native\\Native.vcxproj\", \"{44444444-4444-4444-4444-444444444444}\"\n"
+      + "EndProject\n"
+      + "Project(\"{9A19103F-16F7-4668-BE54-9A1E7A4F7556}\") = \"Missing\", \"src\\Missing\\Missing.csproj\", \"{55555555-5555-5555-5555-555555555555}\"\n"
+      + "EndProject\n"
+      + "Global\n"
+      + "EndGlobal\n");
+
+    assertThat(SolutionParser.parseProjects(sln)).containsExactly(fooProj, barProj);
+  }
+
+  @Test
+  void parseSlnf() throws IOException {
+    createFile("src/Solution.sln", "");
+    var slnf = createFile("Filter.slnf", "{\"solution\": {\"path\": \"src\\\\Solution.sln\", \"projects\": [\"Bar\\\\Bar.csproj\"]}}");
+
+    assertThat(SolutionParser.parseProjects(slnf)).containsExactly(barProj);
+  }
+
+  @Test
+  void parseSlnx() throws IOException {
+    var slnx = createFile("Solution.slnx", "<Solution>\n"
+      + "  <Folder Name=\"/src/\">\n"
+      + "    <Project Path=\"src/Foo/Foo.csproj\" />\n"
+      + "    <Project Path=\"src\\Native\\Native.vcxproj\" />\n"
+      + "  </Folder>\n"
+      + "  <Project Path=\"src\\Bar\\Bar.csproj\" />\n"
+      + "</Solution>\n");
+
+    assertThat(SolutionParser.parseProjects(slnx)).containsExactly(fooProj, barProj);
+  }
+
+  @Test
+  void failOnInvalidSlnx() throws IOException {
+    var slnx = createFile("Solution.slnx", "<!DOCTYPE foo [<!ENTITY xxe SYSTEM \"file:///etc/passwd\">]><Solution>&xxe;</Solution>");
+
+    assertThrows(IOException.class, () -> SolutionParser.parseProjects(slnx));
+  }
+
+  @Test
+  void parseProjectReferences() throws IOException {
+    var appProj = createFile("src/App/App.csproj", "<Project Sdk=\"Microsoft.NET.Sdk\">\n"
+      + "  <ItemGroup>\n"
+      + "    <ProjectReference Include=\"..\\Foo\\Foo.csproj\" />\n"
+      + "    <ProjectReference Include=\"../Bar/Bar.csproj\" />\n"
+      + "    <ProjectReference Include=\"..\\Missing\\Missing.csproj\" />\n"
+      + "  </ItemGroup>\n"
+      + "</Project>\n");
+
+    assertThat(SolutionParser.parseProjectReferences(appProj)).containsExactly(fooProj, barProj);
+  }
+
+  @Test
+  void useSolutionNextToSlnfWithoutPath() throws IOException {
+    var sln = createFile("src/Solution.sln", "");
+    var slnf = createFile("src/Filter.slnf", "{\"solution\": {\"projects\": [\"Bar\\\\Bar.csproj\"]}}");
+
+    assertThat(SolutionParser.getFilteredSolution(slnf)).isEqualTo(sln.toAbsolutePath().normalize());
+    assertThat(SolutionParser.parseProjects(slnf)).containsExactly(barProj);
+  }
+
+  @Test
+  void failIfSlnfDoesntReferenceASolution() throws IOException {
+    var slnf = createFile("Filter.slnf", "{\"solution\": {\"projects\": []}}");
+
+    assertThrows(IOException.class, () -> SolutionParser.getFilteredSolution(slnf));
+    assertThrows(IOException.class, () -> SolutionParser.parseProjects(createFile("Invalid.slnf", "[")));
+  }
+
+  @Test
+  void findSolution() throws IOException {
+    var configured = baseDir.resolve("Configured.sln");
+    assertThat(SolutionParser.findSolution(baseDir, configured)).contains(configured);
+    assertThat(SolutionParser.findSolution(baseDir, null)).isEmpty();
+
+    var sln = createFile("Solution.sln", "");
+    assertThat(SolutionParser.findSolution(baseDir, null)).contains(sln);
+
+    createFile("Other.sln", "");
+    assertThat(SolutionParser.findSolution(baseDir, null)).isEmpty();
+  }
+
+  private Path createFile(String relativePath, String content) throws IOException {
+    var path = baseDir.resolve(relativePath);
+    Files.createDirectories(path.getParent());
+    Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    return path;
+  }
+
+}
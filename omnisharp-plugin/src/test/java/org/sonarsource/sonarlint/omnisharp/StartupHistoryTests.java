@@ -0,0 +1,188 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.api.testfixtures.log.LogTesterJUnit5;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StartupHistoryTests {
+
+  private static final String SOLUTION = "/path/to/Solution.sln";
+  private static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(60);
+
+  @RegisterExtension
+  LogTesterJUnit5 logTester = new LogTesterJUnit5();
+
+  @TempDir
+  Path tmpDir;
+
+  private Path historyFile;
+  private StartupHistory underTest;
+
+  @BeforeEach
+  void prepare() {
+    historyFile = tmpDir.resolve("sub").resolve("history.json");
+    underTest = newHistory();
+  }
+
+  private StartupHistory newHistory() {
+    return new StartupHistory(new MapSettings().setProperty(CSharpPropertyDefinitions.getStartupHistoryPath(), historyFile.toString()).asConfig());
+  }
+
+  @Test
+  void useDefaultTimeoutWithoutEnoughHistory() {
+    for (int i = 0; i < StartupHistory.MIN_SAMPLES - 1; i++) {
+      underTest.recordStartup(SOLUTION, Duration.ofSeconds(50));
+    }
+
+    assertThat(underTest.getStartupTimeout(SOLUTION, DEFAULT_TIMEOUT, null)).isEqualTo(DEFAULT_TIMEOUT);
+    assertThat(underTest.getStartupTimeout(SOLUTION, Duration.ofSeconds(120), null)).isEqualTo(Duration.ofSeconds(120));
+  }
+
+  @Test
+  void raiseTimeoutOfSlowSolutions() {
+    for (int i = 0; i < StartupHistory.MIN_SAMPLES; i++) {
+      underTest.recordStartup(SOLUTION, Duration.ofSeconds(40));
+      underTest.recordLoadProjects(SOLUTION, Duration.ofSeconds(100));
+    }
+    underTest.recordStartup(SOLUTION, Duration.ofSeconds(45));
+
+    assertThat(underTest.getStartupTimeout(SOLUTION, DEFAULT_TIMEOUT, null)).isEqualTo(Duration.ofSeconds(90));
+    assertThat(underTest.getLoadProjectsTimeout(SOLUTION, DEFAULT_TIMEOUT, null)).isEqualTo(Duration.ofSeconds(200));
+    // Other solutions are not impacted
+    assertThat(underTest.getStartupTimeout("Other.sln", DEFAULT_TIMEOUT, null)).isEqualTo(DEFAULT_TIMEOUT);
+  }
+
+  @Test
+  void lowerTimeoutOfFastSolutions() {
+    for (int i = 0; i < StartupHistory.MIN_SAMPLES; i++) {
+      underTest.recordStartup(SOLUTION, Duration.ofSeconds(8));
+      underTest.recordLoadProjects(SOLUTION, Duration.ofMillis(500));
+    }
+
+    assertThat(underTest.getStartupTimeout(SOLUTION, DEFAULT_TIMEOUT, null)).isEqualTo(Duration.ofSeconds(16));
+    // Learned timeouts have a lower bound
+    assertThat(underTest.getLoadProjectsTimeout(SOLUTION, DEFAULT_TIMEOUT, null)).isEqualTo(StartupHistory.MIN_TIMEOUT);
+  }
+
+  @Test
+  void neverExceedExplicitTimeout() {
+    for (int i = 0; i < StartupHistory.MIN_SAMPLES; i++) {
+      underTest.recordStartup(SOLUTION, Duration.ofSeconds(40));
+      underTest.recordLoadProjects(SOLUTION, Duration.ofSeconds(5));
+    }
+    underTest.recordStartupTimeout(SOLUTION, Duration.ofSeconds(60));
+
+    assertThat(underTest.getStartupTimeout(SOLUTION, DEFAULT_TIMEOUT, Duration.ofSeconds(70))).isEqualTo(Duration.ofSeconds(70));
+    // Explicit timeouts are only a cap, learned ones can still be lower
+    assertThat(underTest.getLoadProjectsTimeout(SOLUTION, DEFAULT_TIMEOUT, Duration.ofSeconds(300))).isEqualTo(Duration.ofSeconds(10));
+    assertThat(underTest.getLoadProjectsTimeout("Other.sln", Duration.ofSeconds(300), Duration.ofSeconds(300))).isEqualTo(Duration.ofSeconds(300));
+  }
+
+  @Test
+  void raiseTimeoutAfterTimeouts() {
+    underTest.recordStartupTimeout(SOLUTION, DEFAULT_TIMEOUT);
+    assertThat(underTest.getStartupTimeout(SOLUTION, DEFAULT_TIMEOUT, null)).isEqualTo(Duration.ofSeconds(120));
+
+    underTest.recordStartupTimeout(SOLUTION, Duration.ofSeconds(120));
+    assertThat(underTest.getStartupTimeout(SOLUTION, DEFAULT_TIMEOUT, null)).isEqualTo(Duration.ofSeconds(240));
+
+    underTest.recordLoadProjectsTimeout(SOLUTION, Duration.ofMinutes(20));
+    assertThat(underTest.getLoadProjectsTimeout(SOLUTION, DEFAULT_TIMEOUT, null)).isEqualTo(StartupHistory.MAX_TIMEOUT);
+  }
+
+  @Test
+  void forgetTimeoutsOnceInTime() {
+    underTest.recordStartupTimeout(SOLUTION, DEFAULT_TIMEOUT);
+    underTest.recordStartup(SOLUTION, Duration.ofSeconds(20));
+
+    assertThat(underTest.getStartupTimeout(SOLUTION, DEFAULT_TIMEOUT, null)).isEqualTo(DEFAULT_TIMEOUT);
+  }
+
+  @Test
+  void keepOnlyRecentSamples() {
+    for (int i = 0; i < StartupHistory.MAX_SAMPLES; i++) {
+      underTest.recordStartup(SOLUTION, Duration.ofSeconds(100));
+    }
+    for (int i = 0; i < StartupHistory.MAX_SAMPLES; i++) {
+      underTest.recordStartup(SOLUTION, Duration.ofSeconds(40));
+    }
+
+    assertThat(underTest.getStartupTimeout(SOLUTION, DEFAULT_TIMEOUT, null)).isEqualTo(Duration.ofSeconds(80));
+  }
+
+  @Test
+  void forgetLeastRecentlyRecordedSolutions() {
+    for (int i = 0; i < StartupHistory.MIN_SAMPLES; i++) {
+      underTest.recordStartup(SOLUTION, Duration.ofSeconds(45));
+    }
+    for (int i = 0; i < StartupHistory.MAX_SOLUTIONS - 1; i++) {
+      underTest.recordStartup("Other" + i + ".sln", Duration.ofSeconds(1));
+    }
+    // Recorded again, so not the least recent one anymore
+    underTest.recordStartup(SOLUTION, Duration.ofSeconds(45));
+    underTest.recordStartup("Newest.sln", Duration.ofSeconds(1));
+
+    var reloaded = newHistory();
+    assertThat(reloaded.getStartupTimeout(SOLUTION, DEFAULT_TIMEOUT, null)).isEqualTo(Duration.ofSeconds(90));
+    assertThat(historyFile).content().doesNotContain("\"Other0.sln\"").contains("\"Other1.sln\"", "\"Newest.sln\"");
+  }
+
+  @Test
+  void persistHistory() throws IOException {
+    for (int i = 0; i < StartupHistory.MIN_SAMPLES; i++) {
+      underTest.recordStartup(SOLUTION, Duration.ofSeconds(45));
+    }
+
+    assertThat(newHistory().getStartupTimeout(SOLUTION, DEFAULT_TIMEOUT, null)).isEqualTo(Duration.ofSeconds(90));
+    // Written to a temporary file first, that is moved atomically
+    try (var files = Files.list(historyFile.getParent())) {
+      assertThat(files).containsExactly(historyFile);
+    }
+  }
+
+  @Test
+  void ignoreCorruptedHistory() throws IOException {
+    Files.createDirectories(historyFile.getParent());
+    Files.writeString(historyFile, "{corrupted");
+
+    assertThat(underTest.getStartupTimeout(SOLUTION, DEFAULT_TIMEOUT, null)).isEqualTo(DEFAULT_TIMEOUT);
+    underTest.recordStartup(SOLUTION, Duration.ofSeconds(1));
+    assertThat(historyFile).content().contains(SOLUTION);
+  }
+
+  @Test
+  void percentile() {
+    assertThat(StartupHistory.percentile99(List.of(3L, 1L, 2L))).isEqualTo(3L);
+    assertThat(StartupHistory.percentile99(List.of(5L))).isEqualTo(5L);
+  }
+
+}
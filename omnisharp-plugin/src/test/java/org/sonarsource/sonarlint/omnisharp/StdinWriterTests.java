@@ -0,0 +1,254 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.sonarsource.sonarlint.omnisharp.StdinWriter.Backpressure;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@Timeout(value = 20, unit = TimeUnit.SECONDS)
+class StdinWriterTests {
+
+  private final GatedOutputStream out = new GatedOutputStream();
+  private final AtomicInteger flushedCount = new AtomicInteger();
+  private final OmnisharpExecutors executors = new OmnisharpExecutors();
+  private StdinWriter underTest;
+
+  @AfterEach
+  void cleanup() {
+    out.open();
+    if (underTest != null) {
+      underTest.close();
+    }
+    executors.stop();
+  }
+
+  @Test
+  void writeLines() throws Exception {
+    out.open();
+    underTest = startWriter(10);
+
+    assertThat(underTest.write("foo", Backpressure.WAIT, null).get()).isTrue();
+    assertThat(underTest.write("bar", Backpressure.WAIT, null).get()).isTrue();
+
+    assertThat(out.written()).isEqualTo("foo\nbar\n");
+    assertThat(underTest.getWrittenCount()).isEqualTo(2);
+  }
+
+  @Test
+  void flushOncePerBatch() throws Exception {
+    underTest = startWriter(10);
+    var first = underTest.write("first", Backpressure.WAIT, null);
+    // The writer is blocked writing the first request, the next ones are queued
+    await().atMost(5, TimeUnit.SECONDS).until(() -> underTest.getQueueDepth() == 0);
+    var others = new CompletableFuture<?>[5];
+    for (int i = 0; i < others.length; i++) {
+      others[i] = underTest.write("req" + i, Backpressure.WAIT, null);
+    }
+    assertThat(underTest.getQueueDepth()).isEqualTo(5);
+
+    out.open();
+
+    CompletableFuture.allOf(others).get();
+    assertThat(first.get()).isTrue();
+    assertThat(underTest.getWrittenCount()).isEqualTo(6);
+    assertThat(underTest.getFlushCount()).isEqualTo(2);
+    assertThat(flushedCount).hasValue(2);
+    assertThat(underTest.getMaxQueueDepth()).isEqualTo(5);
+    assertThat(out.written()).isEqualTo("first\nreq0\nreq1\nreq2\nreq3\nreq4\n");
+    assertThat(underTest.getWrittenBytes()).isEqualTo(31);
+    assertThat(underTest).hasToString("6 request(s) (31 bytes) written in 2 flush(es), max queue depth 5, 0 superseded, 0 rejected");
+  }
+
+  @Test
+  void failFastWhenQueueIsFull() throws Exception {
+    underTest = startWriterBlockedWithFullQueue();
+
+    var rejected = underTest.write("rejected", Backpressure.FAIL_FAST, null);
+
+    var thrown = assertThrows(ExecutionException.class, rejected::get);
+    assertThat(thrown).hasRootCauseMessage("OmniSharp stdin queue is full");
+    assertThat(underTest.getRejectedCount()).isEqualTo(1);
+  }
+
+  @Test
+  void waitForRoomWhenQueueIsFull() throws Exception {
+    underTest = startWriterBlockedWithFullQueue();
+    var written = new AtomicReference<CompletableFuture<Boolean>>();
+    var waiting = new Thread(() -> {
+      try {
+        written.set(underTest.write("waiting", Backpressure.WAIT, null));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    waiting.start();
+    await().atMost(5, TimeUnit.SECONDS).until(() -> waiting.getState() == Thread.State.WAITING);
+    assertThat(written.get()).isNull();
+
+    out.open();
+
+    waiting.join(5000);
+    assertThat(written.get().get()).isTrue();
+    assertThat(out.written()).endsWith("waiting\n");
+  }
+
+  @Test
+  void dropSupersededRequests() throws Exception {
+    underTest = startWriter(10);
+    underTest.write("blocked", Backpressure.WAIT, null);
+    await().atMost(5, TimeUnit.SECONDS).until(() -> underTest.getQueueDepth() == 0);
+    var outdated = underTest.write("Foo.cs v1", Backpressure.DROP_SUPERSEDED, "Foo.cs");
+    var other = underTest.write("Bar.cs v1", Backpressure.DROP_SUPERSEDED, "Bar.cs");
+    var latest = underTest.write("Foo.cs v2", Backpressure.DROP_SUPERSEDED, "Foo.cs");
+
+    assertThat(outdated.get()).isFalse();
+    out.open();
+
+    assertThat(latest.get()).isTrue();
+    assertThat(other.get()).isTrue();
+    assertThat(out.written()).isEqualTo("blocked\nBar.cs v1\nFoo.cs v2\n");
+    assertThat(underTest.getDroppedCount()).isEqualTo(1);
+  }
+
+  @Test
+  void failPendingRequestsWhenClosed() throws Exception {
+    underTest = startWriter(10);
+    underTest.write("blocked", Backpressure.WAIT, null);
+    await().atMost(5, TimeUnit.SECONDS).until(() -> underTest.getQueueDepth() == 0);
+    var pending = underTest.write("pending", Backpressure.WAIT, null);
+
+    underTest.close();
+
+    var thrown = assertThrows(ExecutionException.class, pending::get);
+    assertThat(thrown).hasRootCauseMessage("OmniSharp stdin is closed");
+    assertThat(underTest.write("after", Backpressure.WAIT, null)).isCompletedExceptionally();
+  }
+
+  @Test
+  void failRequestsIfUnableToWrite() throws Exception {
+    out.fail();
+    underTest = startWriter(10);
+
+    var written = underTest.write("foo", Backpressure.WAIT, null);
+
+    var thrown = assertThrows(ExecutionException.class, written::get);
+    assertThat(thrown.getCause()).hasMessage("Unable to write in Omnisharp stdin");
+    await().atMost(5, TimeUnit.SECONDS).untilAsserted(() -> assertThat(underTest.write("bar", Backpressure.WAIT, null)).isCompletedExceptionally());
+  }
+
+  @Test
+  void shareThreadBetweenWriters() throws Exception {
+    out.open();
+    var otherOut = new ByteArrayOutputStream();
+    var threads = new CopyOnWriteArrayList<String>();
+    Executor executor = r -> {
+      threads.add(Thread.currentThread().getName());
+      r.run();
+    };
+    underTest = new StdinWriter(out, executor, () -> {
+    }, 10);
+    var other = new StdinWriter(otherOut, executor, () -> {
+    }, 10);
+
+    assertThat(underTest.write("foo", Backpressure.WAIT, null).get()).isTrue();
+    assertThat(other.write("bar", Backpressure.WAIT, null).get()).isTrue();
+    assertThat(underTest.write("baz", Backpressure.WAIT, null).get()).isTrue();
+
+    assertThat(out.written()).isEqualTo("foo\nbaz\n");
+    assertThat(otherOut.toString(StandardCharsets.UTF_8)).isEqualTo("bar\n");
+    // Nothing left to drain, no thread is kept
+    assertThat(threads).hasSize(3).containsOnly(Thread.currentThread().getName());
+  }
+
+  private StdinWriter startWriter(int capacity) {
+    return new StdinWriter(out, executors.background(), flushedCount::incrementAndGet, capacity);
+  }
+
+  private StdinWriter startWriterBlockedWithFullQueue() throws InterruptedException {
+    var writer = startWriter(2);
+    writer.write("blocked", Backpressure.WAIT, null);
+    await().atMost(5, TimeUnit.SECONDS).until(() -> writer.getQueueDepth() == 0);
+    writer.write("queued1", Backpressure.WAIT, null);
+    writer.write("queued2", Backpressure.WAIT, null);
+    return writer;
+  }
+
+  /**
+   * Emulates a full pipe: writes block until the gate is opened.
+   */
+  private static class GatedOutputStream extends ByteArrayOutputStream {
+    private final CountDownLatch gate = new CountDownLatch(1);
+    private volatile boolean fail;
+
+    void open() {
+      gate.countDown();
+    }
+
+    void fail() {
+      fail = true;
+      open();
+    }
+
+    @Override
+    public void write(byte[] b) throws IOException {
+      await();
+      super.write(b);
+    }
+
+    @Override
+    public synchronized void write(int b) {
+      super.write(b);
+    }
+
+    private void await() throws IOException {
+      try {
+        gate.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(e);
+      }
+      if (fail) {
+        throw new IOException("Broken pipe");
+      }
+    }
+
+    String written() {
+      return new String(toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+
+}
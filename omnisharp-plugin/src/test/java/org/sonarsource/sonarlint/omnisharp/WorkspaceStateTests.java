@@ -0,0 +1,109 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+class WorkspaceStateTests {
+
+  @TempDir
+  Path baseDir;
+
+  private final WorkspaceState underTest = new WorkspaceState();
+
+  @Test
+  void keepLastConfig() {
+    assertThat(underTest.getConfig()).isNull();
+    var config = new JsonObject();
+    config.add("activeRules", new JsonArray());
+
+    underTest.configSent(config);
+    config.addProperty("foo", "bar");
+
+    assertThat(underTest.getConfig()).hasToString("{\"activeRules\":[]}");
+    underTest.configSent(config);
+    assertThat(underTest.getConfig()).hasToString("{\"activeRules\":[],\"foo\":\"bar\"}");
+  }
+
+  @Test
+  void onlyKeepUnsavedBuffers() throws Exception {
+    var saved = Files.writeString(baseDir.resolve("Saved.cs"), "class Saved {}");
+    var unsaved = Files.writeString(baseDir.resolve("Unsaved.cs"), "class Unsaved {}");
+    var sameSize = Files.writeString(baseDir.resolve("SameSize.cs"), "class SameSize {}");
+
+    underTest.bufferSent(saved, StandardCharsets.UTF_8, "class Saved {}");
+    underTest.bufferSent(unsaved, StandardCharsets.UTF_8, "class Unsaved { }");
+    underTest.bufferSent(sameSize, StandardCharsets.UTF_8, "class SameSize {;");
+
+    assertThat(underTest.getDirtyBuffers()).containsOnly(entry(unsaved, "class Unsaved { }"), entry(sameSize, "class SameSize {;"));
+
+    // Saved in the meantime
+    underTest.bufferSent(unsaved, StandardCharsets.UTF_8, "class Unsaved {}");
+    assertThat(underTest.getDirtyBuffers()).containsOnlyKeys(sameSize);
+  }
+
+  @Test
+  void forgetBuffersOfChangedFiles() throws Exception {
+    var foo = Files.writeString(baseDir.resolve("Foo.cs"), "class Foo {}");
+    var bar = Files.writeString(baseDir.resolve("Bar.cs"), "class Bar {}");
+    underTest.bufferSent(foo, StandardCharsets.UTF_8, "class Foo { }");
+    underTest.bufferSent(bar, StandardCharsets.UTF_8, "class Bar { }");
+
+    // Saved, or changed outside of the IDE
+    Files.writeString(foo, "class Foo { int i; }");
+    underTest.fileChanged(foo);
+
+    assertThat(underTest.getDirtyBuffers()).containsOnlyKeys(bar);
+  }
+
+  @Test
+  void forgetBuffersOfDeletedFiles() throws Exception {
+    var deleted = Files.writeString(baseDir.resolve("Deleted.cs"), "class Deleted {}");
+    underTest.bufferSent(deleted, StandardCharsets.UTF_8, "class Deleted { }");
+    underTest.bufferSent(baseDir.resolve("NotOnDisk.cs"), StandardCharsets.UTF_8, "class NotOnDisk {}");
+    assertThat(underTest.getDirtyBuffers()).containsOnlyKeys(deleted);
+
+    Files.delete(deleted);
+
+    assertThat(underTest.getDirtyBuffers()).isEmpty();
+  }
+
+  @Test
+  void evictLeastRecentlySentBuffers() throws Exception {
+    for (int i = 0; i <= WorkspaceState.MAX_DIRTY_BUFFERS; i++) {
+      var file = Files.writeString(baseDir.resolve("Foo" + i + ".cs"), "class Foo {}");
+      underTest.bufferSent(file, StandardCharsets.UTF_8, "class Foo { }");
+    }
+
+    var dirtyBuffers = underTest.getDirtyBuffers();
+    assertThat(dirtyBuffers).hasSize(WorkspaceState.MAX_DIRTY_BUFFERS).doesNotContainKey(baseDir.resolve("Foo0.cs"));
+    assertThat(dirtyBuffers.keySet().iterator().next()).isEqualTo(baseDir.resolve("Foo1.cs"));
+  }
+
+}
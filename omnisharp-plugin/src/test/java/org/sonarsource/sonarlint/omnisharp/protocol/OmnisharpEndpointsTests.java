@@ -19,14 +19,20 @@
  */
 package org.sonarsource.sonarlint.omnisharp.protocol;
 
+import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.regex.Matcher;
 
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.RegisterExtension;
@@ -36,50 +42,75 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.sonar.api.utils.log.LoggerLevel;
 import org.sonar.api.testfixtures.log.LogTesterJUnit5;
+import org.sonarsource.sonarlint.omnisharp.OmnisharpExecutors;
+import org.sonarsource.sonarlint.omnisharp.OmnisharpMetrics;
 import org.sonarsource.sonarlint.omnisharp.OmnisharpServerController;
+import org.sonarsource.sonarlint.omnisharp.ProjectLoadTracker;
+import org.sonarsource.sonarlint.omnisharp.StartupReport;
+import org.sonarsource.sonarlint.omnisharp.StdinWriter.Backpressure;
 import org.sonarsource.sonarlint.omnisharp.protocol.OmnisharpEndpoints.FileChangeType;
+import org.sonarsource.sonarlint.omnisharp.protocol.RequestScheduler.Lane;
 
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
 import static org.assertj.core.api.Assertions.tuple;
 import static org.awaitility.Awaitility.await;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 class OmnisharpEndpointsTests {
 
-  private final List<String> requests = new ArrayList<>();
+  private final List<String> requests = new CopyOnWriteArrayList<>();
   @RegisterExtension
   LogTesterJUnit5 logTester = new LogTesterJUnit5();
   private OmnisharpEndpoints underTest;
   private CompletableFuture<Void> startFuture;
   private CompletableFuture<Void> loadProjectsFuture;
+  private StartupReport startupReport;
+  private ProjectLoadTracker projectLoadTracker;
   private OmnisharpServerController omnisharpServer;
   private OmnisharpResponseProcessor responseProcessor;
+  private OmnisharpMetrics metrics;
+  private final OmnisharpExecutors executors = new OmnisharpExecutors();
 
   @BeforeEach
   void prepare() throws IOException {
     requests.clear();
     startFuture = new CompletableFuture<>();
     loadProjectsFuture = new CompletableFuture<>();
-    responseProcessor = new OmnisharpResponseProcessor();
+    startupReport = new StartupReport();
+    projectLoadTracker = new ProjectLoadTracker(executors.scheduler(), Duration.ofMinutes(1));
+    projectLoadTracker.loadingStarted(List.of(), Duration.ofMinutes(1));
+    metrics = new OmnisharpMetrics();
+    // Complete futures synchronously, to check them right away
+    responseProcessor = new OmnisharpResponseProcessor(metrics, Runnable::run);
 
-    underTest = new OmnisharpEndpoints(responseProcessor);
+    underTest = new OmnisharpEndpoints(responseProcessor, metrics);
 
     omnisharpServer = mock(OmnisharpServerController.class);
     underTest.setServer(omnisharpServer);
 
-    doAnswer(new Answer<Boolean>() {
+    doAnswer(new Answer<CompletableFuture<Boolean>>() {
 
       @Override
-      public Boolean answer(InvocationOnMock invocation) throws Throwable {
+      public CompletableFuture<Boolean> answer(InvocationOnMock invocation) throws Throwable {
         requests.add(invocation.getArgument(0));
-        return true;
+        return CompletableFuture.completedFuture(true);
       }
-    }).when(omnisharpServer).writeRequestOnStdIn(anyString());
+    }).when(omnisharpServer).writeRequestOnStdIn(anyString(), any(), any());
+  }
+
+  @AfterEach
+  void cleanup() {
+    executors.stop();
   }
 
   @ParameterizedTest
@@ -102,6 +133,45 @@ class OmnisharpEndpointsTests {
 
     assertThat(startFuture.isDone()).isTrue();
     assertThat(loadProjectsFuture.isDone()).isTrue();
+    assertThat(startupReport.getOmnisharpStartedAfter()).isPresent();
+  }
+
+  @Test
+  void recordProjectAddedInStartupReport() throws IOException {
+    emulateReceivedMessage("{\"Type\": \"event\", \"Event\": \"started\"}");
+    emulateReceivedMessage("{\"Type\": \"event\", \"Event\": \"ProjectAdded\", \"Body\": {\"MsBuildProject\": {\"Path\": \"Foo.csproj\"}}}");
+    emulateReceivedMessage("{\"Type\": \"event\", \"Event\": \"ProjectAdded\"}");
+    emulateReceivedMessage("{\"Type\": \"event\", \"Event\": \"ProjectChanged\"}");
+
+    assertThat(startupReport.getProjectsAdded())
+      .extracting(StartupReport.ProjectTiming::getProjectPath)
+      .containsExactly("Foo.csproj", "unknown");
+    assertThat(startupReport.getLastProjectAddedAfter().get()).isGreaterThanOrEqualTo(startupReport.getOmnisharpStartedAfter().get());
+  }
+
+  @Test
+  void trackProjectSourceFiles() throws IOException {
+    var fooCs = Paths.get("src", "Foo.cs").toAbsolutePath();
+    var barCs = Paths.get("src", "Bar.cs").toAbsolutePath();
+    var fooReady = projectLoadTracker.whenFileReady(fooCs);
+    var barReady = projectLoadTracker.whenFileReady(barCs);
+
+    emulateReceivedMessage("{\"Type\": \"event\", \"Event\": \"ProjectAdded\", \"Body\": {\"MsBuildProject\": {\"Path\": \"Foo.csproj\", \"SourceFiles\": ["
+      + new Gson().toJson(fooCs.toString()) + "]}}}");
+
+    assertThat(projectLoadTracker.isProjectLoaded("Foo.csproj")).isTrue();
+    assertThat(fooReady).isCompleted();
+    assertThat(barReady).isNotDone();
+  }
+
+  @Test
+  void trackProjectLoadFailures() throws IOException {
+    emulateReceivedMessage("{\"Type\": \"event\", \"Event\": \"MsBuildProjectDiagnostics\", \"Body\": {\"FileName\": \"Foo.csproj\", \"Warnings\": [], \"Errors\": []}}");
+    emulateReceivedMessage("{\"Type\": \"event\", \"Event\": \"MsBuildProjectDiagnostics\", \"Body\": {\"FileName\": \"Bar.csproj\", \"Warnings\": [], "
+      + "\"Errors\": [{\"LogLevel\": \"Error\", \"FileName\": \"Bar.csproj\", \"Text\": \"The SDK was not found\"}]}}");
+
+    assertThat(projectLoadTracker.getFailedProjects()).containsOnly(entry("Bar.csproj", List.of("The SDK was not found")));
+    assertThat(logTester.logs(LoggerLevel.ERROR)).containsExactly("MSBuild failed to load the project Bar.csproj");
   }
 
   @Test
@@ -111,13 +181,43 @@ class OmnisharpEndpointsTests {
     assertThat(requests).containsExactly("{\"Type\":\"request\",\"Seq\":1,\"Command\":\"/stopserver\"}");
   }
 
+  @Test
+  void interactiveRequestsDontWaitForBackgroundOnes() throws Exception {
+    File f = new File("Foo.cs");
+    Thread firstChange = new Thread(() -> underTest.fileChanged(f, FileChangeType.CHANGE));
+    firstChange.start();
+    await().atMost(5, SECONDS).untilAsserted(() -> assertThat(requests).hasSize(1));
+
+    // Only one background request at a time
+    Thread secondChange = new Thread(() -> underTest.fileChanged(f, FileChangeType.CHANGE));
+    secondChange.start();
+    Thread.sleep(100);
+    assertThat(requests).hasSize(1);
+
+    Thread update = new Thread(() -> underTest.updateBuffer(f, "Some content", Lane.INTERACTIVE));
+    update.start();
+    await().atMost(5, SECONDS).untilAsserted(() -> assertThat(requests).hasSize(2));
+    assertThat(requests.get(1)).contains("/updatebuffer");
+
+    emulateReceivedMessage("{\"Type\": \"response\", \"Request_seq\": 1}");
+    emulateReceivedMessage("{\"Type\": \"response\", \"Request_seq\": 2}");
+    await().atMost(5, SECONDS).untilAsserted(() -> assertThat(requests).hasSize(3));
+    assertThat(requests.get(2)).contains("/filesChanged");
+    emulateReceivedMessage("{\"Type\": \"response\", \"Request_seq\": 3}");
+
+    for (Thread t : List.of(firstChange, secondChange, update)) {
+      t.join(1000);
+      assertThat(t.isAlive()).isFalse();
+    }
+  }
+
   @Test
   void updateBuffer() throws Exception {
     File f = new File("Foo.cs");
 
     // updateBuffer is blocking, so run it in a separate Thread
     Thread t = new Thread(() -> {
-      underTest.updateBuffer(f, "Some content");
+      underTest.updateBuffer(f, "Some content", Lane.INTERACTIVE);
     });
     t.start();
 
@@ -141,6 +241,7 @@ class OmnisharpEndpointsTests {
       + "  }");
 
     assertThat(issues).isEmpty();
+    verify(omnisharpServer).codeCheckSucceeded();
   }
 
   @Test
@@ -153,6 +254,7 @@ class OmnisharpEndpointsTests {
     assertThat(logTester.logs(LoggerLevel.ERROR)).contains("Some error");
 
     assertThat(issues).isEmpty();
+    verify(omnisharpServer, never()).codeCheckSucceeded();
   }
 
   @Test
@@ -251,6 +353,26 @@ class OmnisharpEndpointsTests {
     assertThat(issues.get(1).getQuickFixes()).isNull();
   }
 
+  @Test
+  void codeCheckWithBodyBeforeRequestSeq() throws Exception {
+    List<Diagnostic> issues = new ArrayList<>();
+    File f = new File("Foo.cs");
+    Thread t = new Thread(() -> underTest.codeCheck(f, Lane.INTERACTIVE, OmnisharpEndpoints.DEFAULT_MAX_ISSUES_PER_FILE, issues::add));
+    t.start();
+    await().atMost(5, SECONDS).until(() -> !requests.isEmpty());
+
+    // The body can't be streamed to the reader before the request is known, it should still be decoded
+    emulateReceivedMessage("{\"Type\": \"response\", \"Body\": {\"QuickFixes\": [{"
+      + "\"LogLevel\": \"Warning\", \"Id\": \"S1118\", \"FileName\": \"" + toJsonAbsolutePath(f) + "\","
+      + "\"Line\": 5, \"Column\": 11, \"EndLine\": 5, \"EndColumn\": 18, \"Text\": \"Add a 'protected' constructor.\"}]},"
+      + "\"Request_seq\": 1, \"Command\": \"/sonarlint/codecheck\", \"Success\": true}");
+    t.join(1000);
+
+    assertThat(issues)
+      .extracting(Diagnostic::getId, Diagnostic::getLine, Diagnostic::getColumn, Diagnostic::getEndLine, Diagnostic::getEndColumn, Diagnostic::getText)
+      .containsExactly(tuple("S1118", 5, 11, 5, 18, "Add a 'protected' constructor."));
+  }
+
   @Test
   void codeCheckWithQuickFixes() throws Exception {
     List<Diagnostic> issues = new ArrayList<>();
@@ -319,13 +441,93 @@ class OmnisharpEndpointsTests {
 
   }
 
+  @Test
+  void dropIssuesBeyondLimit() throws Exception {
+    List<Diagnostic> issues = new CopyOnWriteArrayList<>();
+    File f = new File("Foo.cs");
+
+    doCodeCheck(f, 2, issues, "\"Body\": {"
+      + "    \"QuickFixes\": ["
+      + "      {\"Id\": \"CS1234\", \"FileName\": \"" + toJsonAbsolutePath(f) + "\", \"Line\": 1},"
+      + "      {\"Id\": \"S1118\", \"FileName\": \"" + toJsonAbsolutePath(f) + "\", \"Line\": 2},"
+      + "      {\"Id\": \"S1186\", \"FileName\": \"" + toJsonAbsolutePath(f) + "\", \"Line\": 3},"
+      + "      {\"Id\": \"S1186\", \"FileName\": \"" + toJsonAbsolutePath(f) + "\", \"Line\": 4},"
+      + "      {\"Id\": \"S1186\", \"FileName\": \"" + toJsonAbsolutePath(f) + "\", \"Line\": 5}"
+      + "    ]"
+      + "  }");
+
+    assertThat(issues).extracting(Diagnostic::getId, Diagnostic::getLine).containsExactly(tuple("S1118", 2), tuple("S1186", 3));
+    verify(omnisharpServer).codeCheckSucceeded();
+    assertThat(logTester.logs(LoggerLevel.WARN)).containsExactly("Too many issues in " + f + ", only the first 2 are reported (2 ignored)");
+    assertThat(underTest.getTruncatedFilesCount()).isEqualTo(1);
+    assertThat(underTest.getDroppedIssuesCount()).isEqualTo(2);
+    assertThat(underTest.getMaxIssuesInOneFile()).isEqualTo(4);
+    assertThat(metrics.snapshot())
+      .containsEntry("issues.truncatedFiles", 1L)
+      .containsEntry("issues.dropped", 2L)
+      .containsEntry("issuesPerFile.count", 1L)
+      .containsEntry("issuesPerFile.max", 4L)
+      .containsEntry("request.latencyMs./sonarlint/codecheck.count", 1L)
+      .containsEntry("request.queueTimeMs.count", 1L)
+      .containsEntry("requests.inFlight", 0L);
+  }
+
+  @Test
+  void codeCheckWithAnalyzerExecutionTimes() throws Exception {
+    List<Diagnostic> issues = new CopyOnWriteArrayList<>();
+    List<AnalyzerExecutionTime> executionTimes = new CopyOnWriteArrayList<>();
+    File f = new File("Foo.cs");
+    Thread t = new Thread(() -> underTest.codeCheck(f, Lane.INTERACTIVE, OmnisharpEndpoints.DEFAULT_MAX_ISSUES_PER_FILE, issues::add, executionTimes::add));
+    t.start();
+
+    await().atMost(5, SECONDS).untilAsserted(() -> assertThat(requests).containsExactly(
+      "{\"Type\":\"request\",\"Seq\":1,\"Command\":\"/sonarlint/codecheck\",\"Arguments\":{\"FileName\":\"" + toJsonAbsolutePath(f)
+        + "\",\"ReportAnalyzerExecutionTimes\":true}}"));
+    emulateReceivedMessage("{\"Request_seq\": 1, \"Command\": \"/sonarlint/codecheck\", \"Running\": true, \"Success\": true, \"Message\": null,"
+      + "  \"Body\": {"
+      + "    \"AnalyzerExecutionTimes\": ["
+      + "      {\"RuleIds\": [\"S1118\"], \"ElapsedMs\": 12.5},"
+      + "      {\"RuleIds\": [\"S1144\", \"S4487\"], \"ElapsedMs\": 0.25}"
+      + "    ],"
+      + "    \"QuickFixes\": [{\"Id\": \"S1118\", \"FileName\": \"" + toJsonAbsolutePath(f) + "\", \"Line\": 1}]"
+      + "  },"
+      + "  \"Seq\": 409, \"Type\": \"response\"}");
+    t.join(1000);
+
+    assertThat(issues).extracting(Diagnostic::getId).containsExactly("S1118");
+    assertThat(executionTimes).extracting(e -> List.of(e.getRuleIds()), AnalyzerExecutionTime::getElapsedMs)
+      .containsExactly(tuple(List.of("S1118"), 12.5), tuple(List.of("S1144", "S4487"), 0.25));
+    verify(omnisharpServer).codeCheckSucceeded();
+  }
+
+  @Test
+  void failIfResponseBodyCantBeRead() throws Exception {
+    File f = new File("Foo.cs");
+    var failure = new CompletableFuture<Throwable>();
+    Thread t = new Thread(() -> {
+      try {
+        underTest.codeCheck(f, Lane.INTERACTIVE, OmnisharpEndpoints.DEFAULT_MAX_ISSUES_PER_FILE, i -> {
+        });
+      } catch (Exception e) {
+        failure.complete(e);
+      }
+    });
+    t.start();
+    await().atMost(5, SECONDS).until(() -> !requests.isEmpty());
+
+    emulateReceivedMessage("{\"Request_seq\": 1, \"Success\": true, \"Body\": {\"QuickFixes\": [{\"Id\": 42, \"Line\": \"foo\"}]}, \"Type\": \"response\"}");
+
+    assertThat(failure.get(5, SECONDS)).hasMessage("Unable to read response to: /sonarlint/codecheck");
+    verify(omnisharpServer, never()).codeCheckSucceeded();
+  }
+
   @Test
   void config() throws Exception {
     JsonObject config = new JsonObject();
     config.addProperty("foo", "bar");
     // config is blocking, so run it in a separate Thread
     Thread t = new Thread(() -> {
-      underTest.config(config);
+      underTest.config(config, Lane.INTERACTIVE);
     });
     t.start();
 
@@ -358,17 +560,73 @@ class OmnisharpEndpointsTests {
     assertThat(t.isAlive()).isFalse();
   }
 
+  @Test
+  void filesChangedSendsOneRequest() throws Exception {
+    File foo = new File("Foo.cs");
+    File bar = new File("Bar.cs");
+    var changes = new LinkedHashMap<File, FileChangeType>();
+    changes.put(foo, FileChangeType.CREATE);
+    changes.put(bar, FileChangeType.DELETE);
+    Thread t = new Thread(() -> underTest.filesChanged(changes));
+    t.start();
+
+    await().atMost(5, SECONDS).untilAsserted(() -> assertThat(requests).containsExactly(
+      "{\"Type\":\"request\",\"Seq\":1,\"Command\":\"/filesChanged\",\"Arguments\":[{\"FileName\":\"" + toJsonAbsolutePath(foo) + "\",\"changeType\":\"Create\"},"
+        + "{\"FileName\":\"" + toJsonAbsolutePath(bar) + "\",\"changeType\":\"Delete\"}]}"));
+
+    emulateReceivedMessage("{\"Type\": \"response\", \"Request_seq\": 1}");
+
+    t.join(1000);
+    assertThat(t.isAlive()).isFalse();
+  }
+
+  @Test
+  void ping() throws Exception {
+    Thread t = new Thread(() -> underTest.ping(Duration.ofSeconds(5)));
+    t.start();
+
+    await().atMost(5, SECONDS).untilAsserted(() -> assertThat(requests).containsExactly(
+      "{\"Type\":\"request\",\"Seq\":1,\"Command\":\"/sonarlint/ping\"}"));
+    verify(omnisharpServer).writeRequestOnStdIn(anyString(), eq(Backpressure.FAIL_FAST), eq(null));
+
+    emulateReceivedMessage("{\"Type\": \"response\", \"Request_seq\": 1}");
+
+    t.join(1000);
+    assertThat(t.isAlive()).isFalse();
+  }
+
+  @Test
+  void pingTimeout() {
+    var timeout = Duration.ofMillis(10);
+    var thrown = assertThrows(IllegalStateException.class, () -> underTest.ping(timeout));
+    assertThat(thrown).hasMessage("Timeout waiting for response to: /sonarlint/ping");
+  }
+
   @Test
   void failEarlyIfUnableToWriteRequestToServer() throws Exception {
-    when(omnisharpServer.writeRequestOnStdIn(anyString())).thenReturn(false);
+    when(omnisharpServer.writeRequestOnStdIn(anyString(), any(), any())).thenReturn(CompletableFuture.failedFuture(new IllegalStateException("Server stopped")));
     JsonObject jsonObject = new JsonObject();
-    assertThrows(IllegalStateException.class, () -> underTest.config(jsonObject));
+    assertThrows(IllegalStateException.class, () -> underTest.config(jsonObject, Lane.INTERACTIVE));
+  }
+
+  @Test
+  void dontWaitForResponseOfSupersededBufferUpdate() throws Exception {
+    File f = new File("Foo.cs");
+    when(omnisharpServer.writeRequestOnStdIn(anyString(), any(), any())).thenReturn(CompletableFuture.completedFuture(false));
+
+    underTest.updateBuffer(f, "Some content", Lane.INTERACTIVE);
+
+    verify(omnisharpServer).writeRequestOnStdIn(anyString(), eq(Backpressure.DROP_SUPERSEDED), eq("/updatebuffer:" + f.getAbsolutePath()));
   }
 
   private void doCodeCheck(File f, List<Diagnostic> issues, String jsonBody) throws IOException, InterruptedException {
+    doCodeCheck(f, OmnisharpEndpoints.DEFAULT_MAX_ISSUES_PER_FILE, issues, jsonBody);
+  }
+
+  private void doCodeCheck(File f, int maxIssues, List<Diagnostic> issues, String jsonBody) throws IOException, InterruptedException {
     // codeCheck is blocking, so run it in a separate Thread
     Thread t = new Thread(() -> {
-      underTest.codeCheck(f, i -> issues.add(i));
+      underTest.codeCheck(f, Lane.INTERACTIVE, maxIssues, i -> issues.add(i));
     });
     t.start();
 
@@ -393,7 +651,7 @@ class OmnisharpEndpointsTests {
   private void codeCheckFailed(File f, String message) throws IOException, InterruptedException {
     // codeCheck is blocking, so run it in a separate Thread
     Thread t = new Thread(() -> {
-      underTest.codeCheck(f, i -> {
+      underTest.codeCheck(f, Lane.INTERACTIVE, OmnisharpEndpoints.DEFAULT_MAX_ISSUES_PER_FILE, i -> {
       });
     });
     t.start();
@@ -421,7 +679,7 @@ class OmnisharpEndpointsTests {
   }
 
   private void emulateReceivedMessage(String msg) throws IOException {
-    responseProcessor.handleOmnisharpOutput(startFuture, loadProjectsFuture, msg);
+    responseProcessor.handleOmnisharpOutput(startFuture, loadProjectsFuture, startupReport, projectLoadTracker, msg);
   }
 
 }
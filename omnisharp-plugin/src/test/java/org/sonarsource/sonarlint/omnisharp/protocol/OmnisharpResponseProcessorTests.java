@@ -0,0 +1,193 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp.protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.sonar.api.testfixtures.log.LogTesterJUnit5;
+import org.sonar.api.utils.log.LoggerLevel;
+import org.sonarsource.sonarlint.omnisharp.OmnisharpExecutors;
+import org.sonarsource.sonarlint.omnisharp.OmnisharpMetrics;
+import org.sonarsource.sonarlint.omnisharp.ProjectLoadTracker;
+import org.sonarsource.sonarlint.omnisharp.StartupReport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+class OmnisharpResponseProcessorTests {
+
+  private static final String DEBUG_LOG_EVENT = "{\"Event\":\"log\",\"Body\":{\"LogLevel\":\"DEBUG\",\"Name\":\"OmniSharp\",\"Message\":\"Some debug\"},\"Seq\":1,\"Type\":\"event\"}";
+  private static final String TRACE_LOG_EVENT = "{\"Event\":\"log\",\"Body\":{\"LogLevel\":\"TRACE\",\"Name\":\"OmniSharp\",\"Message\":\"Some trace\"},\"Seq\":2,\"Type\":\"event\"}";
+
+  @RegisterExtension
+  LogTesterJUnit5 logTester = new LogTesterJUnit5();
+
+  private final OmnisharpMetrics metrics = new OmnisharpMetrics();
+  private final OmnisharpExecutors executors = new OmnisharpExecutors();
+  private final OmnisharpResponseProcessor underTest = new OmnisharpResponseProcessor(metrics, executors);
+  private final CompletableFuture<Void> startFuture = new CompletableFuture<>();
+  private final CompletableFuture<Void> loadProjectsFuture = new CompletableFuture<>();
+
+  @AfterEach
+  void cleanup() {
+    executors.stop();
+  }
+
+  @Test
+  void logOmnisharpLogsInDebug() {
+    logTester.setLevel(LoggerLevel.DEBUG);
+
+    handle(DEBUG_LOG_EVENT);
+    handle(TRACE_LOG_EVENT);
+
+    assertThat(logTester.logs(LoggerLevel.DEBUG)).containsExactly("Omnisharp: [DEBUG] Some debug");
+  }
+
+  @Test
+  void logOmnisharpTraceLogsInTrace() {
+    logTester.setLevel(LoggerLevel.TRACE);
+
+    handle(TRACE_LOG_EVENT);
+
+    assertThat(logTester.logs(LoggerLevel.TRACE)).containsExactly("Omnisharp: [TRACE] Some trace");
+    assertThat(logTester.logs(LoggerLevel.DEBUG)).isEmpty();
+  }
+
+  @Test
+  void skipLogEventsIfNotLogged() {
+    logTester.setLevel(LoggerLevel.INFO);
+
+    handle(DEBUG_LOG_EVENT);
+    // Not even decoded
+    handle("{\"Event\":\"log\",\"Body\":{\"LogLevel\":\"DEBUG\",\"Message\":\"Truncated");
+
+    assertThat(logTester.logs()).isEmpty();
+    assertThat(metrics.snapshot()).containsEntry("response.decodeTimeUs.count", 0L);
+  }
+
+  @Test
+  void skipLargeLogEventsIfNotLogged() {
+    logTester.setLevel(LoggerLevel.INFO);
+
+    // Not even decoded, whether the reader supports marks or not
+    underTest.handleLargeOmnisharpOutput(startFuture, loadProjectsFuture, new StartupReport(), new ProjectLoadTracker(executors.scheduler(), Duration.ofMinutes(1)),
+      new StringReader("{\"Event\":\"log\",\"Body\":{\"LogLevel\":\"DEBUG\",\"Message\":\"Truncated"));
+    underTest.handleLargeOmnisharpOutput(startFuture, loadProjectsFuture, new StartupReport(), new ProjectLoadTracker(executors.scheduler(), Duration.ofMinutes(1)),
+      new InputStreamReader(new ByteArrayInputStream(DEBUG_LOG_EVENT.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8));
+
+    assertThat(logTester.logs()).isEmpty();
+    assertThat(metrics.snapshot()).containsEntry("response.decodeTimeUs.count", 0L);
+  }
+
+  @Test
+  void logLargeLogEventsInDebug() {
+    logTester.setLevel(LoggerLevel.DEBUG);
+
+    underTest.handleLargeOmnisharpOutput(startFuture, loadProjectsFuture, new StartupReport(), new ProjectLoadTracker(executors.scheduler(), Duration.ofMinutes(1)),
+      new InputStreamReader(new ByteArrayInputStream(DEBUG_LOG_EVENT.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8));
+
+    assertThat(logTester.logs(LoggerLevel.DEBUG)).containsExactly("Omnisharp: [DEBUG] Some debug");
+  }
+
+  @Test
+  void dispatchResponseToHandler() {
+    logTester.setLevel(LoggerLevel.INFO);
+    var handler = underTest.registerResponseHandler(42);
+
+    handle("{\"Request_seq\":42,\"Command\":\"/sonarlint/ping\",\"Running\":true,\"Success\":true,\"Body\":{},\"Seq\":3,\"Type\":\"response\"}");
+
+    assertThat(handler.responseLatch.getCount()).isZero();
+    assertThat(handler.response.get("Success").getAsBoolean()).isTrue();
+    assertThat(metrics.snapshot()).containsEntry("response.decodeTimeUs.count", 1L);
+  }
+
+  @Test
+  void streamBodyToItsReader() {
+    List<String> ids = new ArrayList<>();
+    var handler = underTest.registerResponseHandler(42, body -> {
+      body.beginArray();
+      while (body.hasNext()) {
+        ids.add(body.nextString());
+      }
+      body.endArray();
+    });
+
+    underTest.handleLargeOmnisharpOutput(startFuture, loadProjectsFuture, new StartupReport(), new ProjectLoadTracker(executors.scheduler(), Duration.ofMinutes(1)),
+      new StringReader("{\"Request_seq\":42,\"Success\":true,\"Body\":[\"S1\",\"S2\"],\"Seq\":3,\"Type\":\"response\"}\r"));
+
+    assertThat(ids).containsExactly("S1", "S2");
+    assertThat(handler.responseLatch.getCount()).isZero();
+    assertThat(handler.response.has("Body")).isFalse();
+    assertThat(handler.response.get("Success").getAsBoolean()).isTrue();
+  }
+
+  @Test
+  void readLargeEventsInMemory() {
+    underTest.handleLargeOmnisharpOutput(startFuture, loadProjectsFuture, new StartupReport(), new ProjectLoadTracker(executors.scheduler(), Duration.ofMinutes(1)),
+      new StringReader("{\"Event\":\"started\",\"Body\":null,\"Seq\":4,\"Type\":\"event\"}"));
+
+    await().atMost(5, TimeUnit.SECONDS).until(startFuture::isDone);
+    assertThat(startFuture).isCompleted();
+  }
+
+  @Test
+  void completeStartFutureWhenStarted() {
+    var dependentThread = new AtomicReference<Thread>();
+    startFuture.thenRun(() -> dependentThread.set(Thread.currentThread()));
+
+    handle("{\"Event\":\"started\",\"Body\":null,\"Seq\":4,\"Type\":\"event\"}");
+
+    await().atMost(5, TimeUnit.SECONDS).until(startFuture::isDone);
+    assertThat(startFuture).isCompleted();
+    assertThat(loadProjectsFuture).isNotDone();
+    // Not on the thread reading OmniSharp output
+    await().atMost(5, TimeUnit.SECONDS).until(() -> dependentThread.get() != null);
+    assertThat(dependentThread.get()).isNotSameAs(Thread.currentThread());
+  }
+
+  @Test
+  void completeLoadProjectsFutureWhenProjectAdded() {
+    var tracker = new ProjectLoadTracker(executors.scheduler(), Duration.ofMinutes(1));
+
+    underTest.handleOmnisharpOutput(startFuture, loadProjectsFuture, new StartupReport(), tracker,
+      "{\"Event\":\"ProjectAdded\",\"Body\":{\"MsBuildProject\":{\"Path\":\"Foo.csproj\",\"SourceFiles\":[]}},\"Seq\":5,\"Type\":\"event\"}");
+
+    // The tracker is updated right away, so that analysis of files of the project can proceed
+    assertThat(tracker.isProjectLoaded("Foo.csproj")).isTrue();
+    await().atMost(5, TimeUnit.SECONDS).until(loadProjectsFuture::isDone);
+    assertThat(startFuture).isNotDone();
+  }
+
+  private void handle(String line) {
+    underTest.handleOmnisharpOutput(startFuture, loadProjectsFuture, new StartupReport(), new ProjectLoadTracker(executors.scheduler(), Duration.ofMinutes(1)), line);
+  }
+
+}
@@ -0,0 +1,164 @@
+/*
+ * SonarOmnisharp
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarsource.sonarlint.omnisharp.protocol;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.sonarsource.sonarlint.omnisharp.protocol.RequestScheduler.Lane;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+@Timeout(value = 20, unit = TimeUnit.SECONDS)
+class RequestSchedulerTests {
+
+  @Test
+  void backgroundRequestsCantUseTheLastSlot() throws Exception {
+    var underTest = new RequestScheduler(2);
+    underTest.acquire(Lane.BACKGROUND);
+
+    var background = new Thread(() -> acquireAndRelease(underTest, Lane.BACKGROUND));
+    background.start();
+    await().atMost(5, TimeUnit.SECONDS).until(() -> underTest.getWaiting(Lane.BACKGROUND) == 1);
+
+    // The interactive request doesn't wait
+    underTest.acquire(Lane.INTERACTIVE);
+    assertThat(underTest.getInFlight()).isEqualTo(2);
+    underTest.release();
+    underTest.release();
+
+    background.join(5000);
+    assertThat(background.isAlive()).isFalse();
+    assertThat(underTest.getInFlight()).isZero();
+  }
+
+  @Test
+  void interactiveRequestsAreServedFirst() throws Exception {
+    var underTest = new RequestScheduler(1);
+    var served = new CopyOnWriteArrayList<Lane>();
+    underTest.acquire(Lane.INTERACTIVE);
+
+    var background = new Thread(() -> acquireAndRelease(underTest, Lane.BACKGROUND, served));
+    background.start();
+    await().atMost(5, TimeUnit.SECONDS).until(() -> underTest.getWaiting(Lane.BACKGROUND) == 1);
+    var interactive = new Thread(() -> acquireAndRelease(underTest, Lane.INTERACTIVE, served));
+    interactive.start();
+    await().atMost(5, TimeUnit.SECONDS).until(() -> underTest.getWaiting(Lane.INTERACTIVE) == 1);
+
+    underTest.release();
+
+    interactive.join(5000);
+    background.join(5000);
+    assertThat(served).containsExactly(Lane.INTERACTIVE, Lane.BACKGROUND);
+  }
+
+  @Test
+  void interruptedWaitReleasesTheTurn() throws Exception {
+    var underTest = new RequestScheduler(1);
+    underTest.acquire(Lane.INTERACTIVE);
+    var interrupted = new CountDownLatch(1);
+    var waiting = new Thread(() -> {
+      try {
+        underTest.acquire(Lane.INTERACTIVE);
+      } catch (InterruptedException e) {
+        interrupted.countDown();
+      }
+    });
+    waiting.start();
+    await().atMost(5, TimeUnit.SECONDS).until(() -> underTest.getWaiting(Lane.INTERACTIVE) == 1);
+    var background = new Thread(() -> acquireAndRelease(underTest, Lane.BACKGROUND));
+    background.start();
+
+    waiting.interrupt();
+    assertThat(interrupted.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(underTest.getWaiting(Lane.INTERACTIVE)).isZero();
+    underTest.release();
+
+    background.join(5000);
+    assertThat(background.isAlive()).isFalse();
+  }
+
+  @Test
+  void neverExceedLimitsUnderContention() throws Exception {
+    var underTest = new RequestScheduler(3);
+    var maxInFlight = new AtomicInteger();
+    var maxBackgroundInFlight = new AtomicInteger();
+    var backgroundInFlight = new AtomicInteger();
+    var errors = new CopyOnWriteArrayList<Throwable>();
+    var executor = Executors.newFixedThreadPool(8);
+    try {
+      for (int t = 0; t < 8; t++) {
+        var lane = t % 2 == 0 ? Lane.INTERACTIVE : Lane.BACKGROUND;
+        executor.execute(() -> {
+          try {
+            for (int i = 0; i < 200; i++) {
+              underTest.acquire(lane);
+              try {
+                maxInFlight.accumulateAndGet(underTest.getInFlight(), Math::max);
+                if (lane == Lane.BACKGROUND) {
+                  maxBackgroundInFlight.accumulateAndGet(backgroundInFlight.incrementAndGet(), Math::max);
+                  backgroundInFlight.decrementAndGet();
+                }
+              } finally {
+                underTest.release();
+              }
+            }
+          } catch (Throwable e) {
+            errors.add(e);
+          }
+        });
+      }
+      executor.shutdown();
+      assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+    } finally {
+      executor.shutdownNow();
+    }
+    assertThat(errors).isEmpty();
+    assertThat(maxInFlight.get()).isLessThanOrEqualTo(3);
+    assertThat(maxBackgroundInFlight.get()).isLessThanOrEqualTo(2);
+    assertThat(underTest.getInFlight()).isZero();
+  }
+
+  private static void acquireAndRelease(RequestScheduler scheduler, Lane lane) {
+    acquireAndRelease(scheduler, lane, new ArrayList<>());
+  }
+
+  private static void acquireAndRelease(RequestScheduler scheduler, Lane lane, List<Lane> served) {
+    try {
+      scheduler.acquire(lane);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    try {
+      served.add(lane);
+    } finally {
+      scheduler.release();
+    }
+  }
+
+}